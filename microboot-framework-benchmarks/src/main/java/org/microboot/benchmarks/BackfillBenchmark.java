@@ -0,0 +1,89 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkCaches;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.cache.impl.AbstractCache;
+import org.microboot.cache.impl.AbstractLocalCache;
+import org.microboot.cache.impl.CacheImpl;
+import org.microboot.cache.utils.KeyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * 混合缓存线中，本地缓存未命中，中央缓存命中并回填本地缓存的路径（同步回填 vs 异步回填）
+ *
+ * 每次操作先删除本地缓存中的数据（不广播），再通过CacheImpl读取
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BackfillBenchmark {
+
+    private static final int KEYS = 10000;
+
+    @Param({"caffeine,central", "ehcache,central", "offheap,central"})
+    public String tiers;
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    private CacheImpl cacheImpl;
+
+    private AbstractLocalCache localCache;
+
+    private Integer[] keys;
+
+    private Object[] newKeys;
+
+    @Setup
+    public void setup() {
+        this.cacheImpl = BenchmarkCaches.newCacheImpl("benchmark", this.tiers);
+        if (this.async) {
+            this.cacheImpl.setBackfillExecutor(new ThreadPoolExecutor(2, 2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000)));
+        }
+        this.localCache = (AbstractLocalCache) this.cacheImpl.getCaches().get(0);
+        AbstractCache centralCache = this.cacheImpl.getCaches().get(1);
+        this.keys = new Integer[KEYS];
+        this.newKeys = new Object[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = i;
+            this.newKeys[i] = KeyUtils.newCacheKey("benchmark", i);
+            centralCache.put(this.newKeys[i], new BenchmarkValue(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheImpl.destroy();
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper lookupBackfill() {
+        int index = ThreadLocalRandom.current().nextInt(KEYS);
+        this.localCache.evictLocalCache(this.newKeys[index]);
+        return this.cacheImpl.get(this.keys[index]);
+    }
+}
@@ -0,0 +1,130 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkCaches;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.cache.impl.CacheImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * CacheImpl的热路径：lookup（get(key)），get(key, callable)，put，以及未命中
+ *
+ * tiers：
+ * 1、本地缓存线：caffeine，ehcache，offheap
+ * 2、中央缓存线：central（InMemoryCentralCache，包含序列化，不包含网络I/O）
+ * 3、混合缓存线：caffeine,central，ehcache,central（命中都在第一级）
+ *
+ * singleFlight：true为single-flight加载（命中不加锁），false为老版本的行为（所有调用都在SyncFunc的锁中执行）
+ * 线程数：Threads1，Threads8，Threads32三个子类（@Threads不能作为@Param）
+ * evictAndLoad：HOT_KEYS个热点key被删除后立即重新加载，业务方法耗时约LOAD_WORK个CPU单位，用于观察加载时的竞争
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class CacheImplBenchmark {
+
+    private static final int KEYS = 10000;
+
+    private static final int HOT_KEYS = 16;
+
+    private static final int LOAD_WORK = 1024;
+
+    @Param({"caffeine", "ehcache", "offheap", "central", "caffeine,central", "ehcache,central"})
+    public String tiers;
+
+    @Param({"true", "false"})
+    public boolean singleFlight;
+
+    private CacheImpl cacheImpl;
+
+    private Integer[] keys;
+
+    private Integer[] missKeys;
+
+    private BenchmarkValue[] values;
+
+    @Setup
+    public void setup() {
+        this.cacheImpl = BenchmarkCaches.newCacheImpl("benchmark", this.tiers);
+        this.cacheImpl.setSingleFlight(this.singleFlight);
+        this.keys = new Integer[KEYS];
+        this.missKeys = new Integer[KEYS];
+        this.values = new BenchmarkValue[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = i;
+            this.missKeys[i] = KEYS + i;
+            this.values[i] = new BenchmarkValue(i);
+            this.cacheImpl.put(this.keys[i], this.values[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheImpl.destroy();
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper lookup() {
+        return this.cacheImpl.get(this.keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    public Object getWithLoader() {
+        int index = ThreadLocalRandom.current().nextInt(KEYS);
+        return this.cacheImpl.get(this.keys[index], () -> this.values[index]);
+    }
+
+    @Benchmark
+    public void put() {
+        int index = ThreadLocalRandom.current().nextInt(KEYS);
+        this.cacheImpl.put(this.keys[index], this.values[index]);
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper lookupMiss() {
+        return this.cacheImpl.get(this.missKeys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    public Object evictAndLoad() {
+        int index = ThreadLocalRandom.current().nextInt(HOT_KEYS);
+        this.cacheImpl.evict(this.keys[index]);
+        return this.cacheImpl.get(this.keys[index], () -> {
+            Blackhole.consumeCPU(LOAD_WORK);
+            return this.values[index];
+        });
+    }
+
+    @Threads(1)
+    public static class Threads1 extends CacheImplBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends CacheImplBenchmark {
+    }
+
+    @Threads(32)
+    public static class Threads32 extends CacheImplBenchmark {
+    }
+}
@@ -0,0 +1,88 @@
+package org.microboot.benchmarks;
+
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.utils.KeyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存key的构建：
+ * 1、newKey：每次拼接字符串（缓存线和每一级缓存各拼接一次）
+ * 2、newCacheKey：缓存线构建一次CacheKey
+ * 3、child：每一级缓存从CacheKey派生（字符串和字节数组都会缓存）
+ *
+ * 一次完整的读操作（caffeine,redis缓存线，caffeine未命中，redis命中后回填caffeine）中key的构建：
+ * 1、legacyLookup：老版本的方式，缓存线和每一级缓存都通过KeyUtils.newKey拼接字符串，Redis的key由StringRedisSerializer编码
+ * 2、cacheKeyLookup：缓存线构建一次CacheKey，每一级缓存使用派生的CacheKey，Redis的key直接使用缓存的字节数组（RedisKeySerializer）
+ *
+ * 分配速率见-prof gc的gc.alloc.rate.norm
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyUtilsBenchmark {
+
+    @Param({"12345", "user:12345:profile with spaces"})
+    public String key;
+
+    private CacheKey cacheKey;
+
+    @Setup
+    public void setup() {
+        this.cacheKey = KeyUtils.newCacheKey("benchmark", this.key);
+    }
+
+    @Benchmark
+    public String newKey() {
+        return KeyUtils.newKey("caffeine", KeyUtils.newKey("benchmark", this.key));
+    }
+
+    @Benchmark
+    public void legacyLookup(Blackhole blackhole) {
+        String newKey = KeyUtils.newKey("benchmark", this.key);
+        blackhole.consume(KeyUtils.newKey("caffeine", newKey));
+        blackhole.consume(KeyUtils.newKey("redis", newKey).getBytes(StandardCharsets.UTF_8));
+        blackhole.consume(KeyUtils.newKey("caffeine", newKey));
+    }
+
+    @Benchmark
+    public void cacheKeyLookup(Blackhole blackhole) {
+        CacheKey newKey = KeyUtils.newCacheKey("benchmark", this.key);
+        blackhole.consume(KeyUtils.newCacheKey("caffeine", newKey).toString());
+        blackhole.consume(KeyUtils.newCacheKey("redis", newKey).getBytes());
+        blackhole.consume(KeyUtils.newCacheKey("caffeine", newKey).toString());
+    }
+
+    @Benchmark
+    public CacheKey newCacheKey() {
+        return KeyUtils.newCacheKey("benchmark", this.key);
+    }
+
+    @Benchmark
+    public String childToString() {
+        return KeyUtils.newCacheKey("caffeine", this.cacheKey).toString();
+    }
+
+    @Benchmark
+    public byte[] childGetBytes() {
+        return KeyUtils.newCacheKey("offheap", this.cacheKey).getBytes();
+    }
+}
@@ -0,0 +1,74 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkCaches;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.cache.impl.CacheImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * 大量数据常驻本地缓存时的GC压力：caffeine（堆内） vs offheap（堆外）
+ *
+ * 90%读，10%写（覆盖已有的key），对比-prof gc的gc.count和gc.time，以及SampleTime的p99
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Threads(4)
+@State(Scope.Benchmark)
+public class LocalTierBenchmark {
+
+    private static final int KEYS = 1000000;
+
+    @Param({"caffeine", "offheap"})
+    public String tiers;
+
+    private CacheImpl cacheImpl;
+
+    private Integer[] keys;
+
+    @Setup
+    public void setup() {
+        this.cacheImpl = BenchmarkCaches.newCacheImpl("benchmark", this.tiers);
+        this.keys = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = i;
+            this.cacheImpl.put(this.keys[i], new BenchmarkValue(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheImpl.destroy();
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper readMostly() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(KEYS);
+        if (random.nextInt(10) == 0) {
+            this.cacheImpl.put(this.keys[index], new BenchmarkValue(index));
+            return null;
+        }
+        return this.cacheImpl.get(this.keys[index]);
+    }
+}
@@ -0,0 +1,204 @@
+package org.microboot.benchmarks;
+
+import org.microboot.cache.bean.RedisSyncFuncHolder;
+import org.microboot.cache.constant.CacheConstant;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.net.ServerSocket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 胡鹏
+ *
+ * RedisSyncFuncHolder在竞争下的开销，Redis为本地启动的redis-server（embedded-redis，回环网络）
+ *
+ * nodes：服务节点的数量，每个节点一个RedisSyncFuncHolder（自己的连接和进程内锁），基准测试的线程按顺序分配到各个节点
+ * keys：参与竞争的lockKey的数量，1表示所有节点竞争同一把锁
+ * 锁内执行少量计算（相当于一次本地缓存写入），退避时间使用默认配置（cache.sync.redis.min-backoff，max-backoff）
+ * 线程数：Threads1，Threads8，Threads32三个子类（@Threads不能作为@Param），线程数小于nodes时只有部分节点参与竞争
+ *
+ * 辅助计数器（所有节点，JMH输出的是所有测量迭代的总和）：
+ * contended：第一次尝试加锁失败（发生竞争）的次数
+ * retries：自旋重试的次数
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class RedisSyncFuncBenchmark {
+
+    private static final int WORK = 64;
+
+    @Benchmark
+    public void spinSync(Cluster cluster, Node node, Contention contention) {
+        node.syncFunc.spinSync(cluster.lockKeys[ThreadLocalRandom.current().nextInt(cluster.keys)], () -> Blackhole.consumeCPU(WORK));
+    }
+
+    @Benchmark
+    public void skipSync(Cluster cluster, Node node, Contention contention) {
+        node.syncFunc.skipSync(cluster.lockKeys[ThreadLocalRandom.current().nextInt(cluster.keys)], () -> Blackhole.consumeCPU(WORK));
+    }
+
+    /**
+     * redis-server和所有节点（Threads子类不能被其他@State注入，所以单独作为一个@State）
+     */
+    @State(Scope.Benchmark)
+    public static class Cluster {
+
+        @Param({"1", "4"})
+        public int nodes;
+
+        @Param({"1", "1024"})
+        public int keys;
+
+        private RedisServer redisServer;
+
+        private LettuceConnectionFactory[] connectionFactories;
+
+        private RedisSyncFuncHolder[] syncFuncs;
+
+        private String[] lockKeys;
+
+        private final AtomicInteger threads = new AtomicInteger();
+
+        //本次迭代的计数是否已经被取走
+        private final AtomicBoolean collected = new AtomicBoolean();
+
+        //迭代开始时的计数
+        private long contendedBase;
+
+        private long retriesBase;
+
+        @Setup
+        public void setup() throws Exception {
+            int port;
+            try (ServerSocket serverSocket = new ServerSocket(0)) {
+                port = serverSocket.getLocalPort();
+            }
+            this.redisServer = RedisServer.builder().port(port).setting("save \"\"").setting("appendonly no").build();
+            this.redisServer.start();
+            this.connectionFactories = new LettuceConnectionFactory[this.nodes];
+            this.syncFuncs = new RedisSyncFuncHolder[this.nodes];
+            for (int i = 0; i < this.nodes; i++) {
+                LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+                connectionFactory.afterPropertiesSet();
+                this.connectionFactories[i] = connectionFactory;
+                this.syncFuncs[i] = new RedisSyncFuncHolder(new StringRedisTemplate(connectionFactory), CacheConstant.DEFAULT_SYNC_REDIS_PREFIX,
+                        CacheConstant.DEFAULT_SYNC_REDIS_LEASE, CacheConstant.DEFAULT_SYNC_REDIS_FENCE_TTL,
+                        CacheConstant.DEFAULT_SYNC_REDIS_MIN_BACKOFF, CacheConstant.DEFAULT_SYNC_REDIS_MAX_BACKOFF, 0);
+            }
+            this.lockKeys = new String[this.keys];
+            for (int i = 0; i < this.keys; i++) {
+                this.lockKeys[i] = "benchmark&" + i;
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void resetIteration() {
+            this.collected.set(false);
+            this.contendedBase = this.contendedCount();
+            this.retriesBase = this.retryCount();
+        }
+
+        @TearDown
+        public void tearDown() {
+            for (int i = 0; i < this.nodes; i++) {
+                this.syncFuncs[i].destroy();
+                this.connectionFactories[i].destroy();
+            }
+            this.redisServer.stop();
+        }
+
+        private long contendedCount() {
+            long sum = 0;
+            for (RedisSyncFuncHolder syncFunc : this.syncFuncs) {
+                sum += syncFunc.getContendedCount();
+            }
+            return sum;
+        }
+
+        private long retryCount() {
+            long sum = 0;
+            for (RedisSyncFuncHolder syncFunc : this.syncFuncs) {
+                sum += syncFunc.getRetryCount();
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * 当前线程所属的节点
+     */
+    @State(Scope.Thread)
+    public static class Node {
+
+        private RedisSyncFuncHolder syncFunc;
+
+        @Setup
+        public void setup(Cluster cluster) {
+            this.syncFunc = cluster.syncFuncs[cluster.threads.getAndIncrement() % cluster.nodes];
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Contention {
+
+        public long contended;
+
+        public long retries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.contended = 0;
+            this.retries = 0;
+        }
+
+        /**
+         * 只有第一个结束迭代的线程计算本次迭代的增量，其他线程为0（EVENTS类型的计数器会按线程求和）
+         */
+        @TearDown(Level.Iteration)
+        public void collect(Cluster cluster) {
+            if (!cluster.collected.compareAndSet(false, true)) {
+                return;
+            }
+            this.contended = cluster.contendedCount() - cluster.contendedBase;
+            this.retries = cluster.retryCount() - cluster.retriesBase;
+        }
+    }
+
+    @Threads(1)
+    public static class Threads1 extends RedisSyncFuncBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends RedisSyncFuncBenchmark {
+    }
+
+    @Threads(32)
+    public static class Threads32 extends RedisSyncFuncBenchmark {
+    }
+}
@@ -0,0 +1,109 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkCaches;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.cache.impl.CacheImpl;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 少量热点key在逻辑过期时的表现：固定比例的refresh-ahead（beta = 0） vs XFetch（beta > 0）
+ *
+ * 业务方法模拟一次约几十微秒的查询，辅助计数器loads是每次迭代业务方法的执行次数（包括后台刷新）
+ * 对比loads和SampleTime的p99：loads越少越好，p99越低说明逻辑过期时同步加载越少
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RefreshAheadBenchmark {
+
+    private static final int KEYS = 64;
+
+    //数据的逻辑过期时间（毫秒）
+    private static final long TTL = 50;
+
+    private static final long LOAD_WORK = 10000;
+
+    private static final LongAdder LOADS = new LongAdder();
+
+    @Param({"0", "1"})
+    public double beta;
+
+    private CacheImpl cacheImpl;
+
+    private Integer[] keys;
+
+    @Setup
+    public void setup() {
+        this.cacheImpl = BenchmarkCaches.newCacheImpl("benchmark", "caffeine");
+        this.cacheImpl.setRefreshAhead(new ThreadPoolExecutor(2, 2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100)), TTL, 0.8, 0);
+        this.cacheImpl.setXFetchBeta(this.beta);
+        this.keys = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheImpl.destroy();
+    }
+
+    @Benchmark
+    public Object get(Loads loads) {
+        int index = ThreadLocalRandom.current().nextInt(KEYS);
+        return this.cacheImpl.get(this.keys[index], () -> load(index));
+    }
+
+    private static BenchmarkValue load(int index) {
+        LOADS.increment();
+        Blackhole.consumeCPU(LOAD_WORK);
+        return new BenchmarkValue(index);
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Loads {
+
+        public long loads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.loads = 0;
+        }
+
+        /**
+         * 每个线程在迭代结束时取走计数，EVENTS类型的计数器会按线程求和
+         */
+        @TearDown(Level.Iteration)
+        public void collect() {
+            this.loads = LOADS.sumThenReset();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkCaches;
+import org.microboot.benchmarks.support.BenchmarkContext;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.cache.impl.CacheImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * 三级缓存线（caffeine,offheap,central）的put：一次写入中数据的序列化次数
+ *
+ * pushMaxSize：
+ * 1、-1：没有MQProviderFunc，不计算指纹，也不广播消息
+ * 2、0：广播缓存清除消息（本地缓存写入时计算指纹）
+ * 3、1024：开启推送更新（消息中带有序列化后的数据）
+ *
+ * 单线程执行，每次操作的耗时即一次put的CPU开销（InMemoryCentralCache没有网络I/O）
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class SerializeOnceBenchmark {
+
+    private static final int KEYS = 10000;
+
+    @Param({"-1", "0", "1024"})
+    public int pushMaxSize;
+
+    private CacheImpl cacheImpl;
+
+    private Integer[] keys;
+
+    private BenchmarkValue[] values;
+
+    @Setup
+    public void setup() {
+        if (this.pushMaxSize >= 0) {
+            BenchmarkContext.enableInvalidation(this.pushMaxSize);
+        }
+        this.cacheImpl = BenchmarkCaches.newCacheImpl("benchmark", "caffeine,offheap,central");
+        this.keys = new Integer[KEYS];
+        this.values = new BenchmarkValue[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = i;
+            this.values[i] = new BenchmarkValue(i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheImpl.destroy();
+    }
+
+    @Benchmark
+    public void put() {
+        int index = ThreadLocalRandom.current().nextInt(KEYS);
+        this.cacheImpl.put(this.keys[index], this.values[index]);
+    }
+}
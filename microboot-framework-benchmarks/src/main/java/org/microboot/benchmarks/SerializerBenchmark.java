@@ -0,0 +1,154 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkContext;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.benchmarks.support.FastjsonSerializer;
+import org.microboot.cache.bean.CompressingSerializer;
+import org.microboot.cache.bean.JdkSerializer;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.core.entity.Page;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * 中央缓存和堆外缓存的序列化开销：jdk（JdkSerializer），compact（CompactSerializer），compressing（CompactSerializer + 压缩）
+ * 以及fastjson基准（FastjsonSerializer，反序列化时指定类型）
+ *
+ * shape：缓存的数据
+ * 1、value：一个业务对象（BenchmarkValue）
+ * 2、page：分页查询的结果（Page，ROWS行JdbcTemplate查询结果）
+ * 3、rows：JdbcTemplate.queryForList的结果（List<Map>，ROWS行，每行是LinkedCaseInsensitiveMap）
+ *
+ * 序列化后的字节数见辅助计数器serializedBytes
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    private static final int ROWS = 20;
+
+    @Param({"jdk", "compact", "compressing", "fastjson"})
+    public String serializer;
+
+    @Param({"value", "page", "rows"})
+    public String shape;
+
+    private SerializerFunc serializerFunc;
+
+    private Object value;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        switch (this.shape) {
+            case "value":
+                this.value = new BenchmarkValue(12345);
+                break;
+            case "page":
+                Page page = Page.builder().setTotal(1000).setPageSize(ROWS).setPageNumber(1).generate().create();
+                page.setRows(rows(ROWS));
+                this.value = page;
+                break;
+            case "rows":
+                this.value = rows(ROWS);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown shape " + this.shape);
+        }
+        switch (this.serializer) {
+            case "jdk":
+                this.serializerFunc = new JdkSerializer();
+                break;
+            case "compact":
+                this.serializerFunc = BenchmarkContext.newSerializerFunc();
+                break;
+            case "compressing":
+                this.serializerFunc = new CompressingSerializer(BenchmarkContext.newSerializerFunc(), 64, 1);
+                break;
+            case "fastjson":
+                this.serializerFunc = new FastjsonSerializer(this.value.getClass());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown serializer " + this.serializer);
+        }
+        this.bytes = this.serializerFunc.serialize(this.value);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return this.serializerFunc.serialize(this.value);
+    }
+
+    @Benchmark
+    public Object deserialize() {
+        return this.serializerFunc.deserialize(this.bytes);
+    }
+
+    @Benchmark
+    public byte[] size(SerializedSize serializedSize) {
+        byte[] bytes = this.serializerFunc.serialize(this.value);
+        serializedSize.serializedBytes = bytes.length;
+        return bytes;
+    }
+
+    /**
+     * JdbcTemplate.queryForList的结果：ColumnMapRowMapper把每一行转换为LinkedCaseInsensitiveMap
+     *
+     * @param count
+     * @return
+     */
+    private static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new LinkedCaseInsensitiveMap<>(8);
+            row.put("id", (long) i);
+            row.put("name", "name-" + i);
+            row.put("description", "description of row " + i + ", long enough to look like a real column");
+            row.put("price", new BigDecimal("19.90"));
+            row.put("stock", i * 10);
+            row.put("enabled", Boolean.TRUE);
+            row.put("create_time", new Timestamp(1600000000000L + i * 1000L));
+            row.put("remark", null);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class SerializedSize {
+
+        public long serializedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.serializedBytes = 0;
+        }
+    }
+}
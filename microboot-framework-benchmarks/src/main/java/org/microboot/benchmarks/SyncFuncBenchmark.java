@@ -0,0 +1,78 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkContext;
+import org.microboot.core.func.SyncFunc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author 胡鹏
+ *
+ * DefaultSyncFuncHolder在竞争下的开销（CacheImpl的put，evict，未命中时的加载都经过SyncFunc）
+ *
+ * keys：参与竞争的lockKey的数量，1表示所有线程竞争同一把锁
+ * 锁内执行少量计算（相当于一次本地缓存写入）
+ * 线程数：Threads1，Threads8，Threads32三个子类（@Threads不能作为@Param）
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class SyncFuncBenchmark {
+
+    private static final int WORK = 64;
+
+    @Param({"1", "16", "1024"})
+    public int keys;
+
+    private SyncFunc syncFunc;
+
+    private String[] lockKeys;
+
+    @Setup
+    public void setup() {
+        this.syncFunc = BenchmarkContext.getSyncFunc();
+        this.lockKeys = new String[this.keys];
+        for (int i = 0; i < this.keys; i++) {
+            this.lockKeys[i] = "benchmark&" + i;
+        }
+    }
+
+    @Benchmark
+    public void spinSync() {
+        this.syncFunc.spinSync(this.lockKeys[ThreadLocalRandom.current().nextInt(this.keys)], () -> Blackhole.consumeCPU(WORK));
+    }
+
+    @Benchmark
+    public void skipSync() {
+        this.syncFunc.skipSync(this.lockKeys[ThreadLocalRandom.current().nextInt(this.keys)], () -> Blackhole.consumeCPU(WORK));
+    }
+
+    @Threads(1)
+    public static class Threads1 extends SyncFuncBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends SyncFuncBenchmark {
+    }
+
+    @Threads(32)
+    public static class Threads32 extends SyncFuncBenchmark {
+    }
+}
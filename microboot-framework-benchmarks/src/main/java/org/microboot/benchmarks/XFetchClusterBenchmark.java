@@ -0,0 +1,200 @@
+package org.microboot.benchmarks;
+
+import org.microboot.benchmarks.support.BenchmarkCaches;
+import org.microboot.benchmarks.support.BenchmarkContext;
+import org.microboot.benchmarks.support.BenchmarkValue;
+import org.microboot.benchmarks.support.NodeSyncFunc;
+import org.microboot.cache.impl.AbstractCache;
+import org.microboot.cache.impl.CacheImpl;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author 胡鹏
+ *
+ * 多个服务节点共享一个中央缓存时，热点key在逻辑过期时的表现：固定比例的refresh-ahead（beta = 0） vs XFetch（beta > 0）
+ *
+ * 1、nodes个节点，每个节点一个CacheImpl（自己的refresh-ahead线程池），共享一个InMemoryCentralCache
+ * 2、每个节点有自己的进程内锁（NodeSyncFunc），与没有注入分布式SyncFunc的多个服务一致
+ * 3、基准测试的线程按顺序分配到各个节点
+ * 4、业务方法模拟一次I/O等待约LOAD_NANOS的查询（park，不占用CPU）
+ *
+ * 辅助计数器（JMH输出的是所有测量迭代的总和，maxConcurrentLoaders需要除以迭代次数）：
+ * loads：业务方法的执行次数（包括后台刷新）
+ * overlappingLoads：开始时同一个key已经有其他业务方法在执行（多个节点同时加载）的次数
+ * maxConcurrentLoaders：每次迭代中，同一个key同时执行的业务方法的最大数量
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class XFetchClusterBenchmark {
+
+    private static final int KEYS = 64;
+
+    //数据的逻辑过期时间（毫秒）
+    private static final long TTL = 50;
+
+    private static final long LOAD_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+    private static final LongAdder LOADS = new LongAdder();
+
+    private static final LongAdder OVERLAPPING_LOADS = new LongAdder();
+
+    private static final LongAccumulator MAX_CONCURRENT_LOADERS = new LongAccumulator(Math::max, 0);
+
+    private static final AtomicInteger[] IN_FLIGHT = new AtomicInteger[KEYS];
+
+    static {
+        for (int i = 0; i < KEYS; i++) {
+            IN_FLIGHT[i] = new AtomicInteger();
+        }
+    }
+
+    @Param({"1", "4", "8"})
+    public int nodes;
+
+    @Param({"0", "1"})
+    public double beta;
+
+    private CacheImpl[] cacheImpls;
+
+    private Integer[] keys;
+
+    private final AtomicInteger threads = new AtomicInteger();
+
+    //本次迭代的计数是否已经被取走
+    private final AtomicBoolean collected = new AtomicBoolean();
+
+    @Setup
+    public void setup() {
+        BenchmarkContext.replaceSyncFunc(new NodeSyncFunc(this.nodes));
+        AbstractCache central = BenchmarkCaches.newTier("central");
+        this.cacheImpls = new CacheImpl[this.nodes];
+        for (int i = 0; i < this.nodes; i++) {
+            int node = i;
+            CacheImpl cacheImpl = BenchmarkCaches.newCacheImpl("benchmark", central);
+            cacheImpl.setRefreshAhead(new ThreadPoolExecutor(2, 2, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(100), runnable -> {
+                Thread thread = new Thread(() -> {
+                    NodeSyncFunc.setNode(node);
+                    runnable.run();
+                }, "refresh-node-" + node);
+                thread.setDaemon(true);
+                return thread;
+            }), TTL, 0.8, 0);
+            cacheImpl.setXFetchBeta(this.beta);
+            this.cacheImpls[i] = cacheImpl;
+        }
+        this.keys = new Integer[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            this.keys[i] = i;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetIteration() {
+        this.collected.set(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (CacheImpl cacheImpl : this.cacheImpls) {
+            cacheImpl.destroy();
+        }
+    }
+
+    @Benchmark
+    public Object get(Node node, Loads loads) {
+        int index = ThreadLocalRandom.current().nextInt(KEYS);
+        return node.cacheImpl.get(this.keys[index], () -> load(index));
+    }
+
+    private static BenchmarkValue load(int index) {
+        LOADS.increment();
+        int concurrent = IN_FLIGHT[index].incrementAndGet();
+        try {
+            if (concurrent > 1) {
+                OVERLAPPING_LOADS.increment();
+            }
+            MAX_CONCURRENT_LOADERS.accumulate(concurrent);
+            LockSupport.parkNanos(LOAD_NANOS);
+            return new BenchmarkValue(index);
+        } finally {
+            IN_FLIGHT[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * 当前线程所属的节点
+     */
+    @State(Scope.Thread)
+    public static class Node {
+
+        private CacheImpl cacheImpl;
+
+        @Setup
+        public void setup(XFetchClusterBenchmark benchmark) {
+            int node = benchmark.threads.getAndIncrement() % benchmark.nodes;
+            NodeSyncFunc.setNode(node);
+            this.cacheImpl = benchmark.cacheImpls[node];
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Loads {
+
+        public long loads;
+
+        public long overlappingLoads;
+
+        public long maxConcurrentLoaders;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.loads = 0;
+            this.overlappingLoads = 0;
+            this.maxConcurrentLoaders = 0;
+        }
+
+        /**
+         * 只有第一个结束迭代的线程取走计数，其他线程为0（EVENTS类型的计数器会按线程求和）
+         * 后台刷新在迭代结束后可能还在执行，计入下一次迭代
+         */
+        @TearDown(Level.Iteration)
+        public void collect(XFetchClusterBenchmark benchmark) {
+            if (!benchmark.collected.compareAndSet(false, true)) {
+                return;
+            }
+            this.loads = LOADS.sumThenReset();
+            this.overlappingLoads = OVERLAPPING_LOADS.sumThenReset();
+            this.maxConcurrentLoaders = MAX_CONCURRENT_LOADERS.getThenReset();
+        }
+    }
+}
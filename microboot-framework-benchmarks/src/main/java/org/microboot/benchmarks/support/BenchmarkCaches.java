@@ -0,0 +1,79 @@
+package org.microboot.benchmarks.support;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.microboot.cache.impl.AbstractCache;
+import org.microboot.cache.impl.CacheImpl;
+import org.microboot.cache.impl.caffeine.CaffeineImpl;
+import org.microboot.cache.impl.ehcache.EhcacheImpl;
+import org.microboot.cache.impl.offheap.OffHeapImpl;
+import org.microboot.cache.impl.offheap.OffHeapStore;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author 胡鹏
+ *
+ * 按tiers构建缓存线（与cache.regions.xxx.tiers的格式一致），如：caffeine,central
+ *
+ * caffeine：CaffeineImpl
+ * ehcache：EhcacheImpl
+ * offheap：OffHeapImpl
+ * central：InMemoryCentralCache（代替Redis，Memcached）
+ *
+ * 本地缓存的容量足够大，基准测试中不会发生淘汰
+ */
+public class BenchmarkCaches {
+
+    public static final int MAX_SIZE = 2000000;
+
+    public static final long OFFHEAP_MAX_MEMORY = 1024L * 1024 * 1024;
+
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    public static CacheImpl newCacheImpl(String name, String tiers) {
+        BenchmarkContext.init();
+        CacheImpl cacheImpl = new CacheImpl(false);
+        cacheImpl.setName(name);
+        for (String tier : StringUtils.split(tiers, ",")) {
+            cacheImpl.getCaches().add(newTier(StringUtils.trim(tier)));
+        }
+        return cacheImpl;
+    }
+
+    /**
+     * 由已经创建的缓存组成缓存线，多条缓存线可以共享同一个缓存（如：多个节点共享一个中央缓存）
+     *
+     * @param name
+     * @param tiers
+     * @return
+     */
+    public static CacheImpl newCacheImpl(String name, AbstractCache... tiers) {
+        BenchmarkContext.init();
+        CacheImpl cacheImpl = new CacheImpl(false);
+        cacheImpl.setName(name);
+        cacheImpl.getCaches().addAll(Arrays.asList(tiers));
+        return cacheImpl;
+    }
+
+    public static AbstractCache newTier(String tier) {
+        int sequence = SEQUENCE.incrementAndGet();
+        switch (tier) {
+            case "caffeine":
+                return new CaffeineImpl("caffeine", new CaffeineCache("caffeine-" + sequence, Caffeine.newBuilder().maximumSize(MAX_SIZE).build(), false));
+            case "ehcache":
+                CacheConfiguration cacheConfiguration = new CacheConfiguration("ehcache-" + sequence, MAX_SIZE).eternal(true);
+                return new EhcacheImpl("ehcache", CacheManager.create().addCacheIfAbsent(new net.sf.ehcache.Cache(cacheConfiguration)));
+            case "offheap":
+                return new OffHeapImpl("offheap", new OffHeapStore(OFFHEAP_MAX_MEMORY, 16, 1024 * 1024, 0), BenchmarkContext.getSerializerFunc());
+            case "central":
+                return new InMemoryCentralCache("central", BenchmarkContext.getSerializerFunc());
+            default:
+                throw new IllegalArgumentException("unknown tier " + tier);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.microboot.benchmarks.support;
+
+import org.microboot.cache.bean.CompactSerializer;
+import org.microboot.cache.bean.InvalidationPublisher;
+import org.microboot.cache.func.MQProviderFunc;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.core.bean.ApplicationContextHolder;
+import org.microboot.core.bean.DefaultSyncFuncHolder;
+import org.microboot.core.func.SyncFunc;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * @author 胡鹏
+ *
+ * CacheImpl通过ApplicationContextHolder获取SyncFunc等bean，基准测试中只启动一个最小的Spring容器：
+ * 1、ApplicationContextHolder
+ * 2、SyncFunc：DefaultSyncFuncHolder（与框架默认一致）
+ * 3、SerializerFunc：CompactSerializer（注册了BenchmarkValue）
+ *
+ * 没有MQProviderFunc，本地缓存的写入不会广播缓存清除消息（只计算缓存本身的开销）
+ * 需要计算消息的开销（指纹，推送更新的序列化）时，调用enableInvalidation注册一个丢弃消息的MQProviderFunc
+ */
+public class BenchmarkContext {
+
+    private static GenericApplicationContext applicationContext;
+
+    public static synchronized void init() {
+        if (applicationContext != null) {
+            return;
+        }
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.registerBean(ApplicationContextHolder.class.getName(), ApplicationContextHolder.class);
+        context.registerBean(SyncFunc.class.getName(), SyncFunc.class, DefaultSyncFuncHolder::new);
+        context.registerBean(SerializerFunc.class.getName(), SerializerFunc.class, BenchmarkContext::newSerializerFunc);
+        context.refresh();
+        applicationContext = context;
+    }
+
+    /**
+     * 注册丢弃消息的MQProviderFunc，以及同步发送的InvalidationPublisher（消息的开销计入写缓存的线程）
+     *
+     * @param pushMaxSize 推送更新的数据的最大字节数，小于等于0时不推送
+     */
+    public static synchronized void enableInvalidation(int pushMaxSize) {
+        init();
+        if (applicationContext.containsBean(MQProviderFunc.class.getName())) {
+            return;
+        }
+        applicationContext.registerBean(MQProviderFunc.class.getName(), MQProviderFunc.class, () -> cacheMessage -> {
+        });
+        applicationContext.registerBean(InvalidationPublisher.class.getName(), InvalidationPublisher.class,
+                () -> new InvalidationPublisher(0, 500, 100000, pushMaxSize));
+    }
+
+    /**
+     * 替换SyncFunc（如：NodeSyncFunc），CacheImpl每次加锁时都从容器中获取，替换后立即生效
+     *
+     * @param syncFunc
+     */
+    public static synchronized void replaceSyncFunc(SyncFunc syncFunc) {
+        init();
+        applicationContext.removeBeanDefinition(SyncFunc.class.getName());
+        applicationContext.registerBean(SyncFunc.class.getName(), SyncFunc.class, () -> syncFunc);
+    }
+
+    public static SerializerFunc getSerializerFunc() {
+        init();
+        return ApplicationContextHolder.getBean(SerializerFunc.class.getName(), SerializerFunc.class);
+    }
+
+    public static SyncFunc getSyncFunc() {
+        init();
+        return ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class);
+    }
+
+    public static CompactSerializer newSerializerFunc() {
+        CompactSerializer compactSerializer = new CompactSerializer();
+        compactSerializer.register(100, BenchmarkValue.class);
+        return compactSerializer;
+    }
+}
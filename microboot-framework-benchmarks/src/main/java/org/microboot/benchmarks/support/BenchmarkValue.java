@@ -0,0 +1,42 @@
+package org.microboot.benchmarks.support;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author 胡鹏
+ *
+ * 基准测试中缓存的数据，大小接近常见的业务对象（一行数据库记录）
+ */
+@Getter
+public class BenchmarkValue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+
+    private String name;
+
+    private String description;
+
+    private double price;
+
+    private List<String> tags;
+
+    private BenchmarkValue() {
+    }
+
+    public BenchmarkValue(long id) {
+        this.id = id;
+        this.name = "name-" + id;
+        this.description = "description of benchmark value " + id + ", long enough to look like a real column";
+        this.price = id * 0.01;
+        this.tags = new ArrayList<>(3);
+        this.tags.add("tag-a");
+        this.tags.add("tag-b");
+        this.tags.add("tag-" + (id % 10));
+    }
+}
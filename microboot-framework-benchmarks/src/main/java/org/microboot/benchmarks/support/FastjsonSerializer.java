@@ -0,0 +1,32 @@
+package org.microboot.benchmarks.support;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.parser.Feature;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.core.utils.ConvertUtils;
+
+/**
+ * @author 胡鹏
+ *
+ * fastjson基准：序列化与ConvertUtils.object2Bytes一致（框架中其他地方的JSON序列化方式）
+ *
+ * JSON中没有类型信息，反序列化时需要指定类型，只用于基准测试中与其他SerializerFunc对比
+ */
+public class FastjsonSerializer implements SerializerFunc {
+
+    private final Class<?> type;
+
+    public FastjsonSerializer(Class<?> type) {
+        this.type = type;
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        return ConvertUtils.object2Bytes(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        return JSON.parseObject(bytes, this.type, Feature.SupportNonPublicField);
+    }
+}
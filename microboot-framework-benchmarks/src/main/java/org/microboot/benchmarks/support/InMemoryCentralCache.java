@@ -0,0 +1,72 @@
+package org.microboot.benchmarks.support;
+
+import com.google.common.collect.Maps;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.cache.impl.AbstractCentralCache;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author 胡鹏
+ *
+ * 进程内的中央缓存（代替Redis，Memcached）
+ *
+ * 与RedisImpl，MemcachedImpl一样，数据序列化后存储，读取时反序列化，只是没有网络I/O
+ * 基准测试的结果是CacheImpl和序列化本身的开销，实际的中央缓存还要加上一次网络往返
+ */
+public class InMemoryCentralCache extends AbstractCentralCache {
+
+    private final Map<String, byte[]> store = Maps.newConcurrentMap();
+
+    private final Map<String, AtomicLong> generations = Maps.newConcurrentMap();
+
+    private final SerializerFunc serializerFunc;
+
+    public InMemoryCentralCache(String name, SerializerFunc serializerFunc) {
+        this.name = name;
+        this.serializerFunc = serializerFunc;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this.store;
+    }
+
+    @Override
+    protected Object getValue(Object key) {
+        byte[] bytes = this.store.get(this.newCacheKey(key).toString());
+        return bytes != null ? this.serializerFunc.deserialize(bytes) : null;
+    }
+
+    @Override
+    public void clearCentralCache() {
+        this.store.clear();
+    }
+
+    @Override
+    protected long loadGeneration(String namespace) {
+        return this.generations.computeIfAbsent(namespace, ns -> new AtomicLong(System.currentTimeMillis())).get();
+    }
+
+    @Override
+    protected long incrementGeneration(String namespace) {
+        return this.generations.computeIfAbsent(namespace, ns -> new AtomicLong(System.currentTimeMillis())).incrementAndGet();
+    }
+
+    @Override
+    public void evictCentralCache(Object key) {
+        this.store.remove(this.newCacheKey(key).toString());
+    }
+
+    @Override
+    public void setCentralCache(Object key, Object value) {
+        this.store.put(this.newCacheKey(key).toString(), this.serializerFunc.serialize(value));
+    }
+
+    @Override
+    public void setCentralCache(Object key, Object value, SerializedValue serializedValue) {
+        this.store.put(this.newCacheKey(key).toString(), this.serializerFunc.serialize(serializedValue));
+    }
+}
@@ -0,0 +1,56 @@
+package org.microboot.benchmarks.support;
+
+import org.microboot.core.bean.DefaultSyncFuncHolder;
+import org.microboot.core.func.Func0;
+import org.microboot.core.func.FuncV0;
+import org.microboot.core.func.SyncFunc;
+
+/**
+ * @author 胡鹏
+ *
+ * 在一个JVM中模拟多个服务节点：每个节点有自己的进程内锁（DefaultSyncFuncHolder），节点之间不互斥
+ *
+ * 当前线程所属的节点由setNode指定（基准测试的线程，以及各节点后台刷新的线程），未指定时属于节点0
+ * 与没有注入分布式SyncFunc的多个服务一致：同一个key，每个节点最多一个线程执行业务方法
+ */
+public class NodeSyncFunc implements SyncFunc {
+
+    private static final ThreadLocal<Integer> NODE = ThreadLocal.withInitial(() -> 0);
+
+    private final DefaultSyncFuncHolder[] nodes;
+
+    public NodeSyncFunc(int nodes) {
+        this.nodes = new DefaultSyncFuncHolder[nodes];
+        for (int i = 0; i < nodes; i++) {
+            this.nodes[i] = new DefaultSyncFuncHolder();
+        }
+    }
+
+    public static void setNode(int node) {
+        NODE.set(node);
+    }
+
+    @Override
+    public <T> T spinSync(String lockKey, Func0<T> func) {
+        return this.current().spinSync(lockKey, func);
+    }
+
+    @Override
+    public void spinSync(String lockKey, FuncV0 func) {
+        this.current().spinSync(lockKey, func);
+    }
+
+    @Override
+    public <T> T skipSync(String lockKey, Func0<T> func) {
+        return this.current().skipSync(lockKey, func);
+    }
+
+    @Override
+    public void skipSync(String lockKey, FuncV0 func) {
+        this.current().skipSync(lockKey, func);
+    }
+
+    private DefaultSyncFuncHolder current() {
+        return this.nodes[NODE.get()];
+    }
+}
@@ -0,0 +1,75 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Maps;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.CacheMessage;
+import org.microboot.cache.func.MQListenerFunc;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 不依赖消息中间件的MQListenerFunc的父类
+ *
+ * 按发送方记录收到的最大序号：
+ * 1、序号连续：正常处理
+ * 2、序号跳跃（中间的数据包丢失）：无法知道丢失了哪些key，直接清空所有本地缓存
+ * 3、序号小于已收到的最大序号（乱序到达的数据包）：正常处理，清除操作是幂等的
+ *
+ * 数据包没有经过认证，推送更新的数据按不可信的数据反序列化（见SerializerFunc.deserializeUntrusted）
+ */
+public abstract class AbstractSocketListener implements MQListenerFunc, InitializingBean, DisposableBean {
+
+    protected final Logger logger = LogManager.getLogger(this.getClass());
+
+    //发送方标识 -> 收到的最大序号
+    private final Map<Long, Long> sequences = Maps.newConcurrentMap();
+
+    //丢包次数
+    private final LongAdder gapCount = new LongAdder();
+
+    protected volatile boolean running = true;
+
+    @Override
+    public void destroy() throws Exception {
+        this.running = false;
+        this.close();
+    }
+
+    @Override
+    public boolean isTrusted() {
+        return false;
+    }
+
+    public long getGapCount() {
+        return gapCount.sum();
+    }
+
+    protected void onPacket(byte[] bytes, int offset, int length) {
+        InvalidationCodec.Packet packet = InvalidationCodec.decode(bytes, offset, length);
+        if (packet == null) {
+            logger.warn("discard malformed invalidation packet, length = " + length);
+            return;
+        }
+        long sequence = packet.getSequence();
+        Long last = this.sequences.get(packet.getSenderId());
+        this.sequences.merge(packet.getSenderId(), sequence, Math::max);
+        if (last != null && sequence > last + 1) {
+            this.gapCount.increment();
+            logger.warn("invalidation packets lost from sender " + packet.getSenderId()
+                    + " (expected " + (last + 1) + " but was " + sequence + "), clear all local caches");
+            //uniqueId和key都为null：清空所有本地缓存
+            this.clearLocalCaches(Collections.singletonList(new CacheMessage()));
+            return;
+        }
+        this.clearLocalCaches(packet.getCacheMessages());
+    }
+
+    protected abstract void close() throws Exception;
+}
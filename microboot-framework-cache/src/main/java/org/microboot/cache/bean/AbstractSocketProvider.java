@@ -0,0 +1,82 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.CacheMessage;
+import org.microboot.cache.func.MQProviderFunc;
+import org.microboot.core.utils.LoggerUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @author 胡鹏
+ *
+ * 不依赖消息中间件的MQProviderFunc的父类
+ *
+ * 1、消息使用InvalidationCodec编码，多条消息合并到一个数据包中，数据包不超过packetSize字节（单条消息超过时单独发送）
+ * 2、每个数据包都带有连续递增的序号，发送失败时序号不回退，接收方会据此发现丢包并清空本地缓存
+ * 3、发送是串行的，保证数据包按序号顺序发出
+ * 4、推送更新的数据放不进一个数据包时，只发送清除消息（超过packetSize的UDP数据包可能发送失败，序号跳跃会导致其他服务清空所有本地缓存）
+ */
+public abstract class AbstractSocketProvider implements MQProviderFunc {
+
+    protected final Logger logger = LogManager.getLogger(this.getClass());
+
+    //发送方标识，每个实例（每个Spring容器）不同，重启后也不同
+    private final long senderId = UUID.randomUUID().getMostSignificantBits();
+
+    private final int packetSize;
+
+    private long sequence;
+
+    protected AbstractSocketProvider(int packetSize) {
+        this.packetSize = packetSize;
+    }
+
+    @Override
+    public void publish(CacheMessage cacheMessage) {
+        this.publish(Collections.singletonList(cacheMessage));
+    }
+
+    @Override
+    public synchronized void publish(List<CacheMessage> cacheMessages) {
+        List<byte[]> messages = Lists.newArrayList();
+        int length = InvalidationCodec.HEADER_LENGTH;
+        for (CacheMessage cacheMessage : cacheMessages) {
+            byte[] message = InvalidationCodec.encode(cacheMessage);
+            if (cacheMessage.getValue() != null && InvalidationCodec.HEADER_LENGTH + message.length > this.packetSize) {
+                cacheMessage.setValue(null);
+                message = InvalidationCodec.encode(cacheMessage);
+            }
+            if (!messages.isEmpty() && (length + message.length > this.packetSize || messages.size() == Short.MAX_VALUE)) {
+                this.flush(messages);
+                messages = Lists.newArrayList();
+                length = InvalidationCodec.HEADER_LENGTH;
+            }
+            messages.add(message);
+            length += message.length;
+        }
+        if (!messages.isEmpty()) {
+            this.flush(messages);
+        }
+    }
+
+    public long getSenderId() {
+        return senderId;
+    }
+
+    private void flush(List<byte[]> messages) {
+        byte[] packet = InvalidationCodec.packet(this.senderId, ++this.sequence, messages);
+        try {
+            this.send(packet);
+        } catch (IOException e) {
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    protected abstract void send(byte[] packet) throws IOException;
+}
@@ -1,5 +1,6 @@
 package org.microboot.cache.bean;
 
+import com.google.common.collect.Lists;
 import org.microboot.cache.entity.CacheMessage;
 import org.microboot.cache.func.MQListenerFunc;
 import org.springframework.jms.annotation.JmsListener;
@@ -7,6 +8,7 @@ import org.springframework.jms.annotation.JmsListener;
 import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageListener;
+import java.util.List;
 
 /**
  * @author 胡鹏
@@ -25,23 +27,42 @@ public class ActiveMQListener implements MessageListener, MQListenerFunc {
      *
      * 3、destination通过SpEL表达式从Spring上下文容器中拿到ActiveMQTopic的topicName，确保监听的队列与ActiveMQTopic保持一致
      *
+     * 4、带有size字段的是ActiveMQProvider批量发送的消息，一次性处理
+     *
      * @param message
      */
     @Override
     @JmsListener(destination = "#{@activeMQTopic.topicName}", containerFactory = "jmsListenerContainerFactory")
     public void onMessage(Message message) {
-        clearLocalCaches(() -> {
-            MapMessage mm = (MapMessage) message;
-            String uniqueId = this.get(() -> mm.getString("uniqueId"));
-            Object key = this.get(() -> mm.getObject("key"));
-            String md5 = this.get(() -> mm.getString("md5"));
+        MapMessage mm = (MapMessage) message;
+        Integer size = this.get(() -> mm.itemExists("size") ? mm.getInt("size") : null);
+        if (size == null) {
+            clearLocalCaches(() -> this.read(mm, ""));
+            return;
+        }
+        List<CacheMessage> cacheMessages = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            cacheMessages.add(this.read(mm, "." + i));
+        }
+        clearLocalCaches(cacheMessages);
+    }
+
+    private CacheMessage read(MapMessage mm, String suffix) {
+        String uniqueId = this.get(() -> mm.getString("uniqueId" + suffix));
+        Object key = this.get(() -> mm.getObject("key" + suffix));
+        Long version = this.get(() -> mm.itemExists("version" + suffix) ? mm.getLong("version" + suffix) : null);
+        Long fingerprint = this.get(() -> mm.itemExists("fingerprint" + suffix) ? mm.getLong("fingerprint" + suffix) : null);
+        String tag = this.get(() -> mm.itemExists("tag" + suffix) ? mm.getString("tag" + suffix) : null);
+        byte[] value = this.get(() -> mm.itemExists("value" + suffix) ? mm.getBytes("value" + suffix) : null);
 
-            CacheMessage cacheMessage = new CacheMessage();
-            cacheMessage.setUniqueId(uniqueId);
-            cacheMessage.setKey(key);
-            cacheMessage.setMd5(md5);
+        CacheMessage cacheMessage = new CacheMessage();
+        cacheMessage.setUniqueId(uniqueId);
+        cacheMessage.setKey(key);
+        cacheMessage.setVersion(version);
+        cacheMessage.setFingerprint(fingerprint);
+        cacheMessage.setTag(tag);
+        cacheMessage.setValue(value);
 
-            return cacheMessage;
-        });
+        return cacheMessage;
     }
-}
\ No newline at end of file
+}
@@ -1,12 +1,13 @@
 package org.microboot.cache.bean;
 
-import org.apache.commons.lang3.StringUtils;
 import org.microboot.cache.entity.CacheMessage;
 import org.microboot.cache.func.MQProviderFunc;
 import org.microboot.core.bean.ApplicationContextHolder;
 import org.springframework.jms.core.JmsTemplate;
 
+import javax.jms.JMSException;
 import javax.jms.MapMessage;
+import java.util.List;
 
 /**
  * @author 胡鹏
@@ -23,19 +24,52 @@ public class ActiveMQProvider implements MQProviderFunc {
      */
     @Override
     public void publish(CacheMessage cacheMessage) {
-        String uniqueId = cacheMessage.getUniqueId();
-        Object key = cacheMessage.getKey();
-        String md5 = cacheMessage.getMd5();
         ApplicationContextHolder.getBean(JmsTemplate.class).send(session -> {
             MapMessage mapMessage = session.createMapMessage();
-            mapMessage.setString("uniqueId", uniqueId);
-            if (key != null) {
-                mapMessage.setObject("key", key);
-            }
-            if (StringUtils.isNotBlank(md5)) {
-                mapMessage.setString("md5", md5);
+            write(mapMessage, "", cacheMessage);
+            return mapMessage;
+        });
+    }
+
+    /**
+     * 批量发送：多条消息合并为一个MapMessage
+     *
+     * 格式：size = 消息条数，第i条消息的字段名为uniqueId.i，key.i，version.i，fingerprint.i，tag.i，value.i
+     *
+     * @param cacheMessages
+     */
+    @Override
+    public void publish(List<CacheMessage> cacheMessages) {
+        if (cacheMessages.size() == 1) {
+            this.publish(cacheMessages.get(0));
+            return;
+        }
+        ApplicationContextHolder.getBean(JmsTemplate.class).send(session -> {
+            MapMessage mapMessage = session.createMapMessage();
+            mapMessage.setInt("size", cacheMessages.size());
+            for (int i = 0; i < cacheMessages.size(); i++) {
+                write(mapMessage, "." + i, cacheMessages.get(i));
             }
             return mapMessage;
         });
     }
-}
\ No newline at end of file
+
+    private static void write(MapMessage mapMessage, String suffix, CacheMessage cacheMessage) throws JMSException {
+        mapMessage.setString("uniqueId" + suffix, cacheMessage.getUniqueId());
+        if (cacheMessage.getKey() != null) {
+            mapMessage.setObject("key" + suffix, cacheMessage.getKey());
+        }
+        if (cacheMessage.getVersion() != null) {
+            mapMessage.setLong("version" + suffix, cacheMessage.getVersion());
+        }
+        if (cacheMessage.getFingerprint() != null) {
+            mapMessage.setLong("fingerprint" + suffix, cacheMessage.getFingerprint());
+        }
+        if (cacheMessage.getTag() != null) {
+            mapMessage.setString("tag" + suffix, cacheMessage.getTag());
+        }
+        if (cacheMessage.getValue() != null) {
+            mapMessage.setBytes("value" + suffix, cacheMessage.getValue());
+        }
+    }
+}
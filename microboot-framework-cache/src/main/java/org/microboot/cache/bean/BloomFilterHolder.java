@@ -0,0 +1,209 @@
+package org.microboot.cache.bean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.func.BloomFilterFunc;
+import org.microboot.cache.func.BloomFilterLoaderFunc;
+import org.microboot.cache.utils.KeyUtils;
+import org.microboot.core.bean.ApplicationContextHolder;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存线的布隆过滤器（防止缓存穿透）
+ *
+ * 与cache.allow-null-values相比，不存在的key不需要在每一级缓存中存一个NullValue.INSTANCE
+ * 随机key的扫描也不会在Redis中留下大量空值
+ *
+ * 1、CacheImpl在查询缓存和执行业务方法之前先检查过滤器，过滤器中没有的key直接返回null
+ * 2、过滤器中的key就是缓存线的key（缓存线名称 & 业务key），由BloomFilterLoaderFunc加载全部存在的业务key
+ * 3、Spring容器启动完成后在后台构建，之后每隔rebuildInterval重建一次（清理已删除的key），构建失败时每隔RETRY_DELAY重试
+ *    构建完成之前不拦截任何请求
+ * 4、put，putIfAbsent，putAll会把key写入过滤器，新增的数据在写入缓存后就能通过过滤器
+ *    注意：没有经过缓存写入的新数据，需要调用put(key)，否则在下一次重建之前会被当作不存在
+ * 5、evict不会从过滤器中删除（缓存清除不代表数据被删除），数据被删除时可以调用remove(key)（只有计数型的过滤器支持）
+ *
+ * 统计：
+ * 1、rejections：过滤器拦截的请求数
+ * 2、falsePositives：通过了过滤器，但业务方法返回null的请求数（误判，或数据已被删除）
+ * 3、观测到的误判率：falsePositives / (falsePositives + rejections)，即不存在的key中通过了过滤器的比例
+ */
+public class BloomFilterHolder implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    //构建失败（或Spring容器还没有启动完成）时的重试间隔（毫秒）
+    private static final long RETRY_DELAY = 5000;
+
+    private final String cacheName;
+
+    private final BloomFilterFunc bloomFilterFunc;
+
+    //BloomFilterLoaderFunc的beanName，构建时才获取，避免与业务bean循环依赖
+    private final String loaderName;
+
+    //重建间隔（毫秒），小于等于0时只在启动时构建一次
+    private final long rebuildInterval;
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean built;
+
+    private final LongAdder checkCount = new LongAdder();
+
+    private final LongAdder rejectionCount = new LongAdder();
+
+    private final LongAdder falsePositiveCount = new LongAdder();
+
+    private final LongAdder rebuildFailureCount = new LongAdder();
+
+    public BloomFilterHolder(String cacheName, BloomFilterFunc bloomFilterFunc, String loaderName, long rebuildInterval) {
+        this.cacheName = cacheName;
+        this.bloomFilterFunc = bloomFilterFunc;
+        this.loaderName = loaderName;
+        this.rebuildInterval = rebuildInterval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bloom-filter-" + cacheName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.schedule(this::rebuildAndReschedule, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param newKey 缓存线的key
+     * @return false：key一定不存在
+     */
+    public boolean mightContain(CacheKey newKey) {
+        this.checkCount.increment();
+        boolean mightContain;
+        try {
+            mightContain = this.bloomFilterFunc.mightContain(newKey.getBytes());
+        } catch (Exception e) {
+            //过滤器不可用时不拦截
+            LoggerUtils.error(logger, e);
+            return true;
+        }
+        if (!mightContain) {
+            this.rejectionCount.increment();
+        }
+        return mightContain;
+    }
+
+    /**
+     * @param key 业务key
+     */
+    public void put(Object key) {
+        this.put(KeyUtils.newCacheKey(this.cacheName, key));
+    }
+
+    public void put(CacheKey newKey) {
+        try {
+            this.bloomFilterFunc.put(newKey.getBytes());
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    /**
+     * 数据被删除时调用（只有计数型的过滤器支持）
+     *
+     * @param key 业务key
+     */
+    public void remove(Object key) {
+        try {
+            this.bloomFilterFunc.remove(KeyUtils.newCacheKey(this.cacheName, key).getBytes());
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    /**
+     * 立即重建
+     *
+     * @return 是否重建成功
+     */
+    public boolean rebuild() {
+        try {
+            BloomFilterLoaderFunc loaderFunc = ApplicationContextHolder.getBean(this.loaderName, BloomFilterLoaderFunc.class);
+            this.bloomFilterFunc.rebuild(loaderFunc, key -> KeyUtils.newCacheKey(this.cacheName, key).getBytes());
+            this.built = true;
+            return true;
+        } catch (Exception e) {
+            this.rebuildFailureCount.increment();
+            LoggerUtils.error(logger, e);
+            return false;
+        }
+    }
+
+    public void recordFalsePositive() {
+        this.falsePositiveCount.increment();
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+
+    public BloomFilterFunc getBloomFilterFunc() {
+        return bloomFilterFunc;
+    }
+
+    public boolean isBuilt() {
+        return built;
+    }
+
+    public long getCheckCount() {
+        return checkCount.sum();
+    }
+
+    public long getRejectionCount() {
+        return rejectionCount.sum();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositiveCount.sum();
+    }
+
+    public long getRebuildFailureCount() {
+        return rebuildFailureCount.sum();
+    }
+
+    /**
+     * 观测到的误判率：不存在的key中通过了过滤器的比例
+     *
+     * @return
+     */
+    public double getFalsePositiveRate() {
+        long falsePositives = this.getFalsePositiveCount();
+        long negatives = falsePositives + this.getRejectionCount();
+        return negatives == 0 ? 0D : (double) falsePositives / negatives;
+    }
+
+    /**
+     * Spring容器启动完成之后才开始构建（BloomFilterLoaderFunc通常依赖业务bean）
+     */
+    private void rebuildAndReschedule() {
+        boolean success = this.isContextRunning() && this.rebuild();
+        if (!success) {
+            this.scheduler.schedule(this::rebuildAndReschedule, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        } else if (this.rebuildInterval > 0) {
+            this.scheduler.schedule(this::rebuildAndReschedule, this.rebuildInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean isContextRunning() {
+        ApplicationContext applicationContext = ApplicationContextHolder.getApplicationContext();
+        return applicationContext instanceof ConfigurableApplicationContext && ((ConfigurableApplicationContext) applicationContext).isRunning();
+    }
+}
@@ -0,0 +1,40 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Maps;
+import org.microboot.cache.impl.CacheImpl;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+import java.util.Map;
+
+/**
+ * @author 胡鹏
+ *
+ * 热点key的actuator端点，输出每条缓存线当前的Top-K（只包含开启了热点key探测的缓存线）
+ *
+ * 需要在配置文件中暴露：management.endpoints.web.exposure.include=cachehotkeys
+ * 访问地址：/actuator/cachehotkeys
+ */
+@Endpoint(id = "cachehotkeys")
+public class CacheHotKeysEndpoint {
+
+    private final CacheMetricsRegistry cacheMetricsRegistry;
+
+    public CacheHotKeysEndpoint(CacheMetricsRegistry cacheMetricsRegistry) {
+        this.cacheMetricsRegistry = cacheMetricsRegistry;
+    }
+
+    /**
+     * @return 缓存线名称 -> (key -> 每个window的访问次数的估计值)
+     */
+    @ReadOperation
+    public Map<String, Map<String, Long>> topKeys() {
+        Map<String, Map<String, Long>> topKeys = Maps.newLinkedHashMap();
+        for (CacheImpl cacheImpl : this.cacheMetricsRegistry.getCacheImpls()) {
+            if (cacheImpl.getHotKeys() != null) {
+                topKeys.put(cacheImpl.getName(), cacheImpl.getHotKeys().getTopKeys());
+            }
+        }
+        return topKeys;
+    }
+}
@@ -0,0 +1,186 @@
+package org.microboot.cache.bean;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存的统计数据，分两个维度：
+ * 1、缓存线（CacheImpl）：hit，miss，coalesced，backfill，load，eviction
+ * 2、缓存线中的每一级缓存（AbstractCache）：hit，miss，put，eviction，getValue和setValue的耗时
+ *
+ * 计数使用LongAdder，耗时使用LatencyHistogram，记录时不创建任何对象
+ */
+public class CacheMetrics implements CacheMetricsMXBean {
+
+    //命中次数
+    private final LongAdder hitCount = new LongAdder();
+    //未命中次数
+    private final LongAdder missCount = new LongAdder();
+    //未命中缓存，等待其他线程加载结果（single-flight）的次数，既不算命中也不算未命中
+    private final LongAdder coalescedCount = new LongAdder();
+    //在下级缓存命中后回填到上级缓存的次数
+    private final LongAdder backfillCount = new LongAdder();
+    //写入次数
+    private final LongAdder putCount = new LongAdder();
+    //删除次数
+    private final LongAdder evictionCount = new LongAdder();
+    //执行业务方法的次数
+    private final LongAdder loadCount = new LongAdder();
+    //业务方法抛出异常的次数
+    private final LongAdder loadFailureCount = new LongAdder();
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    public void recordHit() {
+        this.hitCount.increment();
+    }
+
+    public void recordMiss() {
+        this.missCount.increment();
+    }
+
+    public void recordCoalesced() {
+        this.coalescedCount.increment();
+    }
+
+    public void recordHits(long hits, long misses) {
+        this.hitCount.add(hits);
+        this.missCount.add(misses);
+    }
+
+    public void recordGet(long hits, long misses, long nanos) {
+        this.hitCount.add(hits);
+        this.missCount.add(misses);
+        this.getLatency.record(nanos);
+    }
+
+    public void recordPut(long count, long nanos) {
+        this.putCount.add(count);
+        this.putLatency.record(nanos);
+    }
+
+    public void recordBackfill(long count) {
+        this.backfillCount.add(count);
+    }
+
+    public void recordEviction(long count) {
+        this.evictionCount.add(count);
+    }
+
+    public void recordLoad(boolean success, long nanos) {
+        this.loadCount.increment();
+        if (!success) {
+            this.loadFailureCount.increment();
+        }
+        this.loadLatency.record(nanos);
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = this.getHitCount();
+        long total = hits + this.getMissCount();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public long getBackfillCount() {
+        return backfillCount.sum();
+    }
+
+    @Override
+    public long getPutCount() {
+        return putCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return loadFailureCount.sum();
+    }
+
+    @Override
+    public long getGetLatencyP50() {
+        return getLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getGetLatencyP99() {
+        return getLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getGetLatencyMax() {
+        return getLatency.getMax();
+    }
+
+    @Override
+    public long getPutLatencyP50() {
+        return putLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getPutLatencyP99() {
+        return putLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getPutLatencyMax() {
+        return putLatency.getMax();
+    }
+
+    @Override
+    public long getLoadLatencyP50() {
+        return loadLatency.getPercentile(0.5);
+    }
+
+    @Override
+    public long getLoadLatencyP99() {
+        return loadLatency.getPercentile(0.99);
+    }
+
+    @Override
+    public long getLoadLatencyMax() {
+        return loadLatency.getMax();
+    }
+
+    public LatencyHistogram getGetLatency() {
+        return getLatency;
+    }
+
+    public LatencyHistogram getPutLatency() {
+        return putLatency;
+    }
+
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+}
@@ -0,0 +1,27 @@
+package org.microboot.cache.bean;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存统计数据的actuator端点，输出Prometheus文本格式
+ *
+ * 需要在配置文件中暴露：management.endpoints.web.exposure.include=cachemetrics
+ * 访问地址：/actuator/cachemetrics
+ */
+@Endpoint(id = "cachemetrics")
+public class CacheMetricsEndpoint {
+
+    private final CacheMetricsRegistry cacheMetricsRegistry;
+
+    public CacheMetricsEndpoint(CacheMetricsRegistry cacheMetricsRegistry) {
+        this.cacheMetricsRegistry = cacheMetricsRegistry;
+    }
+
+    @ReadOperation(produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String scrape() {
+        return this.cacheMetricsRegistry.scrape();
+    }
+}
@@ -0,0 +1,47 @@
+package org.microboot.cache.bean;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存统计数据的JMX接口
+ *
+ * 耗时的单位都是纳秒
+ */
+public interface CacheMetricsMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getCoalescedCount();
+
+    double getHitRatio();
+
+    long getBackfillCount();
+
+    long getPutCount();
+
+    long getEvictionCount();
+
+    long getLoadCount();
+
+    long getLoadFailureCount();
+
+    long getGetLatencyP50();
+
+    long getGetLatencyP99();
+
+    long getGetLatencyMax();
+
+    long getPutLatencyP50();
+
+    long getPutLatencyP99();
+
+    long getPutLatencyMax();
+
+    long getLoadLatencyP50();
+
+    long getLoadLatencyP99();
+
+    long getLoadLatencyMax();
+}
@@ -0,0 +1,239 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.impl.AbstractCache;
+import org.microboot.cache.impl.CacheImpl;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存统计数据的注册中心
+ *
+ * 1、JMX：每条缓存线注册为org.microboot.cache:type=Cache,name=缓存线名称
+ *         每一级缓存注册为org.microboot.cache:type=CacheTier,cache=缓存线名称,name=缓存组件名称
+ *         热点key（开启时）注册为org.microboot.cache:type=HotKeys,name=缓存线名称
+ * 2、文本：scrape方法输出Prometheus文本格式，由CacheMetricsEndpoint通过actuator暴露
+ *
+ * 按需创建的region在创建时注册
+ */
+public class CacheMetricsRegistry implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    private static final String JMX_DOMAIN = "org.microboot.cache";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final boolean jmxEnabled;
+
+    private final List<CacheImpl> cacheImpls = new CopyOnWriteArrayList<>();
+
+    private final List<ObjectName> objectNames = new CopyOnWriteArrayList<>();
+
+    public CacheMetricsRegistry(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public void register(CacheImpl cacheImpl) {
+        if (this.cacheImpls.contains(cacheImpl)) {
+            return;
+        }
+        this.cacheImpls.add(cacheImpl);
+        if (!this.jmxEnabled) {
+            return;
+        }
+        try {
+            this.registerMBean(cacheImpl.getMetrics(), new ObjectName(JMX_DOMAIN + ":type=Cache,name=" + ObjectName.quote(cacheImpl.getName())));
+            for (AbstractCache cache : cacheImpl.getCaches()) {
+                this.registerMBean(cacheImpl.getTierMetrics(cache), new ObjectName(JMX_DOMAIN + ":type=CacheTier,cache="
+                        + ObjectName.quote(cacheImpl.getName()) + ",name=" + ObjectName.quote(cache.getName())));
+            }
+            if (cacheImpl.getHotKeys() != null) {
+                this.registerMBean(cacheImpl.getHotKeys(), new ObjectName(JMX_DOMAIN + ":type=HotKeys,name=" + ObjectName.quote(cacheImpl.getName())));
+            }
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    public List<CacheImpl> getCacheImpls() {
+        return cacheImpls;
+    }
+
+    /**
+     * Prometheus文本格式（text/plain; version=0.0.4）
+     *
+     * @return
+     */
+    public String scrape() {
+        StringBuilder builder = new StringBuilder();
+        List<CacheImpl> lines = Lists.newArrayList(this.cacheImpls);
+        //缓存线
+        counter(builder, "microboot_cache_hits_total", "Cache line hits", lines, false, CacheMetrics::getHitCount);
+        counter(builder, "microboot_cache_misses_total", "Cache line misses", lines, false, CacheMetrics::getMissCount);
+        counter(builder, "microboot_cache_coalesced_total", "Misses that waited for another thread's load", lines, false, CacheMetrics::getCoalescedCount);
+        counter(builder, "microboot_cache_backfills_total", "Values copied from a lower tier into the upper tiers", lines, false, CacheMetrics::getBackfillCount);
+        counter(builder, "microboot_cache_evictions_total", "Cache line evictions", lines, false, CacheMetrics::getEvictionCount);
+        counter(builder, "microboot_cache_loads_total", "Business method executions", lines, false, CacheMetrics::getLoadCount);
+        counter(builder, "microboot_cache_load_failures_total", "Business method executions that threw", lines, false, CacheMetrics::getLoadFailureCount);
+        summary(builder, "microboot_cache_load_seconds", "Business method latency", lines, false, CacheMetrics::getLoadLatency);
+        //每一级缓存
+        counter(builder, "microboot_cache_tier_hits_total", "Tier hits", lines, true, CacheMetrics::getHitCount);
+        counter(builder, "microboot_cache_tier_misses_total", "Tier misses", lines, true, CacheMetrics::getMissCount);
+        counter(builder, "microboot_cache_tier_puts_total", "Tier writes", lines, true, CacheMetrics::getPutCount);
+        counter(builder, "microboot_cache_tier_evictions_total", "Tier evictions", lines, true, CacheMetrics::getEvictionCount);
+        summary(builder, "microboot_cache_tier_get_seconds", "Tier read latency", lines, true, CacheMetrics::getGetLatency);
+        summary(builder, "microboot_cache_tier_put_seconds", "Tier write latency", lines, true, CacheMetrics::getPutLatency);
+        //布隆过滤器（只输出开启了布隆过滤器的缓存线）
+        bloomFilter(builder, "microboot_cache_bloom_filter_checks_total", "Bloom filter checks", "counter", lines, BloomFilterHolder::getCheckCount);
+        bloomFilter(builder, "microboot_cache_bloom_filter_rejections_total", "Requests rejected by the bloom filter", "counter", lines, BloomFilterHolder::getRejectionCount);
+        bloomFilter(builder, "microboot_cache_bloom_filter_false_positives_total", "Requests that passed the bloom filter but loaded null", "counter", lines, BloomFilterHolder::getFalsePositiveCount);
+        bloomFilter(builder, "microboot_cache_bloom_filter_false_positive_rate", "Observed share of absent keys that passed the bloom filter", "gauge", lines, BloomFilterHolder::getFalsePositiveRate);
+        bloomFilter(builder, "microboot_cache_bloom_filter_expected_fpp", "False positive probability estimated from the insertion count", "gauge", lines, holder -> holder.getBloomFilterFunc().getExpectedFpp());
+        //热点key（只输出开启了热点key探测的缓存线）
+        hotKeys(builder, "microboot_cache_hot_key_samples_total", "Sampled hits recorded by the hot key detector", "counter", lines, HotKeyDetector::getSampleCount);
+        hotKeys(builder, "microboot_cache_hot_key_promotions_total", "Values promoted to the local hot key tier", "counter", lines, HotKeyDetector::getPromotionCount);
+        hotKeys(builder, "microboot_cache_hot_key_promoted_hits_total", "Hits served by the local hot key tier", "counter", lines, HotKeyDetector::getPromotedHitCount);
+        hotKeys(builder, "microboot_cache_hot_key_promoted_size", "Entries in the local hot key tier", "gauge", lines, HotKeyDetector::getPromotedSize);
+        return builder.toString();
+    }
+
+    @Override
+    public void destroy() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : this.objectNames) {
+            try {
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                LoggerUtils.error(logger, e);
+            }
+        }
+        this.objectNames.clear();
+    }
+
+    private void registerMBean(Object mBean, ObjectName objectName) throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        if (mBeanServer.isRegistered(objectName)) {
+            return;
+        }
+        mBeanServer.registerMBean(mBean, objectName);
+        this.objectNames.add(objectName);
+    }
+
+    /**
+     * @param tier false：缓存线的数据，true：每一级缓存的数据
+     */
+    private static void counter(StringBuilder builder, String name, String help, List<CacheImpl> lines, boolean tier, CounterGetter getter) {
+        header(builder, name, help, "counter");
+        for (CacheImpl line : lines) {
+            if (!tier) {
+                sample(builder, name, labels(line, null, null), getter.get(line.getMetrics()));
+                continue;
+            }
+            for (AbstractCache cache : line.getCaches()) {
+                sample(builder, name, labels(line, cache, null), getter.get(line.getTierMetrics(cache)));
+            }
+        }
+    }
+
+    private static void summary(StringBuilder builder, String name, String help, List<CacheImpl> lines, boolean tier, HistogramGetter getter) {
+        header(builder, name, help, "summary");
+        for (CacheImpl line : lines) {
+            if (!tier) {
+                summary(builder, name, line, null, getter.get(line.getMetrics()));
+                continue;
+            }
+            for (AbstractCache cache : line.getCaches()) {
+                summary(builder, name, line, cache, getter.get(line.getTierMetrics(cache)));
+            }
+        }
+    }
+
+    private static void summary(StringBuilder builder, String name, CacheImpl line, AbstractCache cache, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            sample(builder, name, labels(line, cache, String.valueOf(quantile)), seconds(histogram.getPercentile(quantile)));
+        }
+        sample(builder, name + "_sum", labels(line, cache, null), seconds(histogram.getSum()));
+        sample(builder, name + "_count", labels(line, cache, null), histogram.getCount());
+    }
+
+    private static void bloomFilter(StringBuilder builder, String name, String help, String type, List<CacheImpl> lines, Function<BloomFilterHolder, Object> getter) {
+        boolean headed = false;
+        for (CacheImpl line : lines) {
+            if (line.getBloomFilter() == null) {
+                continue;
+            }
+            if (!headed) {
+                header(builder, name, help, type);
+                headed = true;
+            }
+            sample(builder, name, labels(line, null, null), getter.apply(line.getBloomFilter()));
+        }
+    }
+
+    private static void hotKeys(StringBuilder builder, String name, String help, String type, List<CacheImpl> lines, Function<HotKeyDetector, Object> getter) {
+        boolean headed = false;
+        for (CacheImpl line : lines) {
+            if (line.getHotKeys() == null) {
+                continue;
+            }
+            if (!headed) {
+                header(builder, name, help, type);
+                headed = true;
+            }
+            sample(builder, name, labels(line, null, null), getter.apply(line.getHotKeys()));
+        }
+    }
+
+    private static void header(StringBuilder builder, String name, String help, String type) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, Object value) {
+        builder.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static String labels(CacheImpl line, AbstractCache cache, String quantile) {
+        StringBuilder builder = new StringBuilder("{cache=\"").append(escape(line.getName())).append('"');
+        if (cache != null) {
+            builder.append(",tier=\"").append(escape(cache.getName())).append('"');
+        }
+        if (quantile != null) {
+            builder.append(",quantile=\"").append(quantile).append('"');
+        }
+        return builder.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double seconds(long nanos) {
+        return (double) nanos / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @FunctionalInterface
+    private interface CounterGetter {
+        long get(CacheMetrics cacheMetrics);
+    }
+
+    @FunctionalInterface
+    private interface HistogramGetter {
+        LatencyHistogram get(CacheMetrics cacheMetrics);
+    }
+}
@@ -0,0 +1,639 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.microboot.cache.entity.CacheValue;
+import org.microboot.cache.entity.TaggedValue;
+import org.microboot.cache.entity.XFetchValue;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.core.entity.Page;
+import org.microboot.core.entity.Token;
+import org.springframework.cache.support.NullValue;
+import org.springframework.core.serializer.support.SerializationFailedException;
+import org.springframework.util.Assert;
+import org.springframework.util.LinkedCaseInsensitiveMap;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author 胡鹏
+ *
+ * 紧凑的二进制序列化（schema-less）
+ *
+ * 格式：每个值由1个字节的类型标记 + 数据组成
+ * 1、整数使用zigzag + varint编码，小数值只占1~2个字节
+ * 2、String使用varint长度 + UTF-8字节
+ * 3、ArrayList，HashMap，LinkedHashMap，LinkedCaseInsensitiveMap（JdbcTemplate查询结果的行）等常用集合直接编码，反序列化后类型不变
+ * 4、NullValue.INSTANCE只占1个字节
+ * 5、注册过的类（如：Page）写入class-id + 按字段名排序后的字段值，不写类名和字段名
+ * 6、其他实现了Serializable的类型，内嵌JDK序列化的字节
+ *
+ * 兼容性：
+ * 1、反序列化时如果发现是JDK序列化的数据（魔数0xACED），则交给JDK反序列化，所以老数据依然可以读取
+ * 2、注册类的字段发生变化（增删字段）后，之前缓存的数据无法反序列化，需要清空缓存
+ *
+ * 注册类：
+ * 1、class-id小于100的留给框架内置的类使用，开发者注册的class-id必须大于等于100
+ * 2、注册类必须有无参构造方法（可以是private的）
+ * 3、不支持循环引用
+ *
+ * 不可信的数据（见deserializeUntrusted）：只允许直接编码的类型和注册过的类，JDK序列化的数据直接拒绝
+ */
+public class CompactSerializer implements SerializerFunc {
+
+    /******************************************** 类型标记 **********************************************/
+    private static final byte NULL = 0;
+    private static final byte NULL_VALUE = 1;
+    private static final byte TRUE = 2;
+    private static final byte FALSE = 3;
+    private static final byte INT = 4;
+    private static final byte LONG = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte FLOAT = 7;
+    private static final byte SHORT = 8;
+    private static final byte BYTE = 9;
+    private static final byte CHAR = 10;
+    private static final byte STRING = 11;
+    private static final byte BYTES = 12;
+    private static final byte BIG_DECIMAL = 13;
+    private static final byte BIG_INTEGER = 14;
+    private static final byte DATE = 15;
+    private static final byte SQL_DATE = 16;
+    private static final byte SQL_TIMESTAMP = 17;
+    private static final byte ARRAY_LIST = 18;
+    private static final byte OBJECT_ARRAY = 19;
+    private static final byte HASH_SET = 20;
+    private static final byte LINKED_HASH_SET = 21;
+    private static final byte HASH_MAP = 22;
+    private static final byte LINKED_HASH_MAP = 23;
+    private static final byte CASE_INSENSITIVE_MAP = 24;
+    private static final byte OBJECT = 25;
+    private static final byte JAVA = 26;
+
+    //JDK序列化的魔数
+    private static final byte JDK_MAGIC_0 = (byte) 0xAC;
+    private static final byte JDK_MAGIC_1 = (byte) 0xED;
+
+    //开发者注册的class-id的最小值
+    public static final int USER_CLASS_ID_MIN = 100;
+
+    //输出缓冲区的初始大小
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    //输出缓冲区超过这个大小后不再复用，避免线程长期持有大数组
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+    private final Map<Integer, ClassInfo> idMap = Maps.newConcurrentMap();
+
+    private final Map<Class<?>, ClassInfo> classMap = Maps.newConcurrentMap();
+
+    private final JdkSerializer jdkSerializer = new JdkSerializer();
+
+    private final ThreadLocal<Output> outputs = ThreadLocal.withInitial(Output::new);
+
+    public CompactSerializer() {
+        this.doRegister(1, Page.class);
+        this.doRegister(2, Token.class);
+        this.doRegister(3, CacheValue.class);
+        this.doRegister(4, XFetchValue.class);
+        this.doRegister(5, TaggedValue.class);
+    }
+
+    /**
+     * 注册类
+     *
+     * @param id
+     * @param clazz
+     */
+    public void register(int id, Class<?> clazz) {
+        Assert.isTrue(id >= USER_CLASS_ID_MIN, "class-id must be greater than or equal to " + USER_CLASS_ID_MIN);
+        this.doRegister(id, clazz);
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        Output output = this.outputs.get();
+        try {
+            this.write(output, value);
+            return output.toByteArray();
+        } catch (SerializationFailedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializationFailedException("Failed to serialize object using " + this.getClass().getSimpleName(), e);
+        } finally {
+            output.reset();
+        }
+    }
+
+    /**
+     * 直接编码的类型都实现了Serializable，只需要额外检查注册过的类
+     *
+     * @param value
+     * @return
+     */
+    @Override
+    public boolean canSerialize(Object value) {
+        return value == null || value instanceof Serializable || this.classMap.containsKey(value.getClass());
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        //JDK序列化的数据（老数据）
+        if (bytes.length > 1 && bytes[0] == JDK_MAGIC_0 && bytes[1] == JDK_MAGIC_1) {
+            return this.jdkSerializer.deserialize(bytes);
+        }
+        try {
+            return this.read(new Input(bytes, true));
+        } catch (SerializationFailedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializationFailedException("Failed to deserialize payload using " + this.getClass().getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public Object deserializeUntrusted(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes.length > 1 && bytes[0] == JDK_MAGIC_0 && bytes[1] == JDK_MAGIC_1) {
+            throw new SerializationFailedException("JDK serialized payload is not allowed in untrusted data");
+        }
+        try {
+            return this.read(new Input(bytes, false));
+        } catch (SerializationFailedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SerializationFailedException("Failed to deserialize untrusted payload using " + this.getClass().getSimpleName(), e);
+        }
+    }
+
+    private void doRegister(int id, Class<?> clazz) {
+        Assert.notNull(clazz, "class must not be null");
+        Assert.isTrue(!this.idMap.containsKey(id), "class-id " + id + " already exists");
+        Assert.isTrue(!this.classMap.containsKey(clazz), clazz.getName() + " already registered");
+        ClassInfo classInfo = new ClassInfo(id, clazz);
+        this.idMap.put(id, classInfo);
+        this.classMap.put(clazz, classInfo);
+    }
+
+    private void write(Output output, Object value) throws Exception {
+        if (value == null) {
+            output.writeByte(NULL);
+            return;
+        }
+        if (value instanceof NullValue) {
+            output.writeByte(NULL_VALUE);
+            return;
+        }
+        Class<?> clazz = value.getClass();
+        if (clazz == String.class) {
+            output.writeByte(STRING);
+            output.writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (clazz == Integer.class) {
+            output.writeByte(INT);
+            output.writeVarLong(zigzag((Integer) value));
+        } else if (clazz == Long.class) {
+            output.writeByte(LONG);
+            output.writeVarLong(zigzag((Long) value));
+        } else if (clazz == Boolean.class) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (clazz == Double.class) {
+            output.writeByte(DOUBLE);
+            output.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+        } else if (clazz == Float.class) {
+            output.writeByte(FLOAT);
+            output.writeFixedInt(Float.floatToRawIntBits((Float) value));
+        } else if (clazz == Short.class) {
+            output.writeByte(SHORT);
+            output.writeVarLong(zigzag((Short) value));
+        } else if (clazz == Byte.class) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (clazz == Character.class) {
+            output.writeByte(CHAR);
+            output.writeVarLong((Character) value);
+        } else if (clazz == byte[].class) {
+            output.writeByte(BYTES);
+            output.writeBytes((byte[]) value);
+        } else if (clazz == BigDecimal.class) {
+            BigDecimal bigDecimal = (BigDecimal) value;
+            output.writeByte(BIG_DECIMAL);
+            output.writeVarLong(zigzag(bigDecimal.scale()));
+            output.writeBytes(bigDecimal.unscaledValue().toByteArray());
+        } else if (clazz == BigInteger.class) {
+            output.writeByte(BIG_INTEGER);
+            output.writeBytes(((BigInteger) value).toByteArray());
+        } else if (clazz == Date.class) {
+            output.writeByte(DATE);
+            output.writeVarLong(zigzag(((Date) value).getTime()));
+        } else if (clazz == java.sql.Date.class) {
+            output.writeByte(SQL_DATE);
+            output.writeVarLong(zigzag(((java.sql.Date) value).getTime()));
+        } else if (clazz == java.sql.Timestamp.class) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) value;
+            output.writeByte(SQL_TIMESTAMP);
+            output.writeVarLong(zigzag(timestamp.getTime()));
+            output.writeVarLong(timestamp.getNanos());
+        } else if (clazz == ArrayList.class) {
+            this.writeCollection(output, ARRAY_LIST, (Collection<?>) value);
+        } else if (clazz == HashSet.class) {
+            this.writeCollection(output, HASH_SET, (Collection<?>) value);
+        } else if (clazz == LinkedHashSet.class) {
+            this.writeCollection(output, LINKED_HASH_SET, (Collection<?>) value);
+        } else if (clazz == Object[].class) {
+            this.writeCollection(output, OBJECT_ARRAY, Arrays.asList((Object[]) value));
+        } else if (clazz == HashMap.class) {
+            this.writeMap(output, HASH_MAP, (Map<?, ?>) value);
+        } else if (clazz == LinkedHashMap.class) {
+            this.writeMap(output, LINKED_HASH_MAP, (Map<?, ?>) value);
+        } else if (clazz == LinkedCaseInsensitiveMap.class) {
+            this.writeMap(output, CASE_INSENSITIVE_MAP, (Map<?, ?>) value);
+        } else if (this.classMap.containsKey(clazz)) {
+            ClassInfo classInfo = this.classMap.get(clazz);
+            output.writeByte(OBJECT);
+            output.writeVarLong(classInfo.id);
+            output.writeVarLong(classInfo.fields.length);
+            for (Field field : classInfo.fields) {
+                this.write(output, field.get(value));
+            }
+        } else if (value instanceof Serializable) {
+            output.writeByte(JAVA);
+            output.writeBytes(this.jdkSerializer.serialize(value));
+        } else {
+            throw new SerializationFailedException(clazz.getName() + " is neither registered nor Serializable");
+        }
+    }
+
+    private void writeCollection(Output output, byte type, Collection<?> collection) throws Exception {
+        output.writeByte(type);
+        output.writeVarLong(collection.size());
+        for (Object element : collection) {
+            this.write(output, element);
+        }
+    }
+
+    private void writeMap(Output output, byte type, Map<?, ?> map) throws Exception {
+        output.writeByte(type);
+        output.writeVarLong(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            this.write(output, entry.getKey());
+            this.write(output, entry.getValue());
+        }
+    }
+
+    private Object read(Input input) throws Exception {
+        byte type = input.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case NULL_VALUE:
+                return NullValue.INSTANCE;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INT:
+                return (int) unzigzag(input.readVarLong());
+            case LONG:
+                return unzigzag(input.readVarLong());
+            case DOUBLE:
+                return Double.longBitsToDouble(input.readFixedLong());
+            case FLOAT:
+                return Float.intBitsToFloat(input.readFixedInt());
+            case SHORT:
+                return (short) unzigzag(input.readVarLong());
+            case BYTE:
+                return input.readByte();
+            case CHAR:
+                return (char) input.readVarLong();
+            case STRING:
+                return input.readString();
+            case BYTES:
+                return input.readBytes();
+            case BIG_DECIMAL:
+                int scale = (int) unzigzag(input.readVarLong());
+                return new BigDecimal(new BigInteger(input.readBytes()), scale);
+            case BIG_INTEGER:
+                return new BigInteger(input.readBytes());
+            case DATE:
+                return new Date(unzigzag(input.readVarLong()));
+            case SQL_DATE:
+                return new java.sql.Date(unzigzag(input.readVarLong()));
+            case SQL_TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(unzigzag(input.readVarLong()));
+                timestamp.setNanos((int) input.readVarLong());
+                return timestamp;
+            case ARRAY_LIST: {
+                int size = input.readSize();
+                List<Object> list = Lists.newArrayListWithCapacity(size);
+                this.readCollection(input, list, size);
+                return list;
+            }
+            case OBJECT_ARRAY: {
+                int size = input.readSize();
+                Object[] array = new Object[size];
+                for (int i = 0; i < size; i++) {
+                    array[i] = this.read(input);
+                }
+                return array;
+            }
+            case HASH_SET: {
+                int size = input.readSize();
+                Set<Object> set = Sets.newHashSetWithExpectedSize(size);
+                this.readCollection(input, set, size);
+                return set;
+            }
+            case LINKED_HASH_SET: {
+                int size = input.readSize();
+                Set<Object> set = Sets.newLinkedHashSetWithExpectedSize(size);
+                this.readCollection(input, set, size);
+                return set;
+            }
+            case HASH_MAP: {
+                int size = input.readSize();
+                Map<Object, Object> map = Maps.newHashMapWithExpectedSize(size);
+                this.readMap(input, map, size);
+                return map;
+            }
+            case LINKED_HASH_MAP: {
+                int size = input.readSize();
+                Map<Object, Object> map = Maps.newLinkedHashMapWithExpectedSize(size);
+                this.readMap(input, map, size);
+                return map;
+            }
+            case CASE_INSENSITIVE_MAP: {
+                int size = input.readSize();
+                Map<String, Object> map = new LinkedCaseInsensitiveMap<>(size);
+                for (int i = 0; i < size; i++) {
+                    map.put((String) this.read(input), this.read(input));
+                }
+                return map;
+            }
+            case OBJECT: {
+                int id = (int) input.readVarLong();
+                ClassInfo classInfo = this.idMap.get(id);
+                if (classInfo == null) {
+                    throw new SerializationFailedException("unknown class-id " + id);
+                }
+                int fieldCount = (int) input.readVarLong();
+                if (fieldCount != classInfo.fields.length) {
+                    throw new SerializationFailedException(classInfo.clazz.getName() + " field count mismatch, expected "
+                            + classInfo.fields.length + " but was " + fieldCount);
+                }
+                Object object = classInfo.constructor.newInstance();
+                for (Field field : classInfo.fields) {
+                    field.set(object, this.read(input));
+                }
+                return object;
+            }
+            case JAVA:
+                if (!input.jdkAllowed) {
+                    throw new SerializationFailedException("JDK serialized payload is not allowed in untrusted data");
+                }
+                return this.jdkSerializer.deserialize(input.readBytes());
+            default:
+                throw new SerializationFailedException("unknown type " + type);
+        }
+    }
+
+    private void readCollection(Input input, Collection<Object> collection, int size) throws Exception {
+        for (int i = 0; i < size; i++) {
+            collection.add(this.read(input));
+        }
+    }
+
+    private void readMap(Input input, Map<Object, Object> map, int size) throws Exception {
+        for (int i = 0; i < size; i++) {
+            map.put(this.read(input), this.read(input));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 注册类的元数据
+     */
+    private static final class ClassInfo {
+
+        private final int id;
+
+        private final Class<?> clazz;
+
+        private final Constructor<?> constructor;
+
+        //父类字段在前，同一个类中的字段按字段名排序
+        private final Field[] fields;
+
+        private ClassInfo(int id, Class<?> clazz) {
+            this.id = id;
+            this.clazz = clazz;
+            try {
+                this.constructor = ReflectionUtils.accessibleConstructor(clazz);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(clazz.getName() + " must declare a no-arg constructor", e);
+            }
+            List<Class<?>> hierarchy = Lists.newArrayList();
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+                hierarchy.add(0, current);
+            }
+            List<Field> fieldList = Lists.newArrayList();
+            for (Class<?> current : hierarchy) {
+                List<Field> declaredFields = Lists.newArrayList();
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    ReflectionUtils.makeAccessible(field);
+                    declaredFields.add(field);
+                }
+                declaredFields.sort(Comparator.comparing(Field::getName));
+                fieldList.addAll(declaredFields);
+            }
+            this.fields = fieldList.toArray(new Field[0]);
+        }
+    }
+
+    /**
+     * 可复用的输出缓冲区
+     */
+    private static final class Output {
+
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        private int size;
+
+        private void writeByte(int value) {
+            this.ensure(1);
+            this.buffer[this.size++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            this.writeVarLong(bytes.length);
+            this.ensure(bytes.length);
+            System.arraycopy(bytes, 0, this.buffer, this.size, bytes.length);
+            this.size += bytes.length;
+        }
+
+        private void writeVarLong(long value) {
+            this.ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buffer[this.size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.buffer[this.size++] = (byte) value;
+        }
+
+        private void writeFixedInt(int value) {
+            this.ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                this.buffer[this.size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeFixedLong(long value) {
+            this.ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                this.buffer[this.size++] = (byte) (value >>> shift);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(this.buffer, this.size);
+        }
+
+        private void reset() {
+            this.size = 0;
+            if (this.buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+                this.buffer = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+
+        private void ensure(int length) {
+            if (this.size + length <= this.buffer.length) {
+                return;
+            }
+            int newLength = Math.max(this.buffer.length << 1, this.size + length);
+            this.buffer = Arrays.copyOf(this.buffer, newLength);
+        }
+    }
+
+    /**
+     * 输入
+     */
+    private static final class Input {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        //是否允许内嵌的JDK序列化数据（不可信的数据不允许）
+        private final boolean jdkAllowed;
+
+        private Input(byte[] buffer, boolean jdkAllowed) {
+            this.buffer = buffer;
+            this.jdkAllowed = jdkAllowed;
+        }
+
+        private byte readByte() {
+            this.check(1);
+            return this.buffer[this.position++];
+        }
+
+        private byte[] readBytes() {
+            int length = this.readSize();
+            byte[] bytes = Arrays.copyOfRange(this.buffer, this.position, this.position + length);
+            this.position += length;
+            return bytes;
+        }
+
+        private String readString() {
+            int length = this.readSize();
+            String value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+            this.position += length;
+            return value;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = this.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SerializationFailedException("malformed varint");
+        }
+
+        private int readFixedInt() {
+            this.check(4);
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (this.buffer[this.position++] & 0xFF);
+            }
+            return value;
+        }
+
+        private long readFixedLong() {
+            this.check(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (this.buffer[this.position++] & 0xFF);
+            }
+            return value;
+        }
+
+        /**
+         * 读取集合大小或字节长度，每个元素至少占1个字节，所以大小不可能超过剩余字节数
+         *
+         * @return
+         */
+        private int readSize() {
+            long size = this.readVarLong();
+            if (size < 0 || size > this.buffer.length - this.position) {
+                throw new SerializationFailedException("malformed size " + size);
+            }
+            return (int) size;
+        }
+
+        private void check(int length) {
+            if (this.position + length > this.buffer.length) {
+                throw new SerializationFailedException("unexpected end of payload");
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.microboot.cache.bean;
+
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.func.SerializerFunc;
+import org.springframework.core.serializer.support.SerializationFailedException;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author 胡鹏
+ *
+ * 带压缩的序列化（装饰其他的SerializerFunc）
+ *
+ * 1、序列化后的字节数小于threshold时，不压缩，数据格式与被装饰的SerializerFunc完全一致
+ * 2、序列化后的字节数大于等于threshold时，使用Deflater压缩，格式：1个字节的header（0xC1） + 4个字节的原始长度 + 压缩后的数据
+ *    如果压缩后反而更大，则不压缩
+ * 3、反序列化时根据header判断是否需要解压，所以开启压缩之前写入的数据依然可以读取
+ *
+ * 0xC1在UTF-8中是非法字节，JDK序列化以0xAC开头，CompactSerializer的类型标记都小于0x40，所以不会与未压缩的数据冲突
+ *
+ * Deflater，Inflater和压缩缓冲区都放在池中复用，避免每次压缩都申请native内存和大数组
+ */
+public class CompressingSerializer implements SerializerFunc {
+
+    public static final byte HEADER = (byte) 0xC1;
+
+    //header + 原始长度
+    private static final int HEADER_LENGTH = 5;
+
+    //缓冲区的初始大小
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    //缓冲区超过这个大小后不再复用
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+    private final SerializerFunc serializerFunc;
+
+    //压缩阈值（单位：字节）
+    private final int threshold;
+
+    //压缩级别
+    private final int level;
+
+    private final BlockingQueue<Codec> codecs;
+
+    /******************************************** 统计 **********************************************/
+    //压缩的次数
+    private final LongAdder compressCount = new LongAdder();
+    //未压缩的次数（小于阈值或压缩后更大）
+    private final LongAdder skipCount = new LongAdder();
+    //解压的次数
+    private final LongAdder decompressCount = new LongAdder();
+    //压缩前的字节数
+    private final LongAdder rawBytes = new LongAdder();
+    //压缩后的字节数
+    private final LongAdder compressedBytes = new LongAdder();
+    //压缩耗时（单位：纳秒）
+    private final LongAdder compressNanos = new LongAdder();
+    //解压耗时（单位：纳秒）
+    private final LongAdder decompressNanos = new LongAdder();
+
+    public CompressingSerializer(SerializerFunc serializerFunc, int threshold, int level) {
+        this.serializerFunc = serializerFunc;
+        this.threshold = threshold;
+        this.level = level;
+        this.codecs = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    @Override
+    public byte[] serialize(Object value) {
+        return this.compress(this.serializerFunc.serialize(value));
+    }
+
+    /**
+     * 被装饰的SerializerFunc与共享的序列化方式相同时，直接压缩共享的数据
+     *
+     * @param serializedValue
+     * @return
+     */
+    @Override
+    public byte[] serialize(SerializedValue serializedValue) {
+        if (serializedValue.getSerializerFunc() == this) {
+            return serializedValue.getBytes();
+        }
+        return this.compress(this.serializerFunc.serialize(serializedValue));
+    }
+
+    /**
+     * 压缩已经序列化的数据
+     *
+     * @param bytes
+     * @return
+     */
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null || bytes.length < this.threshold) {
+            this.skipCount.increment();
+            return bytes;
+        }
+        long start = System.nanoTime();
+        Codec codec = this.borrow();
+        try {
+            byte[] compressed = codec.compress(bytes);
+            if (compressed == null) {
+                this.skipCount.increment();
+                return bytes;
+            }
+            this.compressCount.increment();
+            this.rawBytes.add(bytes.length);
+            this.compressedBytes.add(compressed.length);
+            return compressed;
+        } finally {
+            this.release(codec);
+            this.compressNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean canSerialize(Object value) {
+        return this.serializerFunc.canSerialize(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH || bytes[0] != HEADER) {
+            return this.serializerFunc.deserialize(bytes);
+        }
+        long start = System.nanoTime();
+        Codec codec = this.borrow();
+        byte[] decompressed;
+        try {
+            decompressed = codec.decompress(bytes);
+        } catch (DataFormatException e) {
+            throw new SerializationFailedException("Failed to decompress payload", e);
+        } finally {
+            this.release(codec);
+            this.decompressNanos.add(System.nanoTime() - start);
+        }
+        this.decompressCount.increment();
+        return this.serializerFunc.deserialize(decompressed);
+    }
+
+    public SerializerFunc getSerializerFunc() {
+        return serializerFunc;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getCompressCount() {
+        return compressCount.sum();
+    }
+
+    public long getSkipCount() {
+        return skipCount.sum();
+    }
+
+    public long getDecompressCount() {
+        return decompressCount.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    /**
+     * 压缩率（压缩后的字节数 / 压缩前的字节数），没有压缩过时返回1
+     *
+     * @return
+     */
+    public double getCompressionRatio() {
+        long raw = this.rawBytes.sum();
+        return raw == 0 ? 1D : (double) this.compressedBytes.sum() / raw;
+    }
+
+    private Codec borrow() {
+        Codec codec = this.codecs.poll();
+        return codec != null ? codec : new Codec(this.level);
+    }
+
+    /**
+     * 池满了则释放Deflater和Inflater占用的native内存
+     *
+     * @param codec
+     */
+    private void release(Codec codec) {
+        if (codec.buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+            codec.buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        if (!this.codecs.offer(codec)) {
+            codec.end();
+        }
+    }
+
+    /**
+     * 压缩/解压的工具，非线程安全，通过池保证同一时间只被一个线程使用
+     */
+    private static final class Codec {
+
+        private final Deflater deflater;
+
+        private final Inflater inflater = new Inflater();
+
+        private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+        private Codec(int level) {
+            this.deflater = new Deflater(level);
+        }
+
+        /**
+         * 压缩，压缩后不小于原始数据时返回null
+         *
+         * @param bytes
+         * @return
+         */
+        private byte[] compress(byte[] bytes) {
+            this.deflater.reset();
+            this.deflater.setInput(bytes);
+            this.deflater.finish();
+            if (this.buffer.length < bytes.length + HEADER_LENGTH) {
+                this.buffer = new byte[bytes.length + HEADER_LENGTH];
+            }
+            int length = HEADER_LENGTH;
+            while (!this.deflater.finished()) {
+                if (length >= bytes.length) {
+                    return null;
+                }
+                length += this.deflater.deflate(this.buffer, length, bytes.length - length);
+            }
+            if (length >= bytes.length) {
+                return null;
+            }
+            this.buffer[0] = HEADER;
+            this.buffer[1] = (byte) (bytes.length >>> 24);
+            this.buffer[2] = (byte) (bytes.length >>> 16);
+            this.buffer[3] = (byte) (bytes.length >>> 8);
+            this.buffer[4] = (byte) bytes.length;
+            return Arrays.copyOf(this.buffer, length);
+        }
+
+        private byte[] decompress(byte[] bytes) throws DataFormatException {
+            int rawLength = ((bytes[1] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16) | ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+            if (rawLength < 0) {
+                throw new DataFormatException("malformed length " + rawLength);
+            }
+            this.inflater.reset();
+            this.inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            byte[] decompressed = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength) {
+                int count = this.inflater.inflate(decompressed, length, rawLength - length);
+                if (count == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary() || this.inflater.finished())) {
+                    throw new DataFormatException("truncated payload");
+                }
+                length += count;
+            }
+            return decompressed;
+        }
+
+        private void end() {
+            this.deflater.end();
+            this.inflater.end();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.microboot.cache.bean;
+
+import org.microboot.cache.func.BloomFilterFunc;
+import org.microboot.cache.func.BloomFilterLoaderFunc;
+import org.microboot.cache.utils.BloomFilterUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * @author 胡鹏
+ *
+ * 进程内的布隆过滤器：可扩容（Scalable Bloom Filter） + 计数型（Counting Bloom Filter）
+ *
+ * 1、计数：每个位置是一个4位的计数器（一个long存16个），写入加1，删除减1，计数器到15后不再变化（避免溢出后减到0造成漏判）
+ * 2、扩容：当前分片的写入数量达到容量后，追加一个容量翻倍，误判率减半的新分片
+ *    查询时任意一个分片命中即命中，总的误判率不超过fpp（第一个分片使用fpp / 2，之后每个减半，等比数列之和为fpp）
+ * 3、删除：从包含这个key的最新分片中删除，只能删除确实写入过的key，否则可能把其他key的计数减到0
+ *    误删造成的影响会在下一次重建后消除
+ * 4、重建：构建期间的写入同时写到新老两个过滤器中，构建完成后替换，读写锁只在开始和替换时持有写锁
+ *
+ * 第一次重建完成之前，mightContain始终返回true
+ */
+public class CountingBloomFilter implements BloomFilterFunc {
+
+    //每次扩容时容量的倍数
+    private static final int GROWTH = 2;
+
+    //每次扩容时误判率的比例
+    private static final double TIGHTENING = 0.5;
+
+    //最多的分片数量，达到后不再扩容（误判率会逐渐升高）
+    private static final int MAX_SLICES = 16;
+
+    private final long expectedInsertions;
+
+    private final double fpp;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile Slices current;
+
+    //正在重建的过滤器，为null表示没有在重建
+    private volatile Slices rebuilding;
+
+    //是否已经完成了第一次重建
+    private volatile boolean populated;
+
+    public CountingBloomFilter(long expectedInsertions, double fpp) {
+        this.expectedInsertions = Math.max(1L, expectedInsertions);
+        this.fpp = Math.min(0.5, Math.max(Double.MIN_VALUE, fpp));
+        this.current = new Slices();
+    }
+
+    @Override
+    public boolean mightContain(byte[] key) {
+        return !this.populated || this.current.mightContain(BloomFilterUtils.hash(key));
+    }
+
+    @Override
+    public void put(byte[] key) {
+        long hash = BloomFilterUtils.hash(key);
+        this.lock.readLock().lock();
+        try {
+            this.current.put(hash);
+            Slices rebuilding = this.rebuilding;
+            if (rebuilding != null) {
+                rebuilding.put(hash);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        long hash = BloomFilterUtils.hash(key);
+        this.lock.readLock().lock();
+        try {
+            this.current.remove(hash);
+            Slices rebuilding = this.rebuilding;
+            if (rebuilding != null) {
+                rebuilding.remove(hash);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void rebuild(BloomFilterLoaderFunc loaderFunc, Function<Object, byte[]> keyFunc) throws Exception {
+        Slices next = new Slices();
+        //持有写锁时，没有正在执行的put，之后的put都会同时写到next中
+        this.lock.writeLock().lock();
+        try {
+            this.rebuilding = next;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        boolean success = false;
+        try {
+            loaderFunc.load(key -> {
+                if (key != null) {
+                    next.put(BloomFilterUtils.hash(keyFunc.apply(key)));
+                }
+            });
+            success = true;
+        } finally {
+            this.lock.writeLock().lock();
+            try {
+                if (success) {
+                    this.current = next;
+                    this.populated = true;
+                }
+                this.rebuilding = null;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public double getExpectedFpp() {
+        return this.populated ? this.current.getExpectedFpp() : 0D;
+    }
+
+    @Override
+    public long getApproximateCount() {
+        return this.current.getCount();
+    }
+
+    /**
+     * 可扩容的分片集合
+     */
+    private final class Slices {
+
+        private volatile Slice[] slices;
+
+        private Slices() {
+            this.slices = new Slice[]{new Slice(expectedInsertions, fpp * (1 - TIGHTENING))};
+        }
+
+        private boolean mightContain(long hash) {
+            for (Slice slice : this.slices) {
+                if (slice.mightContain(hash)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void put(long hash) {
+            Slice[] slices = this.slices;
+            Slice last = slices[slices.length - 1];
+            if (last.isFull() && slices.length < MAX_SLICES) {
+                last = this.grow(last);
+            }
+            last.add(hash, 1);
+        }
+
+        private void remove(long hash) {
+            Slice[] slices = this.slices;
+            for (int i = slices.length - 1; i >= 0; i--) {
+                if (slices[i].mightContain(hash)) {
+                    slices[i].add(hash, -1);
+                    return;
+                }
+            }
+        }
+
+        private synchronized Slice grow(Slice full) {
+            Slice[] slices = this.slices;
+            Slice last = slices[slices.length - 1];
+            //其他线程已经扩容
+            if (last != full) {
+                return last;
+            }
+            Slice next = new Slice(full.capacity * GROWTH, full.fpp * TIGHTENING);
+            Slice[] grown = Arrays.copyOf(slices, slices.length + 1);
+            grown[slices.length] = next;
+            this.slices = grown;
+            return next;
+        }
+
+        private double getExpectedFpp() {
+            double none = 1D;
+            for (Slice slice : this.slices) {
+                none *= 1 - BloomFilterUtils.expectedFpp(slice.count.sum(), slice.hashes, slice.bits);
+            }
+            return 1 - none;
+        }
+
+        private long getCount() {
+            long count = 0;
+            for (Slice slice : this.slices) {
+                count += slice.count.sum();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 一个固定大小的计数型布隆过滤器
+     */
+    private static final class Slice {
+
+        private final long capacity;
+
+        private final double fpp;
+
+        private final int bits;
+
+        private final int hashes;
+
+        //4位的计数器，每个long存16个
+        private final AtomicLongArray counters;
+
+        private final LongAdder count = new LongAdder();
+
+        private Slice(long capacity, double fpp) {
+            this.capacity = capacity;
+            this.fpp = fpp;
+            this.bits = BloomFilterUtils.optimalNumOfBits(capacity, fpp);
+            this.hashes = BloomFilterUtils.optimalNumOfHashFunctions(capacity, this.bits);
+            this.counters = new AtomicLongArray((int) ((this.bits + 15L) >>> 4));
+        }
+
+        private boolean isFull() {
+            return this.count.sum() >= this.capacity;
+        }
+
+        private boolean mightContain(long hash) {
+            for (int i = 1; i <= this.hashes; i++) {
+                int index = BloomFilterUtils.index(hash, i, this.bits);
+                if (((this.counters.get(index >>> 4) >>> ((index & 15) << 2)) & 0xF) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void add(long hash, int delta) {
+            for (int i = 1; i <= this.hashes; i++) {
+                this.add(BloomFilterUtils.index(hash, i, this.bits), delta);
+            }
+            if (delta > 0) {
+                this.count.increment();
+            } else {
+                this.count.decrement();
+            }
+        }
+
+        private void add(int index, int delta) {
+            int word = index >>> 4;
+            int shift = (index & 15) << 2;
+            while (true) {
+                long old = this.counters.get(word);
+                long counter = (old >>> shift) & 0xF;
+                //计数器已经饱和（不再变化），或者已经是0
+                if (counter == 0xF || (delta < 0 && counter == 0)) {
+                    return;
+                }
+                if (this.counters.compareAndSet(word, old, old + ((long) delta << shift))) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.microboot.cache.bean;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.Maps;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.utils.BloomFilterUtils;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 热点key探测，以及热点key的本地提升层
+ *
+ * 少量热点key会占用中央缓存（如：Redis）的大部分流量，并集中在同一个节点上
+ * 开启后，CacheImpl在多级缓存中命中数据时记录访问，热点key的数据被提升到一个很小的本地缓存中，之后直接从本地返回：
+ * 1、采样：每sampleRate次访问记录一次，访问次数的估计值 = 计数 * sampleRate
+ * 2、Count-Min Sketch：DEPTH行计数器，每个key在每一行对应一个计数器，估计值取最小值（只会高估，不会低估）
+ *    保守更新：只增加等于最小值的计数器，减少hash冲突造成的高估
+ * 3、衰减：每个window所有计数器减半，估计值近似于最近几个window的访问次数，不再访问的key会逐渐冷却
+ * 4、Top-K：估计值最大的topK个key及其估计值，可以通过JMX和actuator查看
+ * 5、提升：估计值达到threshold的key，数据写入本地提升层（容量topK，过期时间ttl）
+ *
+ * 注意：
+ * 1、本服务中的写入（put，evict，clear）会同时删除提升层中的数据
+ * 2、其他服务的写入只能等提升层中的数据过期，所以ttl应该很短（默认1秒），即热点key最多读到ttl毫秒的旧数据
+ * 3、中央缓存的缓存线（没有本地缓存）同样生效
+ */
+public class HotKeyDetector implements HotKeyMXBean {
+
+    //Count-Min Sketch的行数
+    private static final int DEPTH = 4;
+
+    private final int width;
+
+    private final int sampleRate;
+
+    private final long threshold;
+
+    private final long window;
+
+    private final int topK;
+
+    //DEPTH * width个计数器
+    private final AtomicIntegerArray counters;
+
+    //key -> 估计值
+    private final ConcurrentMap<CacheKey, Long> top = Maps.newConcurrentMap();
+
+    //提升层：newKey -> 缓存中的数据（与各级缓存中存储的数据一致）
+    private final Cache<CacheKey, Object> promoted;
+
+    //当前window的开始时间
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    private final LongAdder sampleCount = new LongAdder();
+
+    private final LongAdder promotionCount = new LongAdder();
+
+    private final LongAdder promotedHitCount = new LongAdder();
+
+    /**
+     * @param width      每一行的计数器数量（向上取整为2的幂）
+     * @param sampleRate 每sampleRate次访问记录一次
+     * @param threshold  提升的阈值（每个window的访问次数）
+     * @param window     衰减周期（毫秒）
+     * @param topK       Top-K的数量，同时也是提升层的容量
+     * @param ttl        提升层的过期时间（毫秒）
+     */
+    public HotKeyDetector(int width, int sampleRate, long threshold, long window, int topK, long ttl) {
+        this.width = Math.max(16, Integer.highestOneBit(Math.max(1, width - 1)) << 1);
+        this.sampleRate = Math.max(1, sampleRate);
+        this.threshold = Math.max(1, threshold);
+        this.window = Math.max(1, window);
+        this.topK = Math.max(1, topK);
+        this.counters = new AtomicIntegerArray(DEPTH * this.width);
+        this.promoted = Caffeine.newBuilder()
+                .maximumSize(this.topK)
+                .expireAfterWrite(Math.max(1, ttl), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 查询提升层
+     *
+     * @param newKey
+     * @return 为null表示没有提升
+     */
+    public Object getPromoted(CacheKey newKey) {
+        Object cacheValue = this.promoted.getIfPresent(newKey);
+        if (cacheValue != null) {
+            this.promotedHitCount.increment();
+        }
+        return cacheValue;
+    }
+
+    /**
+     * 记录一次命中，估计值达到阈值时提升到本地
+     *
+     * @param newKey
+     * @param cacheValue 各级缓存中命中的数据
+     */
+    public void record(CacheKey newKey, Object cacheValue) {
+        if (this.sampleRate > 1 && ThreadLocalRandom.current().nextInt(this.sampleRate) != 0) {
+            return;
+        }
+        this.sampleCount.increment();
+        this.decayIfNecessary();
+        long estimate = (long) this.increment(BloomFilterUtils.hash(newKey.getBytes())) * this.sampleRate;
+        this.updateTop(newKey, estimate);
+        if (estimate >= this.threshold && cacheValue != null) {
+            this.promoted.put(newKey, cacheValue);
+            this.promotionCount.increment();
+        }
+    }
+
+    /**
+     * 数据被修改，删除提升层中的数据
+     *
+     * @param newKey
+     */
+    public void invalidate(CacheKey newKey) {
+        this.promoted.invalidate(newKey);
+    }
+
+    public void invalidateAll() {
+        this.promoted.invalidateAll();
+    }
+
+    /**
+     * 当前的Top-K（按估计值从大到小）
+     *
+     * @return
+     */
+    @Override
+    public Map<String, Long> getTopKeys() {
+        Map<String, Long> topKeys = Maps.newLinkedHashMap();
+        this.top.entrySet().stream()
+                .sorted(Map.Entry.<CacheKey, Long>comparingByValue().reversed())
+                .forEach(entry -> topKeys.put(entry.getKey().toString(), entry.getValue()));
+        return topKeys;
+    }
+
+    @Override
+    public long getPromotedSize() {
+        return this.promoted.estimatedSize();
+    }
+
+    @Override
+    public long getSampleCount() {
+        return sampleCount.sum();
+    }
+
+    @Override
+    public long getPromotionCount() {
+        return promotionCount.sum();
+    }
+
+    @Override
+    public long getPromotedHitCount() {
+        return promotedHitCount.sum();
+    }
+
+    /**
+     * 保守更新：只增加等于最小值的计数器
+     *
+     * @param hash
+     * @return 增加后的估计值（计数）
+     */
+    private int increment(long hash) {
+        int[] indexes = new int[DEPTH];
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            indexes[i] = i * this.width + BloomFilterUtils.index(hash, i + 1, this.width);
+            min = Math.min(min, this.counters.get(indexes[i]));
+        }
+        if (min == Integer.MAX_VALUE) {
+            return min;
+        }
+        for (int index : indexes) {
+            //并发时其他线程可能已经增加，只在仍然等于最小值时增加
+            this.counters.compareAndSet(index, min, min + 1);
+        }
+        return min + 1;
+    }
+
+    /**
+     * 新的估计值大于Top-K中的最小值时替换
+     *
+     * @param newKey
+     * @param estimate
+     */
+    private void updateTop(CacheKey newKey, long estimate) {
+        if (this.top.containsKey(newKey) || this.top.size() < this.topK) {
+            this.top.put(newKey, estimate);
+            return;
+        }
+        Map.Entry<CacheKey, Long> min = this.top.entrySet().stream().min(Comparator.comparingLong(Map.Entry::getValue)).orElse(null);
+        if (min != null && min.getValue() < estimate && this.top.remove(min.getKey(), min.getValue())) {
+            this.top.put(newKey, estimate);
+        }
+    }
+
+    /**
+     * 每个window所有计数器（以及Top-K的估计值）减半，只有一个线程执行
+     */
+    private void decayIfNecessary() {
+        long start = this.windowStart.get();
+        long now = System.currentTimeMillis();
+        if (now - start < this.window || !this.windowStart.compareAndSet(start, now)) {
+            return;
+        }
+        for (int i = 0; i < this.counters.length(); i++) {
+            int value;
+            do {
+                value = this.counters.get(i);
+            } while (value != 0 && !this.counters.compareAndSet(i, value, value >>> 1));
+        }
+        this.top.replaceAll((key, estimate) -> estimate >>> 1);
+        this.top.values().removeIf(estimate -> estimate == 0);
+    }
+}
@@ -0,0 +1,24 @@
+package org.microboot.cache.bean;
+
+import java.util.Map;
+
+/**
+ * @author 胡鹏
+ *
+ * 热点key的JMX接口
+ */
+public interface HotKeyMXBean {
+
+    /**
+     * @return key -> 每个window的访问次数的估计值（按估计值从大到小）
+     */
+    Map<String, Long> getTopKeys();
+
+    long getPromotedSize();
+
+    long getSampleCount();
+
+    long getPromotionCount();
+
+    long getPromotedHitCount();
+}
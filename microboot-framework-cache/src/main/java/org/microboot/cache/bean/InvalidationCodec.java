@@ -0,0 +1,286 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.entity.CacheMessage;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * @author 胡鹏
+ *
+ * 本地缓存清除消息的二进制编码（用于不依赖消息中间件的传输方式：UDP组播，TCP）
+ *
+ * 数据包格式：
+ * magic(2) + format(1) + senderId(8) + sequence(8) + count(2) + count条消息
+ *
+ * 消息格式：
+ * flags(1) + uniqueId长度(2) + uniqueId(UTF-8) + [key长度(4) + key(UTF-8)] + [version(8)] + [fingerprint(8)] + [tag长度(4) + tag(UTF-8)] + [value长度(4) + value]
+ * flags的第0，1，2，3，4位分别表示key，version，fingerprint，tag，value是否存在
+ *
+ * sequence是发送方的数据包序号（从1开始连续递增），接收方据此判断是否丢包
+ *
+ * format：1是没有tag的老格式，2增加了tag，3增加了value（推送更新），4的key改为UTF-8字符串，解码时四种格式都支持
+ *
+ * 安全：数据包来自没有认证的UDP组播和TCP端口，解码时不能使用任何可能回退到JDK反序列化的方式
+ * 1、key只支持String和CacheKey（消息中的key只用于重新构建newKey），编码时其他类型直接拒绝
+ * 2、老格式（1，2，3）的key是CompactSerializer编码的，只解析其中的字符串，其他类型的key视为已损坏的数据包
+ */
+public final class InvalidationCodec {
+
+    private static final short MAGIC = 0x4D42;
+
+    private static final byte FORMAT = 4;
+
+    private static final byte FORMAT_V3 = 3;
+
+    private static final byte FORMAT_V1 = 1;
+
+    private static final byte FORMAT_V2 = 2;
+
+    public static final int HEADER_LENGTH = 2 + 1 + 8 + 8 + 2;
+
+    private static final int FLAG_KEY = 1;
+
+    private static final int FLAG_VERSION = 1 << 1;
+
+    private static final int FLAG_FINGERPRINT = 1 << 2;
+
+    private static final int FLAG_TAG = 1 << 3;
+
+    private static final int FLAG_VALUE = 1 << 4;
+
+    //老格式中CompactSerializer的字符串类型标记
+    private static final byte LEGACY_STRING = 11;
+
+    private InvalidationCodec() {
+    }
+
+    /**
+     * 编码单条消息，key不是String或CacheKey时抛出IllegalArgumentException
+     *
+     * @param cacheMessage
+     * @return
+     */
+    public static byte[] encode(CacheMessage cacheMessage) {
+        byte[] uniqueId = cacheMessage.getUniqueId() == null
+                ? new byte[0] : cacheMessage.getUniqueId().getBytes(StandardCharsets.UTF_8);
+        byte[] key = encodeKey(cacheMessage.getKey());
+        byte[] tag = cacheMessage.getTag() == null ? null : cacheMessage.getTag().getBytes(StandardCharsets.UTF_8);
+        byte[] value = cacheMessage.getValue();
+        int flags = 0;
+        int length = 1 + 2 + uniqueId.length;
+        if (key != null) {
+            flags |= FLAG_KEY;
+            length += 4 + key.length;
+        }
+        if (cacheMessage.getVersion() != null) {
+            flags |= FLAG_VERSION;
+            length += 8;
+        }
+        if (cacheMessage.getFingerprint() != null) {
+            flags |= FLAG_FINGERPRINT;
+            length += 8;
+        }
+        if (tag != null) {
+            flags |= FLAG_TAG;
+            length += 4 + tag.length;
+        }
+        if (value != null) {
+            flags |= FLAG_VALUE;
+            length += 4 + value.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put((byte) flags);
+        buffer.putShort((short) uniqueId.length);
+        buffer.put(uniqueId);
+        if (key != null) {
+            buffer.putInt(key.length);
+            buffer.put(key);
+        }
+        if (cacheMessage.getVersion() != null) {
+            buffer.putLong(cacheMessage.getVersion());
+        }
+        if (cacheMessage.getFingerprint() != null) {
+            buffer.putLong(cacheMessage.getFingerprint());
+        }
+        if (tag != null) {
+            buffer.putInt(tag.length);
+            buffer.put(tag);
+        }
+        if (value != null) {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 将多条已编码的消息组装成数据包
+     *
+     * @param senderId
+     * @param sequence
+     * @param messages
+     * @return
+     */
+    public static byte[] packet(long senderId, long sequence, List<byte[]> messages) {
+        int length = HEADER_LENGTH;
+        for (byte[] message : messages) {
+            length += message.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putShort(MAGIC);
+        buffer.put(FORMAT);
+        buffer.putLong(senderId);
+        buffer.putLong(sequence);
+        buffer.putShort((short) messages.size());
+        for (byte[] message : messages) {
+            buffer.put(message);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 解码数据包，不是本格式或已损坏的数据包返回null
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static Packet decode(byte[] bytes, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+        try {
+            if (buffer.getShort() != MAGIC) {
+                return null;
+            }
+            byte format = buffer.get();
+            if (format != FORMAT && format != FORMAT_V3 && format != FORMAT_V2 && format != FORMAT_V1) {
+                return null;
+            }
+            long senderId = buffer.getLong();
+            long sequence = buffer.getLong();
+            int count = buffer.getShort() & 0xFFFF;
+            List<CacheMessage> cacheMessages = Lists.newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                int flags = buffer.get();
+                byte[] uniqueId = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(uniqueId);
+                CacheMessage cacheMessage = new CacheMessage();
+                cacheMessage.setUniqueId(uniqueId.length == 0 ? null : new String(uniqueId, StandardCharsets.UTF_8));
+                if ((flags & FLAG_KEY) != 0) {
+                    int keyLength = buffer.getInt();
+                    if (keyLength < 0 || keyLength > buffer.remaining()) {
+                        return null;
+                    }
+                    byte[] key = new byte[keyLength];
+                    buffer.get(key);
+                    String decodedKey = format == FORMAT ? new String(key, StandardCharsets.UTF_8) : decodeLegacyKey(key);
+                    if (decodedKey == null) {
+                        return null;
+                    }
+                    cacheMessage.setKey(decodedKey);
+                }
+                if ((flags & FLAG_VERSION) != 0) {
+                    cacheMessage.setVersion(buffer.getLong());
+                }
+                if ((flags & FLAG_FINGERPRINT) != 0) {
+                    cacheMessage.setFingerprint(buffer.getLong());
+                }
+                if ((flags & FLAG_TAG) != 0) {
+                    int tagLength = buffer.getInt();
+                    if (tagLength < 0 || tagLength > buffer.remaining()) {
+                        return null;
+                    }
+                    byte[] tag = new byte[tagLength];
+                    buffer.get(tag);
+                    cacheMessage.setTag(new String(tag, StandardCharsets.UTF_8));
+                }
+                if ((flags & FLAG_VALUE) != 0) {
+                    int valueLength = buffer.getInt();
+                    if (valueLength < 0 || valueLength > buffer.remaining()) {
+                        return null;
+                    }
+                    byte[] value = new byte[valueLength];
+                    buffer.get(value);
+                    cacheMessage.setValue(value);
+                }
+                cacheMessages.add(cacheMessage);
+            }
+            return new Packet(senderId, sequence, cacheMessages);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    private static byte[] encodeKey(Object key) {
+        if (key == null) {
+            return null;
+        }
+        if (key instanceof String) {
+            return ((String) key).getBytes(StandardCharsets.UTF_8);
+        }
+        if (key instanceof CacheKey) {
+            return ((CacheKey) key).getBytes();
+        }
+        throw new IllegalArgumentException("invalidation key must be a String or CacheKey, but was " + key.getClass().getName());
+    }
+
+    /**
+     * 老格式的key：CompactSerializer编码的字符串，即类型标记(1) + varint长度 + UTF-8
+     *
+     * @param key
+     * @return 不是字符串，或者已损坏时返回null
+     */
+    private static String decodeLegacyKey(byte[] key) {
+        if (key.length == 0 || key[0] != LEGACY_STRING) {
+            return null;
+        }
+        int position = 1;
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= key.length || shift >= 35) {
+                return null;
+            }
+            byte b = key[position++];
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length != key.length - position) {
+            return null;
+        }
+        return new String(key, position, (int) length, StandardCharsets.UTF_8);
+    }
+
+    public static final class Packet {
+
+        private final long senderId;
+
+        private final long sequence;
+
+        private final List<CacheMessage> cacheMessages;
+
+        private Packet(long senderId, long sequence, List<CacheMessage> cacheMessages) {
+            this.senderId = senderId;
+            this.sequence = sequence;
+            this.cacheMessages = cacheMessages;
+        }
+
+        public long getSenderId() {
+            return senderId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public List<CacheMessage> getCacheMessages() {
+            return cacheMessages;
+        }
+    }
+}
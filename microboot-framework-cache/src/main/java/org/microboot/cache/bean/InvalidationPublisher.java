@@ -0,0 +1,274 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.CacheMessage;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.entity.TaggedValue;
+import org.microboot.cache.func.MQProviderFunc;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.core.bean.ApplicationContextHolder;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 本地缓存清除消息的发布者
+ *
+ * 1、异步：消息先放入缓冲区，由后台线程发送，写缓存的线程不会阻塞在消息队列上
+ * 2、合并：缓冲区中同一个缓存的同一个key（或标签）只保留最后一条消息；清除整个缓存的消息会覆盖该缓存之前所有的消息
+ * 3、批量：缓冲区中的消息每隔window毫秒（或者攒够batchSize条）通过MQProviderFunc.publish(List)批量发送
+ * 4、有界：缓冲区超过capacity条时，将缓冲区中的消息降级为每个缓存一条清除整个缓存的消息
+ * 5、window小于等于0时退化为同步逐条发送（老版本的行为）
+ *
+ * 推送更新（pushMaxSize大于0时开启）：
+ * 写入本地缓存时，序列化后不超过pushMaxSize字节的数据随消息一起发送，其他服务直接写入本地缓存，而不是删除后再回源
+ * 1、只推送给已经缓存了这个key的服务，没有缓存的服务不会写入（避免冷数据占用其他服务的本地缓存）
+ * 2、超过pushMaxSize，序列化失败，以及带有标签的数据（TaggedValue）仍然只发送清除消息
+ * 3、同一个key合并后只保留最后一次写入的数据，与清除消息的合并规则一致
+ * 注意：消息的大小会随数据增大，UDP组播时pushMaxSize不超过cache.invalidation.multicast.packet-size的一半（见CacheConfig），
+ *      放不进一个数据包的消息只发送清除消息（见AbstractSocketProvider）
+ */
+public class InvalidationPublisher implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    private final long window;
+
+    private final int batchSize;
+
+    private final int capacity;
+
+    //推送更新的数据的最大字节数，小于等于0时不推送
+    private final int pushMaxSize;
+
+    private final Object lock = new Object();
+
+    //待发送的消息：[uniqueId, key, tag] -> CacheMessage，key和tag都为null表示清除整个缓存
+    private Map<List<Object>, CacheMessage> pending = Maps.newLinkedHashMap();
+
+    private Thread thread;
+
+    private volatile boolean running = true;
+
+    /******************************************** 统计 **********************************************/
+    //发布的消息数
+    private final LongAdder publishCount = new LongAdder();
+    //被合并的消息数
+    private final LongAdder coalescedCount = new LongAdder();
+    //批量发送的次数
+    private final LongAdder batchCount = new LongAdder();
+    //发送失败的次数
+    private final LongAdder failureCount = new LongAdder();
+    //推送更新的消息数
+    private final LongAdder pushCount = new LongAdder();
+    //超过pushMaxSize，改为清除的消息数
+    private final LongAdder oversizeCount = new LongAdder();
+
+    public InvalidationPublisher(long window, int batchSize, int capacity) {
+        this(window, batchSize, capacity, 0);
+    }
+
+    public InvalidationPublisher(long window, int batchSize, int capacity, int pushMaxSize) {
+        this.window = window;
+        this.batchSize = Math.max(1, batchSize);
+        this.capacity = Math.max(this.batchSize, capacity);
+        this.pushMaxSize = pushMaxSize;
+    }
+
+    /**
+     * 推送更新的数据（使用SerializerFunc序列化，与中央缓存中存储的格式一致，并复用同一次序列化的结果）
+     *
+     * @param serializedValue 写入本地缓存的数据
+     * @return 为null表示不推送，只发送清除消息
+     */
+    public byte[] pushValue(SerializedValue serializedValue) {
+        Object value = serializedValue.getValue();
+        if (this.pushMaxSize <= 0 || value == null || value instanceof TaggedValue) {
+            return null;
+        }
+        byte[] bytes;
+        try {
+            bytes = ApplicationContextHolder.getBean(SerializerFunc.class.getName(), SerializerFunc.class).serialize(serializedValue);
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+            return null;
+        }
+        if (bytes == null || bytes.length > this.pushMaxSize) {
+            this.oversizeCount.increment();
+            return null;
+        }
+        this.pushCount.increment();
+        return bytes;
+    }
+
+    public void publish(CacheMessage cacheMessage) {
+        this.publishCount.increment();
+        if (this.window <= 0 || !this.running) {
+            this.send(Lists.newArrayList(cacheMessage));
+            return;
+        }
+        synchronized (this.lock) {
+            if (this.thread == null) {
+                this.thread = new Thread(this::work, "invalidation-publisher");
+                this.thread.setDaemon(true);
+                this.thread.start();
+            }
+            String uniqueId = cacheMessage.getUniqueId();
+            if (cacheMessage.getKey() == null && cacheMessage.getTag() == null) {
+                //清除整个缓存的消息覆盖该缓存之前所有的消息
+                Iterator<List<Object>> iterator = this.pending.keySet().iterator();
+                while (iterator.hasNext()) {
+                    if (uniqueId.equals(iterator.next().get(0))) {
+                        iterator.remove();
+                        this.coalescedCount.increment();
+                    }
+                }
+            }
+            List<Object> pendingKey = Arrays.asList(uniqueId, cacheMessage.getKey(), cacheMessage.getTag());
+            //先删除再放入，保证消息的顺序与最后一次写入的顺序一致
+            if (this.pending.remove(pendingKey) != null) {
+                this.coalescedCount.increment();
+            }
+            this.pending.put(pendingKey, cacheMessage);
+            if (this.pending.size() > this.capacity) {
+                this.degrade();
+            }
+            if (this.pending.size() >= this.batchSize) {
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 容器关闭时，发送缓冲区中剩余的消息
+     */
+    @Override
+    public void destroy() {
+        this.running = false;
+        synchronized (this.lock) {
+            this.lock.notifyAll();
+        }
+        if (this.thread != null) {
+            try {
+                this.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.send(Lists.newArrayList(this.drain().values()));
+    }
+
+    public int getPendingCount() {
+        synchronized (this.lock) {
+            return this.pending.size();
+        }
+    }
+
+    public long getPublishCount() {
+        return publishCount.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public long getBatchCount() {
+        return batchCount.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    public int getPushMaxSize() {
+        return pushMaxSize;
+    }
+
+    public long getPushCount() {
+        return pushCount.sum();
+    }
+
+    public long getOversizeCount() {
+        return oversizeCount.sum();
+    }
+
+    private void work() {
+        while (this.running) {
+            Map<List<Object>, CacheMessage> messages;
+            try {
+                synchronized (this.lock) {
+                    while (this.running && this.pending.isEmpty()) {
+                        this.lock.wait();
+                    }
+                    //等待window毫秒，让更多的消息进入缓冲区（攒够batchSize条时提前发送）
+                    long deadline = System.currentTimeMillis() + this.window;
+                    long remaining;
+                    while (this.running && this.pending.size() < this.batchSize
+                            && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        this.lock.wait(remaining);
+                    }
+                    messages = this.drain();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            this.send(Lists.newArrayList(messages.values()));
+        }
+    }
+
+    private Map<List<Object>, CacheMessage> drain() {
+        synchronized (this.lock) {
+            Map<List<Object>, CacheMessage> messages = this.pending;
+            this.pending = Maps.newLinkedHashMap();
+            return messages;
+        }
+    }
+
+    /**
+     * 缓冲区已满（如：消息队列不可用时），改为清除整个缓存
+     */
+    private void degrade() {
+        Set<String> uniqueIds = Sets.newLinkedHashSet();
+        for (List<Object> pendingKey : this.pending.keySet()) {
+            uniqueIds.add((String) pendingKey.get(0));
+        }
+        this.coalescedCount.add(this.pending.size() - uniqueIds.size());
+        this.pending.clear();
+        for (String uniqueId : uniqueIds) {
+            CacheMessage cacheMessage = new CacheMessage();
+            cacheMessage.setUniqueId(uniqueId);
+            this.pending.put(Arrays.asList(uniqueId, null, null), cacheMessage);
+        }
+        logger.warn("invalidation buffer exceeded " + this.capacity + " messages, degraded to clearing " + uniqueIds.size() + " local caches");
+    }
+
+    private void send(List<CacheMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        MQProviderFunc mqProviderFunc = ApplicationContextHolder.getBean(MQProviderFunc.class.getName(), MQProviderFunc.class);
+        for (List<CacheMessage> batch : Lists.partition(messages, this.batchSize)) {
+            try {
+                mqProviderFunc.publish(batch);
+                this.batchCount.increment();
+            } catch (Exception e) {
+                this.failureCount.increment();
+                LoggerUtils.error(logger, e);
+            }
+        }
+    }
+}
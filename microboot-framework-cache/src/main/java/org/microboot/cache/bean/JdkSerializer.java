@@ -0,0 +1,40 @@
+package org.microboot.cache.bean;
+
+import org.microboot.cache.func.SerializerFunc;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+
+import java.io.Serializable;
+
+/**
+ * @author 胡鹏
+ *
+ * JDK序列化，与JdkSerializationRedisSerializer的格式一致
+ */
+public class JdkSerializer implements SerializerFunc {
+
+    private final SerializingConverter serializer = new SerializingConverter();
+
+    private final DeserializingConverter deserializer = new DeserializingConverter();
+
+    @Override
+    public byte[] serialize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return this.serializer.convert(value);
+    }
+
+    @Override
+    public boolean canSerialize(Object value) {
+        return value == null || value instanceof Serializable;
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return this.deserializer.convert(bytes);
+    }
+}
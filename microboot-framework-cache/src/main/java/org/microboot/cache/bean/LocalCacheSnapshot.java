@@ -0,0 +1,406 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Maps;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.cache.impl.AbstractLocalCache;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author 胡鹏
+ *
+ * 本地缓存快照（服务重启后的预热）
+ *
+ * 服务重启后本地缓存是空的，所有请求都会穿透到中央缓存和数据库，开启后：
+ * 1、Spring容器关闭时（以及每隔interval）把所有本地缓存中未过期的数据连同过期时间写入快照文件
+ * 2、启动时（Spring容器启动完成之前）用内存映射读取快照文件，把数据批量写回本地缓存
+ *    按需创建的region在创建时恢复，还没有创建的region的数据在下一次写快照时原样保留
+ *
+ * 文件格式（顺序写入，先写临时文件，完成后原子替换）：
+ * 1、文件头：MAGIC(4) + 格式版本(4) + 创建时间(8) + SerializerFunc类名长度(4) + SerializerFunc类名
+ * 2、每个本地缓存一段：SECTION(1) + 标识长度(4) + 标识（类名:snapshotId）
+ *    每条数据：ENTRY(1) + key长度(4) + value长度(4) + 过期时间(8) + key + value（格式见LocalCacheValueUtils）
+ * 3、文件尾：END(1) + 数据条数(8) + CRC32(8)（CRC32覆盖文件尾之前的所有字节）
+ *
+ * 以下情况丢弃整个快照：MAGIC或格式版本不一致，SerializerFunc不一致，CRC32校验失败，创建时间早于maxAge
+ * 单条数据无法反序列化（如：类结构发生了变化）时只跳过这一条
+ *
+ * 注意：
+ * 1、服务停止期间其他服务的写入不会通知到快照中的数据，恢复的数据最多旧到过期时间为止，maxAge应该尽量小
+ * 2、Caffeine的expireAfterWrite无法指定单条数据的过期时间，恢复的数据重新开始计时（见CaffeineImpl.restore）
+ * 3、快照文件不能大于2GB（一次内存映射的上限）
+ */
+public class LocalCacheSnapshot implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    private static final int MAGIC = 0x4D42534E;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte END = 0;
+
+    private static final byte SECTION = 1;
+
+    private static final byte ENTRY = 2;
+
+    //ENTRY(1) + key长度(4) + value长度(4) + 过期时间(8)
+    private static final int ENTRY_HEADER_SIZE = 17;
+
+    //END(1) + 数据条数(8) + CRC32(8)
+    private static final int TRAILER_SIZE = 17;
+
+    private final Set<AbstractLocalCache> localCaches;
+
+    private final SerializerFunc serializerFunc;
+
+    private final Path file;
+
+    //快照的最大有效期（毫秒），小于等于0时不限制
+    private final long maxAge;
+
+    //定时写快照，interval小于等于0时为null（只在Spring容器关闭时写）
+    private final ScheduledExecutorService scheduler;
+
+    //还没有恢复的段：标识 -> [段的开始位置，数据的开始位置，段的结束位置]
+    private final Map<String, int[]> pending = Maps.newConcurrentMap();
+
+    //读取的快照文件（内存映射），没有待恢复的段时释放
+    private volatile ByteBuffer buffer;
+
+    //读取的快照文件的创建时间
+    private long loadedAt;
+
+    private final LongAdder restoredCount = new LongAdder();
+
+    private final LongAdder restoreFailureCount = new LongAdder();
+
+    private final LongAdder discardedCount = new LongAdder();
+
+    private final LongAdder snapshotCount = new LongAdder();
+
+    private final LongAdder snapshotFailureCount = new LongAdder();
+
+    private volatile long lastSnapshotEntries;
+
+    /**
+     * @param localCaches    所有的本地缓存（localCaches）
+     * @param serializerFunc
+     * @param file           快照文件的路径
+     * @param interval       定时写快照的间隔（毫秒），小于等于0时只在Spring容器关闭时写
+     * @param maxAge         快照的最大有效期（毫秒），小于等于0时不限制
+     */
+    public LocalCacheSnapshot(Set<AbstractLocalCache> localCaches, SerializerFunc serializerFunc, String file, long interval, long maxAge) {
+        this.localCaches = localCaches;
+        this.serializerFunc = serializerFunc;
+        this.file = Paths.get(file).toAbsolutePath();
+        this.maxAge = maxAge;
+        this.load();
+        for (AbstractLocalCache localCache : localCaches) {
+            this.restore(localCache);
+        }
+        if (interval > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "local-cache-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::snapshot, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 从快照中恢复一个本地缓存的数据，每个本地缓存只恢复一次
+     *
+     * @param localCache
+     */
+    public void restore(AbstractLocalCache localCache) {
+        //先取buffer再取段，保证取到段时buffer还没有释放
+        ByteBuffer buffer = this.buffer;
+        int[] section = this.pending.remove(sectionId(localCache));
+        if (section == null || buffer == null) {
+            return;
+        }
+        ByteBuffer entries = buffer.duplicate();
+        entries.position(section[1]);
+        long now = System.currentTimeMillis();
+        while (entries.position() < section[2]) {
+            entries.get();
+            int keyLength = entries.getInt();
+            int valueLength = entries.getInt();
+            long expireAt = entries.getLong();
+            if (expireAt > 0 && expireAt <= now) {
+                entries.position(entries.position() + keyLength + valueLength);
+                continue;
+            }
+            byte[] key = new byte[keyLength];
+            byte[] value = new byte[valueLength];
+            entries.get(key);
+            entries.get(value);
+            try {
+                if (localCache.restore(key, value, expireAt, this.serializerFunc)) {
+                    this.restoredCount.increment();
+                }
+            } catch (Exception e) {
+                this.restoreFailureCount.increment();
+            }
+        }
+        if (this.pending.isEmpty()) {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * 立即写快照
+     *
+     * @return 是否成功
+     */
+    public synchronized boolean snapshot() {
+        Path tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try {
+            long entries = this.write(tmp);
+            try {
+                Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            this.lastSnapshotEntries = entries;
+            this.snapshotCount.increment();
+            return true;
+        } catch (Exception e) {
+            this.snapshotFailureCount.increment();
+            LoggerUtils.error(logger, e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (Exception ignored) {
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+        this.snapshot();
+    }
+
+    public long getRestoredCount() {
+        return restoredCount.sum();
+    }
+
+    public long getRestoreFailureCount() {
+        return restoreFailureCount.sum();
+    }
+
+    public long getDiscardedCount() {
+        return discardedCount.sum();
+    }
+
+    public long getSnapshotCount() {
+        return snapshotCount.sum();
+    }
+
+    public long getSnapshotFailureCount() {
+        return snapshotFailureCount.sum();
+    }
+
+    public long getLastSnapshotEntries() {
+        return lastSnapshotEntries;
+    }
+
+    /**
+     * @param tmp
+     * @return 写入的数据条数
+     * @throws Exception
+     */
+    private long write(Path tmp) throws Exception {
+        CRC32 crc = new CRC32();
+        long[] count = new long[1];
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tmp.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOutputStream, crc), 64 * 1024));
+            byte[] serializer = this.serializerFunc.getClass().getName().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(serializer.length);
+            out.write(serializer);
+            for (AbstractLocalCache localCache : this.localCaches) {
+                byte[] id = sectionId(localCache).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(SECTION);
+                out.writeInt(id.length);
+                out.write(id);
+                localCache.snapshot((key, value, expireAt) -> {
+                    out.writeByte(ENTRY);
+                    out.writeInt(key.length);
+                    out.writeInt(value.length);
+                    out.writeLong(expireAt);
+                    out.write(key);
+                    out.write(value);
+                    count[0]++;
+                }, this.serializerFunc);
+            }
+            count[0] += this.carryOver(out);
+            out.writeByte(END);
+            out.writeLong(count[0]);
+            out.flush();
+            //CRC32本身不参与校验，直接写入文件
+            fileOutputStream.write(ByteBuffer.allocate(8).putLong(crc.getValue()).array());
+            fileOutputStream.getFD().sync();
+        }
+        return count[0];
+    }
+
+    /**
+     * 还没有创建的region的数据原样写入新的快照，只保留到原快照的maxAge为止
+     *
+     * @param out
+     * @return 写入的数据条数
+     * @throws Exception
+     */
+    private long carryOver(DataOutputStream out) throws Exception {
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null || (this.maxAge > 0 && System.currentTimeMillis() - this.loadedAt > this.maxAge)) {
+            return 0;
+        }
+        long count = 0;
+        byte[] bytes = new byte[8192];
+        for (int[] section : this.pending.values()) {
+            ByteBuffer source = buffer.duplicate();
+            source.position(section[0]);
+            source.limit(section[2]);
+            while (source.hasRemaining()) {
+                int length = Math.min(bytes.length, source.remaining());
+                source.get(bytes, 0, length);
+                out.write(bytes, 0, length);
+            }
+            count += this.countEntries(buffer, section[1], section[2]);
+        }
+        return count;
+    }
+
+    /**
+     * 用内存映射读取快照文件，校验通过后建立每一段的索引
+     */
+    private void load() {
+        if (!Files.isRegularFile(this.file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE || size < 20 + TRAILER_SIZE) {
+                this.discard("invalid size " + size);
+                return;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                this.discard("unknown format");
+                return;
+            }
+            long createdAt = buffer.getLong(8);
+            if (this.maxAge > 0 && System.currentTimeMillis() - createdAt > this.maxAge) {
+                this.discard("expired");
+                return;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer data = buffer.duplicate();
+            data.limit((int) size - 8);
+            crc.update(data);
+            if (crc.getValue() != buffer.getLong((int) size - 8)) {
+                this.discard("checksum mismatch");
+                return;
+            }
+            byte[] serializer = new byte[buffer.getInt(16)];
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(20);
+            reader.get(serializer);
+            if (!this.serializerFunc.getClass().getName().equals(new String(serializer, StandardCharsets.UTF_8))) {
+                this.discard("serializer changed");
+                return;
+            }
+            this.index(reader, (int) size - TRAILER_SIZE);
+            this.loadedAt = createdAt;
+            this.buffer = buffer;
+        } catch (Exception e) {
+            this.pending.clear();
+            this.discardedCount.increment();
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    /**
+     * @param reader 位于第一段的开始位置
+     * @param end    文件尾的开始位置
+     */
+    private void index(ByteBuffer reader, int end) {
+        long count = 0;
+        while (reader.position() < end) {
+            int start = reader.position();
+            if (reader.get() != SECTION) {
+                throw new IllegalStateException("corrupt snapshot " + this.file);
+            }
+            byte[] id = new byte[reader.getInt()];
+            reader.get(id);
+            int entriesStart = reader.position();
+            while (reader.position() < end && reader.get(reader.position()) == ENTRY) {
+                int keyLength = reader.getInt(reader.position() + 1);
+                int valueLength = reader.getInt(reader.position() + 5);
+                reader.position(reader.position() + ENTRY_HEADER_SIZE + keyLength + valueLength);
+                count++;
+            }
+            this.pending.put(new String(id, StandardCharsets.UTF_8), new int[]{start, entriesStart, reader.position()});
+        }
+        if (reader.get() != END || reader.getLong() != count) {
+            throw new IllegalStateException("corrupt snapshot " + this.file);
+        }
+    }
+
+    private long countEntries(ByteBuffer buffer, int start, int end) {
+        long count = 0;
+        for (int position = start; position < end; count++) {
+            position += ENTRY_HEADER_SIZE + buffer.getInt(position + 1) + buffer.getInt(position + 5);
+        }
+        return count;
+    }
+
+    private void discard(String reason) {
+        this.discardedCount.increment();
+        logger.warn("discard local cache snapshot " + this.file + ": " + reason);
+    }
+
+    /**
+     * 不同类型的本地缓存可能使用相同的名称，标识中加上类名
+     *
+     * @param localCache
+     * @return
+     */
+    private static String sectionId(AbstractLocalCache localCache) {
+        return localCache.getClass().getSimpleName() + ':' + localCache.getSnapshotId();
+    }
+}
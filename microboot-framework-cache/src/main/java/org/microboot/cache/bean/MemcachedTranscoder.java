@@ -0,0 +1,57 @@
+package org.microboot.cache.bean;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.func.SerializerFunc;
+
+/**
+ * @author 胡鹏
+ *
+ * 将SerializerFunc适配为spymemcached的Transcoder
+ *
+ * 写入时使用单独的flag标记，读取时：
+ * 1、flag一致，交给SerializerFunc反序列化
+ * 2、flag不一致（切换序列化方式之前写入的老数据），交给spymemcached默认的SerializingTranscoder反序列化
+ *
+ * 写入的数据是SerializedValue时，复用一次写操作中已经序列化的结果（见MemcachedImpl.setCentralCache）
+ */
+public class MemcachedTranscoder implements Transcoder<Object> {
+
+    //SerializingTranscoder只使用了低16位的flag，这里使用第17位，避免冲突
+    public static final int SERIALIZER_FLAG = 1 << 16;
+
+    private final SerializerFunc serializerFunc;
+
+    private final SerializingTranscoder legacyTranscoder = new SerializingTranscoder();
+
+    public MemcachedTranscoder(SerializerFunc serializerFunc) {
+        this.serializerFunc = serializerFunc;
+    }
+
+    @Override
+    public boolean asyncDecode(CachedData cachedData) {
+        return false;
+    }
+
+    @Override
+    public CachedData encode(Object value) {
+        byte[] bytes = value instanceof SerializedValue
+                ? this.serializerFunc.serialize((SerializedValue) value) : this.serializerFunc.serialize(value);
+        return new CachedData(SERIALIZER_FLAG, bytes, this.getMaxSize());
+    }
+
+    @Override
+    public Object decode(CachedData cachedData) {
+        if (cachedData.getFlags() != SERIALIZER_FLAG) {
+            return this.legacyTranscoder.decode(cachedData);
+        }
+        return this.serializerFunc.deserialize(cachedData.getData());
+    }
+
+    @Override
+    public int getMaxSize() {
+        return CachedData.MAX_SIZE;
+    }
+}
@@ -0,0 +1,64 @@
+package org.microboot.cache.bean;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+
+/**
+ * @author 胡鹏
+ *
+ * 通过UDP组播接收本地缓存清除消息
+ *
+ * 端口开启了SO_REUSEADDR，同一台机器上的多个服务（或同一个JVM中的多个Spring容器）可以监听同一个组播地址
+ */
+public class MulticastListener extends AbstractSocketListener {
+
+    //UDP数据包的最大长度
+    private static final int MAX_PACKET_SIZE = 65535;
+
+    private final InetAddress group;
+
+    private final int port;
+
+    private MulticastSocket socket;
+
+    public MulticastListener(InetAddress group, int port) {
+        this.group = group;
+        this.port = port;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.socket = new MulticastSocket(null);
+        this.socket.setReuseAddress(true);
+        this.socket.bind(new InetSocketAddress(this.port));
+        this.socket.joinGroup(this.group);
+        Thread thread = new Thread(this::receive, "invalidation-multicast-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected void close() throws Exception {
+        if (this.socket != null) {
+            this.socket.leaveGroup(this.group);
+            this.socket.close();
+        }
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (this.running) {
+            try {
+                DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+                this.socket.receive(datagramPacket);
+                this.onPacket(datagramPacket.getData(), datagramPacket.getOffset(), datagramPacket.getLength());
+            } catch (Exception e) {
+                if (this.running) {
+                    logger.warn("receive invalidation packet failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
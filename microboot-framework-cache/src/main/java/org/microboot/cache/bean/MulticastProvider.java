@@ -0,0 +1,37 @@
+package org.microboot.cache.bean;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+
+/**
+ * @author 胡鹏
+ *
+ * 通过UDP组播发送本地缓存清除消息，不依赖消息中间件
+ *
+ * packetSize默认1400字节，避免数据包在IP层被分片（任何一个分片丢失都会导致整个数据包丢失）
+ */
+public class MulticastProvider extends AbstractSocketProvider {
+
+    private final InetAddress group;
+
+    private final int port;
+
+    private final MulticastSocket socket;
+
+    public MulticastProvider(InetAddress group, int port, int timeToLive, int packetSize) throws IOException {
+        super(packetSize);
+        this.group = group;
+        this.port = port;
+        this.socket = new MulticastSocket();
+        this.socket.setTimeToLive(timeToLive);
+        //false表示开启环回，同一台机器上的其他服务（或同一个JVM中的其他Spring容器）也能收到
+        this.socket.setLoopbackMode(false);
+    }
+
+    @Override
+    protected void send(byte[] packet) throws IOException {
+        this.socket.send(new DatagramPacket(packet, packet.length, this.group, this.port));
+    }
+}
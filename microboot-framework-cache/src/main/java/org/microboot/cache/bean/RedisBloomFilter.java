@@ -0,0 +1,206 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import org.microboot.cache.func.BloomFilterFunc;
+import org.microboot.cache.func.BloomFilterLoaderFunc;
+import org.microboot.cache.utils.BloomFilterUtils;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * @author 胡鹏
+ *
+ * 基于Redis bitmap的布隆过滤器，多个服务共享同一个过滤器
+ *
+ * key（{}是Redis Cluster的hash tag，保证所有key在同一个slot中，可以在Lua脚本中一起操作）：
+ * 1、{prefix}:bits：当前的bitmap
+ * 2、{prefix}:tmp：正在重建的bitmap
+ * 3、{prefix}:rebuilding：重建标记，存在时put同时写入tmp，保证重建期间（任意服务）写入的key不会丢失，同一时间只有一个服务在重建
+ * 4、{prefix}:count：写入数量，用于估算误判率
+ *
+ * 1、查询和写入都是一个Lua脚本（一次I/O）
+ * 2、bitmap不存在（还没有构建，或者被flushdb清除）时，mightContain返回true，put不写入（避免部分写入的bitmap造成漏判）
+ * 3、不支持删除，被删除的key由定期重建清理
+ * 4、不支持扩容，写入数量超过expectedInsertions后误判率逐渐升高（见getExpectedFpp），需要调大expectedInsertions
+ */
+public class RedisBloomFilter implements BloomFilterFunc {
+
+    //重建的数据分批写入，每批的key的数量
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    //重建标记的过期时间，重建的服务宕机后，标记会自动消失
+    private static final long REBUILD_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    private static final RedisScript<Long> CONTAINS_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('exists', KEYS[1]) == 0 then return 1 end "
+                    + "for i = 1, #ARGV do "
+                    + "if redis.call('getbit', KEYS[1], ARGV[i]) == 0 then return 0 end "
+                    + "end "
+                    + "return 1", Long.class);
+
+    private static final RedisScript<Long> PUT_SCRIPT = new DefaultRedisScript<>(
+            "local written = 0 "
+                    + "if redis.call('exists', KEYS[1]) == 1 then "
+                    + "for i = 1, #ARGV do redis.call('setbit', KEYS[1], ARGV[i], 1) end "
+                    + "redis.call('incr', KEYS[4]) "
+                    + "written = 1 "
+                    + "end "
+                    + "if redis.call('exists', KEYS[3]) == 1 then "
+                    + "for i = 1, #ARGV do redis.call('setbit', KEYS[2], ARGV[i], 1) end "
+                    + "end "
+                    + "return written", Long.class);
+
+    //KEYS：bits，tmp，rebuilding，count，ARGV：bitmap的最后一位，重建标记的过期时间，重建标记（同一时间只有一个服务在重建）
+    private static final RedisScript<Long> START_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('set', KEYS[3], ARGV[3], 'NX', 'PX', ARGV[2]) then "
+                    + "redis.call('del', KEYS[2]) "
+                    + "redis.call('setbit', KEYS[2], ARGV[1], 0) "
+                    + "return 1 "
+                    + "end "
+                    + "return 0", Long.class);
+
+    //KEYS：bits，tmp，rebuilding，count，ARGV：重建标记，写入数量
+    private static final RedisScript<Long> FINISH_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[3]) ~= ARGV[1] then return 0 end "
+                    + "redis.call('rename', KEYS[2], KEYS[1]) "
+                    + "redis.call('del', KEYS[3]) "
+                    + "redis.call('set', KEYS[4], ARGV[2]) "
+                    + "return 1", Long.class);
+
+    //KEYS：bits，tmp，rebuilding，count，ARGV：重建标记
+    private static final RedisScript<Long> ABORT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[3]) ~= ARGV[1] then return 0 end "
+                    + "redis.call('del', KEYS[2], KEYS[3]) "
+                    + "return 1", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final int bits;
+
+    private final int hashes;
+
+    private final String bitsKey;
+
+    private final byte[] tmpKey;
+
+    private final List<String> keys;
+
+    public RedisBloomFilter(StringRedisTemplate redisTemplate, String prefix, long expectedInsertions, double fpp) {
+        this.redisTemplate = redisTemplate;
+        this.bits = BloomFilterUtils.optimalNumOfBits(expectedInsertions, Math.min(0.5, Math.max(Double.MIN_VALUE, fpp)));
+        this.hashes = BloomFilterUtils.optimalNumOfHashFunctions(expectedInsertions, this.bits);
+        String tag = "{" + prefix + "}";
+        this.bitsKey = tag + ":bits";
+        this.tmpKey = (tag + ":tmp").getBytes(StandardCharsets.UTF_8);
+        this.keys = Lists.newArrayList(this.bitsKey, tag + ":tmp", tag + ":rebuilding", tag + ":count");
+    }
+
+    @Override
+    public boolean mightContain(byte[] key) {
+        Long result = this.redisTemplate.execute(CONTAINS_SCRIPT, Lists.newArrayList(this.bitsKey), (Object[]) this.offsets(key));
+        return result == null || result != 0L;
+    }
+
+    @Override
+    public void put(byte[] key) {
+        this.redisTemplate.execute(PUT_SCRIPT, this.keys, (Object[]) this.offsets(key));
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        //bitmap不支持删除
+    }
+
+    @Override
+    public void rebuild(BloomFilterLoaderFunc loaderFunc, Function<Object, byte[]> keyFunc) throws Exception {
+        String token = UUID.randomUUID().toString();
+        Long started = this.redisTemplate.execute(START_SCRIPT, this.keys, String.valueOf(this.bits - 1), String.valueOf(REBUILD_TIMEOUT), token);
+        //其他服务正在重建
+        if (started == null || started == 0L) {
+            return;
+        }
+        boolean success = false;
+        try {
+            long[] count = new long[1];
+            List<long[]> batch = Lists.newArrayListWithCapacity(REBUILD_BATCH_SIZE);
+            loaderFunc.load(key -> {
+                if (key == null) {
+                    return;
+                }
+                batch.add(this.indexes(keyFunc.apply(key)));
+                count[0]++;
+                if (batch.size() >= REBUILD_BATCH_SIZE) {
+                    this.write(batch);
+                }
+            });
+            this.write(batch);
+            Long finished = this.redisTemplate.execute(FINISH_SCRIPT, this.keys, token, String.valueOf(count[0]));
+            if (finished == null || finished == 0L) {
+                throw new IllegalStateException("rebuild of " + this.bitsKey + " timed out");
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                this.redisTemplate.execute(ABORT_SCRIPT, this.keys, token);
+            }
+        }
+    }
+
+    @Override
+    public double getExpectedFpp() {
+        return BloomFilterUtils.expectedFpp(this.getApproximateCount(), this.hashes, this.bits);
+    }
+
+    @Override
+    public long getApproximateCount() {
+        String count = this.redisTemplate.opsForValue().get(this.keys.get(3));
+        return count == null ? 0L : Long.parseLong(count);
+    }
+
+    /**
+     * 使用pipeline批量写入重建中的bitmap
+     *
+     * @param batch
+     */
+    private void write(List<long[]> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        this.redisTemplate.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+            for (long[] indexes : batch) {
+                for (long index : indexes) {
+                    connection.setBit(this.tmpKey, index, true);
+                }
+            }
+            return null;
+        });
+        batch.clear();
+    }
+
+    private long[] indexes(byte[] key) {
+        long hash = BloomFilterUtils.hash(key);
+        long[] indexes = new long[this.hashes];
+        for (int i = 1; i <= this.hashes; i++) {
+            indexes[i - 1] = BloomFilterUtils.index(hash, i, this.bits);
+        }
+        return indexes;
+    }
+
+    private String[] offsets(byte[] key) {
+        long[] indexes = this.indexes(key);
+        String[] offsets = new String[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            offsets[i] = String.valueOf(indexes[i]);
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,184 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 命名空间代数的后台清理任务（RedisImpl）
+ *
+ * 命名空间清除之后，旧代数的key要等到过期才会被回收，清理任务可以更早地释放内存：
+ * 1、SCAN（不会像KEYS一样阻塞Redis）匹配这个命名空间的所有key：name#*&缓存线名称&*，以及开启代数之前的key：name&缓存线名称&*
+ * 2、代数小于新代数的key批量UNLINK（在Redis后台线程中释放内存）
+ * 3、按rate（每秒删除的key的数量）限速，避免清理任务占用过多的Redis资源
+ *
+ * 注意：Redis Cluster中SCAN只会遍历一个节点，清理任务只适用于单机（主从，哨兵）模式
+ */
+public class RedisGenerationSweeper implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    private final RedisTemplate redisTemplate;
+
+    //每次SCAN和UNLINK的key的数量
+    private final int batchSize;
+
+    //每秒删除的key的数量
+    private final RateLimiter rateLimiter;
+
+    //单线程执行，多个清理任务排队，进一步降低对Redis的压力
+    private final ExecutorService executor;
+
+    private final LongAdder sweepCount = new LongAdder();
+
+    private final LongAdder sweptKeyCount = new LongAdder();
+
+    private final LongAdder sweepFailureCount = new LongAdder();
+
+    public RedisGenerationSweeper(RedisTemplate redisTemplate, int batchSize, double rate) {
+        this.redisTemplate = redisTemplate;
+        this.batchSize = Math.max(1, batchSize);
+        this.rateLimiter = RateLimiter.create(Math.max(1D, rate));
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "generation-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交清理任务
+     *
+     * @param name       中央缓存名称
+     * @param namespace  命名空间（缓存线名称）
+     * @param generation 新的代数，小于它的key都会被删除
+     */
+    public void sweep(String name, String namespace, long generation) {
+        this.executor.execute(() -> {
+            this.sweepCount.increment();
+            try {
+                this.sweep(escape(name) + "#*&" + escape(namespace) + "&*", name + '#', '&' + namespace + '&', generation);
+                this.sweep(escape(name) + '&' + escape(namespace) + "&*", null, null, generation);
+            } catch (Exception e) {
+                this.sweepFailureCount.increment();
+                LoggerUtils.error(logger, e);
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+
+    public long getSweepCount() {
+        return sweepCount.sum();
+    }
+
+    public long getSweptKeyCount() {
+        return sweptKeyCount.sum();
+    }
+
+    public long getSweepFailureCount() {
+        return sweepFailureCount.sum();
+    }
+
+    /**
+     * @param pattern    SCAN的匹配模式
+     * @param prefix     代数之前的部分，为null时表示开启代数之前的key（全部删除）
+     * @param suffix     代数之后的部分
+     * @param generation
+     */
+    private void sweep(String pattern, String prefix, String suffix, long generation) {
+        this.redisTemplate.execute((RedisCallback<Object>) (RedisConnection connection) -> {
+            ScanOptions scanOptions = ScanOptions.scanOptions().match(pattern).count(this.batchSize).build();
+            List<byte[]> batch = Lists.newArrayListWithCapacity(this.batchSize);
+            try (Cursor<byte[]> cursor = connection.scan(scanOptions)) {
+                while (cursor.hasNext() && !Thread.currentThread().isInterrupted()) {
+                    byte[] key = cursor.next();
+                    if (prefix != null && !isStale(new String(key, StandardCharsets.UTF_8), prefix, suffix, generation)) {
+                        continue;
+                    }
+                    batch.add(key);
+                    if (batch.size() >= this.batchSize) {
+                        this.unlink(connection, batch);
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            this.unlink(connection, batch);
+            return null;
+        });
+    }
+
+    private void unlink(RedisConnection connection, List<byte[]> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        this.rateLimiter.acquire(batch.size());
+        connection.unlink(batch.toArray(new byte[0][]));
+        this.sweptKeyCount.add(batch.size());
+        batch.clear();
+    }
+
+    /**
+     * key的格式：prefix + 代数 + suffix + key，只删除代数小于generation的key
+     *
+     * @param key
+     * @param prefix
+     * @param suffix
+     * @param generation
+     * @return
+     */
+    private static boolean isStale(String key, String prefix, String suffix, long generation) {
+        int end = key.indexOf(suffix, prefix.length());
+        if (!key.startsWith(prefix) || end <= prefix.length()) {
+            return false;
+        }
+        String value = key.substring(prefix.length(), end);
+        for (int i = 0; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        try {
+            return Long.parseLong(value) < generation;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 转义SCAN匹配模式中的特殊字符
+     *
+     * @param value
+     * @return
+     */
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
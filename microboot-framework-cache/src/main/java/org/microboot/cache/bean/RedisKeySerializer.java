@@ -0,0 +1,33 @@
+package org.microboot.cache.bean;
+
+import org.microboot.cache.entity.CacheKey;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author 胡鹏
+ *
+ * RedisTemplate的keySerializer，与StringRedisSerializer的编码结果一致（UTF-8）
+ *
+ * key是CacheKey时直接返回其中缓存的字节，不再重复编码
+ */
+public class RedisKeySerializer implements RedisSerializer<Object> {
+
+    @Override
+    public byte[] serialize(Object key) throws SerializationException {
+        if (key == null) {
+            return null;
+        }
+        if (key instanceof CacheKey) {
+            return ((CacheKey) key).getBytes();
+        }
+        return key.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,350 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.core.bean.DefaultSyncFuncHolder;
+import org.microboot.core.func.Func0;
+import org.microboot.core.func.FuncV0;
+import org.microboot.core.func.SyncFunc;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 基于Redis的分布式SyncFunc，多个服务之间对同一个key互斥
+ *
+ * 1、两级锁：先获取进程内的锁（DefaultSyncFuncHolder），同一个进程中只有一个线程去Redis竞争锁，减少Redis的访问量
+ * 2、加锁：SET key token NX PX lease，token = 服务的唯一标识 + 自增序号，同时生成单调递增的fencing token
+ * 3、解锁：Lua脚本比较token，只删除自己持有的锁，避免误删其他服务的锁
+ * 4、续期：看门狗每隔lease / 3对所有持有的锁续期，业务方法执行时间超过lease也不会丢锁，服务宕机后锁在lease后自动释放
+ * 5、自旋：获取失败后按指数退避（带随机抖动）重试，不会持续高频地访问Redis
+ * 6、跳过：只尝试一次，获取失败直接返回null
+ * 7、分段：stripes大于0时，key按hash映射到固定数量的Redis锁上，限制锁的数量（不同key可能互斥）
+ *
+ * fencing token：同一把锁每次加锁都会递增，业务方法中可以通过currentFencingToken()获取
+ * 写入外部存储时带上这个值，存储端拒绝比已见过的更小的值，即可防止锁过期后老的持有者继续写入
+ *
+ * Redis不可用时，记录错误日志并降级为只使用进程内的锁，保证业务方法依然可以执行
+ */
+public class RedisSyncFuncHolder implements SyncFunc, DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    //加锁成功返回fencing token，失败返回0
+    private static final RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then "
+                    + "local fence = redis.call('incr', KEYS[2]) "
+                    + "redis.call('pexpire', KEYS[2], ARGV[3]) "
+                    + "return fence "
+                    + "end "
+                    + "return 0", Long.class);
+
+    private static final RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "return redis.call('del', KEYS[1]) "
+                    + "end "
+                    + "return 0", Long.class);
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "return redis.call('pexpire', KEYS[1], ARGV[2]) "
+                    + "end "
+                    + "return 0", Long.class);
+
+    private static final ThreadLocal<Long> FENCING_TOKEN = new ThreadLocal<>();
+
+    private final RedisTemplate redisTemplate;
+
+    private final StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
+
+    //进程内的锁
+    private final DefaultSyncFuncHolder localSyncFunc = new DefaultSyncFuncHolder();
+
+    private final String prefix;
+
+    //锁的租期（毫秒）
+    private final long lease;
+
+    //fencing token计数器的过期时间（毫秒）
+    private final long fenceTtl;
+
+    private final long minBackoff;
+
+    private final long maxBackoff;
+
+    private final int stripes;
+
+    private final String uniqueId = UUID.randomUUID().toString();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    //当前服务持有的锁：Redis的key -> 锁的持有信息
+    private final Map<String, Lease> leases = Maps.newConcurrentMap();
+
+    private final ScheduledExecutorService watchdog;
+
+    /******************************************** 统计 **********************************************/
+    //加锁成功的次数
+    private final LongAdder acquireCount = new LongAdder();
+    //第一次尝试加锁失败（发生竞争）的次数
+    private final LongAdder contendedCount = new LongAdder();
+    //自旋重试的次数
+    private final LongAdder retryCount = new LongAdder();
+    //跳过同步时加锁失败的次数
+    private final LongAdder skipCount = new LongAdder();
+    //续期失败（锁已经丢失）的次数
+    private final LongAdder lostCount = new LongAdder();
+    //Redis异常，降级为进程内锁的次数
+    private final LongAdder degradedCount = new LongAdder();
+    //加锁的等待时间
+    private final LatencyHistogram waitLatency = new LatencyHistogram();
+
+    public RedisSyncFuncHolder(RedisTemplate redisTemplate, String prefix, long lease, long fenceTtl, long minBackoff, long maxBackoff, int stripes) {
+        this.redisTemplate = redisTemplate;
+        this.prefix = prefix;
+        this.lease = Math.max(1000L, lease);
+        this.fenceTtl = Math.max(this.lease, fenceTtl);
+        this.minBackoff = Math.max(1L, minBackoff);
+        this.maxBackoff = Math.max(this.minBackoff, maxBackoff);
+        this.stripes = Math.max(0, stripes);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-sync-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = this.lease / 3;
+        this.watchdog.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 当前线程持有的锁的fencing token，不在锁中（或者降级为进程内锁）时返回null
+     *
+     * @return
+     */
+    public static Long currentFencingToken() {
+        return FENCING_TOKEN.get();
+    }
+
+    @Override
+    public <T> T spinSync(String lockKey, Func0<T> func) {
+        return this.localSyncFunc.spinSync(lockKey, () -> this.execute(lockKey, func, true));
+    }
+
+    @Override
+    public void spinSync(String lockKey, FuncV0 func) {
+        this.localSyncFunc.spinSync(lockKey, () -> this.execute(lockKey, () -> {
+            func.func();
+            return null;
+        }, true));
+    }
+
+    @Override
+    public <T> T skipSync(String lockKey, Func0<T> func) {
+        return this.localSyncFunc.skipSync(lockKey, () -> this.execute(lockKey, func, false));
+    }
+
+    @Override
+    public void skipSync(String lockKey, FuncV0 func) {
+        this.localSyncFunc.skipSync(lockKey, () -> this.execute(lockKey, () -> {
+            func.func();
+            return null;
+        }, false));
+    }
+
+    /**
+     * 容器关闭时停止续期，并释放所有持有的锁
+     */
+    @Override
+    public void destroy() {
+        this.watchdog.shutdownNow();
+        for (Map.Entry<String, Lease> entry : this.leases.entrySet()) {
+            this.unlock(entry.getKey(), entry.getValue().token);
+        }
+        this.leases.clear();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    public long getContendedCount() {
+        return contendedCount.sum();
+    }
+
+    public long getRetryCount() {
+        return retryCount.sum();
+    }
+
+    public long getSkipCount() {
+        return skipCount.sum();
+    }
+
+    public long getLostCount() {
+        return lostCount.sum();
+    }
+
+    public long getDegradedCount() {
+        return degradedCount.sum();
+    }
+
+    public LatencyHistogram getWaitLatency() {
+        return waitLatency;
+    }
+
+    public int getHeldCount() {
+        return leases.size();
+    }
+
+    /**
+     * 在Redis锁中执行业务方法
+     *
+     * 已经在进程内的锁中执行，同一个进程同一个key只有一个线程（或者同一个线程重入）
+     *
+     * @param lockKey
+     * @param func
+     * @param spin    true：自旋直到加锁成功，false：加锁失败直接返回null
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    private <T> T execute(String lockKey, Func0<T> func, boolean spin) throws Exception {
+        String redisKey = this.redisKey(lockKey);
+        //重入：同一个线程已经持有这把锁（分段后不同的key也可能是同一把锁）
+        Lease held = this.leases.get(redisKey);
+        if (held != null && held.thread == Thread.currentThread()) {
+            return func.func();
+        }
+        String token = this.uniqueId + ":" + this.sequence.incrementAndGet();
+        long fence;
+        try {
+            fence = this.lock(redisKey, token, spin);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (Exception e) {
+            this.degradedCount.increment();
+            LoggerUtils.error(logger, e);
+            return func.func();
+        }
+        if (fence <= 0) {
+            this.skipCount.increment();
+            return null;
+        }
+        Long previousFence = FENCING_TOKEN.get();
+        Lease lease = new Lease(token, Thread.currentThread());
+        this.leases.put(redisKey, lease);
+        FENCING_TOKEN.set(fence);
+        try {
+            return func.func();
+        } finally {
+            if (previousFence == null) {
+                FENCING_TOKEN.remove();
+            } else {
+                FENCING_TOKEN.set(previousFence);
+            }
+            //只删除自己的租约：租约丢失后（见renew）同一个分段可能已经被本进程的其他线程重新持有
+            this.leases.remove(redisKey, lease);
+            this.unlock(redisKey, token);
+        }
+    }
+
+    /**
+     * @param redisKey
+     * @param token
+     * @param spin
+     * @return fencing token，加锁失败（只在spin = false时）返回0
+     * @throws InterruptedException
+     */
+    private long lock(String redisKey, String token, boolean spin) throws InterruptedException {
+        long start = System.nanoTime();
+        List<String> keys = Lists.newArrayList(redisKey, redisKey + ":fence");
+        long backoff = this.minBackoff;
+        for (int attempt = 0; ; attempt++) {
+            Long fence = (Long) this.redisTemplate.execute(LOCK_SCRIPT, this.stringRedisSerializer, null, keys,
+                    token, String.valueOf(this.lease), String.valueOf(this.fenceTtl));
+            if (fence != null && fence > 0) {
+                this.acquireCount.increment();
+                this.waitLatency.record(System.nanoTime() - start);
+                return fence;
+            }
+            if (attempt == 0) {
+                this.contendedCount.increment();
+            }
+            if (!spin) {
+                return 0L;
+            }
+            this.retryCount.increment();
+            //指数退避 + 随机抖动，避免多个服务同时重试
+            TimeUnit.MILLISECONDS.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+            backoff = Math.min(this.maxBackoff, backoff * 2);
+        }
+    }
+
+    private void unlock(String redisKey, String token) {
+        try {
+            this.redisTemplate.execute(UNLOCK_SCRIPT, this.stringRedisSerializer, null, Lists.newArrayList(redisKey), token);
+        } catch (Exception e) {
+            //解锁失败时，锁在lease之后自动过期
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    /**
+     * 看门狗：对所有持有的锁续期，续期失败说明锁已经过期（或被删除），不再续期
+     */
+    private void renew() {
+        for (Map.Entry<String, Lease> entry : this.leases.entrySet()) {
+            try {
+                Long renewed = (Long) this.redisTemplate.execute(RENEW_SCRIPT, this.stringRedisSerializer, null,
+                        Lists.newArrayList(entry.getKey()), entry.getValue().token, String.valueOf(this.lease));
+                if (renewed == null || renewed == 0L) {
+                    this.lostCount.increment();
+                    this.leases.remove(entry.getKey(), entry.getValue());
+                    logger.warn("redis lock " + entry.getKey() + " lost before release");
+                }
+            } catch (Exception e) {
+                LoggerUtils.error(logger, e);
+            }
+        }
+    }
+
+    private String redisKey(String lockKey) {
+        //{}是Redis Cluster的hash tag，保证锁和fencing token计数器在同一个slot中
+        if (this.stripes > 0) {
+            return "{" + this.prefix + ":stripe:" + ((lockKey.hashCode() & Integer.MAX_VALUE) % this.stripes) + "}";
+        }
+        return "{" + this.prefix + ":" + lockKey + "}";
+    }
+
+    /**
+     * 锁的持有信息
+     */
+    private static final class Lease {
+
+        private final String token;
+
+        private final Thread thread;
+
+        private Lease(String token, Thread thread) {
+            this.token = token;
+            this.thread = thread;
+        }
+    }
+}
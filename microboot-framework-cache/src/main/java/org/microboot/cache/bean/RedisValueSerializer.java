@@ -0,0 +1,57 @@
+package org.microboot.cache.bean;
+
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.func.SerializerFunc;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+/**
+ * @author 胡鹏
+ *
+ * 将SerializerFunc适配为RedisTemplate的valueSerializer
+ */
+public class RedisValueSerializer implements RedisSerializer<Object> {
+
+    private final SerializerFunc serializerFunc;
+
+    public RedisValueSerializer(SerializerFunc serializerFunc) {
+        this.serializerFunc = serializerFunc;
+    }
+
+    public SerializerFunc getSerializerFunc() {
+        return serializerFunc;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        try {
+            return this.serializerFunc.serialize(value);
+        } catch (Exception e) {
+            throw new SerializationException("Cannot serialize", e);
+        }
+    }
+
+    /**
+     * 复用一次写操作中已经序列化的结果（见SerializedValue）
+     *
+     * @param serializedValue
+     * @return
+     * @throws SerializationException
+     */
+    public byte[] serialize(SerializedValue serializedValue) throws SerializationException {
+        try {
+            return this.serializerFunc.serialize(serializedValue);
+        } catch (Exception e) {
+            throw new SerializationException("Cannot serialize", e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        try {
+            return this.serializerFunc.deserialize(bytes);
+        } catch (Exception e) {
+            throw new SerializationException("Cannot deserialize", e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Sets;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+
+/**
+ * @author 胡鹏
+ *
+ * 通过TCP接收本地缓存清除消息，每个连接一个线程
+ */
+public class TcpListener extends AbstractSocketListener {
+
+    //单个数据帧的最大长度
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final int port;
+
+    private final Set<Socket> sockets = Sets.newConcurrentHashSet();
+
+    private ServerSocket serverSocket;
+
+    public TcpListener(int port) {
+        this.port = port;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(this.port));
+        Thread thread = new Thread(this::accept, "invalidation-tcp-acceptor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    protected void close() throws Exception {
+        if (this.serverSocket != null) {
+            this.serverSocket.close();
+        }
+        for (Socket socket : this.sockets) {
+            socket.close();
+        }
+    }
+
+    private void accept() {
+        while (this.running) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.sockets.add(socket);
+                Thread thread = new Thread(() -> this.receive(socket), "invalidation-tcp-listener-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (this.running) {
+                    logger.warn("accept invalidation connection failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            while (this.running) {
+                int length = input.readInt();
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    logger.warn("invalid invalidation frame length " + length + " from " + socket.getRemoteSocketAddress());
+                    return;
+                }
+                byte[] bytes = new byte[length];
+                input.readFully(bytes);
+                this.onPacket(bytes, 0, length);
+            }
+        } catch (EOFException e) {
+            //对方关闭了连接
+        } catch (IOException e) {
+            if (this.running) {
+                logger.warn("receive invalidation packet failed: " + e.getMessage());
+            }
+        } finally {
+            this.sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
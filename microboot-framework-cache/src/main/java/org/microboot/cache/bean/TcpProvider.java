@@ -0,0 +1,116 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * @author 胡鹏
+ *
+ * 通过TCP向配置的服务列表逐个发送本地缓存清除消息（无法使用组播的网络环境）
+ *
+ * 1、每个服务一个长连接，数据帧格式：长度(4) + 数据包
+ * 2、连接失败或断开后，retryInterval毫秒内不再重连，期间发给该服务的数据包被丢弃
+ *    对方重新连上后会发现序号跳跃，从而清空本地缓存
+ */
+public class TcpProvider extends AbstractSocketProvider implements DisposableBean {
+
+    private final List<Peer> peers = Lists.newArrayList();
+
+    private final int connectTimeout;
+
+    private final long retryInterval;
+
+    public TcpProvider(List<InetSocketAddress> addresses, int connectTimeout, long retryInterval) {
+        //TCP没有数据包大小的限制，这里只是控制单个数据帧的大小
+        super(64 * 1024);
+        for (InetSocketAddress address : addresses) {
+            this.peers.add(new Peer(address));
+        }
+        this.connectTimeout = connectTimeout;
+        this.retryInterval = retryInterval;
+    }
+
+    @Override
+    protected void send(byte[] packet) {
+        for (Peer peer : this.peers) {
+            try {
+                DataOutputStream output = this.connect(peer);
+                if (output == null) {
+                    continue;
+                }
+                output.writeInt(packet.length);
+                output.write(packet);
+                output.flush();
+            } catch (IOException e) {
+                logger.warn("send invalidation packet to " + peer.address + " failed: " + e.getMessage());
+                this.disconnect(peer);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        for (Peer peer : this.peers) {
+            this.disconnect(peer);
+        }
+    }
+
+    private DataOutputStream connect(Peer peer) {
+        if (peer.output != null) {
+            return peer.output;
+        }
+        if (System.currentTimeMillis() < peer.retryTime) {
+            return null;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(peer.address, this.connectTimeout);
+            peer.socket = socket;
+            peer.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            return peer.output;
+        } catch (IOException e) {
+            logger.warn("connect to " + peer.address + " failed: " + e.getMessage());
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            peer.retryTime = System.currentTimeMillis() + this.retryInterval;
+            return null;
+        }
+    }
+
+    private void disconnect(Peer peer) {
+        if (peer.socket != null) {
+            try {
+                peer.socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        peer.socket = null;
+        peer.output = null;
+        peer.retryTime = System.currentTimeMillis() + this.retryInterval;
+    }
+
+    private static final class Peer {
+
+        private final InetSocketAddress address;
+
+        private Socket socket;
+
+        private DataOutputStream output;
+
+        private long retryTime;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+}
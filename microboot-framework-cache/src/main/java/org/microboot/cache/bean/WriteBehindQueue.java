@@ -0,0 +1,388 @@
+package org.microboot.cache.bean;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.entity.TaggedValue;
+import org.microboot.cache.impl.AbstractCentralCache;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author 胡鹏
+ *
+ * 中央缓存的异步写队列（write-behind）
+ *
+ * 1、合并：同一个key在写入之前被多次修改，只保留最后一次（后写覆盖先写），删除操作也参与合并
+ * 2、有界：每个工作线程对应一个有界队列，队列满时等待offerTimeout毫秒，仍然放不进去则由调用线程同步写入（背压）
+ *    注意：背压时的同步写入与工作线程中正在写入的同一个key之间不保证先后顺序
+ * 3、批量：工作线程每次从队列中最多取出batchSize个key，通过setCentralCaches，evictCentralCaches批量写入（如：Redis的pipeline）
+ * 4、有序：key按hash分配到固定的工作线程，同一个key的写入不会并发执行，保证后写的数据最后落地
+ * 5、关闭：容器关闭时调用shutdown，等待队列中的数据全部写入
+ * 6、删除：AbstractCentralCache的删除不进入队列，由调用线程通过evictNow同步执行（见evictNow）
+ */
+public class WriteBehindQueue {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    //删除操作的占位对象
+    private static final Object EVICTED = new Object();
+
+    //关闭时等待队列写完的最长时间（秒）
+    private static final long SHUTDOWN_TIMEOUT = 30;
+
+    private final AbstractCentralCache cache;
+
+    private final int batchSize;
+
+    private final long offerTimeout;
+
+    //待写入的数据：key -> value（EVICTED表示删除）
+    private final Map<Object, Object> pending = Maps.newConcurrentMap();
+
+    //正在写入的数据：key -> value，写入完成前依然可以被读到
+    private final Map<Object, Object> flushing = Maps.newConcurrentMap();
+
+    private final List<BlockingQueue<Object>> queues = Lists.newArrayList();
+
+    private final ExecutorService executor;
+
+    private volatile boolean running = true;
+
+    /******************************************** 统计 **********************************************/
+    //写操作次数
+    private final LongAdder writeCount = new LongAdder();
+    //被合并的写操作次数
+    private final LongAdder coalescedCount = new LongAdder();
+    //队列已满由调用线程同步写入的次数
+    private final LongAdder rejectedCount = new LongAdder();
+    //批量写入的次数
+    private final LongAdder flushCount = new LongAdder();
+    //批量写入的key的数量
+    private final LongAdder flushKeyCount = new LongAdder();
+    //批量写入失败的次数
+    private final LongAdder flushFailureCount = new LongAdder();
+    //批量写入的总耗时（纳秒）
+    private final LongAdder flushNanos = new LongAdder();
+    //批量写入的最大耗时（纳秒）
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    public WriteBehindQueue(AbstractCentralCache cache, int capacity, int batchSize, int threads, long offerTimeout) {
+        this.cache = cache;
+        this.batchSize = Math.max(1, batchSize);
+        this.offerTimeout = Math.max(0, offerTimeout);
+        int threadCount = Math.max(1, threads);
+        int queueCapacity = Math.max(1, capacity / threadCount);
+        AtomicInteger threadNum = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "write-behind-" + cache.getName() + "-" + threadNum.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threadCount; i++) {
+            BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.queues.add(queue);
+            this.executor.execute(() -> this.work(queue));
+        }
+    }
+
+    public void put(Object key, Object value) {
+        this.offer(key, value);
+    }
+
+    public void evict(Object key) {
+        this.offer(key, EVICTED);
+    }
+
+    /**
+     * 同步删除：丢弃这些key待写入的数据，并立即从中央缓存删除
+     *
+     * 删除之后调用方会立即广播本地缓存的清除消息，如果删除还在队列中，其他服务会在删除落地之前从中央缓存回填旧数据
+     * 删除时正在写入中的旧数据可能在删除之后才落地，这些key会再放入一个删除，由工作线程在这次写入之后再删除一次
+     *
+     * @param keys
+     */
+    public void evictNow(Collection<?> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<Object> flushingKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            this.pending.remove(key);
+            //必须在pending.remove之后，删除之前检查：这段时间内flushing中没有这个key，旧数据就不会在删除之后落地
+            if (this.flushing.containsKey(key)) {
+                flushingKeys.add(key);
+            }
+        }
+        this.cache.evictCentralCaches(keys);
+        for (Object key : flushingKeys) {
+            this.evict(key);
+        }
+    }
+
+    /**
+     * 查询尚未写入中央缓存的数据
+     *
+     * 返回值有三种可能：
+     * 1、null：没有待写入的数据，需要继续查询中央缓存
+     * 2、SimpleValueWrapper(null)：待执行删除操作，等同于缓存中没有数据
+     * 3、SimpleValueWrapper(Object)：待写入的数据
+     *
+     * @param key
+     * @return
+     */
+    public Cache.ValueWrapper peek(Object key) {
+        Object value = this.pending.get(key);
+        if (value == null) {
+            value = this.flushing.get(key);
+        }
+        if (value == null) {
+            return null;
+        }
+        return new SimpleValueWrapper(value == EVICTED ? null : value);
+    }
+
+    /**
+     * 丢弃所有待写入的数据
+     *
+     * 注意：正在写入中的数据无法撤回，可能在clear之后落地
+     */
+    public void clear() {
+        for (BlockingQueue<Object> queue : this.queues) {
+            queue.clear();
+        }
+        this.pending.clear();
+    }
+
+    /**
+     * 丢弃一个命名空间（缓存线）待写入的数据，key已经在队列中的，写入时会被跳过
+     *
+     * @param namespace
+     */
+    public void clear(String namespace) {
+        this.pending.keySet().removeIf(key -> key instanceof CacheKey && namespace.equals(((CacheKey) key).getPrefix()));
+    }
+
+    /**
+     * 一个命名空间（缓存线）中带有这个标签的待写入数据改为删除
+     *
+     * 注意：与clear一样，正在写入中的数据无法撤回
+     *
+     * @param namespace
+     * @param tag
+     */
+    public void evictByTag(String namespace, String tag) {
+        for (Map.Entry<Object, Object> entry : this.pending.entrySet()) {
+            Object key = entry.getKey();
+            Object value = entry.getValue();
+            if (key instanceof CacheKey && namespace.equals(((CacheKey) key).getPrefix())
+                    && value instanceof TaggedValue && ((TaggedValue) value).getTags().contains(tag)) {
+                this.pending.replace(key, value, EVICTED);
+            }
+        }
+    }
+
+    /**
+     * 停止接收新的写操作，并等待队列中的数据全部写入
+     */
+    public void shutdown() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.executor.shutdownNow();
+        }
+        //工作线程退出后仍未写入的数据，由当前线程同步写入
+        if (!this.pending.isEmpty()) {
+            Map<Object, Object> values = Maps.newLinkedHashMap(this.pending);
+            this.pending.clear();
+            this.write(values);
+        }
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<Object> queue : this.queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public long getWriteCount() {
+        return writeCount.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getFlushCount() {
+        return flushCount.sum();
+    }
+
+    public long getFlushKeyCount() {
+        return flushKeyCount.sum();
+    }
+
+    public long getFlushFailureCount() {
+        return flushFailureCount.sum();
+    }
+
+    public long getFlushNanos() {
+        return flushNanos.sum();
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos.get();
+    }
+
+    private void offer(Object key, Object value) {
+        this.writeCount.increment();
+        //已关闭：同步写入
+        if (!this.running) {
+            this.write(Collections.singletonMap(key, value));
+            return;
+        }
+        //key已经在队列中：只需要覆盖待写入的数据
+        if (this.pending.put(key, value) != null) {
+            this.coalescedCount.increment();
+            return;
+        }
+        BlockingQueue<Object> queue = this.queues.get((key.hashCode() & Integer.MAX_VALUE) % this.queues.size());
+        boolean offered;
+        try {
+            offered = queue.offer(key, this.offerTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            offered = false;
+        }
+        if (offered) {
+            return;
+        }
+        /*
+            背压：队列已满，由调用线程同步写入
+            这里必须用remove(key)取出最新的数据，因为在offer等待期间，其他线程可能已经覆盖了这个key的数据
+         */
+        this.rejectedCount.increment();
+        Object latest = this.pending.remove(key);
+        if (latest != null) {
+            this.write(Collections.singletonMap(key, latest));
+        }
+    }
+
+    private void work(BlockingQueue<Object> queue) {
+        List<Object> keys = Lists.newArrayListWithCapacity(this.batchSize);
+        while (this.running || !queue.isEmpty()) {
+            try {
+                Object key = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                keys.add(key);
+                queue.drainTo(keys, this.batchSize - 1);
+                this.flush(keys);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LoggerUtils.error(logger, e);
+            } finally {
+                keys.clear();
+            }
+        }
+    }
+
+    /**
+     * 先放入flushing再从pending中删除，peek在任何时刻都能读到这个key待写入的数据
+     *
+     * @param keys
+     */
+    private void flush(List<Object> keys) {
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        for (Object key : keys) {
+            Object value = this.pending.get(key);
+            while (value != null) {
+                this.flushing.put(key, value);
+                //期间被覆盖：重新取最新的数据
+                if (this.pending.remove(key, value)) {
+                    break;
+                }
+                value = this.pending.get(key);
+                if (value == null) {
+                    this.flushing.remove(key);
+                }
+            }
+            if (value == null) {
+                continue;
+            }
+            values.put(key, value);
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        try {
+            this.write(values);
+        } finally {
+            for (Map.Entry<Object, Object> entry : values.entrySet()) {
+                this.flushing.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void write(Map<Object, Object> values) {
+        Map<Object, Object> setValues = Maps.newLinkedHashMap();
+        List<Object> evictKeys = Lists.newArrayList();
+        for (Map.Entry<Object, Object> entry : values.entrySet()) {
+            if (entry.getValue() == EVICTED) {
+                evictKeys.add(entry.getKey());
+            } else {
+                setValues.put(entry.getKey(), entry.getValue());
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            if (!setValues.isEmpty()) {
+                this.cache.setCentralCaches(setValues);
+            }
+            if (!evictKeys.isEmpty()) {
+                this.cache.evictCentralCaches(evictKeys);
+            }
+        } catch (Exception e) {
+            this.flushFailureCount.increment();
+            LoggerUtils.error(logger, e);
+        } finally {
+            long nanos = System.nanoTime() - start;
+            this.flushCount.increment();
+            this.flushKeyCount.add(values.size());
+            this.flushNanos.add(nanos);
+            this.maxFlushNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package org.microboot.cache.config;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.MemoryUnit;
 import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.spring.MemcachedClientFactoryBean;
 import org.apache.activemq.command.ActiveMQTopic;
@@ -10,19 +13,49 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.microboot.cache.bean.ActiveMQListener;
 import org.microboot.cache.bean.ActiveMQProvider;
+import org.microboot.cache.bean.BloomFilterHolder;
+import org.microboot.cache.bean.CacheHotKeysEndpoint;
+import org.microboot.cache.bean.CacheMetricsEndpoint;
+import org.microboot.cache.bean.CacheMetricsRegistry;
+import org.microboot.cache.bean.CompactSerializer;
+import org.microboot.cache.bean.CompressingSerializer;
+import org.microboot.cache.bean.CountingBloomFilter;
+import org.microboot.cache.bean.HotKeyDetector;
+import org.microboot.cache.bean.InvalidationPublisher;
+import org.microboot.cache.bean.JdkSerializer;
+import org.microboot.cache.bean.LocalCacheSnapshot;
+import org.microboot.cache.bean.MemcachedTranscoder;
+import org.microboot.cache.bean.MulticastListener;
+import org.microboot.cache.bean.MulticastProvider;
+import org.microboot.cache.bean.RedisBloomFilter;
+import org.microboot.cache.bean.RedisGenerationSweeper;
+import org.microboot.cache.bean.RedisKeySerializer;
+import org.microboot.cache.bean.RedisSyncFuncHolder;
+import org.microboot.cache.bean.RedisValueSerializer;
+import org.microboot.cache.bean.TcpListener;
+import org.microboot.cache.bean.TcpProvider;
+import org.microboot.cache.bean.WriteBehindQueue;
 import org.microboot.cache.constant.CacheConstant;
+import org.microboot.cache.entity.LocalCacheValue;
+import org.microboot.cache.func.BloomFilterFunc;
+import org.microboot.cache.func.SerializerFunc;
 import org.microboot.cache.impl.AbstractCache;
+import org.microboot.cache.impl.AbstractCentralCache;
 import org.microboot.cache.impl.AbstractLocalCache;
 import org.microboot.cache.impl.CacheImpl;
 import org.microboot.cache.impl.CacheManagerImpl;
 import org.microboot.cache.impl.caffeine.CaffeineImpl;
 import org.microboot.cache.impl.ehcache.EhcacheImpl;
 import org.microboot.cache.impl.memcached.MemcachedImpl;
+import org.microboot.cache.impl.offheap.OffHeapImpl;
+import org.microboot.cache.impl.offheap.OffHeapStore;
 import org.microboot.cache.impl.redis.RedisImpl;
 import org.microboot.core.bean.ApplicationContextHolder;
+import org.microboot.core.config.CoreConfig;
 import org.microboot.core.constant.Constant;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
 import org.springframework.boot.autoconfigure.cache.CacheProperties;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
@@ -36,20 +69,29 @@ import org.springframework.core.env.Environment;
 import org.springframework.core.io.UrlResource;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.jms.annotation.EnableJms;
 import org.springframework.jms.core.JmsTemplate;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author 胡鹏
  */
 @EnableJms
 @Configuration
+@AutoConfigureBefore(CoreConfig.class)
 @DependsOn(Constant.APPLICATION_CONTEXT_HOLDER)
 public class CacheConfig {
 
@@ -99,6 +141,217 @@ public class CacheConfig {
         return new ActiveMQProvider();
     }
 
+    /******************************************不依赖消息中间件的传输方式（cache.invalidation.transport）***********************************************/
+    /**
+     * MulticastListener 初始化
+     *
+     * cache.invalidation.transport=multicast时，通过UDP组播清除其他服务的本地缓存，相关配置如下：
+     * cache.invalidation.multicast.group=239.255.27.1（组播地址）
+     * cache.invalidation.multicast.port=45588（组播端口）
+     *
+     * @param environment
+     * @return
+     * @throws IOException
+     */
+    @Bean(name = "org.microboot.cache.func.MQListenerFunc")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.func.MQListenerFunc")
+    @ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = CacheConstant.CACHE_INVALIDATION_TRANSPORT_MULTICAST)
+    public MulticastListener initMulticastListener(Environment environment) throws IOException {
+        return new MulticastListener(getMulticastGroup(environment), getMulticastPort(environment));
+    }
+
+    /**
+     * MulticastProvider 初始化
+     *
+     * cache.invalidation.multicast.ttl=1（组播数据包的TTL，1表示只在本网段内传播）
+     * cache.invalidation.multicast.packet-size=1400（单个数据包的最大字节数）
+     *
+     * @param environment
+     * @return
+     * @throws IOException
+     */
+    @Bean(name = "org.microboot.cache.func.MQProviderFunc")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.func.MQProviderFunc")
+    @ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = CacheConstant.CACHE_INVALIDATION_TRANSPORT_MULTICAST)
+    public MulticastProvider initMulticastProvider(Environment environment) throws IOException {
+        int ttl = StringUtils.isBlank(environment.getProperty("cache.invalidation.multicast.ttl"))
+                ? CacheConstant.DEFAULT_MULTICAST_TTL : Integer.parseInt(environment.getProperty("cache.invalidation.multicast.ttl"));
+        int packetSize = StringUtils.isBlank(environment.getProperty("cache.invalidation.multicast.packet-size"))
+                ? CacheConstant.DEFAULT_MULTICAST_PACKET_SIZE : Integer.parseInt(environment.getProperty("cache.invalidation.multicast.packet-size"));
+        return new MulticastProvider(getMulticastGroup(environment), getMulticastPort(environment), ttl, packetSize);
+    }
+
+    /**
+     * TcpListener 初始化
+     *
+     * cache.invalidation.transport=tcp时，通过TCP向配置的服务列表清除本地缓存，相关配置如下：
+     * cache.invalidation.tcp.port=45589（本服务监听的端口）
+     *
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.func.MQListenerFunc")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.func.MQListenerFunc")
+    @ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = CacheConstant.CACHE_INVALIDATION_TRANSPORT_TCP)
+    public TcpListener initTcpListener(Environment environment) {
+        int port = StringUtils.isBlank(environment.getProperty("cache.invalidation.tcp.port"))
+                ? CacheConstant.DEFAULT_TCP_PORT : Integer.parseInt(environment.getProperty("cache.invalidation.tcp.port"));
+        return new TcpListener(port);
+    }
+
+    /**
+     * TcpProvider 初始化
+     *
+     * cache.invalidation.tcp.peers=192.168.1.2:45589,192.168.1.3:45589（其他服务的地址）
+     * cache.invalidation.tcp.connect-timeout=1000（连接超时时间，单位：毫秒）
+     * cache.invalidation.tcp.retry-interval=1000（连接失败后的重连间隔，单位：毫秒）
+     *
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.func.MQProviderFunc")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.func.MQProviderFunc")
+    @ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = CacheConstant.CACHE_INVALIDATION_TRANSPORT_TCP)
+    public TcpProvider initTcpProvider(Environment environment) {
+        List<InetSocketAddress> peers = Lists.newArrayList();
+        String peerAddresses = environment.getProperty("cache.invalidation.tcp.peers");
+        if (StringUtils.isNotBlank(peerAddresses)) {
+            for (String peer : StringUtils.split(peerAddresses, ",")) {
+                String[] hostPort = StringUtils.split(StringUtils.trim(peer), ":");
+                peers.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+            }
+        }
+        int connectTimeout = StringUtils.isBlank(environment.getProperty("cache.invalidation.tcp.connect-timeout"))
+                ? CacheConstant.DEFAULT_TCP_CONNECT_TIMEOUT : Integer.parseInt(environment.getProperty("cache.invalidation.tcp.connect-timeout"));
+        long retryInterval = StringUtils.isBlank(environment.getProperty("cache.invalidation.tcp.retry-interval"))
+                ? CacheConstant.DEFAULT_TCP_RETRY_INTERVAL : Long.parseLong(environment.getProperty("cache.invalidation.tcp.retry-interval"));
+        return new TcpProvider(peers, connectTimeout, retryInterval);
+    }
+
+    /**
+     * InvalidationPublisher 初始化
+     *
+     * 本地缓存清除消息异步合并后批量发送，相关配置如下：
+     * cache.invalidation.batch-window=10（缓冲时间，单位：毫秒，小于等于0时同步逐条发送）
+     * cache.invalidation.batch-size=500（每批最多发送的消息条数，攒够后提前发送）
+     * cache.invalidation.capacity=100000（缓冲区上限，超过后降级为清除整个缓存）
+     *
+     * 推送更新：小数据随消息一起发送，其他服务直接写入本地缓存（只写入已经缓存了这个key的服务），相关配置如下：
+     * cache.push.enabled=false（是否开启推送更新）
+     * cache.push.max-size=1024（推送的数据序列化后的最大字节数，超过时只发送清除消息）
+     *
+     * UDP组播和TCP没有认证，开启推送更新时：
+     * 1、只支持cache.serializer=compact（接收方不会回退到JDK反序列化，见SerializerFunc.deserializeUntrusted），否则启动失败
+     * 2、UDP组播时push.max-size不超过packet-size的一半（剩下的留给uniqueId，key等字段）
+     *
+     * @param serializerFunc
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.bean.InvalidationPublisher")
+    public InvalidationPublisher initInvalidationPublisher(SerializerFunc serializerFunc, Environment environment) {
+        long batchWindow = StringUtils.isBlank(environment.getProperty("cache.invalidation.batch-window"))
+                ? CacheConstant.DEFAULT_INVALIDATION_BATCH_WINDOW : Long.parseLong(environment.getProperty("cache.invalidation.batch-window"));
+        int batchSize = StringUtils.isBlank(environment.getProperty("cache.invalidation.batch-size"))
+                ? CacheConstant.DEFAULT_INVALIDATION_BATCH_SIZE : Integer.parseInt(environment.getProperty("cache.invalidation.batch-size"));
+        int capacity = StringUtils.isBlank(environment.getProperty("cache.invalidation.capacity"))
+                ? CacheConstant.DEFAULT_INVALIDATION_CAPACITY : Integer.parseInt(environment.getProperty("cache.invalidation.capacity"));
+        boolean pushEnabled = StringUtils.isBlank(environment.getProperty("cache.push.enabled"))
+                ? CacheConstant.DEFAULT_PUSH_ENABLED : Boolean.parseBoolean(environment.getProperty("cache.push.enabled"));
+        int pushMaxSize = StringUtils.isBlank(environment.getProperty("cache.push.max-size"))
+                ? CacheConstant.DEFAULT_PUSH_MAX_SIZE : Integer.parseInt(environment.getProperty("cache.push.max-size"));
+        String transport = environment.getProperty("cache.invalidation.transport");
+        if (pushEnabled && StringUtils.equalsAny(transport, CacheConstant.CACHE_INVALIDATION_TRANSPORT_MULTICAST, CacheConstant.CACHE_INVALIDATION_TRANSPORT_TCP)) {
+            if (!(serializerFunc instanceof CompactSerializer)) {
+                throw new IllegalArgumentException("cache.push.enabled over " + transport + " requires cache.serializer=compact");
+            }
+            if (StringUtils.equals(transport, CacheConstant.CACHE_INVALIDATION_TRANSPORT_MULTICAST)) {
+                int packetSize = StringUtils.isBlank(environment.getProperty("cache.invalidation.multicast.packet-size"))
+                        ? CacheConstant.DEFAULT_MULTICAST_PACKET_SIZE : Integer.parseInt(environment.getProperty("cache.invalidation.multicast.packet-size"));
+                pushMaxSize = Math.min(pushMaxSize, packetSize / 2);
+            }
+        }
+        return new InvalidationPublisher(batchWindow, batchSize, capacity, pushEnabled ? pushMaxSize : 0);
+    }
+
+    /******************************************** 统计 **********************************************/
+    /**
+     * CacheMetricsRegistry 初始化
+     *
+     * 所有缓存线（包括按需创建的region）在创建时注册，相关配置如下：
+     * cache.metrics.jmx.enabled=true（是否将统计数据注册到JMX）
+     *
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.bean.CacheMetricsRegistry")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.bean.CacheMetricsRegistry")
+    public CacheMetricsRegistry initCacheMetricsRegistry(Environment environment) {
+        boolean jmxEnabled = StringUtils.isBlank(environment.getProperty("cache.metrics.jmx.enabled"))
+                ? CacheConstant.DEFAULT_CACHE_METRICS_JMX_ENABLED : Boolean.parseBoolean(environment.getProperty("cache.metrics.jmx.enabled"));
+        return new CacheMetricsRegistry(jmxEnabled);
+    }
+
+    /**
+     * CacheMetricsEndpoint 初始化
+     *
+     * 通过management.endpoints.web.exposure.include=cachemetrics暴露
+     *
+     * @param cacheMetricsRegistry
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.bean.CacheMetricsEndpoint")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.bean.CacheMetricsEndpoint")
+    public CacheMetricsEndpoint initCacheMetricsEndpoint(CacheMetricsRegistry cacheMetricsRegistry) {
+        return new CacheMetricsEndpoint(cacheMetricsRegistry);
+    }
+
+    /**
+     * CacheHotKeysEndpoint 初始化
+     *
+     * 通过management.endpoints.web.exposure.include=cachehotkeys暴露
+     *
+     * @param cacheMetricsRegistry
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.bean.CacheHotKeysEndpoint")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.bean.CacheHotKeysEndpoint")
+    public CacheHotKeysEndpoint initCacheHotKeysEndpoint(CacheMetricsRegistry cacheMetricsRegistry) {
+        return new CacheHotKeysEndpoint(cacheMetricsRegistry);
+    }
+
+    /******************************************** 序列化 **********************************************/
+    /**
+     * SerializerFunc 初始化
+     *
+     * 中央缓存（Redis，Memcached）value的序列化方式，相关配置如下：
+     * cache.serializer=jdk（默认，JDK序列化）
+     * cache.serializer=compact（紧凑的二进制序列化）
+     * cache.serializer.classes=100:com.xxx.User,101:com.xxx.Order（compact模式下注册的类，格式：class-id:类的全限定名）
+     *
+     * @param environment
+     * @return
+     * @throws ClassNotFoundException
+     */
+    @Bean(name = "org.microboot.cache.func.SerializerFunc")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.func.SerializerFunc")
+    public SerializerFunc initSerializerFunc(Environment environment) throws ClassNotFoundException {
+        String serializer = StringUtils.isBlank(environment.getProperty("cache.serializer"))
+                ? CacheConstant.DEFAULT_CACHE_SERIALIZER : environment.getProperty("cache.serializer");
+        if (!StringUtils.equalsIgnoreCase(serializer, CacheConstant.CACHE_SERIALIZER_COMPACT)) {
+            return new JdkSerializer();
+        }
+        CompactSerializer compactSerializer = new CompactSerializer();
+        String classes = environment.getProperty("cache.serializer.classes");
+        if (StringUtils.isNotBlank(classes)) {
+            for (String idClass : StringUtils.split(classes, ",")) {
+                String[] pair = StringUtils.split(StringUtils.trim(idClass), ":");
+                compactSerializer.register(Integer.parseInt(StringUtils.trim(pair[0])), Class.forName(StringUtils.trim(pair[1])));
+            }
+        }
+        return compactSerializer;
+    }
+
     /******************************************** 缓存 **********************************************/
     /**
      * CacheImpl初始化 -> 通用缓存
@@ -115,7 +368,7 @@ public class CacheConfig {
                 ? CacheConstant.DEFAULT_CACHE_ALLOW_NULL_VALUES : Boolean.parseBoolean(environment.getProperty("cache.allow-null-values"));
         String cacheName = StringUtils.isBlank(environment.getProperty("cache.name"))
                 ? CacheConstant.DEFAULT_CACHE_NAME : environment.getProperty("cache.name");
-        return getCache(allowNullValues, cacheName, cacheList);
+        return getCache(allowNullValues, cacheName, cacheList, environment);
     }
 
     /**
@@ -134,7 +387,7 @@ public class CacheConfig {
                 ? CacheConstant.DEFAULT_CACHE_ALLOW_NULL_VALUES : Boolean.parseBoolean(environment.getProperty("cache.allow-null-values"));
         String cacheName = StringUtils.isBlank(environment.getProperty("cache.local.name"))
                 ? CacheConstant.DEFAULT_CACHE_LOCAL_NAME : environment.getProperty("cache.local.name");
-        return getCache(allowNullValues, cacheName, cacheList);
+        return getCache(allowNullValues, cacheName, cacheList, environment);
     }
 
     /**
@@ -153,7 +406,7 @@ public class CacheConfig {
                 ? CacheConstant.DEFAULT_CACHE_ALLOW_NULL_VALUES : Boolean.parseBoolean(environment.getProperty("cache.allow-null-values"));
         String cacheName = StringUtils.isBlank(environment.getProperty("cache.central.name"))
                 ? CacheConstant.DEFAULT_CACHE_CENTRAL_NAME : environment.getProperty("cache.central.name");
-        return getCache(allowNullValues, cacheName, cacheList);
+        return getCache(allowNullValues, cacheName, cacheList, environment);
     }
 
     /**
@@ -161,6 +414,7 @@ public class CacheConfig {
      *
      * 将混合模式和本地模式的所有本地缓存取出，并添加到一个Set集合中
      * 当数据更新时，删除所有Set集合中本地缓存响应的数据
+     * 按需创建的region在创建时将自己的本地缓存添加到这个Set集合中
      *
      * @param cacheImpl
      * @param localCacheImpl
@@ -169,7 +423,8 @@ public class CacheConfig {
     @Bean(name = "localCaches")
     public Set<AbstractLocalCache> initLocalCaches(@Autowired(required = true) @Qualifier(value = "microboot.cache") CacheImpl cacheImpl,
                                                    @Autowired(required = false) @Qualifier(value = "microboot.local.cache") CacheImpl localCacheImpl) {
-        Set<AbstractLocalCache> localCaches = Sets.newHashSet();
+        //按需创建的region也会把本地缓存加入进来，所以这里需要线程安全的Set
+        Set<AbstractLocalCache> localCaches = Sets.newConcurrentHashSet();
         if (cacheImpl != null && CollectionUtils.isNotEmpty(cacheImpl.getCaches())) {
             for (AbstractCache cache : cacheImpl.getCaches()) {
                 if (cache instanceof AbstractLocalCache) {
@@ -185,6 +440,36 @@ public class CacheConfig {
         return localCaches;
     }
 
+    /**
+     * LocalCacheSnapshot 初始化
+     *
+     * 本地缓存快照（服务重启后的预热，见LocalCacheSnapshot），相关配置如下：
+     * cache.snapshot.enabled=false（是否开启）
+     * cache.snapshot.file=microboot-cache.snapshot（快照文件的路径）
+     * cache.snapshot.interval=0（定时写快照的间隔，单位：秒，小于等于0时只在Spring容器关闭时写）
+     * cache.snapshot.max-age=300（快照的最大有效期，单位：秒，小于等于0时不限制）
+     *
+     * 依赖localCaches，Spring容器关闭时先于本地缓存销毁，保证写快照时本地缓存还可用
+     *
+     * @param localCaches
+     * @param serializerFunc
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.bean.LocalCacheSnapshot")
+    @ConditionalOnMissingBean(name = "org.microboot.cache.bean.LocalCacheSnapshot")
+    @ConditionalOnProperty(name = "cache.snapshot.enabled", havingValue = "true")
+    public LocalCacheSnapshot initLocalCacheSnapshot(@Autowired @Qualifier(value = "localCaches") Set<AbstractLocalCache> localCaches,
+                                                     SerializerFunc serializerFunc, Environment environment) {
+        String file = StringUtils.isBlank(environment.getProperty("cache.snapshot.file"))
+                ? CacheConstant.DEFAULT_SNAPSHOT_FILE : environment.getProperty("cache.snapshot.file");
+        long interval = StringUtils.isBlank(environment.getProperty("cache.snapshot.interval"))
+                ? CacheConstant.DEFAULT_SNAPSHOT_INTERVAL : Long.parseLong(environment.getProperty("cache.snapshot.interval"));
+        long maxAge = StringUtils.isBlank(environment.getProperty("cache.snapshot.max-age"))
+                ? CacheConstant.DEFAULT_SNAPSHOT_MAX_AGE : Long.parseLong(environment.getProperty("cache.snapshot.max-age"));
+        return new LocalCacheSnapshot(localCaches, serializerFunc, file, TimeUnit.SECONDS.toMillis(interval), TimeUnit.SECONDS.toMillis(maxAge));
+    }
+
     /**
      * CacheManagerImpl初始化
      *
@@ -216,6 +501,8 @@ public class CacheConfig {
                     ? CacheConstant.DEFAULT_CACHE_CENTRAL_NAME : environment.getProperty("cache.central.name");
             cacheManagerImpl.setCache(centralCacheName, centralCacheImpl);
         }
+        //按需创建的region
+        cacheManagerImpl.setRegionFactory(regionName -> createRegion(regionName, environment));
         return cacheManagerImpl;
     }
 
@@ -342,6 +629,30 @@ public class CacheConfig {
         return new EhcacheImpl(ehcacheName, ehCacheFactoryBean.getObject());
     }
 
+    /************************************* 堆外缓存相关初始化 *****************************************/
+    /**
+     * OffHeapImpl初始化
+     *
+     * cache.offheap.using=true时创建，通过cache.class或者cache.local.class引用，相关配置如下：
+     * cache.offheap.max-memory=268435456（最大使用的堆外内存，单位：字节，需要小于-XX:MaxDirectMemorySize）
+     * cache.offheap.segments=16（分段数，每段一把锁）
+     * cache.offheap.page-size=1048576（每次申请的内存页大小，单位：字节，大于一页的数据不缓存）
+     * cache.offheap.ttl=0（过期时间，单位：秒，小于等于0时不过期）
+     *
+     * @param serializerFunc
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.impl.offheap.OffHeapImpl")
+    @ConditionalOnProperty(name = "cache.offheap.using", havingValue = "true")
+    public OffHeapImpl initOffHeapImpl(SerializerFunc serializerFunc, Environment environment) {
+        String offHeapName = StringUtils.isBlank(environment.getProperty("cache.offheap.name"))
+                ? CacheConstant.DEFAULT_OFFHEAP_NAME : environment.getProperty("cache.offheap.name");
+        long ttl = StringUtils.isBlank(environment.getProperty("cache.offheap.ttl"))
+                ? CacheConstant.DEFAULT_OFFHEAP_TTL : Long.parseLong(environment.getProperty("cache.offheap.ttl"));
+        return new OffHeapImpl(offHeapName, getOffHeapStore(0, TimeUnit.SECONDS.toMillis(ttl), environment), serializerFunc);
+    }
+
     /*************************************Memcache相关初始化*****************************************/
     /**
      * MemcachedClient初始化
@@ -358,46 +669,73 @@ public class CacheConfig {
 
 
     /**
-     * MemcachedImpl初始化
+     * MemcachedImpl初始化，相关配置如下：
+     *
+     * cache.memcached.timeout=100（读取的最长等待时间，单位：毫秒，超时视为未命中，默认：2500，与spymemcached的operationTimeout一致）
+     * cache.memcached.acknowledged=false（写入时是否等待确认，默认：false，即不等待写入结果）
      *
      * @param memcachedClient
+     * @param serializerFunc
      * @param environment
      * @return
      * @throws Exception
      */
     @Bean(name = "org.microboot.cache.impl.memcached.MemcachedImpl")
     @ConditionalOnProperty(name = "cache.memcached.using", havingValue = "true")
-    public MemcachedImpl initMemcachedImpl(MemcachedClient memcachedClient, Environment environment) throws Exception {
+    public MemcachedImpl initMemcachedImpl(MemcachedClient memcachedClient, SerializerFunc serializerFunc, Environment environment) throws Exception {
         int cacheExpire = StringUtils.isBlank(environment.getProperty("cache.memcached.expire"))
                 ? CacheConstant.DEFAULT_CACHE_EXPIRE : Integer.parseInt(environment.getProperty("cache.memcached.expire"));
         boolean isDynamic = StringUtils.isBlank(environment.getProperty("cache.memcached.isDynamic"))
                 ? CacheConstant.DEFAULT_CACHE_IS_DYNAMIC : Boolean.parseBoolean(environment.getProperty("cache.memcached.isDynamic"));
         String cacheName = StringUtils.isBlank(environment.getProperty("cache.memcached.name"))
                 ? CacheConstant.DEFAULT_MEMCACHED_NAME : environment.getProperty("cache.memcached.name");
-        return new MemcachedImpl(cacheName, cacheExpire, isDynamic, memcachedClient);
+        MemcachedImpl memcachedImpl = new MemcachedImpl(cacheName, cacheExpire, isDynamic, memcachedClient);
+        SerializerFunc memcachedSerializerFunc = getSerializerFunc("cache.memcached", serializerFunc, environment);
+        //JDK序列化且不压缩时沿用MemcachedClient默认的Transcoder，否则通过MemcachedTranscoder适配
+        if (!(memcachedSerializerFunc instanceof JdkSerializer)) {
+            memcachedImpl.setTranscoder(new MemcachedTranscoder(memcachedSerializerFunc));
+        }
+        if (memcachedSerializerFunc instanceof CompressingSerializer) {
+            memcachedImpl.setCompressingSerializer((CompressingSerializer) memcachedSerializerFunc);
+        }
+        long timeout = StringUtils.isBlank(environment.getProperty("cache.memcached.timeout"))
+                ? CacheConstant.DEFAULT_MEMCACHED_TIMEOUT : Long.parseLong(environment.getProperty("cache.memcached.timeout"));
+        boolean acknowledged = StringUtils.isBlank(environment.getProperty("cache.memcached.acknowledged"))
+                ? CacheConstant.DEFAULT_MEMCACHED_ACKNOWLEDGED : Boolean.parseBoolean(environment.getProperty("cache.memcached.acknowledged"));
+        memcachedImpl.setTimeout(timeout);
+        memcachedImpl.setAcknowledged(acknowledged);
+        memcachedImpl.setWriteBehindQueue(getWriteBehindQueue("cache.memcached", memcachedImpl, environment));
+        memcachedImpl.setGenerationRefresh(getGenerationRefresh("cache.memcached", environment));
+        return memcachedImpl;
     }
 
     /************************************* Redis相关初始化 *****************************************/
     /**
      * 初始化RedisSerializer-keySerializer
      *
+     * 编码结果与StringRedisSerializer一致，RedisImpl可以直接传入CacheKey，使用其中缓存的字节
+     *
      * @return
      */
     @Bean(name = "keySerializer")
     @ConditionalOnMissingBean(name = "keySerializer")
     public RedisSerializer initKeySerializer() {
-        return new StringRedisSerializer();
+        return new RedisKeySerializer();
     }
 
     /**
      * 初始化RedisSerializer-valueSerializer
      *
+     * 序列化方式由SerializerFunc决定（cache.serializer），是否压缩由cache.redis.compression.threshold决定
+     *
+     * @param serializerFunc
+     * @param environment
      * @return
      */
     @Bean(name = "valueSerializer")
     @ConditionalOnMissingBean(name = "valueSerializer")
-    public RedisSerializer initValueSerializer() {
-        return new JdkSerializationRedisSerializer();
+    public RedisSerializer initValueSerializer(SerializerFunc serializerFunc, Environment environment) {
+        return new RedisValueSerializer(getSerializerFunc("cache.redis", serializerFunc, environment));
     }
 
     /**
@@ -451,20 +789,185 @@ public class CacheConfig {
     /**
      * RedisCacheImpl初始化
      *
+     * cache.redis.clear-mode，cache.redis.generation.refresh见getGenerationRefresh
+     * cache.redis.tag-batch-size=500（按标签删除时，每条SREM和UNLINK命令中key的数量）
+     *
      * @param redisTemplate
      * @param environment
+     * @param generationSweeper
      * @return
      */
     @Bean(name = "org.microboot.cache.impl.redis.RedisImpl")
     @ConditionalOnProperty(name = "cache.redis.using", havingValue = "true")
-    public RedisImpl initRedisCacheImpl(RedisTemplate redisTemplate, Environment environment) {
+    public RedisImpl initRedisCacheImpl(RedisTemplate redisTemplate, Environment environment,
+                                        @Autowired(required = false) @Qualifier(value = "org.microboot.cache.bean.RedisGenerationSweeper") RedisGenerationSweeper generationSweeper) {
         int cacheExpire = StringUtils.isBlank(environment.getProperty("cache.redis.name"))
                 ? CacheConstant.DEFAULT_CACHE_EXPIRE : Integer.parseInt(environment.getProperty("cache.redis.expire"));
         boolean isDynamic = StringUtils.isBlank(environment.getProperty("cache.redis.isDynamic"))
                 ? CacheConstant.DEFAULT_CACHE_IS_DYNAMIC : Boolean.parseBoolean(environment.getProperty("cache.redis.isDynamic"));
         String cacheName = StringUtils.isBlank(environment.getProperty("cache.redis.name"))
                 ? CacheConstant.DEFAULT_REDIS_NAME : environment.getProperty("cache.redis.name");
-        return new RedisImpl(cacheName, cacheExpire, isDynamic, redisTemplate);
+        RedisImpl redisImpl = new RedisImpl(cacheName, cacheExpire, isDynamic, redisTemplate);
+        if (redisTemplate.getValueSerializer() instanceof RedisValueSerializer) {
+            SerializerFunc redisSerializerFunc = ((RedisValueSerializer) redisTemplate.getValueSerializer()).getSerializerFunc();
+            if (redisSerializerFunc instanceof CompressingSerializer) {
+                redisImpl.setCompressingSerializer((CompressingSerializer) redisSerializerFunc);
+            }
+        }
+        redisImpl.setWriteBehindQueue(getWriteBehindQueue("cache.redis", redisImpl, environment));
+        redisImpl.setGenerationRefresh(getGenerationRefresh("cache.redis", environment));
+        if (redisImpl.getGenerationRefresh() >= 0) {
+            redisImpl.setGenerationSweeper(generationSweeper);
+        }
+        redisImpl.setTagBatchSize(StringUtils.isBlank(environment.getProperty("cache.redis.tag-batch-size"))
+                ? CacheConstant.DEFAULT_REDIS_TAG_BATCH_SIZE : Integer.parseInt(environment.getProperty("cache.redis.tag-batch-size")));
+        return redisImpl;
+    }
+
+    /**
+     * 命名空间代数的后台清理任务（cache.redis.clear-mode=generation时生效），相关配置如下：
+     *
+     * cache.redis.sweeper.enabled=true（默认关闭，旧代数的key只由过期时间回收）
+     * cache.redis.sweeper.batch-size=100（每次SCAN和UNLINK的key的数量）
+     * cache.redis.sweeper.rate=1000（每秒删除的key的数量）
+     *
+     * @param redisTemplate
+     * @param environment
+     * @return
+     */
+    @Bean(name = "org.microboot.cache.bean.RedisGenerationSweeper")
+    @ConditionalOnProperty(name = "cache.redis.sweeper.enabled", havingValue = "true")
+    public RedisGenerationSweeper initRedisGenerationSweeper(RedisTemplate redisTemplate, Environment environment) {
+        int batchSize = StringUtils.isBlank(environment.getProperty("cache.redis.sweeper.batch-size"))
+                ? CacheConstant.DEFAULT_REDIS_SWEEPER_BATCH_SIZE : Integer.parseInt(environment.getProperty("cache.redis.sweeper.batch-size"));
+        double rate = StringUtils.isBlank(environment.getProperty("cache.redis.sweeper.rate"))
+                ? CacheConstant.DEFAULT_REDIS_SWEEPER_RATE : Double.parseDouble(environment.getProperty("cache.redis.sweeper.rate"));
+        return new RedisGenerationSweeper(redisTemplate, batchSize, rate);
+    }
+
+    /**
+     * 基于Redis的分布式SyncFunc初始化
+     *
+     * beanName与CoreConfig中的SyncFunc相同，CacheConfig先于CoreConfig加载（@AutoConfigureBefore），使得默认的进程内SyncFunc失效
+     *
+     * cache.sync.mode=redis（不配置时使用进程内的锁）
+     * cache.sync.redis.prefix=microboot-sync（锁的key前缀）
+     * cache.sync.redis.lease=30000（锁的租期，单位：毫秒，持有期间由看门狗每隔lease / 3续期）
+     * cache.sync.redis.fence-ttl=86400000（fencing token计数器的过期时间，单位：毫秒）
+     * cache.sync.redis.min-backoff=5（自旋时第一次重试的等待时间，单位：毫秒）
+     * cache.sync.redis.max-backoff=200（自旋时重试的最大等待时间，单位：毫秒）
+     * cache.sync.redis.stripes=0（分段数，大于0时所有key映射到固定数量的锁上，小于等于0时每个key一把锁）
+     *
+     * 使用单独的StringRedisTemplate，不受keySerializer和valueSerializer的影响
+     *
+     * @param redisConnectionFactory
+     * @param environment
+     * @return
+     */
+    @Bean(name = Constant.SYNC_FUNC_HOLDER)
+    @ConditionalOnMissingBean(name = Constant.SYNC_FUNC_HOLDER)
+    @ConditionalOnProperty(name = "cache.sync.mode", havingValue = CacheConstant.CACHE_SYNC_MODE_REDIS)
+    public RedisSyncFuncHolder initRedisSyncFuncHolder(RedisConnectionFactory redisConnectionFactory, Environment environment) {
+        String prefix = StringUtils.isBlank(environment.getProperty("cache.sync.redis.prefix"))
+                ? CacheConstant.DEFAULT_SYNC_REDIS_PREFIX : environment.getProperty("cache.sync.redis.prefix");
+        long lease = StringUtils.isBlank(environment.getProperty("cache.sync.redis.lease"))
+                ? CacheConstant.DEFAULT_SYNC_REDIS_LEASE : Long.parseLong(environment.getProperty("cache.sync.redis.lease"));
+        long fenceTtl = StringUtils.isBlank(environment.getProperty("cache.sync.redis.fence-ttl"))
+                ? CacheConstant.DEFAULT_SYNC_REDIS_FENCE_TTL : Long.parseLong(environment.getProperty("cache.sync.redis.fence-ttl"));
+        long minBackoff = StringUtils.isBlank(environment.getProperty("cache.sync.redis.min-backoff"))
+                ? CacheConstant.DEFAULT_SYNC_REDIS_MIN_BACKOFF : Long.parseLong(environment.getProperty("cache.sync.redis.min-backoff"));
+        long maxBackoff = StringUtils.isBlank(environment.getProperty("cache.sync.redis.max-backoff"))
+                ? CacheConstant.DEFAULT_SYNC_REDIS_MAX_BACKOFF : Long.parseLong(environment.getProperty("cache.sync.redis.max-backoff"));
+        int stripes = StringUtils.isBlank(environment.getProperty("cache.sync.redis.stripes"))
+                ? CacheConstant.DEFAULT_SYNC_REDIS_STRIPES : Integer.parseInt(environment.getProperty("cache.sync.redis.stripes"));
+        return new RedisSyncFuncHolder(new StringRedisTemplate(redisConnectionFactory), prefix, lease, fenceTtl, minBackoff, maxBackoff, stripes);
+    }
+
+    /**
+     * 中央缓存的写模式
+     *
+     * 1、sync（默认）：同步写入
+     * 2、async：异步写入（write-behind），删除依然同步执行，相关配置如下：
+     * {prefix}.write-mode=async
+     * {prefix}.write-behind.capacity=10000（队列容量）
+     * {prefix}.write-behind.batch-size=100（每次批量写入的最大key数量）
+     * {prefix}.write-behind.threads=2（工作线程数）
+     * {prefix}.write-behind.offer-timeout=10（队列满时的等待时间，单位：毫秒，超时后由调用线程同步写入）
+     *
+     * @param prefix
+     * @param cache
+     * @param environment
+     * @return
+     */
+    private WriteBehindQueue getWriteBehindQueue(String prefix, AbstractCentralCache cache, Environment environment) {
+        String writeMode = StringUtils.isBlank(environment.getProperty(prefix + ".write-mode"))
+                ? CacheConstant.DEFAULT_CACHE_WRITE_MODE : environment.getProperty(prefix + ".write-mode");
+        if (!StringUtils.equalsIgnoreCase(writeMode, CacheConstant.CACHE_WRITE_MODE_ASYNC)) {
+            return null;
+        }
+        int capacity = StringUtils.isBlank(environment.getProperty(prefix + ".write-behind.capacity"))
+                ? CacheConstant.DEFAULT_WRITE_BEHIND_CAPACITY : Integer.parseInt(environment.getProperty(prefix + ".write-behind.capacity"));
+        int batchSize = StringUtils.isBlank(environment.getProperty(prefix + ".write-behind.batch-size"))
+                ? CacheConstant.DEFAULT_WRITE_BEHIND_BATCH_SIZE : Integer.parseInt(environment.getProperty(prefix + ".write-behind.batch-size"));
+        int threads = StringUtils.isBlank(environment.getProperty(prefix + ".write-behind.threads"))
+                ? CacheConstant.DEFAULT_WRITE_BEHIND_THREADS : Integer.parseInt(environment.getProperty(prefix + ".write-behind.threads"));
+        long offerTimeout = StringUtils.isBlank(environment.getProperty(prefix + ".write-behind.offer-timeout"))
+                ? CacheConstant.DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT : Long.parseLong(environment.getProperty(prefix + ".write-behind.offer-timeout"));
+        return new WriteBehindQueue(cache, capacity, batchSize, threads, offerTimeout);
+    }
+
+    /**
+     * 中央缓存的清除方式
+     *
+     * 1、flush（默认）：清空整个Redis db（Memcached），共用同一个实例的其他缓存线和应用也会被清除
+     * 2、generation：命名空间代数，只把缓存线的代数加1（O(1)），旧数据由过期时间回收，相关配置如下：
+     * {prefix}.clear-mode=generation
+     * {prefix}.generation.refresh=1000（代数的本地缓存时间，单位：毫秒，其他服务最多在这个时间之后才能看到清除）
+     *
+     * @param prefix
+     * @param environment
+     * @return 代数的本地缓存时间，-1表示未开启
+     */
+    private long getGenerationRefresh(String prefix, Environment environment) {
+        String clearMode = StringUtils.isBlank(environment.getProperty(prefix + ".clear-mode"))
+                ? CacheConstant.DEFAULT_CACHE_CLEAR_MODE : environment.getProperty(prefix + ".clear-mode");
+        if (!StringUtils.equalsIgnoreCase(clearMode, CacheConstant.CACHE_CLEAR_MODE_GENERATION)) {
+            return -1;
+        }
+        return StringUtils.isBlank(environment.getProperty(prefix + ".generation.refresh"))
+                ? CacheConstant.DEFAULT_GENERATION_REFRESH : Math.max(0, Long.parseLong(environment.getProperty(prefix + ".generation.refresh")));
+    }
+
+    /**
+     * 中央缓存value的压缩
+     *
+     * {prefix}.compression.threshold=0（压缩阈值，单位：字节，序列化后大于等于这个值时压缩，小于等于0时不压缩）
+     * {prefix}.compression.level=1（Deflater的压缩级别，1~9）
+     *
+     * @param prefix
+     * @param serializerFunc
+     * @param environment
+     * @return
+     */
+    private SerializerFunc getSerializerFunc(String prefix, SerializerFunc serializerFunc, Environment environment) {
+        int threshold = StringUtils.isBlank(environment.getProperty(prefix + ".compression.threshold"))
+                ? CacheConstant.DEFAULT_COMPRESSION_THRESHOLD : Integer.parseInt(environment.getProperty(prefix + ".compression.threshold"));
+        if (threshold <= 0) {
+            return serializerFunc;
+        }
+        int level = StringUtils.isBlank(environment.getProperty(prefix + ".compression.level"))
+                ? CacheConstant.DEFAULT_COMPRESSION_LEVEL : Integer.parseInt(environment.getProperty(prefix + ".compression.level"));
+        return new CompressingSerializer(serializerFunc, threshold, level);
+    }
+
+    private InetAddress getMulticastGroup(Environment environment) throws IOException {
+        return InetAddress.getByName(StringUtils.isBlank(environment.getProperty("cache.invalidation.multicast.group"))
+                ? CacheConstant.DEFAULT_MULTICAST_GROUP : environment.getProperty("cache.invalidation.multicast.group"));
+    }
+
+    private int getMulticastPort(Environment environment) {
+        return StringUtils.isBlank(environment.getProperty("cache.invalidation.multicast.port"))
+                ? CacheConstant.DEFAULT_MULTICAST_PORT : Integer.parseInt(environment.getProperty("cache.invalidation.multicast.port"));
     }
 
     private List<AbstractCache> getCacheList(String classNames) throws ClassNotFoundException {
@@ -511,10 +1014,338 @@ public class CacheConfig {
         return cacheList;
     }
 
-    private CacheImpl getCache(boolean allowNullValues, String cacheName, List<AbstractCache> cacheList) {
+    private CacheImpl getCache(boolean allowNullValues, String cacheName, List<AbstractCache> cacheList, Environment environment) {
+        boolean singleFlight = StringUtils.isBlank(environment.getProperty("cache.single-flight"))
+                ? CacheConstant.DEFAULT_CACHE_SINGLE_FLIGHT : Boolean.parseBoolean(environment.getProperty("cache.single-flight"));
         CacheImpl cacheImpl = new CacheImpl(allowNullValues);
         cacheImpl.setName(cacheName);
+        cacheImpl.setSingleFlight(singleFlight);
         cacheImpl.getCaches().addAll(cacheList);
+        setRefreshAhead(cacheImpl, environment);
+        setBackfill(cacheImpl, environment);
+        setBloomFilter(cacheImpl, environment);
+        setHotKeys(cacheImpl, environment);
+        ApplicationContextHolder.getBean(CacheMetricsRegistry.class.getName(), CacheMetricsRegistry.class).register(cacheImpl);
         return cacheImpl;
     }
+
+    /**
+     * 按需创建region，相关配置如下（xxx为@Cacheable中的value）：
+     * cache.regions.xxx.tiers=caffeine,redis（region的缓存层级，可选：caffeine，ehcache，offheap，redis，memcached，按顺序组成多级缓存）
+     * cache.regions.xxx.ttl=600（过期时间，单位：秒，不配置时本地缓存不过期，中央缓存使用cache.redis.expire，cache.memcached.expire）
+     * cache.regions.xxx.max-size=10000（本地缓存的最大条数）
+     * cache.regions.xxx.max-weight=67108864（本地缓存的最大字节数，caffeine按value序列化后的字节数计算，与max-size二选一，offheap只支持max-weight）
+     * cache.regions.xxx.allow-null-values=false（不配置时使用cache.allow-null-values）
+     *
+     * 没有配置cache.regions.xxx.tiers时，使用模板cache.region-template.*（配置项与上面相同）创建
+     * 模板也没有配置时返回null，此时Spring会抛出找不到缓存的异常（与之前的行为一致）
+     *
+     * 每个region有独立的Caffeine，Ehcache实例，中央缓存共用RedisTemplate，MemcachedClient，只是过期时间不同
+     *
+     * @param regionName
+     * @param environment
+     * @return
+     */
+    private CacheImpl createRegion(String regionName, Environment environment) {
+        String prefix = "cache.regions." + regionName;
+        if (StringUtils.isBlank(environment.getProperty(prefix + ".tiers"))) {
+            prefix = "cache.region-template";
+            if (StringUtils.isBlank(environment.getProperty(prefix + ".tiers"))) {
+                return null;
+            }
+        }
+        int ttl = StringUtils.isBlank(environment.getProperty(prefix + ".ttl"))
+                ? 0 : Integer.parseInt(environment.getProperty(prefix + ".ttl"));
+        long maxSize = StringUtils.isBlank(environment.getProperty(prefix + ".max-size"))
+                ? 0 : Long.parseLong(environment.getProperty(prefix + ".max-size"));
+        long maxWeight = StringUtils.isBlank(environment.getProperty(prefix + ".max-weight"))
+                ? 0 : Long.parseLong(environment.getProperty(prefix + ".max-weight"));
+        boolean allowNullValues = StringUtils.isBlank(environment.getProperty(prefix + ".allow-null-values"))
+                ? (StringUtils.isBlank(environment.getProperty("cache.allow-null-values"))
+                ? CacheConstant.DEFAULT_CACHE_ALLOW_NULL_VALUES : Boolean.parseBoolean(environment.getProperty("cache.allow-null-values")))
+                : Boolean.parseBoolean(environment.getProperty(prefix + ".allow-null-values"));
+        List<AbstractCache> cacheList = Lists.newArrayList();
+        for (String tier : StringUtils.split(environment.getProperty(prefix + ".tiers"), ",")) {
+            tier = StringUtils.trim(tier);
+            if (StringUtils.equalsIgnoreCase(tier, CacheConstant.CACHE_REGION_TIER_CAFFEINE)) {
+                cacheList.add(createCaffeineRegion(regionName, ttl, maxSize, maxWeight, environment));
+            } else if (StringUtils.equalsIgnoreCase(tier, CacheConstant.CACHE_REGION_TIER_EHCACHE)) {
+                cacheList.add(createEhcacheRegion(regionName, ttl, maxSize, maxWeight, environment));
+            } else if (StringUtils.equalsIgnoreCase(tier, CacheConstant.CACHE_REGION_TIER_OFFHEAP)) {
+                cacheList.add(createOffHeapRegion(regionName, ttl, maxWeight, environment));
+            } else if (StringUtils.equalsIgnoreCase(tier, CacheConstant.CACHE_REGION_TIER_REDIS)) {
+                cacheList.add(createRedisRegion(ttl, environment));
+            } else if (StringUtils.equalsIgnoreCase(tier, CacheConstant.CACHE_REGION_TIER_MEMCACHED)) {
+                cacheList.add(createMemcachedRegion(ttl, environment));
+            } else {
+                throw new IllegalArgumentException("unknown tier " + tier + " of region " + regionName);
+            }
+        }
+        CacheImpl cacheImpl = getCache(allowNullValues, regionName, cacheList, environment);
+        Set<AbstractLocalCache> localCaches = ApplicationContextHolder.getBean("localCaches", Set.class);
+        //开启了本地缓存快照时，从快照中恢复region的数据
+        LocalCacheSnapshot localCacheSnapshot = ApplicationContextHolder.getApplicationContext().containsBean(LocalCacheSnapshot.class.getName())
+                ? ApplicationContextHolder.getBean(LocalCacheSnapshot.class.getName(), LocalCacheSnapshot.class) : null;
+        for (AbstractCache cache : cacheList) {
+            if (cache instanceof AbstractLocalCache) {
+                localCaches.add((AbstractLocalCache) cache);
+                if (localCacheSnapshot != null) {
+                    localCacheSnapshot.restore((AbstractLocalCache) cache);
+                }
+            }
+        }
+        return cacheImpl;
+    }
+
+    private CaffeineImpl createCaffeineRegion(String regionName, int ttl, long maxSize, long maxWeight, Environment environment) {
+        Caffeine<Object, Object> caffeine = Caffeine.newBuilder();
+        if (ttl > 0) {
+            caffeine.expireAfterWrite(ttl, TimeUnit.SECONDS);
+        }
+        if (maxWeight > 0) {
+            SerializerFunc serializerFunc = ApplicationContextHolder.getBean(SerializerFunc.class.getName(), SerializerFunc.class);
+            caffeine.maximumWeight(maxWeight).weigher((Object key, Object value) -> weigh(serializerFunc, value));
+        } else if (maxSize > 0) {
+            caffeine.maximumSize(maxSize);
+        }
+        String caffeineName = StringUtils.isBlank(environment.getProperty("cache.caffeine.name"))
+                ? CacheConstant.DEFAULT_CAFFEINE_NAME : environment.getProperty("cache.caffeine.name");
+        //与initCaffeineCache一样，不缓存null值，交由CacheImpl统一管理
+        CaffeineCache caffeineCache = new CaffeineCache(caffeineName + "-" + regionName, caffeine.build(), false);
+        return new CaffeineImpl(caffeineName, caffeineCache);
+    }
+
+    private EhcacheImpl createEhcacheRegion(String regionName, int ttl, long maxSize, long maxWeight, Environment environment) {
+        //region的Ehcache实例注册到同一个CacheManager中
+        EhCacheFactoryBean ehCacheFactoryBean = ApplicationContextHolder.getBean(EhCacheFactoryBean.class);
+        net.sf.ehcache.CacheManager cacheManager = ehCacheFactoryBean.getObject().getCacheManager();
+        String ehcacheName = StringUtils.isBlank(environment.getProperty("cache.ehcache.name"))
+                ? CacheConstant.DEFAULT_EHCACHE_NAME : environment.getProperty("cache.ehcache.name");
+        CacheConfiguration cacheConfiguration = new CacheConfiguration(ehcacheName + "-" + regionName,
+                maxWeight > 0 ? 0 : (int) Math.min(maxSize, Integer.MAX_VALUE));
+        if (maxWeight > 0) {
+            cacheConfiguration.maxBytesLocalHeap(maxWeight, MemoryUnit.BYTES);
+        }
+        cacheConfiguration.eternal(ttl <= 0).timeToLiveSeconds(Math.max(0, ttl));
+        Ehcache ehcache = cacheManager.addCacheIfAbsent(new net.sf.ehcache.Cache(cacheConfiguration));
+        return new EhcacheImpl(ehcacheName, ehcache);
+    }
+
+    private OffHeapImpl createOffHeapRegion(String regionName, int ttl, long maxWeight, Environment environment) {
+        String offHeapName = StringUtils.isBlank(environment.getProperty("cache.offheap.name"))
+                ? CacheConstant.DEFAULT_OFFHEAP_NAME : environment.getProperty("cache.offheap.name");
+        SerializerFunc serializerFunc = ApplicationContextHolder.getBean(SerializerFunc.class.getName(), SerializerFunc.class);
+        OffHeapImpl offHeapImpl = new OffHeapImpl(offHeapName, getOffHeapStore(maxWeight, TimeUnit.SECONDS.toMillis(Math.max(0, ttl)), environment), serializerFunc);
+        //与Caffeine，Ehcache的region一致，快照中使用name-regionName区分
+        offHeapImpl.setSnapshotId(offHeapName + "-" + regionName);
+        return offHeapImpl;
+    }
+
+    /**
+     * @param maxMemory   小于等于0时使用cache.offheap.max-memory
+     * @param ttl         过期时间（毫秒）
+     * @param environment
+     * @return
+     */
+    private OffHeapStore getOffHeapStore(long maxMemory, long ttl, Environment environment) {
+        long offHeapMaxMemory = maxMemory > 0 ? maxMemory : (StringUtils.isBlank(environment.getProperty("cache.offheap.max-memory"))
+                ? CacheConstant.DEFAULT_OFFHEAP_MAX_MEMORY : Long.parseLong(environment.getProperty("cache.offheap.max-memory")));
+        int segments = StringUtils.isBlank(environment.getProperty("cache.offheap.segments"))
+                ? CacheConstant.DEFAULT_OFFHEAP_SEGMENTS : Integer.parseInt(environment.getProperty("cache.offheap.segments"));
+        int pageSize = StringUtils.isBlank(environment.getProperty("cache.offheap.page-size"))
+                ? CacheConstant.DEFAULT_OFFHEAP_PAGE_SIZE : Integer.parseInt(environment.getProperty("cache.offheap.page-size"));
+        return new OffHeapStore(offHeapMaxMemory, segments, pageSize, ttl);
+    }
+
+    private RedisImpl createRedisRegion(int ttl, Environment environment) {
+        //复用RedisImpl的配置，只替换过期时间
+        RedisImpl redis = ApplicationContextHolder.getBean(RedisImpl.class);
+        RedisImpl redisImpl = new RedisImpl(redis.getName(), ttl > 0 ? ttl : redis.getExpire(), redis.isDynamic(), (RedisTemplate) redis.getNativeCache());
+        redisImpl.setCompressingSerializer(redis.getCompressingSerializer());
+        redisImpl.setWriteBehindQueue(getWriteBehindQueue("cache.redis", redisImpl, environment));
+        redisImpl.setGenerationRefresh(redis.getGenerationRefresh());
+        redisImpl.setGenerationSweeper(redis.getGenerationSweeper());
+        redisImpl.setTagBatchSize(redis.getTagBatchSize());
+        return redisImpl;
+    }
+
+    private MemcachedImpl createMemcachedRegion(int ttl, Environment environment) {
+        //复用MemcachedImpl的配置，只替换过期时间
+        MemcachedImpl memcached = ApplicationContextHolder.getBean(MemcachedImpl.class);
+        MemcachedImpl memcachedImpl = new MemcachedImpl(memcached.getName(),
+                ttl > 0 ? ttl : memcached.getExpire(), memcached.isDynamic(), (MemcachedClient) memcached.getNativeCache());
+        memcachedImpl.setTranscoder(memcached.getTranscoder());
+        memcachedImpl.setCompressingSerializer(memcached.getCompressingSerializer());
+        memcachedImpl.setTimeout(memcached.getTimeout());
+        memcachedImpl.setAcknowledged(memcached.isAcknowledged());
+        memcachedImpl.setWriteBehindQueue(getWriteBehindQueue("cache.memcached", memcachedImpl, environment));
+        memcachedImpl.setGenerationRefresh(memcached.getGenerationRefresh());
+        return memcachedImpl;
+    }
+
+    /**
+     * 按value序列化后的字节数计算权重，序列化失败时按1计算
+     *
+     * @param serializerFunc
+     * @param value
+     * @return
+     */
+    private static int weigh(SerializerFunc serializerFunc, Object value) {
+        Object cacheValue = value instanceof LocalCacheValue ? ((LocalCacheValue) value).getValue() : value;
+        try {
+            byte[] bytes = serializerFunc.serialize(cacheValue);
+            return bytes == null ? 1 : Math.max(1, bytes.length);
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+
+    /**
+     * 缓存线的布隆过滤器（防止缓存穿透），相关配置如下（xxx为缓存线名称，如：cache.name，region名称）：
+     * cache.bloom-filters.xxx.loader=beanName（BloomFilterLoaderFunc的beanName，配置后开启）
+     * cache.bloom-filters.xxx.type=local（local：进程内的计数型过滤器，redis：基于Redis bitmap，多个服务共享）
+     * cache.bloom-filters.xxx.expected-insertions=1000000（预计的key的数量）
+     * cache.bloom-filters.xxx.fpp=0.01（误判率）
+     * cache.bloom-filters.xxx.rebuild-interval=3600（重建间隔，单位：秒，小于等于0时只在启动时构建一次）
+     * cache.bloom-filters.xxx.prefix=microboot-bloom（type=redis时，Redis中的key前缀，最终为{prefix:xxx}:bits等）
+     *
+     * @param cacheImpl
+     * @param environment
+     */
+    private void setBloomFilter(CacheImpl cacheImpl, Environment environment) {
+        String prefix = "cache.bloom-filters." + cacheImpl.getName();
+        String loader = environment.getProperty(prefix + ".loader");
+        if (StringUtils.isBlank(loader)) {
+            return;
+        }
+        String type = StringUtils.isBlank(environment.getProperty(prefix + ".type"))
+                ? CacheConstant.DEFAULT_BLOOM_FILTER_TYPE : environment.getProperty(prefix + ".type");
+        long expectedInsertions = StringUtils.isBlank(environment.getProperty(prefix + ".expected-insertions"))
+                ? CacheConstant.DEFAULT_BLOOM_FILTER_EXPECTED_INSERTIONS : Long.parseLong(environment.getProperty(prefix + ".expected-insertions"));
+        double fpp = StringUtils.isBlank(environment.getProperty(prefix + ".fpp"))
+                ? CacheConstant.DEFAULT_BLOOM_FILTER_FPP : Double.parseDouble(environment.getProperty(prefix + ".fpp"));
+        long rebuildInterval = StringUtils.isBlank(environment.getProperty(prefix + ".rebuild-interval"))
+                ? CacheConstant.DEFAULT_BLOOM_FILTER_REBUILD_INTERVAL : Long.parseLong(environment.getProperty(prefix + ".rebuild-interval"));
+        BloomFilterFunc bloomFilterFunc;
+        if (StringUtils.equalsIgnoreCase(type, CacheConstant.BLOOM_FILTER_TYPE_REDIS)) {
+            String keyPrefix = StringUtils.isBlank(environment.getProperty(prefix + ".prefix"))
+                    ? CacheConstant.DEFAULT_BLOOM_FILTER_PREFIX : environment.getProperty(prefix + ".prefix");
+            StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(ApplicationContextHolder.getBean(RedisConnectionFactory.class));
+            bloomFilterFunc = new RedisBloomFilter(stringRedisTemplate, keyPrefix + ":" + cacheImpl.getName(), expectedInsertions, fpp);
+        } else if (StringUtils.equalsIgnoreCase(type, CacheConstant.BLOOM_FILTER_TYPE_LOCAL)) {
+            bloomFilterFunc = new CountingBloomFilter(expectedInsertions, fpp);
+        } else {
+            throw new IllegalArgumentException("unknown bloom filter type " + type + " of cache " + cacheImpl.getName());
+        }
+        cacheImpl.setBloomFilter(new BloomFilterHolder(cacheImpl.getName(), bloomFilterFunc, loader, TimeUnit.SECONDS.toMillis(rebuildInterval)));
+    }
+
+    /**
+     * 热点key探测和本地提升（见HotKeyDetector），每条缓存线独立统计，相关配置如下：
+     * cache.hot-keys.enabled=false（是否开启）
+     * cache.hot-keys.width=4096（Count-Min Sketch每一行的计数器数量）
+     * cache.hot-keys.sample-rate=16（每16次命中记录一次）
+     * cache.hot-keys.threshold=1000（每个window的访问次数达到这个值时提升到本地）
+     * cache.hot-keys.window=10000（衰减周期，单位：毫秒）
+     * cache.hot-keys.top-k=100（Top-K的数量，同时也是本地提升层的容量）
+     * cache.hot-keys.ttl=1000（本地提升层的过期时间，单位：毫秒，也是其他服务修改数据后，本服务最多读到旧数据的时间）
+     *
+     * @param cacheImpl
+     * @param environment
+     */
+    private void setHotKeys(CacheImpl cacheImpl, Environment environment) {
+        boolean enabled = StringUtils.isBlank(environment.getProperty("cache.hot-keys.enabled"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_ENABLED : Boolean.parseBoolean(environment.getProperty("cache.hot-keys.enabled"));
+        if (!enabled) {
+            return;
+        }
+        int width = StringUtils.isBlank(environment.getProperty("cache.hot-keys.width"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_WIDTH : Integer.parseInt(environment.getProperty("cache.hot-keys.width"));
+        int sampleRate = StringUtils.isBlank(environment.getProperty("cache.hot-keys.sample-rate"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_SAMPLE_RATE : Integer.parseInt(environment.getProperty("cache.hot-keys.sample-rate"));
+        long threshold = StringUtils.isBlank(environment.getProperty("cache.hot-keys.threshold"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_THRESHOLD : Long.parseLong(environment.getProperty("cache.hot-keys.threshold"));
+        long window = StringUtils.isBlank(environment.getProperty("cache.hot-keys.window"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_WINDOW : Long.parseLong(environment.getProperty("cache.hot-keys.window"));
+        int topK = StringUtils.isBlank(environment.getProperty("cache.hot-keys.top-k"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_TOP_K : Integer.parseInt(environment.getProperty("cache.hot-keys.top-k"));
+        long ttl = StringUtils.isBlank(environment.getProperty("cache.hot-keys.ttl"))
+                ? CacheConstant.DEFAULT_HOT_KEYS_TTL : Long.parseLong(environment.getProperty("cache.hot-keys.ttl"));
+        cacheImpl.setHotKeys(new HotKeyDetector(width, sampleRate, threshold, window, topK, ttl));
+    }
+
+    /**
+     * 异步回填（见CacheImpl.backfill），相关配置如下：
+     * cache.backfill.async=false（是否开启，关闭时在请求线程中同步回填）
+     * cache.backfill.threads=2（回填的线程数）
+     * cache.backfill.queue-size=1000（回填的队列容量，队列满时放弃回填）
+     *
+     * @param cacheImpl
+     * @param environment
+     */
+    private void setBackfill(CacheImpl cacheImpl, Environment environment) {
+        boolean async = StringUtils.isBlank(environment.getProperty("cache.backfill.async"))
+                ? CacheConstant.DEFAULT_BACKFILL_ASYNC : Boolean.parseBoolean(environment.getProperty("cache.backfill.async"));
+        if (!async) {
+            return;
+        }
+        int threads = StringUtils.isBlank(environment.getProperty("cache.backfill.threads"))
+                ? CacheConstant.DEFAULT_BACKFILL_THREADS : Integer.parseInt(environment.getProperty("cache.backfill.threads"));
+        int queueSize = StringUtils.isBlank(environment.getProperty("cache.backfill.queue-size"))
+                ? CacheConstant.DEFAULT_BACKFILL_QUEUE_SIZE : Integer.parseInt(environment.getProperty("cache.backfill.queue-size"));
+        AtomicInteger threadNum = new AtomicInteger(1);
+        ThreadPoolExecutor backfillExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "backfill-" + cacheImpl.getName() + "-" + threadNum.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        backfillExecutor.allowCoreThreadTimeOut(true);
+        cacheImpl.setBackfillExecutor(backfillExecutor);
+    }
+
+    /**
+     * refresh-ahead，相关配置如下：
+     * cache.refresh-ahead.enabled=false（是否开启）
+     * cache.refresh-ahead.ttl=1800（数据的逻辑过期时间，单位：秒，默认与cache.*.expire的默认值一致）
+     * cache.refresh-ahead.fraction=0.8（超过ttl的这个比例后开始后台刷新）
+     * cache.refresh-ahead.threads=2（后台刷新的线程数）
+     * cache.refresh-ahead.queue-size=1000（后台刷新的队列容量，队列满时放弃刷新）
+     * cache.stale-while-error=0（逻辑过期后，业务方法抛出异常时，继续返回老数据的时间窗口，单位：秒）
+     * cache.refresh-ahead.xfetch-beta=0（大于0时开启XFetch，按业务方法耗时和剩余时间概率性地提前刷新，代替固定的fraction，通常取1）
+     *
+     * 注意：各级缓存的过期时间应该大于等于ttl + stale-while-error，否则数据在逻辑过期之前就被缓存组件删除了
+     *
+     * @param cacheImpl
+     * @param environment
+     */
+    private void setRefreshAhead(CacheImpl cacheImpl, Environment environment) {
+        boolean enabled = StringUtils.isBlank(environment.getProperty("cache.refresh-ahead.enabled"))
+                ? CacheConstant.DEFAULT_REFRESH_AHEAD_ENABLED : Boolean.parseBoolean(environment.getProperty("cache.refresh-ahead.enabled"));
+        if (!enabled) {
+            return;
+        }
+        long ttl = StringUtils.isBlank(environment.getProperty("cache.refresh-ahead.ttl"))
+                ? CacheConstant.DEFAULT_CACHE_EXPIRE : Long.parseLong(environment.getProperty("cache.refresh-ahead.ttl"));
+        double fraction = StringUtils.isBlank(environment.getProperty("cache.refresh-ahead.fraction"))
+                ? CacheConstant.DEFAULT_REFRESH_AHEAD_FRACTION : Double.parseDouble(environment.getProperty("cache.refresh-ahead.fraction"));
+        int threads = StringUtils.isBlank(environment.getProperty("cache.refresh-ahead.threads"))
+                ? CacheConstant.DEFAULT_REFRESH_AHEAD_THREADS : Integer.parseInt(environment.getProperty("cache.refresh-ahead.threads"));
+        int queueSize = StringUtils.isBlank(environment.getProperty("cache.refresh-ahead.queue-size"))
+                ? CacheConstant.DEFAULT_REFRESH_AHEAD_QUEUE_SIZE : Integer.parseInt(environment.getProperty("cache.refresh-ahead.queue-size"));
+        long staleWhileError = StringUtils.isBlank(environment.getProperty("cache.stale-while-error"))
+                ? CacheConstant.DEFAULT_STALE_WHILE_ERROR : Long.parseLong(environment.getProperty("cache.stale-while-error"));
+        AtomicInteger threadNum = new AtomicInteger(1);
+        ThreadPoolExecutor refreshExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "refresh-ahead-" + cacheImpl.getName() + "-" + threadNum.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshExecutor.allowCoreThreadTimeOut(true);
+        cacheImpl.setRefreshAhead(refreshExecutor, TimeUnit.SECONDS.toMillis(ttl), fraction, TimeUnit.SECONDS.toMillis(staleWhileError));
+        double xfetchBeta = StringUtils.isBlank(environment.getProperty("cache.refresh-ahead.xfetch-beta"))
+                ? CacheConstant.DEFAULT_REFRESH_AHEAD_XFETCH_BETA : Double.parseDouble(environment.getProperty("cache.refresh-ahead.xfetch-beta"));
+        cacheImpl.setXFetchBeta(xfetchBeta);
+    }
 }
@@ -2,6 +2,8 @@ package org.microboot.cache.constant;
 
 import org.microboot.core.constant.Constant;
 
+import java.util.zip.Deflater;
+
 /**
  * @author 胡鹏
  */
@@ -9,6 +11,29 @@ public class CacheConstant {
 
     //topic
     public static final String DEFAULT_ACTIVEMQ_TOPIC = "microboot-topic";
+    //invalidation transport
+    public static final String CACHE_INVALIDATION_TRANSPORT_MULTICAST = "multicast";
+    public static final String CACHE_INVALIDATION_TRANSPORT_TCP = "tcp";
+    public static final String DEFAULT_MULTICAST_GROUP = "239.255.27.1";
+    public static final int DEFAULT_MULTICAST_PORT = 45588;
+    public static final int DEFAULT_MULTICAST_TTL = 1;
+    public static final int DEFAULT_MULTICAST_PACKET_SIZE = 1400;
+    public static final int DEFAULT_TCP_PORT = 45589;
+    public static final int DEFAULT_TCP_CONNECT_TIMEOUT = 1000;
+    public static final long DEFAULT_TCP_RETRY_INTERVAL = 1000;
+    //invalidation（batch-window小于等于0时同步逐条发送）
+    public static final long DEFAULT_INVALIDATION_BATCH_WINDOW = 10;
+    public static final int DEFAULT_INVALIDATION_BATCH_SIZE = 500;
+    public static final int DEFAULT_INVALIDATION_CAPACITY = 100000;
+    //push（推送更新，默认不开启）
+    public static final boolean DEFAULT_PUSH_ENABLED = false;
+    public static final int DEFAULT_PUSH_MAX_SIZE = 1024;
+    //region tiers
+    public static final String CACHE_REGION_TIER_CAFFEINE = "caffeine";
+    public static final String CACHE_REGION_TIER_EHCACHE = "ehcache";
+    public static final String CACHE_REGION_TIER_REDIS = "redis";
+    public static final String CACHE_REGION_TIER_MEMCACHED = "memcached";
+    public static final String CACHE_REGION_TIER_OFFHEAP = "offheap";
     //cache
     public static final int DEFAULT_CACHE_EXPIRE = 30 * 60;
     public static final boolean DEFAULT_CACHE_IS_DYNAMIC = false;
@@ -16,6 +41,39 @@ public class CacheConstant {
     public static final String DEFAULT_CACHE_LOCAL_NAME = Constant.CACHE_LOCAL_NAME;
     public static final String DEFAULT_CACHE_CENTRAL_NAME = Constant.CACHE_CENTRAL_NAME;
     public static final boolean DEFAULT_CACHE_ALLOW_NULL_VALUES = false;
+    public static final boolean DEFAULT_CACHE_SINGLE_FLIGHT = true;
+    //refresh-ahead
+    public static final boolean DEFAULT_REFRESH_AHEAD_ENABLED = false;
+    public static final double DEFAULT_REFRESH_AHEAD_FRACTION = 0.8;
+    public static final double DEFAULT_REFRESH_AHEAD_XFETCH_BETA = 0;
+    public static final int DEFAULT_REFRESH_AHEAD_THREADS = 2;
+    public static final int DEFAULT_REFRESH_AHEAD_QUEUE_SIZE = 1000;
+    public static final long DEFAULT_STALE_WHILE_ERROR = 0;
+    //异步回填
+    public static final boolean DEFAULT_BACKFILL_ASYNC = false;
+    public static final int DEFAULT_BACKFILL_THREADS = 2;
+    public static final int DEFAULT_BACKFILL_QUEUE_SIZE = 1000;
+    public static final boolean DEFAULT_CACHE_METRICS_JMX_ENABLED = true;
+    //write-behind
+    public static final String CACHE_WRITE_MODE_SYNC = "sync";
+    public static final String CACHE_WRITE_MODE_ASYNC = "async";
+    public static final String DEFAULT_CACHE_WRITE_MODE = CACHE_WRITE_MODE_SYNC;
+    public static final int DEFAULT_WRITE_BEHIND_CAPACITY = 10000;
+    public static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 100;
+    public static final int DEFAULT_WRITE_BEHIND_THREADS = 2;
+    public static final long DEFAULT_WRITE_BEHIND_OFFER_TIMEOUT = 10;
+    //中央缓存的清除方式（flush：清空整个Redis db / Memcached，generation：命名空间代数）
+    public static final String CACHE_CLEAR_MODE_FLUSH = "flush";
+    public static final String CACHE_CLEAR_MODE_GENERATION = "generation";
+    public static final String DEFAULT_CACHE_CLEAR_MODE = CACHE_CLEAR_MODE_FLUSH;
+    public static final long DEFAULT_GENERATION_REFRESH = 1000;
+    //serializer
+    public static final String CACHE_SERIALIZER_JDK = "jdk";
+    public static final String CACHE_SERIALIZER_COMPACT = "compact";
+    public static final String DEFAULT_CACHE_SERIALIZER = CACHE_SERIALIZER_JDK;
+    //compression（threshold小于等于0时不压缩）
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 0;
+    public static final int DEFAULT_COMPRESSION_LEVEL = Deflater.BEST_SPEED;
     //ehcache
     public static final String DEFAULT_EHCACHE_NAME = "microboot-ehcache";
     public static final String DEFAULT_EHCACHE_MANAGER_NAME = "microboot-manager-ehcache";
@@ -29,6 +87,46 @@ public class CacheConstant {
     public static final boolean DEFAULT_CAFFEINE_ALLOW_NULL_VALUES = false;
     //memcached
     public static final String DEFAULT_MEMCACHED_NAME = "microboot-memcached";
+    //与spymemcached默认的operationTimeout一致（毫秒）
+    public static final long DEFAULT_MEMCACHED_TIMEOUT = 2500;
+    public static final boolean DEFAULT_MEMCACHED_ACKNOWLEDGED = false;
+    //offheap
+    public static final String DEFAULT_OFFHEAP_NAME = "microboot-offheap";
+    public static final long DEFAULT_OFFHEAP_MAX_MEMORY = 256L * 1024 * 1024;
+    public static final int DEFAULT_OFFHEAP_SEGMENTS = 16;
+    public static final int DEFAULT_OFFHEAP_PAGE_SIZE = 1024 * 1024;
+    public static final long DEFAULT_OFFHEAP_TTL = 0;
     //redis
     public static final String DEFAULT_REDIS_NAME = "microboot-redis";
+    public static final int DEFAULT_REDIS_SWEEPER_BATCH_SIZE = 100;
+    public static final double DEFAULT_REDIS_SWEEPER_RATE = 1000;
+    public static final int DEFAULT_REDIS_TAG_BATCH_SIZE = 500;
+    //redis分布式锁
+    public static final String CACHE_SYNC_MODE_REDIS = "redis";
+    public static final String DEFAULT_SYNC_REDIS_PREFIX = "microboot-sync";
+    public static final long DEFAULT_SYNC_REDIS_LEASE = 30000;
+    public static final long DEFAULT_SYNC_REDIS_FENCE_TTL = 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_SYNC_REDIS_MIN_BACKOFF = 5;
+    public static final long DEFAULT_SYNC_REDIS_MAX_BACKOFF = 200;
+    public static final int DEFAULT_SYNC_REDIS_STRIPES = 0;
+    //布隆过滤器
+    public static final String BLOOM_FILTER_TYPE_LOCAL = "local";
+    public static final String BLOOM_FILTER_TYPE_REDIS = "redis";
+    public static final String DEFAULT_BLOOM_FILTER_TYPE = BLOOM_FILTER_TYPE_LOCAL;
+    public static final String DEFAULT_BLOOM_FILTER_PREFIX = "microboot-bloom";
+    public static final long DEFAULT_BLOOM_FILTER_EXPECTED_INSERTIONS = 1000000;
+    public static final double DEFAULT_BLOOM_FILTER_FPP = 0.01;
+    public static final long DEFAULT_BLOOM_FILTER_REBUILD_INTERVAL = 3600;
+    //热点key
+    public static final boolean DEFAULT_HOT_KEYS_ENABLED = false;
+    public static final int DEFAULT_HOT_KEYS_WIDTH = 4096;
+    public static final int DEFAULT_HOT_KEYS_SAMPLE_RATE = 16;
+    public static final long DEFAULT_HOT_KEYS_THRESHOLD = 1000;
+    public static final long DEFAULT_HOT_KEYS_WINDOW = 10000;
+    public static final int DEFAULT_HOT_KEYS_TOP_K = 100;
+    public static final long DEFAULT_HOT_KEYS_TTL = 1000;
+    //本地缓存快照
+    public static final String DEFAULT_SNAPSHOT_FILE = "microboot-cache.snapshot";
+    public static final long DEFAULT_SNAPSHOT_INTERVAL = 0;
+    public static final long DEFAULT_SNAPSHOT_MAX_AGE = 300;
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package org.microboot.cache.entity;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author 胡鹏
+ *
+ * 预先计算好的缓存key（不可变）
+ *
+ * 以前每一次操作中，CacheImpl和每一级缓存都要调用一次KeyUtils.newKey拼接字符串（拼接 + 去空格）
+ * 一次三级缓存的查询要构建四次以上相同的字符串，现在：
+ * 1、CacheImpl在每次操作开始时构建一次CacheKey，之后在各级缓存之间传递
+ * 2、各级缓存通过child(name)派生自己的key，派生结果缓存在CacheKey中，同一次操作的查询，回填，写入不会重复构建
+ * 3、hash和UTF-8编码后的字节只计算一次，字节可以直接交给Redis（RedisKeySerializer）和堆外缓存使用
+ *
+ * toString()返回的字符串与KeyUtils.newKey的结果完全一致，缓存中实际存储的key的格式没有变化
+ */
+public final class CacheKey {
+
+    private static final CacheKey[] EMPTY = new CacheKey[0];
+
+    //最多缓存的派生key的数量（缓存线的级数通常只有2 ~ 3级）
+    private static final int MAX_CHILDREN = 8;
+
+    //构建这个key时使用的前缀（缓存名称）
+    private final String prefix;
+
+    private final String value;
+
+    private final int hash;
+
+    //UTF-8编码后的字节，第一次使用时计算
+    private volatile byte[] bytes;
+
+    //派生的key，写时复制
+    private volatile CacheKey[] children = EMPTY;
+
+    private CacheKey(String prefix, String value) {
+        this.prefix = prefix;
+        this.value = value;
+        this.hash = value.hashCode();
+    }
+
+    /**
+     * @param prefix 缓存名称
+     * @param key    已经规范化（去掉空格）的key
+     * @return
+     */
+    public static CacheKey of(String prefix, String key) {
+        return new CacheKey(prefix, prefix + '&' + key);
+    }
+
+    /**
+     * 以这个key作为原始key，派生出名称为prefix的缓存中使用的key
+     *
+     * @param prefix
+     * @return
+     */
+    public CacheKey child(String prefix) {
+        CacheKey[] current = this.children;
+        for (CacheKey child : current) {
+            if (child.prefix == prefix || child.prefix.equals(prefix)) {
+                return child;
+            }
+        }
+        CacheKey child = of(prefix, StringUtils.replace(this.value, StringUtils.SPACE, ""));
+        //并发派生时可能重复创建，结果相同，不影响正确性
+        if (current.length < MAX_CHILDREN) {
+            CacheKey[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = child;
+            this.children = next;
+        }
+        return child;
+    }
+
+    /**
+     * 构建这个key时使用的前缀（CacheImpl构建的key，前缀就是缓存线名称）
+     *
+     * @return
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * UTF-8编码后的字节
+     *
+     * 注意：返回的是内部数组，调用方不能修改
+     *
+     * @return
+     */
+    public byte[] getBytes() {
+        byte[] bytes = this.bytes;
+        if (bytes == null) {
+            bytes = this.value.getBytes(StandardCharsets.UTF_8);
+            this.bytes = bytes;
+        }
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) o;
+        return this.hash == other.hash && this.value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    @Override
+    public String toString() {
+        return this.value;
+    }
+}
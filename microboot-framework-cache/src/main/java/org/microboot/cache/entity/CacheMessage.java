@@ -14,5 +14,15 @@ public class CacheMessage {
 
     private Object key;
 
-    private String md5;
-}
\ No newline at end of file
+    //发送方写入（或删除）时的版本号
+    private Long version;
+
+    //发送方写入的数据的指纹，删除时为null
+    private Long fingerprint;
+
+    //标签key（缓存线名称 & 标签），不为null时表示删除带有这个标签的数据
+    private String tag;
+
+    //发送方写入的数据（序列化后），不为null时其他服务直接写入本地缓存（推送更新），而不是删除
+    private byte[] value;
+}
@@ -0,0 +1,34 @@
+package org.microboot.cache.entity;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * @author 胡鹏
+ *
+ * 开启refresh-ahead后，CacheImpl写入各级缓存的数据
+ *
+ * writeTime：数据写入（业务方法返回）的时间，用于判断数据是否需要提前刷新或已经逻辑过期
+ */
+@Getter
+public class CacheValue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+
+    private final long writeTime;
+
+    /**
+     * CompactSerializer反序列化时使用
+     */
+    protected CacheValue() {
+        this(null, 0L);
+    }
+
+    public CacheValue(Object value, long writeTime) {
+        this.value = value;
+        this.writeTime = writeTime;
+    }
+}
@@ -0,0 +1,33 @@
+package org.microboot.cache.entity;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+/**
+ * @author 胡鹏
+ *
+ * 本地缓存中实际存储的数据
+ *
+ * version：写入时的版本号（CacheUtils.nextVersion()生成，单调递增）
+ * fingerprint：写入时根据数据内容计算的指纹（CacheUtils.fingerprint(value)生成），回填的数据为0，收到消息时才计算
+ *
+ * 收到其他服务的缓存清除消息时，只需要比较version和fingerprint，不需要再序列化本地的数据
+ */
+@Getter
+public class LocalCacheValue implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object value;
+
+    private final long version;
+
+    private final long fingerprint;
+
+    public LocalCacheValue(Object value, long version, long fingerprint) {
+        this.value = value;
+        this.version = version;
+        this.fingerprint = fingerprint;
+    }
+}
@@ -0,0 +1,59 @@
+package org.microboot.cache.entity;
+
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.cache.utils.CacheUtils;
+
+/**
+ * @author 胡鹏
+ *
+ * 一次写操作中数据的序列化结果，由CacheImpl创建，在各级缓存之间共享（见AbstractCache.put(key, value, serializedValue)）
+ *
+ * 1、bytes：SerializerFunc序列化后的数据（未压缩），第一次使用时才序列化，之后各级缓存直接复用：
+ *    中央缓存（Redis，Memcached）写入的数据，OffHeapImpl存储的数据，推送更新的数据
+ * 2、fingerprint：数据指纹（见CacheUtils.fingerprint），直接使用bytes计算（包括CacheValue）
+ *
+ * 不需要序列化的缓存线（如：只有Caffeine，且没有消息队列）不会产生任何序列化的开销
+ * 只在一次写操作中使用（同一个线程），不是线程安全的
+ */
+public class SerializedValue {
+
+    private final Object value;
+
+    private final SerializerFunc serializerFunc;
+
+    private byte[] bytes;
+
+    private Long fingerprint;
+
+    public SerializedValue(Object value, SerializerFunc serializerFunc) {
+        this.value = value;
+        this.serializerFunc = serializerFunc;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public SerializerFunc getSerializerFunc() {
+        return serializerFunc;
+    }
+
+    /**
+     * 序列化失败时抛出异常，下次调用时重新序列化
+     *
+     * @return
+     */
+    public byte[] getBytes() {
+        if (this.bytes == null) {
+            this.bytes = this.serializerFunc.serialize(this.value);
+        }
+        return this.bytes;
+    }
+
+    public long getFingerprint() {
+        if (this.fingerprint == null) {
+            this.fingerprint = CacheUtils.fingerprint(this);
+        }
+        return this.fingerprint;
+    }
+}
@@ -0,0 +1,33 @@
+package org.microboot.cache.entity;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * @author 胡鹏
+ *
+ * 带有标签的数据（CacheImpl.put(key, value, tags)写入各级缓存时使用）
+ *
+ * tags：数据的标签（如：tenant:42），CacheImpl.evictByTag(tag)会删除带有这个标签的所有数据
+ * 标签随数据一起存储，其他服务从中央缓存回填本地缓存时，也能在本地建立标签索引
+ */
+@Getter
+public class TaggedValue extends CacheValue {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> tags;
+
+    /**
+     * CompactSerializer反序列化时使用
+     */
+    private TaggedValue() {
+        this(null, 0L, null);
+    }
+
+    public TaggedValue(Object value, long writeTime, List<String> tags) {
+        super(value, writeTime);
+        this.tags = tags;
+    }
+}
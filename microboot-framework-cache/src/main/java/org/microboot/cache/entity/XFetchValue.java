@@ -0,0 +1,31 @@
+package org.microboot.cache.entity;
+
+import lombok.Getter;
+
+/**
+ * @author 胡鹏
+ *
+ * 开启XFetch后，CacheImpl将业务方法加载的数据写入各级缓存时使用
+ *
+ * delta：业务方法的耗时（单位：毫秒），与writeTime + ttl（逻辑过期时间）一起决定提前刷新的概率
+ * 数据存放在中央缓存中，所有服务读到的都是同一个delta和writeTime
+ */
+@Getter
+public class XFetchValue extends CacheValue {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long delta;
+
+    /**
+     * CompactSerializer反序列化时使用
+     */
+    private XFetchValue() {
+        this(null, 0L, 0L);
+    }
+
+    public XFetchValue(Object value, long writeTime, long delta) {
+        super(value, writeTime);
+        this.delta = delta;
+    }
+}
@@ -0,0 +1,54 @@
+package org.microboot.cache.func;
+
+import java.util.function.Function;
+
+/**
+ * @author 胡鹏
+ *
+ * 缓存线的布隆过滤器（防止缓存穿透）
+ * microboot内置了两种实现：
+ * 1、CountingBloomFilter：进程内，可扩容，计数型（支持删除）
+ * 2、RedisBloomFilter：基于Redis bitmap，多个服务共享
+ *
+ * 约定：
+ * 1、不能有漏判（false negative），过滤器中没有的key会直接返回null，不会查询缓存，也不会执行业务方法
+ * 2、过滤器尚未构建完成（或数据丢失）时，mightContain必须返回true
+ * 3、rebuild期间调用put写入的key不能丢失
+ * 4、多个服务共享的实现需要自己保证同一时间只有一个服务在重建
+ */
+public interface BloomFilterFunc {
+
+    boolean mightContain(byte[] key);
+
+    void put(byte[] key);
+
+    /**
+     * 删除（只有计数型的实现支持，其他实现忽略，由定期重建清理）
+     *
+     * @param key
+     */
+    void remove(byte[] key);
+
+    /**
+     * 重建：使用loaderFunc加载的全部key构建一个新的过滤器，完成后替换当前的过滤器
+     *
+     * @param loaderFunc
+     * @param keyFunc    业务key -> 过滤器中使用的key
+     * @throws Exception
+     */
+    void rebuild(BloomFilterLoaderFunc loaderFunc, Function<Object, byte[]> keyFunc) throws Exception;
+
+    /**
+     * 按当前的写入数量估算的误判率
+     *
+     * @return
+     */
+    double getExpectedFpp();
+
+    /**
+     * 写入数量（近似值，重复写入也会计数）
+     *
+     * @return
+     */
+    long getApproximateCount();
+}
@@ -0,0 +1,16 @@
+package org.microboot.cache.func;
+
+import java.util.function.Consumer;
+
+/**
+ * @author 胡鹏
+ *
+ * 布隆过滤器的数据来源，由开发者实现并注入Spring容器（beanName配置在cache.bloom-filters.xxx.loader）
+ *
+ * load方法需要把所有存在的业务key（与@Cacheable的key一致）交给consumer，如：分页查询数据库中所有的id
+ * 每次重建时调用一次
+ */
+public interface BloomFilterLoaderFunc {
+
+    void load(Consumer<Object> consumer) throws Exception;
+}
@@ -0,0 +1,15 @@
+package org.microboot.cache.func;
+
+/**
+ * @author 胡鹏
+ *
+ * 遍历本地缓存中的数据（本地缓存快照）
+ *
+ * key：缓存组件中存储的key（newKey）的字节数组（UTF-8）
+ * value：LocalCacheValueUtils.toBytes序列化后的数据
+ * expireAt：过期时间（毫秒时间戳），0表示不过期
+ */
+public interface LocalCacheEntryFunc {
+
+    void accept(byte[] key, byte[] value, long expireAt) throws Exception;
+}
@@ -5,14 +5,15 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.microboot.cache.entity.CacheMessage;
-import org.microboot.cache.impl.AbstractCache;
+import org.microboot.cache.entity.LocalCacheValue;
 import org.microboot.cache.impl.AbstractLocalCache;
+import org.microboot.cache.utils.CacheUtils;
 import org.microboot.core.bean.ApplicationContextHolder;
 import org.microboot.core.func.Func0;
-import org.microboot.core.utils.ConvertUtils;
-import org.microboot.core.utils.CryptoUtils;
 import org.microboot.core.utils.LoggerUtils;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -22,6 +23,38 @@ public interface MQListenerFunc {
 
     Logger logger = LogManager.getLogger(MQListenerFunc.class);
 
+    /**
+     * 消息的来源是否可信
+     *
+     * 没有认证的传输方式（如：UDP组播，TCP）返回false，推送更新的数据只通过SerializerFunc.deserializeUntrusted反序列化
+     *
+     * @return
+     */
+    default boolean isTrusted() {
+        return true;
+    }
+
+    /**
+     * 本地数据的指纹
+     *
+     * 回填（以及快照恢复）的数据没有指纹，在这里才计算，只有收到这个key的消息时才需要序列化一次本地的数据
+     * 计算失败时返回0，本地缓存会被清除
+     *
+     * @param localCacheValue
+     * @return
+     */
+    default long fingerprint(LocalCacheValue localCacheValue) {
+        if (localCacheValue.getFingerprint() != 0L) {
+            return localCacheValue.getFingerprint();
+        }
+        try {
+            return CacheUtils.fingerprint(localCacheValue.getValue());
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+            return 0L;
+        }
+    }
+
     /**
      * 清除本地缓存
      *
@@ -29,34 +62,66 @@ public interface MQListenerFunc {
      */
     default void clearLocalCaches(Func0<CacheMessage> func) {
         try {
-            Set<AbstractLocalCache> localCaches = ApplicationContextHolder.getBean("localCaches", Set.class);
-            if (CollectionUtils.isEmpty(localCaches)) {
-                return;
-            }
             CacheMessage cacheMessage = func.func();
             if (cacheMessage == null) {
                 return;
             }
-            String uniqueId = this.get(() -> cacheMessage.getUniqueId());
-            Object key = this.get(() -> cacheMessage.getKey());
-            String md5 = this.get(() -> cacheMessage.getMd5());
+            this.clearLocalCaches(Collections.singletonList(cacheMessage));
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    /**
+     * 批量清除本地缓存
+     *
+     * 所有消息只遍历一次localCaches
+     *
+     * @param cacheMessages
+     */
+    default void clearLocalCaches(List<CacheMessage> cacheMessages) {
+        try {
+            Set<AbstractLocalCache> localCaches = ApplicationContextHolder.getBean("localCaches", Set.class);
+            if (CollectionUtils.isEmpty(localCaches) || CollectionUtils.isEmpty(cacheMessages)) {
+                return;
+            }
+            //推进本地时钟，保证本服务之后写入的数据的版本号大于消息中的版本号
+            for (CacheMessage cacheMessage : cacheMessages) {
+                if (cacheMessage != null && cacheMessage.getVersion() != null) {
+                    CacheUtils.observeVersion(cacheMessage.getVersion());
+                }
+            }
 
             for (AbstractLocalCache cache : localCaches) {
                 String currUniqueId = cache.getUniqueId();
-                /*
-                    服务启动后AbstractLocalCache中会生成一个唯一标识，其子类实例共用这个唯一标识
-                    通过这个唯一标识可判断cache跟发消息的缓存是否处于同一个服务进程
-                    如果是同一个服务，则不需要往下执行
+                for (CacheMessage cacheMessage : cacheMessages) {
+                    if (cacheMessage == null) {
+                        continue;
+                    }
+                    String uniqueId = cacheMessage.getUniqueId();
+                    Object key = cacheMessage.getKey();
+                    Long version = cacheMessage.getVersion();
+                    Long fingerprint = cacheMessage.getFingerprint();
+                    /*
+                        服务启动后AbstractLocalCache中会生成一个唯一标识，其子类实例共用这个唯一标识
+                        通过这个唯一标识可判断cache跟发消息的缓存是否处于同一个服务进程
+                        如果是同一个服务，则不需要往下执行
 
-                    老版本中这里是通过class的hashcode来判断的，但是考虑到hashcode可能会出现重复的情况
-                    因此改为唯一标识来判断
-                 */
-                if (StringUtils.equals(currUniqueId, uniqueId)) {
-                    continue;
-                }
-                if (key == null) {
-                    cache.clearLocalCache();
-                } else {
+                        老版本中这里是通过class的hashcode来判断的，但是考虑到hashcode可能会出现重复的情况
+                        因此改为唯一标识来判断
+                     */
+                    if (StringUtils.equals(currUniqueId, uniqueId)) {
+                        continue;
+                    }
+                    //按标签删除：本地数据的版本号大于消息中的版本号时保留
+                    if (cacheMessage.getTag() != null) {
+                        cache.evictLocalCacheByTag(cacheMessage.getTag(), version);
+                        continue;
+                    }
+                    if (key == null) {
+                        cache.clearLocalCache();
+                        continue;
+                    }
                     /*
                         当开启多个服务时，本地缓存通过消息队列的广播来清除被更新的数据，以达到微服务之间本地缓存同步的效果
                         但是@Cacheable注解在获取不到缓存数据时，会调用业务方法，并调用Cache接口的put方法缓存返回值
@@ -67,19 +132,28 @@ public interface MQListenerFunc {
                             C服务被调用 -> 检查是否有缓存 -> 否 -> 调用业务方法，并缓存数据，同时触发缓存清除事件 -> A，B等服务的缓存被清除
                         】
                         这种情况导致@Cacheable标注的方法实际上并没有真正起作用
-                        因此在调用setValue方法时需要通过缓存数据的字节数组来判断数据是否真正变化
-                        只有数据真的发生变化了的服务，才需要清除
+                        因此在调用setValue方法时需要判断数据是否真正变化，只有数据真的发生变化了的服务，才需要清除
+
+                        老版本中这里是将本地缓存的数据序列化后计算MD5，再与消息中的MD5比较，数据量大时非常消耗CPU
+                        现在本地缓存写入时就计算好了指纹，并与版本号一起存储在LocalCacheValue中，这里只需要O(1)的比较：
+                        1、指纹相同：数据没有变化，不需要清除
+                        2、本地数据的版本号大于消息中的版本号：本地数据是在消息对应的写操作之后写入的，不需要清除
                      */
-                    AbstractCache.ValueWrapper valueWrapper = cache.get(key);
-                    if (valueWrapper == null) {
+                    LocalCacheValue localCacheValue = cache.getLocalCacheValue(key);
+                    if (localCacheValue == null) {
                         continue;
                     }
-                    Object value = valueWrapper.get();
-                    if (value == null) {
+                    if (fingerprint != null) {
+                        long localFingerprint = this.fingerprint(localCacheValue);
+                        if (localFingerprint != 0L && fingerprint == localFingerprint) {
+                            continue;
+                        }
+                    }
+                    if (version != null && localCacheValue.getVersion() > version) {
                         continue;
                     }
-                    String currMd5 = CryptoUtils.md5Hex(ConvertUtils.object2Bytes(value));
-                    if (StringUtils.equals(md5, currMd5)) {
+                    //推送更新：消息中带有数据时直接写入本地缓存，写入失败时删除
+                    if (cacheMessage.getValue() != null && cache.installLocalCache(key, cacheMessage.getValue(), version, fingerprint, this.isTrusted())) {
                         continue;
                     }
                     cache.evictLocalCache(key);
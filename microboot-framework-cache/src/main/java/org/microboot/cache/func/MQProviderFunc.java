@@ -2,10 +2,25 @@ package org.microboot.cache.func;
 
 import org.microboot.cache.entity.CacheMessage;
 
+import java.util.List;
+
 /**
  * @author 胡鹏
  */
 public interface MQProviderFunc {
 
     void publish(CacheMessage cacheMessage);
-}
\ No newline at end of file
+
+    /**
+     * 批量发送
+     *
+     * 默认逐条调用publish方法，开发者可以重写此方法，将多条消息合并为一条发送
+     *
+     * @param cacheMessages
+     */
+    default void publish(List<CacheMessage> cacheMessages) {
+        for (CacheMessage cacheMessage : cacheMessages) {
+            this.publish(cacheMessage);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.microboot.cache.func;
+
+import org.microboot.cache.entity.SerializedValue;
+import org.springframework.core.serializer.support.SerializationFailedException;
+
+/**
+ * @author 胡鹏
+ *
+ * 中央缓存（Redis，Memcached）value的序列化接口
+ * microboot内置了两种实现：
+ * 1、JdkSerializer：JDK序列化（默认）
+ * 2、CompactSerializer：紧凑的二进制序列化
+ * 开发者可以实现SerializerFunc，对接自己的序列化方式
+ *
+ * 序列化失败时抛出org.springframework.core.serializer.support.SerializationFailedException
+ */
+public interface SerializerFunc {
+
+    byte[] serialize(Object value);
+
+    Object deserialize(byte[] bytes);
+
+    /**
+     * 是否支持序列化此类型的数据（只检查数据本身的类型，不检查字段）
+     *
+     * 计算数据指纹时先检查，不支持的数据使用JSON（见CacheUtils.fingerprint），不依赖序列化失败的异常
+     *
+     * @param value
+     * @return
+     */
+    default boolean canSerialize(Object value) {
+        return true;
+    }
+
+    /**
+     * 反序列化不可信的数据（如：通过UDP组播，TCP收到的推送更新，发送方没有经过认证）
+     *
+     * 实现时不能回退到JDK反序列化，也不能实例化任意的类型，默认不支持
+     *
+     * @param bytes
+     * @return
+     */
+    default Object deserializeUntrusted(byte[] bytes) {
+        throw new SerializationFailedException(this.getClass().getSimpleName() + " does not support untrusted payloads");
+    }
+
+    /**
+     * 复用一次写操作中已经序列化的结果（见SerializedValue）
+     *
+     * 序列化方式相同时直接返回共享的数据，否则重新序列化
+     * 装饰其他SerializerFunc的实现（如：CompressingSerializer）可以重写此方法，在共享的数据上继续处理
+     *
+     * @param serializedValue
+     * @return
+     */
+    default byte[] serialize(SerializedValue serializedValue) {
+        if (serializedValue.getSerializerFunc() == this) {
+            return serializedValue.getBytes();
+        }
+        return this.serialize(serializedValue.getValue());
+    }
+}
@@ -1,8 +1,14 @@
 package org.microboot.cache.impl;
 
+import com.google.common.collect.Maps;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections.MapUtils;
+import org.microboot.cache.entity.SerializedValue;
 import org.springframework.cache.support.AbstractValueAdaptingCache;
 import org.springframework.cache.support.NullValue;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 /**
@@ -70,11 +76,149 @@ public abstract class AbstractCache extends AbstractValueAdaptingCache {
         this.setValue(key, value);
     }
 
+    /**
+     * 写入数据，并复用一次写操作中已经序列化的结果（见SerializedValue，由CacheImpl创建，各级缓存共享）
+     *
+     * 默认与put一致，需要序列化的缓存（中央缓存，OffHeapImpl，计算指纹的本地缓存）重写此方法
+     *
+     * @param key
+     * @param value
+     * @param serializedValue value的序列化结果
+     */
+    public void put(Object key, Object value, SerializedValue serializedValue) {
+        this.put(key, value);
+    }
+
     @Override
     public String getName() {
         return this.name;
     }
 
+    /**
+     * 批量查询
+     *
+     * 返回的Map中只包含命中的数据，key与参数中的key保持一致
+     *
+     * @param keys
+     * @return
+     */
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return Maps.newHashMap();
+        }
+        return this.getValues(keys);
+    }
+
+    /**
+     * 批量缓存
+     *
+     * 与put方法保持一致：value为null的数据不缓存
+     *
+     * @param map
+     */
+    public void putAll(Map<?, ?> map) {
+        if (MapUtils.isEmpty(map)) {
+            return;
+        }
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            values.put(entry.getKey(), entry.getValue());
+        }
+        if (values.isEmpty()) {
+            return;
+        }
+        this.setValues(values);
+    }
+
+    /**
+     * 回填：在下级缓存中命中的数据写入这一级缓存（数据本身没有变化）
+     *
+     * 默认与put一致，本地缓存重写此方法，不广播缓存清除消息
+     *
+     * @param key
+     * @param value
+     */
+    public void backfill(Object key, Object value) {
+        this.put(key, value);
+    }
+
+    /**
+     * 批量回填，默认与putAll一致
+     *
+     * @param map
+     */
+    public void backfillAll(Map<?, ?> map) {
+        this.putAll(map);
+    }
+
+    /**
+     * 删除一个缓存线中带有这个标签的所有数据（见CacheImpl.evictByTag）
+     *
+     * 默认不支持标签（返回false），CacheImpl会改为清除这一级缓存中整个缓存线的数据（中央缓存只在开启命名空间代数时清除）
+     *
+     * @param namespace 缓存线名称
+     * @param tag
+     * @return 是否支持标签
+     */
+    public boolean evictByTag(String namespace, String tag) {
+        return false;
+    }
+
+    /**
+     * 批量删除
+     *
+     * 默认逐个调用evict方法，支持批量操作的缓存组件（如：Redis）可以重写此方法
+     *
+     * @param keys
+     */
+    public void evictAll(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        for (Object key : keys) {
+            this.evict(key);
+        }
+    }
+
+    /**
+     * 批量获取数据
+     *
+     * 默认逐个调用getValue方法，支持批量操作的缓存组件可以重写此方法，减少I/O次数
+     *
+     * @param keys
+     * @return
+     */
+    protected Map<Object, Object> getValues(Collection<?> keys) {
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            Object value = this.getValue(key);
+            if (value == null) {
+                continue;
+            }
+            values.put(key, value);
+        }
+        return values;
+    }
+
+    /**
+     * 批量设置数据
+     *
+     * 默认逐个调用setValue方法，支持批量操作的缓存组件可以重写此方法，减少I/O次数
+     *
+     * @param map
+     */
+    protected void setValues(Map<Object, Object> map) {
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            this.setValue(entry.getKey(), entry.getValue());
+        }
+    }
+
     protected abstract Object getValue(Object key);
 
     protected abstract void setValue(Object key, Object value);
@@ -0,0 +1,431 @@
+package org.microboot.cache.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.bean.CompressingSerializer;
+import org.microboot.cache.bean.WriteBehindQueue;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.utils.KeyUtils;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author 胡鹏
+ *
+ * 中央缓存（Redis，Memcached等远程缓存）的父类
+ *
+ * 与AbstractLocalCache类似，这里将写操作统一收口：
+ * 1、同步模式（默认）：直接调用子类的setCentralCache，evictCentralCache等方法
+ * 2、异步模式（write-behind）：写操作先进入WriteBehindQueue，按key合并（后写覆盖先写），再由后台线程批量写入
+ *
+ * 异步模式下，读操作会先检查WriteBehindQueue中尚未写入的数据，保证本进程内读到自己的写
+ * 异步模式下，删除操作依然同步执行（见WriteBehindQueue.evictNow）：本地缓存的清除消息在删除之后立即广播，
+ * 如果删除还在队列中，其他服务收到消息后会从中央缓存回填旧数据
+ *
+ * 命名空间代数（clear-mode=generation）：
+ * 1、每个命名空间（缓存线名称）有一个代数，存储在中央缓存中，本地缓存generationRefresh毫秒
+ * 2、key的前缀中带有代数：name#代数&缓存线名称&key，清除一个缓存线时只把代数加1（O(1)），不影响共用同一个Redis（Memcached）的其他缓存线和应用
+ * 3、旧代数的key不会再被访问，由过期时间（或清理任务）回收
+ * 4、代数不存在时（第一次使用，或者被淘汰）初始化为当前时间戳，保证不会回到已经使用过的代数
+ *
+ * 注意：其他服务最多在generationRefresh毫秒之后才能看到新的代数，在此之前依然会读到旧代数的数据
+ *
+ * 标签（见CacheImpl.evictByTag）：子类在写入TaggedValue时记录标签索引，并重写evictCentralCacheByTag
+ * 不支持标签的子类（如：Memcached）由CacheImpl改为清除整个缓存线
+ */
+public abstract class AbstractCentralCache extends AbstractCache implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    //异步写队列，为null时表示同步模式
+    private WriteBehindQueue writeBehindQueue;
+
+    //value压缩（压缩率，耗时等统计数据），为null时表示未开启压缩
+    private CompressingSerializer compressingSerializer;
+
+    //命名空间代数的本地缓存时间（毫秒），小于0时表示未开启，clear会清空整个中央缓存（flushdb / flush）
+    private long generationRefresh = -1;
+
+    //命名空间 -> 代数
+    private final Map<String, Generation> generations = Maps.newConcurrentMap();
+
+    @Override
+    public void clear() {
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.clear();
+        }
+        this.clearCentralCache();
+    }
+
+    /**
+     * 清除一个命名空间（缓存线）的数据，未开启命名空间代数时与clear()一致
+     *
+     * @param namespace
+     */
+    public void clear(String namespace) {
+        if (this.generationRefresh < 0 || namespace == null) {
+            this.clear();
+            return;
+        }
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.clear(namespace);
+        }
+        long generation = this.incrementGeneration(namespace);
+        this.generations.put(namespace, new Generation(this.name, generation, System.currentTimeMillis()));
+        this.afterClear(namespace, generation);
+    }
+
+    /**
+     * 异步模式下，先把队列中带有这个标签的待写入数据改为删除
+     *
+     * @param namespace 缓存线名称
+     * @param tag
+     * @return
+     */
+    @Override
+    public boolean evictByTag(String namespace, String tag) {
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.evictByTag(namespace, tag);
+        }
+        return this.evictCentralCacheByTag(KeyUtils.newKey(namespace, tag));
+    }
+
+    /**
+     * 异步模式下同样同步删除，同时丢弃队列中这个key待写入的数据
+     *
+     * @param key
+     */
+    @Override
+    public void evict(Object key) {
+        if (key == null) {
+            return;
+        }
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.evictNow(Collections.singletonList(key));
+            return;
+        }
+        this.evictCentralCache(key);
+    }
+
+    @Override
+    public void evictAll(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        if (this.writeBehindQueue != null) {
+            List<Object> evictKeys = Lists.newArrayList();
+            for (Object key : keys) {
+                if (key == null) {
+                    continue;
+                }
+                evictKeys.add(key);
+            }
+            this.writeBehindQueue.evictNow(evictKeys);
+            return;
+        }
+        this.evictCentralCaches(keys);
+    }
+
+    /**
+     * 异步模式下，先检查尚未写入的数据
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    protected Object lookup(Object key) {
+        if (key == null) {
+            return null;
+        }
+        if (this.writeBehindQueue != null) {
+            ValueWrapper valueWrapper = this.writeBehindQueue.peek(key);
+            if (valueWrapper != null) {
+                return valueWrapper.get();
+            }
+        }
+        return this.getValue(key);
+    }
+
+    /**
+     * 异步模式下，先检查尚未写入的数据，剩余的key再批量查询
+     *
+     * @param keys
+     * @return
+     */
+    @Override
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        if (this.writeBehindQueue == null || CollectionUtils.isEmpty(keys)) {
+            return super.getAll(keys);
+        }
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        List<Object> missKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            ValueWrapper valueWrapper = this.writeBehindQueue.peek(key);
+            if (valueWrapper == null) {
+                missKeys.add(key);
+                continue;
+            }
+            if (valueWrapper.get() != null) {
+                values.put(key, valueWrapper.get());
+            }
+        }
+        if (!missKeys.isEmpty()) {
+            values.putAll(super.getAll(missKeys));
+        }
+        return values;
+    }
+
+    @Override
+    protected void setValue(Object key, Object value) {
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.put(key, value);
+            return;
+        }
+        this.setCentralCache(key, value);
+    }
+
+    /**
+     * 同步模式下复用一次写操作中已经序列化的结果
+     * 异步模式下数据由后台线程序列化（不占用写缓存的线程），不需要共享
+     *
+     * @param key
+     * @param value
+     * @param serializedValue
+     */
+    @Override
+    public void put(Object key, Object value, SerializedValue serializedValue) {
+        if (value == null) {
+            return;
+        }
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.put(key, value);
+            return;
+        }
+        this.setCentralCache(key, value, serializedValue);
+    }
+
+    @Override
+    protected void setValues(Map<Object, Object> map) {
+        if (this.writeBehindQueue != null) {
+            for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                this.writeBehindQueue.put(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        this.setCentralCaches(map);
+    }
+
+    /**
+     * 容器关闭时，将异步队列中的数据全部写入中央缓存
+     */
+    @Override
+    public void destroy() {
+        if (this.writeBehindQueue != null) {
+            this.writeBehindQueue.shutdown();
+        }
+    }
+
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    public void setWriteBehindQueue(WriteBehindQueue writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    public CompressingSerializer getCompressingSerializer() {
+        return compressingSerializer;
+    }
+
+    public void setCompressingSerializer(CompressingSerializer compressingSerializer) {
+        this.compressingSerializer = compressingSerializer;
+    }
+
+    public long getGenerationRefresh() {
+        return generationRefresh;
+    }
+
+    public void setGenerationRefresh(long generationRefresh) {
+        this.generationRefresh = generationRefresh;
+    }
+
+    /**
+     * 构建中央缓存中使用的key
+     *
+     * 开启命名空间代数时，CacheImpl传入的CacheKey（前缀是缓存线名称）派生为：name#代数&缓存线名称&key
+     * 否则与KeyUtils.newCacheKey(name, key)一致
+     *
+     * @param key
+     * @return
+     */
+    protected CacheKey newCacheKey(Object key) {
+        if (this.generationRefresh >= 0 && key instanceof CacheKey) {
+            CacheKey cacheKey = (CacheKey) key;
+            return cacheKey.child(this.getGeneration(cacheKey.getPrefix()).prefix);
+        }
+        return KeyUtils.newCacheKey(this.name, key);
+    }
+
+    /**
+     * 删除带有这个标签的所有数据，默认不支持（返回false）
+     *
+     * @param tagKey 标签key（缓存线名称 & 标签）
+     * @return 是否支持标签
+     */
+    protected boolean evictCentralCacheByTag(String tagKey) {
+        return false;
+    }
+
+    /**
+     * 命名空间清除之后的回调（如：后台清理旧代数的key）
+     *
+     * @param namespace
+     * @param generation 新的代数
+     */
+    protected void afterClear(String namespace, long generation) {
+    }
+
+    /**
+     * 本地缓存的代数过期后，只有一个线程从中央缓存重新加载，其他线程继续使用旧的代数
+     *
+     * 第一次加载在ConcurrentHashMap之外执行（不在computeIfAbsent中做网络I/O），并发的线程各自加载，以先放入的为准
+     * 第一次加载失败时没有旧的代数可用，使用一个临时代数（负数，不会与任何服务的代数相同，读取一定未命中），下一个刷新周期再重试
+     *
+     * @param namespace
+     * @return
+     */
+    private Generation getGeneration(String namespace) {
+        long now = System.currentTimeMillis();
+        Generation generation = this.generations.get(namespace);
+        if (generation == null) {
+            Generation loaded;
+            try {
+                loaded = new Generation(this.name, this.loadGeneration(namespace), now);
+            } catch (Exception e) {
+                LoggerUtils.error(logger, e);
+                loaded = new Generation(this.name, -now, now);
+            }
+            generation = this.generations.putIfAbsent(namespace, loaded);
+            return generation == null ? loaded : generation;
+        }
+        if (now - generation.loadTime < this.generationRefresh) {
+            return generation;
+        }
+        Generation touched = new Generation(generation, now);
+        if (!this.generations.replace(namespace, generation, touched)) {
+            return this.generations.getOrDefault(namespace, generation);
+        }
+        try {
+            long value = this.loadGeneration(namespace);
+            if (value != generation.value) {
+                Generation loaded = new Generation(this.name, value, now);
+                this.generations.replace(namespace, touched, loaded);
+                return loaded;
+            }
+        } catch (Exception e) {
+            //加载失败时继续使用旧的代数，下一个刷新周期再重试
+            LoggerUtils.error(logger, e);
+        }
+        return touched;
+    }
+
+    /**
+     * 批量删除中央缓存
+     *
+     * 默认逐个调用evictCentralCache方法，子类可以使用缓存组件自身的批量API重写此方法
+     *
+     * @param keys
+     */
+    public void evictCentralCaches(Collection<?> keys) {
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            this.evictCentralCache(key);
+        }
+    }
+
+    /**
+     * 批量设置中央缓存
+     *
+     * 默认逐个调用setCentralCache方法，子类可以使用缓存组件自身的批量API重写此方法
+     *
+     * @param map
+     */
+    public void setCentralCaches(Map<Object, Object> map) {
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            this.setCentralCache(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 设置中央缓存，并复用一次写操作中已经序列化的结果（见SerializedValue）
+     *
+     * 默认与setCentralCache(key, value)一致，子类在序列化方式相同时直接写入共享的数据
+     *
+     * @param key
+     * @param value
+     * @param serializedValue value的序列化结果
+     */
+    public void setCentralCache(Object key, Object value, SerializedValue serializedValue) {
+        this.setCentralCache(key, value);
+    }
+
+    public abstract void clearCentralCache();
+
+    /**
+     * 加载命名空间的代数，不存在时初始化为当前时间戳
+     *
+     * @param namespace
+     * @return
+     */
+    protected abstract long loadGeneration(String namespace);
+
+    /**
+     * 命名空间的代数加1
+     *
+     * @param namespace
+     * @return 新的代数
+     */
+    protected abstract long incrementGeneration(String namespace);
+
+    public abstract void evictCentralCache(Object key);
+
+    public abstract void setCentralCache(Object key, Object value);
+
+    /**
+     * 命名空间的代数，以及派生key时使用的前缀（同一个代数复用同一个字符串，CacheKey.child可以直接比较引用）
+     */
+    private static final class Generation {
+
+        private final long value;
+
+        private final String prefix;
+
+        private final long loadTime;
+
+        private Generation(String name, long value, long loadTime) {
+            this.value = value;
+            this.prefix = name + '#' + value;
+            this.loadTime = loadTime;
+        }
+
+        private Generation(Generation generation, long loadTime) {
+            this.value = generation.value;
+            this.prefix = generation.prefix;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -1,15 +1,87 @@
 package org.microboot.cache.impl;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections.MapUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.entity.LocalCacheValue;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.entity.TaggedValue;
+import org.microboot.cache.func.LocalCacheEntryFunc;
+import org.microboot.cache.func.SerializerFunc;
 import org.microboot.cache.utils.CacheUtils;
+import org.microboot.cache.utils.KeyUtils;
+import org.microboot.core.bean.ApplicationContextHolder;
 import org.microboot.core.utils.CryptoUtils;
+import org.microboot.core.utils.LoggerUtils;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author 胡鹏
+ *
+ * 本地缓存的父类
+ *
+ * 本地缓存中存储的是LocalCacheValue（数据 + 版本号 + 指纹），读取时自动拆包
+ * 写入时的版本号和指纹会随缓存清除消息一起广播，其他服务收到消息后直接比较，不需要再序列化本地的数据
+ *
+ * 标签索引（见CacheImpl.evictByTag）：
+ * 1、写入和回填的数据是TaggedValue时，记录标签key（缓存线名称 & 标签） -> key
+ * 2、按标签删除时取出整组key批量删除，并广播一条带有标签的消息，其他服务按各自的标签索引删除
+ * 3、数据过期或被淘汰后，索引中的key不会立即删除，每次写入索引时接着上次的位置检查TAG_PRUNE_BATCH个key，
+ * 删除已经不在缓存中的key（只检查是否存在，不读取数据，见containsLocalCache）
+ * 注意：通过setLocalCache直接写入的数据（如：本地缓存快照恢复的数据）没有标签索引，只能等待过期
+ *
+ * 推送更新（见InvalidationPublisher）：其他服务写入的小数据随消息一起到达，通过installLocalCache直接写入本地缓存
  */
 public abstract class AbstractLocalCache extends AbstractCache {
 
+    //每次写入标签索引时最多检查多少个key
+    private static final int TAG_PRUNE_BATCH = 16;
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
     private final String UNIQUE_ID = CryptoUtils.md5Hex();
 
+    //标签索引：标签key（缓存线名称 & 标签） -> 带有这个标签的key
+    private final Map<String, Set<Object>> tagIndex = Maps.newConcurrentMap();
+
+    //清理标签索引的锁，同一时间只有一个写入线程清理，其他线程直接跳过
+    private final ReentrantLock pruneLock = new ReentrantLock();
+
+    //清理标签索引的位置：标签key的迭代器，当前的标签key，当前标签key中key的迭代器（只在pruneLock中访问）
+    private Iterator<String> pruneTagKeys;
+
+    private String pruneTagKey;
+
+    private Iterator<Object> pruneKeys;
+
+    //本地缓存快照中的标识，为null时使用name
+    private String snapshotId;
+
+    @Override
+    protected Object lookup(Object key) {
+        return unwrap(super.lookup(key));
+    }
+
+    @Override
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        Map<Object, Object> values = super.getAll(keys);
+        for (Map.Entry<Object, Object> entry : values.entrySet()) {
+            entry.setValue(unwrap(entry.getValue()));
+        }
+        return values;
+    }
+
     @Override
     public void clear() {
         this.clearLocalCache();
@@ -24,35 +96,408 @@ public abstract class AbstractLocalCache extends AbstractCache {
         this.evictLocalCache(key);
         /*
             注意：这里不能用newKey，因为在MQListenerFunc接口中，会轮询所有本地缓存
-            并执行cache.get(key)和cache.evictLocalCache(key)，这两个方法最终都会将key构建成newKey
+            并执行cache.getLocalCacheValue(key)和cache.evictLocalCache(key)，这两个方法最终都会将key构建成newKey
          */
         this.fanout(key);
     }
 
+    @Override
+    public void put(Object key, Object value, SerializedValue serializedValue) {
+        if (value == null) {
+            return;
+        }
+        this.setValue(key, value, serializedValue);
+    }
+
     @Override
     protected void setValue(Object key, Object value) {
-        this.setLocalCache(key, value);
+        this.setValue(key, value, null);
+    }
+
+    /**
+     * 指纹，推送更新的数据，OffHeapImpl存储的数据共用同一次序列化的结果
+     *
+     * @param key
+     * @param value
+     * @param serializedValue 为null时（不经过CacheImpl的写入），只在需要计算指纹时创建
+     */
+    private void setValue(Object key, Object value, SerializedValue serializedValue) {
+        boolean isMQProviderPresent = CacheUtils.isMQProviderPresent();
+        if (serializedValue == null && isMQProviderPresent) {
+            serializedValue = CacheUtils.newSerializedValue(value);
+        }
+        LocalCacheValue localCacheValue = this.newLocalCacheValue(value, isMQProviderPresent ? serializedValue : null);
+        this.setLocalCache(key, localCacheValue, serializedValue);
+        this.indexTags(key, value);
         /*
             注意：这里不能用newKey，因为在MQListenerFunc接口中，会轮询所有本地缓存
-            并执行cache.get(key)和cache.evictLocalCache(key)，这两个方法最终都会将key构建成newKey
+            并执行cache.getLocalCacheValue(key)和cache.evictLocalCache(key)，这两个方法最终都会将key构建成newKey
          */
-        this.fanout(key, value);
+        this.fanout(key, localCacheValue, serializedValue);
+    }
+
+    @Override
+    public void evictAll(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        this.evictLocalCaches(keys);
+        for (Object key : keys) {
+            this.fanout(key);
+        }
+    }
+
+    @Override
+    protected void setValues(Map<Object, Object> map) {
+        boolean isMQProviderPresent = CacheUtils.isMQProviderPresent();
+        Map<Object, Object> localCacheValues = Maps.newLinkedHashMap();
+        Map<Object, SerializedValue> serializedValues = Maps.newHashMap();
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            SerializedValue serializedValue = isMQProviderPresent ? CacheUtils.newSerializedValue(entry.getValue()) : null;
+            serializedValues.put(entry.getKey(), serializedValue);
+            localCacheValues.put(entry.getKey(), this.newLocalCacheValue(entry.getValue(), serializedValue));
+        }
+        this.setLocalCaches(localCacheValues);
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            this.indexTags(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Object, Object> entry : localCacheValues.entrySet()) {
+            this.fanout(entry.getKey(), (LocalCacheValue) entry.getValue(), serializedValues.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * 回填不广播缓存清除消息：数据没有变化，其他服务的本地缓存不需要清除
+     *
+     * 回填的数据是从下级缓存中读到的，读取之后其他服务可能已经修改了数据，所以版本号为0（未知）
+     * 之后收到的任何缓存清除消息都会清除这条数据（除非指纹相同）
+     * 回填时不计算指纹（为0），收到消息时才计算（见MQListenerFunc），读请求的线程不需要再序列化一次数据
+     *
+     * @param key
+     * @param value
+     */
+    @Override
+    public void backfill(Object key, Object value) {
+        if (key == null || value == null) {
+            return;
+        }
+        this.setLocalCache(key, this.newBackfillValue(value));
+        this.indexTags(key, value);
+    }
+
+    @Override
+    public void backfillAll(Map<?, ?> map) {
+        if (MapUtils.isEmpty(map)) {
+            return;
+        }
+        Map<Object, Object> localCacheValues = Maps.newLinkedHashMap();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            localCacheValues.put(entry.getKey(), this.newBackfillValue(entry.getValue()));
+        }
+        this.setLocalCaches(localCacheValues);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            this.indexTags(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 按标签删除本地缓存，并广播给其他服务
+     *
+     * @param namespace 缓存线名称
+     * @param tag
+     * @return
+     */
+    @Override
+    public boolean evictByTag(String namespace, String tag) {
+        String tagKey = KeyUtils.newKey(namespace, tag);
+        this.evictLocalCacheByTag(tagKey, null);
+        CacheUtils.clearByTag(UNIQUE_ID, tagKey, CacheUtils.nextVersion());
+        return true;
+    }
+
+    /**
+     * 按标签删除本地缓存（不广播）
+     *
+     * @param tagKey  标签key（缓存线名称 & 标签）
+     * @param version 消息中的版本号，本地数据的版本号大于它时保留（是在消息对应的删除操作之后写入的）
+     *                null：全部删除
+     */
+    public void evictLocalCacheByTag(String tagKey, Long version) {
+        Set<Object> keys = this.tagIndex.remove(tagKey);
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        if (version == null) {
+            this.evictLocalCaches(keys);
+            return;
+        }
+        List<Object> evictKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            LocalCacheValue localCacheValue = this.getLocalCacheValue(key);
+            if (localCacheValue == null) {
+                continue;
+            }
+            if (localCacheValue.getVersion() > version) {
+                this.indexTag(tagKey, key);
+                continue;
+            }
+            evictKeys.add(key);
+        }
+        if (!evictKeys.isEmpty()) {
+            this.evictLocalCaches(evictKeys);
+        }
+    }
+
+    /**
+     * 获取本地缓存中存储的LocalCacheValue
+     *
+     * 通过setLocalCache直接写入的数据没有版本号和指纹，version和fingerprint都为0
+     *
+     * @param key
+     * @return
+     */
+    public LocalCacheValue getLocalCacheValue(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Object value = this.getValue(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof LocalCacheValue) {
+            return (LocalCacheValue) value;
+        }
+        return new LocalCacheValue(value, 0L, 0L);
+    }
+
+    /**
+     * 推送更新：将其他服务写入的数据直接写入本地缓存
+     *
+     * 使用消息中的版本号和指纹，不生成新的版本号，也不广播缓存清除消息（否则会在服务之间来回推送）
+     * 消息来源不可信时使用SerializerFunc.deserializeUntrusted，不支持的SerializerFunc（如：JdkSerializer）直接返回false
+     *
+     * @param key
+     * @param value       SerializerFunc序列化后的数据
+     * @param version
+     * @param fingerprint
+     * @param trusted     消息来源是否可信（见MQListenerFunc.isTrusted）
+     * @return 是否写入，返回false时由调用方删除本地缓存
+     */
+    public boolean installLocalCache(Object key, byte[] value, Long version, Long fingerprint, boolean trusted) {
+        if (key == null || value == null || version == null) {
+            return false;
+        }
+        Object cacheValue;
+        try {
+            SerializerFunc serializerFunc = ApplicationContextHolder.getBean(SerializerFunc.class.getName(), SerializerFunc.class);
+            cacheValue = trusted ? serializerFunc.deserialize(value) : serializerFunc.deserializeUntrusted(value);
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+            return false;
+        }
+        //带有标签的数据需要写入标签索引，只通过清除消息同步
+        if (cacheValue == null || cacheValue instanceof TaggedValue) {
+            return false;
+        }
+        this.setLocalCache(key, new LocalCacheValue(cacheValue, version, fingerprint != null ? fingerprint : 0L));
+        return true;
+    }
+
+    /**
+     * 写入本地缓存，并复用一次写操作中已经序列化的结果
+     *
+     * 默认与setLocalCache(key, value)一致，存储序列化数据的本地缓存（如：OffHeapImpl）可以重写此方法
+     *
+     * @param key
+     * @param value           LocalCacheValue
+     * @param serializedValue LocalCacheValue中数据的序列化结果，可能为null
+     */
+    protected void setLocalCache(Object key, Object value, SerializedValue serializedValue) {
+        this.setLocalCache(key, value);
+    }
+
+    /**
+     * 批量删除本地缓存
+     *
+     * 默认逐个调用evictLocalCache方法，子类可以使用缓存组件自身的批量API重写此方法
+     *
+     * @param keys
+     */
+    public void evictLocalCaches(Collection<?> keys) {
+        for (Object key : keys) {
+            this.evictLocalCache(key);
+        }
+    }
+
+    /**
+     * 批量设置本地缓存
+     *
+     * 默认逐个调用setLocalCache方法，子类可以使用缓存组件自身的批量API重写此方法
+     *
+     * @param map
+     */
+    public void setLocalCaches(Map<Object, Object> map) {
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            this.setLocalCache(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * 本地缓存快照：遍历本地缓存中所有未过期的数据（见LocalCacheSnapshot）
+     *
+     * 默认不支持（返回false），子类使用缓存组件自身的遍历API重写此方法
+     *
+     * @param entryFunc
+     * @param serializerFunc 数据的序列化方式
+     * @return 是否支持快照
+     * @throws Exception
+     */
+    public boolean snapshot(LocalCacheEntryFunc entryFunc, SerializerFunc serializerFunc) throws Exception {
+        return false;
+    }
+
+    /**
+     * 从本地缓存快照中恢复一条数据
+     *
+     * 直接写入缓存组件，不生成新的版本号，也不广播缓存清除消息
+     *
+     * @param key            缓存组件中存储的key（newKey）的字节数组
+     * @param value          LocalCacheValueUtils.toBytes序列化后的数据
+     * @param expireAt       过期时间（毫秒时间戳），0表示不过期
+     * @param serializerFunc
+     * @return 是否恢复
+     */
+    public boolean restore(byte[] key, byte[] value, long expireAt, SerializerFunc serializerFunc) {
+        return false;
+    }
+
+    /**
+     * 同一类本地缓存的多个实例（如：region）需要不同的标识，默认使用name
+     *
+     * @return
+     */
+    public String getSnapshotId() {
+        return snapshotId != null ? snapshotId : name;
+    }
+
+    public void setSnapshotId(String snapshotId) {
+        this.snapshotId = snapshotId;
     }
 
     public String getUniqueId() {
         return UNIQUE_ID;
     }
 
+    /**
+     * 指纹只用于其他服务收到消息后的比较，没有消息队列时不计算（serializedValue为null）
+     *
+     * @param value
+     * @param serializedValue
+     * @return
+     */
+    private LocalCacheValue newLocalCacheValue(Object value, SerializedValue serializedValue) {
+        long fingerprint = serializedValue != null ? serializedValue.getFingerprint() : 0L;
+        return new LocalCacheValue(value, CacheUtils.nextVersion(), fingerprint);
+    }
+
+    private LocalCacheValue newBackfillValue(Object value) {
+        return new LocalCacheValue(value, 0L, 0L);
+    }
+
+    /**
+     * 数据写入之后再写入标签索引：与evictLocalCacheByTag并发时，要么数据被删除，要么key留在新的索引中
+     *
+     * @param key
+     * @param value
+     */
+    private void indexTags(Object key, Object value) {
+        if (!(key instanceof CacheKey) || !(value instanceof TaggedValue) || CollectionUtils.isEmpty(((TaggedValue) value).getTags())) {
+            return;
+        }
+        String namespace = ((CacheKey) key).getPrefix();
+        for (String tag : ((TaggedValue) value).getTags()) {
+            this.indexTag(KeyUtils.newKey(namespace, tag), key);
+        }
+        this.pruneTags();
+    }
+
+    private void indexTag(String tagKey, Object key) {
+        this.tagIndex.compute(tagKey, (k, keys) -> {
+            Set<Object> tagKeys = keys != null ? keys : Sets.newConcurrentHashSet();
+            tagKeys.add(key);
+            return tagKeys;
+        });
+    }
+
+    /**
+     * 清理标签索引中已经不在缓存中（过期，被淘汰，被删除）的key
+     *
+     * 每次从上次的位置开始最多检查TAG_PRUNE_BATCH个key，遍历完所有标签key之后下一次从头开始
+     * 先在锁外找出不存在的key，再在computeIfPresent中重新检查后删除：与indexTag互斥，刚写入的key不会被误删
+     */
+    private void pruneTags() {
+        if (!this.pruneLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Object> absentKeys = Lists.newArrayList();
+            for (int i = 0; i < TAG_PRUNE_BATCH; i++) {
+                if (this.pruneKeys != null && this.pruneKeys.hasNext()) {
+                    Object key = this.pruneKeys.next();
+                    if (!this.containsLocalCache(key)) {
+                        absentKeys.add(key);
+                    }
+                    continue;
+                }
+                this.removeAbsentKeys(this.pruneTagKey, absentKeys);
+                if (this.pruneTagKeys == null || !this.pruneTagKeys.hasNext()) {
+                    this.pruneTagKeys = this.tagIndex.keySet().iterator();
+                    this.pruneTagKey = null;
+                    this.pruneKeys = null;
+                    return;
+                }
+                this.pruneTagKey = this.pruneTagKeys.next();
+                Set<Object> keys = this.tagIndex.get(this.pruneTagKey);
+                this.pruneKeys = keys != null ? keys.iterator() : null;
+            }
+            this.removeAbsentKeys(this.pruneTagKey, absentKeys);
+        } finally {
+            this.pruneLock.unlock();
+        }
+    }
+
+    private void removeAbsentKeys(String tagKey, List<Object> absentKeys) {
+        if (tagKey == null) {
+            return;
+        }
+        this.tagIndex.computeIfPresent(tagKey, (k, keys) -> {
+            for (Object key : absentKeys) {
+                if (!this.containsLocalCache(key)) {
+                    keys.remove(key);
+                }
+            }
+            return keys.isEmpty() ? null : keys;
+        });
+        absentKeys.clear();
+    }
+
     private void fanout() {
-        CacheUtils.clear(UNIQUE_ID, null, null);
+        CacheUtils.clear(UNIQUE_ID, null, CacheUtils.nextVersion(), null);
     }
 
     private void fanout(Object key) {
-        CacheUtils.clear(UNIQUE_ID, key, null);
+        CacheUtils.clear(UNIQUE_ID, key, CacheUtils.nextVersion(), null);
     }
 
-    private void fanout(Object key, Object value) {
-        CacheUtils.clear(UNIQUE_ID, key, value);
+    private void fanout(Object key, LocalCacheValue localCacheValue, SerializedValue serializedValue) {
+        CacheUtils.push(UNIQUE_ID, key, serializedValue, localCacheValue.getVersion(), localCacheValue.getFingerprint());
+    }
+
+    private static Object unwrap(Object value) {
+        return value instanceof LocalCacheValue ? ((LocalCacheValue) value).getValue() : value;
     }
 
     public abstract void clearLocalCache();
@@ -60,4 +505,14 @@ public abstract class AbstractLocalCache extends AbstractCache {
     public abstract void evictLocalCache(Object key);
 
     public abstract void setLocalCache(Object key, Object value);
+
+    /**
+     * 数据是否在本地缓存中（用于清理标签索引）
+     *
+     * 注意：不能读取数据，不能更新命中统计和淘汰策略的访问记录
+     *
+     * @param key
+     * @return
+     */
+    public abstract boolean containsLocalCache(Object key);
 }
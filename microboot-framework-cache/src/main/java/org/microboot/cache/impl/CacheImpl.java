@@ -1,15 +1,41 @@
 package org.microboot.cache.impl;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import org.apache.commons.collections.CollectionUtils;
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.bean.BloomFilterHolder;
+import org.microboot.cache.bean.CacheMetrics;
+import org.microboot.cache.bean.HotKeyDetector;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.entity.CacheValue;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.entity.TaggedValue;
+import org.microboot.cache.entity.XFetchValue;
+import org.microboot.cache.utils.CacheUtils;
 import org.microboot.cache.utils.KeyUtils;
 import org.microboot.core.bean.ApplicationContextHolder;
 import org.microboot.core.func.SyncFunc;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cache.support.AbstractValueAdaptingCache;
 import org.springframework.cache.support.NullValue;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author 胡鹏
@@ -128,21 +154,81 @@ import java.util.concurrent.Callable;
  * CacheImpl中调用的都是AbstractCache各子类实现，即：各缓存组件
  * 所以CacheImpl和AbstractCache应该算是组合关系【PS：AbstractLocalCache也是缓存组件的父类，特指本地缓存】
  */
-public class CacheImpl extends AbstractValueAdaptingCache {
+public class CacheImpl extends AbstractValueAdaptingCache implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
 
     private String name;
 
+    //是否开启single-flight加载模式（命中缓存不加锁，未命中时同一个key只有一个线程执行业务方法）
+    private boolean singleFlight = true;
+
     private final List<AbstractCache> caches = Lists.newArrayList();
 
+    //正在加载中的key
+    private final Map<CacheKey, Loader> loaders = Maps.newConcurrentMap();
+
+    /******************************************** refresh-ahead **********************************************/
+    //后台刷新的线程池，为null时表示未开启refresh-ahead
+    private ExecutorService refreshExecutor;
+
+    //数据的逻辑过期时间（单位：毫秒），超过后必须同步加载
+    private long ttl = Long.MAX_VALUE;
+
+    //数据的刷新时间（单位：毫秒），超过后返回当前数据，同时在后台刷新
+    private long refreshTime = Long.MAX_VALUE;
+
+    //XFetch的beta（大于0时开启），越大越倾向于提前刷新
+    private double xfetchBeta;
+
+    //逻辑过期后，业务方法抛出异常时，继续返回老数据的时间窗口（单位：毫秒）
+    private long staleWhileError;
+
+    //正在后台刷新的key
+    private final Set<CacheKey> refreshing = Sets.newConcurrentHashSet();
+
+    /******************************************** 布隆过滤器 **********************************************/
+    //为null时表示未开启
+    private BloomFilterHolder bloomFilter;
+
+    /******************************************** 热点key **********************************************/
+    //为null时表示未开启
+    private HotKeyDetector hotKeys;
+
+    /******************************************** 异步回填 **********************************************/
+    //回填的线程池，为null时表示同步回填
+    private ExecutorService backfillExecutor;
+
+    //正在异步回填的key -> 回填任务的标记，本服务修改数据时删除标记，回填完成后发现标记已被删除则撤销回填
+    private final Map<CacheKey, Object> backfilling = Maps.newConcurrentMap();
+
+    /******************************************** 统计 **********************************************/
+    //缓存线的统计数据
+    private final CacheMetrics metrics = new CacheMetrics();
+
+    //每一级缓存在这条缓存线中的统计数据（同一个缓存组件可能被多条缓存线共用，所以不放在AbstractCache中）
+    private final Map<AbstractCache, CacheMetrics> tierMetrics = Maps.newConcurrentMap();
+
     public CacheImpl(boolean allowNullValues) {
         super(allowNullValues);
     }
 
+    /**
+     * 中央缓存开启命名空间代数（clear-mode=generation）时，只清除这条缓存线的数据
+     */
     @Override
     public void clear() {
         for (AbstractCache cache : this.caches) {
-            cache.clear();
+            if (cache instanceof AbstractCentralCache) {
+                ((AbstractCentralCache) cache).clear(this.name);
+            } else {
+                cache.clear();
+            }
+        }
+        if (this.hotKeys != null) {
+            this.hotKeys.invalidateAll();
         }
+        this.backfilling.clear();
     }
 
     @Override
@@ -150,11 +236,14 @@ public class CacheImpl extends AbstractValueAdaptingCache {
         if (key == null) {
             return;
         }
-        String newKey = KeyUtils.newKey(this.name, key);
-        ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey, () -> {
+        CacheKey newKey = KeyUtils.newCacheKey(this.name, key);
+        this.metrics.recordEviction(1);
+        ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey.toString(), () -> {
             for (AbstractCache cache : this.caches) {
                 cache.evict(newKey);
+                this.getTierMetrics(cache).recordEviction(1);
             }
+            this.invalidate(newKey);
         });
     }
 
@@ -174,20 +263,18 @@ public class CacheImpl extends AbstractValueAdaptingCache {
         if (key == null) {
             return null;
         }
-        String newKey = KeyUtils.newKey(this.name, key);
-        //记录空值Cache，并在返回数据之前，填充所有空值Cache
-        List<AbstractCache> nullValueCaches = Lists.newArrayList();
-        for (AbstractCache cache : this.caches) {
-            ValueWrapper valueWrapper = cache.get(newKey);
-            if (valueWrapper == null) {
-                nullValueCaches.add(cache);
-                continue;
-            }
-            Object cacheValue = valueWrapper.get();
-            this.cachesPut(nullValueCaches, newKey, cacheValue);
-            return cacheValue;
+        CacheKey newKey = KeyUtils.newCacheKey(this.name, key);
+        if (this.bloomFilter != null && !this.bloomFilter.mightContain(newKey)) {
+            this.metrics.recordMiss();
+            return null;
         }
-        return null;
+        Object cacheValue = this.find(newKey);
+        if (cacheValue != null) {
+            this.metrics.recordHit();
+        } else {
+            this.metrics.recordMiss();
+        }
+        return this.unwrap(cacheValue);
     }
 
     /**
@@ -201,6 +288,23 @@ public class CacheImpl extends AbstractValueAdaptingCache {
      * CacheImpl采用的是类似ConcurrentHashMap分段锁的概念，以缓存key作为锁对象，不同key并行，相同key互斥
      * 【内置只实现了单进程内的锁，如果是分布式系统，请自己实现SyncFunc接口，然后将实现类的bean注入spring即可】
      *
+     * 开启singleFlight后（默认开启）：
+     * 1、命中缓存时不加锁，直接遍历多级缓存返回
+     * 2、未命中时，同一个newKey在进程内只登记一个CompletableFuture，由登记成功的线程在SyncFunc的锁中执行业务方法
+     * 3、其他线程不再排队抢锁，而是等待同一个CompletableFuture的结果（统计为coalesced，不算命中）
+     * 4、登记成功的线程在业务方法中再次get同一个key（重入）时，不等待，直接在SyncFunc的锁中加载
+     * 关闭singleFlight后，所有调用（包括命中缓存）都在SyncFunc的锁中执行，即老版本的行为
+     *
+     * 开启refreshAhead后（默认关闭），各级缓存中存储的是CacheValue（数据 + 写入时间）：
+     * 1、未超过刷新时间：直接返回
+     * 2、超过刷新时间，未逻辑过期：直接返回，同时提交一个后台刷新任务（同一个key只有一个）
+     * 3、逻辑过期：与未命中一样同步加载，业务方法抛出异常时，在staleWhileError时间窗口内继续返回老数据
+     * 再开启XFetch后，业务方法加载的数据存储的是XFetchValue（数据 + 写入时间 + 业务方法耗时），是否刷新改为概率判定（见needsRefresh）
+     *
+     * 开启布隆过滤器后（默认关闭），过滤器中没有的key直接返回null（见BloomFilterHolder）
+     *
+     * 开启热点key后（默认关闭），热点key的数据直接从本地提升层返回（见HotKeyDetector）
+     *
      * @param key
      * @param callable
      * @param <T>
@@ -211,44 +315,64 @@ public class CacheImpl extends AbstractValueAdaptingCache {
         if (key == null) {
             return null;
         }
-        String newKey = KeyUtils.newKey(this.name, key);
-        return ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey, () -> {
-            /*
-                valueWrapper有三种可能：
-                    1、null：多级缓存中没有业务数据，执行业务方法
-                    2、SimpleValueWrapper(null)：多级缓存中缓存了NullValue.INSTANCE，返回null
-                    3、SimpleValueWrapper(Object)：多级缓存中缓存了业务数据，返回业务数据
-                注意：这里get方法的参数必须用key，不能用newKey，因为get方法会调用lookup方法，在lookup方法中将key转换成了newKey
-             */
-            ValueWrapper valueWrapper = this.get(key);
-            if (valueWrapper != null) {
-                return (T) valueWrapper.get();
+        CacheKey newKey = KeyUtils.newCacheKey(this.name, key);
+        //布隆过滤器中没有的key一定不存在：不查询缓存，也不执行业务方法
+        if (this.bloomFilter != null && !this.bloomFilter.mightContain(newKey)) {
+            this.metrics.recordMiss();
+            return null;
+        }
+        SyncFunc syncFunc = ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class);
+        if (!this.singleFlight) {
+            return syncFunc.spinSync(newKey.toString(), () -> this.load(key, newKey, callable, null));
+        }
+        //命中缓存：不加锁
+        Object cacheValue = this.find(newKey);
+        if (cacheValue != null) {
+            long age = this.age(cacheValue);
+            //需要刷新（超过刷新时间，或XFetch判定提前刷新）：返回当前数据，同时在后台刷新
+            if (age < this.ttl && this.needsRefresh(cacheValue, age)) {
+                this.refresh(key, newKey, callable, syncFunc, cacheValue);
             }
-            //执行业务方法
-            T value = callable.call();
-            //value != null：则可以将数据缓存下来，并返回value
-            if (value != null) {
-                this.cachesPut(this.caches, newKey, value);
-                return value;
+            //未逻辑过期：直接返回（逻辑过期的数据需要同步加载）
+            if (age < this.ttl) {
+                this.metrics.recordHit();
+                return (T) this.fromStoreValue(this.unwrap(cacheValue));
             }
-            //value == null：则通过preProcessCacheValue方法处理一下
-            Object cacheValue = this.preProcessCacheValue(null);
+        }
+        //未命中缓存：同一个newKey只允许一个线程执行业务方法，其他线程等待其结果
+        Loader future = new Loader();
+        Loader loader = this.loaders.putIfAbsent(newKey, future);
+        if (loader != null) {
             /*
-                1、cacheValue != null：说明开启缓存null值，此时cacheValue等于NullValue.INSTANCE
-                2、cacheValue == null：说明未开启缓存null值
+                重入：业务方法中又调用了同一个key的get（同一个线程），等待自己的future会永远阻塞
+                直接在SyncFunc的锁中加载（SyncFunc的锁是可重入的），与关闭singleFlight时的行为一致
              */
-            if (cacheValue != null) {
-                this.cachesPut(this.caches, newKey, cacheValue);
+            if (loader.owner == Thread.currentThread()) {
+                return syncFunc.spinSync(newKey.toString(), () -> this.load(key, newKey, callable, null));
             }
+            //等待其他线程加载的结果：没有执行业务方法，也没有命中缓存，单独统计
+            this.metrics.recordCoalesced();
+            return (T) this.await(loader);
+        }
+        Object value = null;
+        try {
             /*
-                执行到此处，说明以下两点：
-                    1、缓存中没有业务数据
-                    2、业务方法返回值是null
-                那么无论是否开启缓存null值，都应该给客户端返回一个null
-                开启缓存null，只是在缓存中将null进行特殊处理后存储，避免缓存穿透
+                执行业务方法依然放在SyncFunc的锁中：
+                    1、进程内：只有登记了future的线程才会进入，所以这里基本不会发生锁竞争
+                    2、分布式：如果用户注入了分布式的SyncFunc，依然可以保证多个进程之间的互斥
+                load方法中会再次查询缓存，避免其他线程（或进程）已经完成了加载
              */
-            return null;
-        });
+            value = syncFunc.spinSync(newKey.toString(), () -> this.load(key, newKey, callable, null));
+            return (T) value;
+        } finally {
+            /*
+                先complete再remove：
+                    1、complete之前拿到future的线程，会等到value
+                    2、remove之后进来的线程，会直接命中缓存
+             */
+            future.complete(value);
+            this.loaders.remove(newKey, future);
+        }
     }
 
     @Override
@@ -256,20 +380,87 @@ public class CacheImpl extends AbstractValueAdaptingCache {
         if (key == null) {
             return;
         }
-        String newKey = KeyUtils.newKey(this.name, key);
-        ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey, () -> {
+        CacheKey newKey = KeyUtils.newCacheKey(this.name, key);
+        ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey.toString(), () -> {
+            Object cacheValue = this.preProcessCacheValue(value);
+            this.cachesPut(this.caches, newKey, this.wrap(cacheValue));
+            this.bloomFilterPut(newKey, value);
+        });
+    }
+
+    /**
+     * 带标签的缓存（见evictByTag）
+     *
+     * 标签随数据一起存储在各级缓存中（TaggedValue），各级缓存写入时记录标签索引
+     * 之后业务方法重新加载这个key时（逻辑过期，后台刷新），新数据继续使用原来的标签
+     *
+     * @param key
+     * @param value
+     * @param tags  如：tenant:42，为空时与put(key, value)一致
+     */
+    public void put(Object key, Object value, Collection<String> tags) {
+        List<String> newTags = this.newTags(tags);
+        if (newTags.isEmpty()) {
+            this.put(key, value);
+            return;
+        }
+        if (key == null) {
+            return;
+        }
+        CacheKey newKey = KeyUtils.newCacheKey(this.name, key);
+        ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey.toString(), () -> {
             Object cacheValue = this.preProcessCacheValue(value);
-            this.cachesPut(this.caches, newKey, cacheValue);
+            this.cachesPut(this.caches, newKey, this.wrap(cacheValue, newTags));
+            this.bloomFilterPut(newKey, value);
         });
     }
 
+    /**
+     * 删除带有这个标签的所有数据
+     *
+     * 1、从最后一级缓存开始删除，避免删除期间其他线程把下级缓存中的旧数据回填到已经删除过的上级缓存
+     * 2、本地缓存按标签索引删除，并广播给其他服务；Redis按标签的Set分批删除
+     * 3、不支持标签的本地缓存清除整个缓存线；不支持标签的中央缓存（如：Memcached）只在开启命名空间代数时把代数加1，
+     * 否则只能清空整个中央缓存（会波及其他缓存线和其他服务），所以跳过并打印警告，这部分数据只能等过期
+     *
+     * 注意：不经过SyncFunc加锁
+     *
+     * @param tag
+     */
+    public void evictByTag(String tag) {
+        if (StringUtils.isBlank(tag)) {
+            return;
+        }
+        String newTag = StringUtils.trim(tag);
+        for (int i = this.caches.size() - 1; i >= 0; i--) {
+            AbstractCache cache = this.caches.get(i);
+            if (cache.evictByTag(this.name, newTag)) {
+                continue;
+            }
+            if (cache instanceof AbstractCentralCache) {
+                AbstractCentralCache centralCache = (AbstractCentralCache) cache;
+                if (centralCache.getGenerationRefresh() >= 0) {
+                    centralCache.clear(this.name);
+                } else {
+                    logger.warn(cache.getClass().getSimpleName() + " does not support tags and generation is disabled, skip evicting tag " + newTag + " in " + this.name);
+                }
+            } else {
+                cache.clear();
+            }
+        }
+        if (this.hotKeys != null) {
+            this.hotKeys.invalidateAll();
+        }
+        this.backfilling.clear();
+    }
+
     @Override
     public ValueWrapper putIfAbsent(Object key, Object value) {
         if (key == null) {
             return null;
         }
-        String newKey = KeyUtils.newKey(this.name, key);
-        return ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey, () -> {
+        CacheKey newKey = KeyUtils.newCacheKey(this.name, key);
+        return ApplicationContextHolder.getBean(SyncFunc.class.getName(), SyncFunc.class).spinSync(newKey.toString(), () -> {
             /*
                 putIfAbsent方法的语义：
                     当缓存中有数据，则忽略新值，返回老值
@@ -283,13 +474,128 @@ public class CacheImpl extends AbstractValueAdaptingCache {
             ValueWrapper valueWrapper = this.get(key);
             if (valueWrapper == null || valueWrapper.get() == null) {
                 Object cacheValue = this.preProcessCacheValue(value);
-                this.cachesPut(this.caches, newKey, cacheValue);
+                this.cachesPut(this.caches, newKey, this.wrap(cacheValue));
+                this.bloomFilterPut(newKey, value);
                 return null;
             }
             return valueWrapper;
         });
     }
 
+    /**
+     * 批量查询
+     *
+     * 与lookup的逻辑一致，只是以批量的方式逐级查询：
+     * 1、每一级缓存只查询上一级未命中的key，一次I/O完成（如：Redis的MGET，Memcached的getBulk）
+     * 2、在下级缓存中命中的数据，批量回填到所有上级缓存中
+     *
+     * 返回的Map中只包含命中的数据，如果缓存的是NullValue.INSTANCE，则对应的value为null
+     *
+     * 注意：批量操作不经过SyncFunc加锁，语义与RedisCache等未开启sync的缓存一致
+     *
+     * @param keys
+     * @return
+     */
+    public Map<Object, Object> getAll(Collection<?> keys) {
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        if (CollectionUtils.isEmpty(keys)) {
+            return values;
+        }
+        //newKey -> key
+        Map<CacheKey, Object> newKeys = this.newKeys(keys);
+        //记录未命中的key
+        Set<CacheKey> missKeys = Sets.newLinkedHashSet(newKeys.keySet());
+        //记录空值Cache，并在返回数据之前，批量填充所有空值Cache
+        List<AbstractCache> nullValueCaches = Lists.newArrayList();
+        for (AbstractCache cache : this.caches) {
+            if (missKeys.isEmpty()) {
+                break;
+            }
+            long start = System.nanoTime();
+            Map<Object, Object> cacheValues = cache.getAll(missKeys);
+            int hits = MapUtils.isEmpty(cacheValues) ? 0 : cacheValues.size();
+            this.getTierMetrics(cache).recordGet(hits, missKeys.size() - hits, System.nanoTime() - start);
+            if (MapUtils.isNotEmpty(cacheValues)) {
+                if (!nullValueCaches.isEmpty()) {
+                    this.metrics.recordBackfill(cacheValues.size());
+                }
+                this.cachesBackfillAll(nullValueCaches, cacheValues);
+                for (Map.Entry<Object, Object> entry : cacheValues.entrySet()) {
+                    missKeys.remove(entry.getKey());
+                    values.put(newKeys.get(entry.getKey()), this.fromStoreValue(this.unwrap(entry.getValue())));
+                }
+            }
+            nullValueCaches.add(cache);
+        }
+        this.metrics.recordHits(values.size(), newKeys.size() - values.size());
+        return values;
+    }
+
+    /**
+     * 批量缓存
+     *
+     * 注意：批量操作不经过SyncFunc加锁
+     *
+     * @param map
+     */
+    public void putAll(Map<?, ?> map) {
+        if (MapUtils.isEmpty(map)) {
+            return;
+        }
+        Map<Object, Object> cacheValues = Maps.newLinkedHashMap();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getKey() == null) {
+                continue;
+            }
+            Object cacheValue = this.preProcessCacheValue(entry.getValue());
+            if (cacheValue == null) {
+                continue;
+            }
+            CacheKey newKey = KeyUtils.newCacheKey(this.name, entry.getKey());
+            cacheValues.put(newKey, this.wrap(cacheValue));
+            this.bloomFilterPut(newKey, entry.getValue());
+        }
+        this.cachesPutAll(this.caches, cacheValues);
+    }
+
+    /**
+     * 批量删除
+     *
+     * 注意：批量操作不经过SyncFunc加锁
+     *
+     * @param keys
+     */
+    public void evictAll(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        Set<CacheKey> newKeys = this.newKeys(keys).keySet();
+        this.metrics.recordEviction(newKeys.size());
+        for (AbstractCache cache : this.caches) {
+            cache.evictAll(newKeys);
+            this.getTierMetrics(cache).recordEviction(newKeys.size());
+        }
+        for (CacheKey newKey : newKeys) {
+            this.invalidate(newKey);
+        }
+    }
+
+    /**
+     * 容器关闭时，停止后台刷新和异步回填
+     */
+    @Override
+    public void destroy() {
+        if (this.refreshExecutor != null) {
+            this.refreshExecutor.shutdownNow();
+        }
+        if (this.bloomFilter != null) {
+            this.bloomFilter.destroy();
+        }
+        if (this.backfillExecutor != null) {
+            this.backfillExecutor.shutdownNow();
+        }
+    }
+
     @Override
     public Object getNativeCache() {
         return this;
@@ -308,12 +614,506 @@ public class CacheImpl extends AbstractValueAdaptingCache {
         return caches;
     }
 
+    public boolean isSingleFlight() {
+        return singleFlight;
+    }
+
+    public void setSingleFlight(boolean singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * 开启refresh-ahead
+     *
+     * @param refreshExecutor 后台刷新的线程池（建议使用有界队列，队列满时放弃本次刷新）
+     * @param ttl             数据的逻辑过期时间（单位：毫秒）
+     * @param refreshFraction 超过ttl的这个比例后开始后台刷新（0 ~ 1）
+     * @param staleWhileError 逻辑过期后，业务方法抛出异常时，继续返回老数据的时间窗口（单位：毫秒）
+     */
+    public void setRefreshAhead(ExecutorService refreshExecutor, long ttl, double refreshFraction, long staleWhileError) {
+        this.refreshExecutor = refreshExecutor;
+        this.ttl = ttl;
+        this.refreshTime = (long) (ttl * refreshFraction);
+        this.staleWhileError = staleWhileError;
+    }
+
+    /**
+     * 开启XFetch（需要先开启refresh-ahead）
+     *
+     * @param xfetchBeta 大于0时开启，通常取1
+     */
+    public void setXFetchBeta(double xfetchBeta) {
+        this.xfetchBeta = xfetchBeta;
+    }
+
+    public double getXFetchBeta() {
+        return xfetchBeta;
+    }
+
+    /**
+     * 开启异步回填
+     *
+     * @param backfillExecutor 回填的线程池（建议使用有界队列，队列满时放弃本次回填）
+     */
+    public void setBackfillExecutor(ExecutorService backfillExecutor) {
+        this.backfillExecutor = backfillExecutor;
+    }
+
+    public boolean isAsyncBackfill() {
+        return this.backfillExecutor != null;
+    }
+
+    public BloomFilterHolder getBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * 开启布隆过滤器
+     *
+     * @param bloomFilter
+     */
+    public void setBloomFilter(BloomFilterHolder bloomFilter) {
+        this.bloomFilter = bloomFilter;
+    }
+
+    public HotKeyDetector getHotKeys() {
+        return hotKeys;
+    }
+
+    /**
+     * 开启热点key探测和本地提升
+     *
+     * @param hotKeys
+     */
+    public void setHotKeys(HotKeyDetector hotKeys) {
+        this.hotKeys = hotKeys;
+    }
+
+    public boolean isRefreshAhead() {
+        return this.refreshExecutor != null;
+    }
+
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 某一级缓存在这条缓存线中的统计数据
+     *
+     * @param cache
+     * @return
+     */
+    public CacheMetrics getTierMetrics(AbstractCache cache) {
+        //先get再computeIfAbsent，避免JDK8中computeIfAbsent在key已存在时也会加锁
+        CacheMetrics cacheMetrics = this.tierMetrics.get(cache);
+        return cacheMetrics != null ? cacheMetrics : this.tierMetrics.computeIfAbsent(cache, k -> new CacheMetrics());
+    }
+
+    /**
+     * 加载数据：查询缓存，未命中（或需要刷新）则执行业务方法并缓存返回值
+     *
+     * 这个方法需要在SyncFunc的锁中执行
+     *
+     * @param key
+     * @param newKey
+     * @param callable
+     * @param refreshValue 后台刷新时为触发刷新的数据，缓存中的数据比它新则说明已经被其他线程（或进程）刷新过了
+     *                     null：数据逻辑过期才重新加载
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    private <T> T load(Object key, CacheKey newKey, Callable<T> callable, Object refreshValue) throws Exception {
+        /*
+            cacheValue有三种可能：
+                1、null：多级缓存中没有业务数据，执行业务方法
+                2、NullValue.INSTANCE：多级缓存中缓存了null，返回null
+                3、业务数据：返回业务数据
+            开启refresh-ahead后，数据超过刷新时间（后台刷新）或逻辑过期，也需要执行业务方法
+            注意：其他线程（或进程）可能已经完成了加载，所以这里需要再查询一次
+         */
+        Object cacheValue = this.find(newKey);
+        long age = cacheValue != null ? this.age(cacheValue) : 0L;
+        boolean refresh = refreshValue != null;
+        if (cacheValue != null && (refresh ? this.writeTime(cacheValue) > this.writeTime(refreshValue) : age < this.ttl)) {
+            if (!refresh) {
+                this.metrics.recordHit();
+            }
+            return (T) this.fromStoreValue(this.unwrap(cacheValue));
+        }
+        if (!refresh) {
+            this.metrics.recordMiss();
+        }
+        //执行业务方法
+        T value;
+        long start = System.nanoTime();
+        try {
+            value = callable.call();
+            this.metrics.recordLoad(true, System.nanoTime() - start);
+        } catch (Exception e) {
+            this.metrics.recordLoad(false, System.nanoTime() - start);
+            /*
+                stale-while-error：业务方法抛出异常时，只要老数据还在时间窗口内，就继续返回老数据
+                后台刷新时老数据一定还没有逻辑过期，所以刷新失败不影响读取
+             */
+            if (cacheValue != null && age - this.ttl < this.staleWhileError) {
+                logger.warn("load " + newKey + " failed, serve stale value: " + e.getMessage());
+                return (T) this.fromStoreValue(this.unwrap(cacheValue));
+            }
+            throw e;
+        }
+        //value != null：则可以将数据缓存下来，并返回value（同时记录业务方法的耗时，供XFetch使用；带标签的数据保留原来的标签）
+        if (value != null) {
+            this.cachesPut(this.caches, newKey, cacheValue instanceof TaggedValue
+                    ? this.wrap(value, ((TaggedValue) cacheValue).getTags())
+                    : this.wrap(value, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            return value;
+        }
+        //value == null：通过了布隆过滤器但数据不存在（误判，或数据已被删除）
+        if (this.bloomFilter != null && !refresh) {
+            this.bloomFilter.recordFalsePositive();
+        }
+        //value == null：则通过preProcessCacheValue方法处理一下
+        Object nullValue = this.preProcessCacheValue(null);
+        /*
+            1、nullValue != null：说明开启缓存null值，此时nullValue等于NullValue.INSTANCE
+            2、nullValue == null：说明未开启缓存null值
+         */
+        if (nullValue != null) {
+            this.cachesPut(this.caches, newKey, this.wrap(nullValue));
+        }
+        /*
+            执行到此处，说明以下两点：
+                1、缓存中没有业务数据（或需要刷新）
+                2、业务方法返回值是null
+            那么无论是否开启缓存null值，都应该给客户端返回一个null
+            开启缓存null，只是在缓存中将null进行特殊处理后存储，避免缓存穿透
+         */
+        return null;
+    }
+
+    /**
+     * 逐级查询缓存，返回缓存中存储的原始数据（开启refresh-ahead时是CacheValue）
+     *
+     * 在下级缓存中命中的数据，原样回填到所有上级缓存中（保留写入时间），见backfill
+     *
+     * @param newKey
+     * @return
+     */
+    private Object find(CacheKey newKey) {
+        //热点key：直接从本地提升层返回
+        if (this.hotKeys != null) {
+            Object promoted = this.hotKeys.getPromoted(newKey);
+            if (promoted != null) {
+                return promoted;
+            }
+        }
+        //记录空值Cache，并在返回数据之前，填充所有空值Cache
+        List<AbstractCache> nullValueCaches = Lists.newArrayList();
+        for (AbstractCache cache : this.caches) {
+            long start = System.nanoTime();
+            ValueWrapper valueWrapper = cache.get(newKey);
+            this.getTierMetrics(cache).recordGet(valueWrapper != null ? 1 : 0, valueWrapper != null ? 0 : 1, System.nanoTime() - start);
+            if (valueWrapper == null) {
+                nullValueCaches.add(cache);
+                continue;
+            }
+            Object cacheValue = valueWrapper.get();
+            if (!nullValueCaches.isEmpty()) {
+                this.metrics.recordBackfill(1);
+                this.backfill(nullValueCaches, newKey, cacheValue);
+            }
+            if (this.hotKeys != null) {
+                this.hotKeys.record(newKey, cacheValue);
+            }
+            return cacheValue;
+        }
+        return null;
+    }
+
+    /**
+     * 后台刷新：同一个newKey同时只有一个刷新任务，线程池满了则放弃本次刷新
+     *
+     * 注意：业务方法会在刷新线程中执行，依赖请求线程上下文（如：ThreadLocal）的业务方法不适合开启refresh-ahead
+     *
+     * @param key
+     * @param newKey
+     * @param callable
+     * @param syncFunc
+     * @param refreshValue 触发刷新的数据
+     */
+    private void refresh(Object key, CacheKey newKey, Callable<?> callable, SyncFunc syncFunc, Object refreshValue) {
+        if (!this.refreshing.add(newKey)) {
+            return;
+        }
+        try {
+            this.refreshExecutor.execute(() -> {
+                try {
+                    syncFunc.spinSync(newKey.toString(), () -> this.load(key, newKey, callable, refreshValue));
+                } finally {
+                    this.refreshing.remove(newKey);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.refreshing.remove(newKey);
+        }
+    }
+
+    /**
+     * 是否需要后台刷新
+     *
+     * 1、XFetch（业务方法加载的数据，记录了耗时delta）：age - delta * beta * ln(random) >= ttl
+     *    越接近逻辑过期，提前刷新的概率越大；耗时越长的数据越早开始刷新
+     *    每个读取者独立判定，多个服务中通常只有一个最先触发刷新，刷新后的数据通过中央缓存共享给其他服务
+     * 2、其他：超过刷新时间（ttl * fraction）
+     *
+     * @param cacheValue
+     * @param age
+     * @return
+     */
+    private boolean needsRefresh(Object cacheValue, long age) {
+        if (this.xfetchBeta > 0 && cacheValue instanceof XFetchValue) {
+            long delta = ((XFetchValue) cacheValue).getDelta();
+            return age - delta * this.xfetchBeta * Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) >= this.ttl;
+        }
+        return age >= this.refreshTime;
+    }
+
+    private Object wrap(Object value) {
+        if (this.refreshExecutor == null || value == null) {
+            return value;
+        }
+        return new CacheValue(value, System.currentTimeMillis());
+    }
+
+    /**
+     * 开启XFetch时，业务方法加载的数据额外记录耗时（至少1毫秒）
+     *
+     * @param value
+     * @param delta 业务方法的耗时（单位：毫秒）
+     * @return
+     */
+    private Object wrap(Object value, long delta) {
+        if (this.refreshExecutor == null || this.xfetchBeta <= 0 || value == null) {
+            return this.wrap(value);
+        }
+        return new XFetchValue(value, System.currentTimeMillis(), Math.max(1L, delta));
+    }
+
+    /**
+     * 带标签的数据（TaggedValue同时也是CacheValue，记录了写入时间）
+     *
+     * @param value
+     * @param tags
+     * @return
+     */
+    private Object wrap(Object value, List<String> tags) {
+        if (value == null || CollectionUtils.isEmpty(tags)) {
+            return this.wrap(value);
+        }
+        return new TaggedValue(value, System.currentTimeMillis(), tags);
+    }
+
+    /**
+     * 数据的写入时间，不是CacheValue时返回Long.MAX_VALUE（视为最新的数据）
+     *
+     * @param cacheValue
+     * @return
+     */
+    private long writeTime(Object cacheValue) {
+        return cacheValue instanceof CacheValue ? ((CacheValue) cacheValue).getWriteTime() : Long.MAX_VALUE;
+    }
+
+    private Object unwrap(Object cacheValue) {
+        return cacheValue instanceof CacheValue ? ((CacheValue) cacheValue).getValue() : cacheValue;
+    }
+
+    /**
+     * 数据的存活时间（单位：毫秒），未开启refresh-ahead（或不是CacheValue）时返回0
+     *
+     * @param cacheValue
+     * @return
+     */
+    private long age(Object cacheValue) {
+        if (this.refreshExecutor == null || !(cacheValue instanceof CacheValue)) {
+            return 0L;
+        }
+        return System.currentTimeMillis() - ((CacheValue) cacheValue).getWriteTime();
+    }
+
+    /**
+     * 等待其他线程的加载结果
+     *
+     * 与SyncFunc的处理方式保持一致：出现异常时记录日志并返回null
+     *
+     * @param future
+     * @return
+     */
+    private Object await(CompletableFuture<Object> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LoggerUtils.error(logger, e);
+        } catch (ExecutionException e) {
+            LoggerUtils.error(logger, e);
+        }
+        return null;
+    }
+
+    /**
+     * 回填上级缓存（不广播缓存清除消息，见AbstractLocalCache.backfill）
+     *
+     * 开启异步回填时，数据直接返回，回填交给线程池执行：
+     * 1、同一个newKey同时只有一个回填任务，线程池满了则放弃本次回填（下次读取时再回填）
+     * 2、回填期间本服务修改了数据（put，evict，clear），回填的数据可能已经过时，回填完成后从这些上级缓存中删除
+     *
+     * @param caches
+     * @param newKey
+     * @param cacheValue
+     */
+    private void backfill(List<AbstractCache> caches, CacheKey newKey, Object cacheValue) {
+        if (this.backfillExecutor == null) {
+            this.cachesBackfill(caches, newKey, cacheValue);
+            return;
+        }
+        Object token = new Object();
+        if (this.backfilling.putIfAbsent(newKey, token) != null) {
+            return;
+        }
+        try {
+            this.backfillExecutor.execute(() -> {
+                try {
+                    this.cachesBackfill(caches, newKey, cacheValue);
+                } finally {
+                    if (!this.backfilling.remove(newKey, token)) {
+                        for (AbstractCache cache : caches) {
+                            if (cache instanceof AbstractLocalCache) {
+                                ((AbstractLocalCache) cache).evictLocalCache(newKey);
+                            } else {
+                                cache.evict(newKey);
+                            }
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.backfilling.remove(newKey, token);
+        }
+    }
+
+    private void cachesBackfill(List<AbstractCache> caches, CacheKey newKey, Object cacheValue) {
+        for (AbstractCache cache : caches) {
+            long start = System.nanoTime();
+            cache.backfill(newKey, cacheValue);
+            this.getTierMetrics(cache).recordPut(1, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 批量回填始终同步执行
+     *
+     * @param caches
+     * @param values
+     */
+    private void cachesBackfillAll(List<AbstractCache> caches, Map<Object, Object> values) {
+        for (AbstractCache cache : caches) {
+            long start = System.nanoTime();
+            cache.backfillAll(values);
+            this.getTierMetrics(cache).recordPut(values.size(), System.nanoTime() - start);
+        }
+    }
+
     private void cachesPut(List<AbstractCache> caches, Object key, Object value) {
         if (CollectionUtils.isEmpty(caches)) {
             return;
         }
+        //各级缓存共用同一次序列化的结果（第一次使用时才序列化）
+        SerializedValue serializedValue = CacheUtils.newSerializedValue(value);
         for (AbstractCache cache : caches) {
-            cache.put(key, value);
+            long start = System.nanoTime();
+            cache.put(key, value, serializedValue);
+            this.getTierMetrics(cache).recordPut(1, System.nanoTime() - start);
+        }
+        //写入所有缓存（不是回填）时，提升层中的数据已经过时
+        if (caches == this.caches) {
+            this.invalidate(key);
+        }
+    }
+
+    private void cachesPutAll(List<AbstractCache> caches, Map<Object, Object> values) {
+        if (CollectionUtils.isEmpty(caches) || MapUtils.isEmpty(values)) {
+            return;
+        }
+        for (AbstractCache cache : caches) {
+            long start = System.nanoTime();
+            cache.putAll(values);
+            this.getTierMetrics(cache).recordPut(values.size(), System.nanoTime() - start);
+        }
+        if (caches == this.caches) {
+            for (Object key : values.keySet()) {
+                this.invalidate(key);
+            }
+        }
+    }
+
+    private Map<CacheKey, Object> newKeys(Collection<?> keys) {
+        Map<CacheKey, Object> newKeys = Maps.newLinkedHashMap();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            newKeys.put(KeyUtils.newCacheKey(this.name, key), key);
+        }
+        return newKeys;
+    }
+
+    /**
+     * 去掉空白的标签和重复的标签
+     *
+     * @param tags
+     * @return
+     */
+    private List<String> newTags(Collection<String> tags) {
+        List<String> newTags = Lists.newArrayList();
+        if (CollectionUtils.isEmpty(tags)) {
+            return newTags;
+        }
+        for (String tag : tags) {
+            if (StringUtils.isBlank(tag)) {
+                continue;
+            }
+            String newTag = StringUtils.trim(tag);
+            if (!newTags.contains(newTag)) {
+                newTags.add(newTag);
+            }
+        }
+        return newTags;
+    }
+
+    /**
+     * 写入缓存的数据同时写入布隆过滤器（null值不写入）
+     *
+     * @param newKey
+     * @param value
+     */
+    private void bloomFilterPut(CacheKey newKey, Object value) {
+        if (this.bloomFilter != null && value != null) {
+            this.bloomFilter.put(newKey);
+        }
+    }
+
+    /**
+     * 本服务修改了数据：删除提升层中的数据，并撤销正在进行的异步回填
+     *
+     * @param newKey
+     */
+    private void invalidate(Object newKey) {
+        if (this.hotKeys != null && newKey instanceof CacheKey) {
+            this.hotKeys.invalidate((CacheKey) newKey);
+        }
+        if (newKey instanceof CacheKey) {
+            this.backfilling.remove(newKey);
         }
     }
 
@@ -323,4 +1123,12 @@ public class CacheImpl extends AbstractValueAdaptingCache {
         }
         return isAllowNullValues() ? NullValue.INSTANCE : null;
     }
+
+    /**
+     * single-flight登记的加载结果，记录登记的线程，用于识别重入
+     */
+    private static final class Loader extends CompletableFuture<Object> {
+
+        private final Thread owner = Thread.currentThread();
+    }
 }
@@ -1,19 +1,40 @@
 package org.microboot.cache.impl;
 
+import com.google.common.collect.Sets;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.core.utils.LoggerUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cache.Cache;
 import org.springframework.cache.transaction.AbstractTransactionSupportingCacheManager;
 import org.springframework.util.Assert;
 
 import java.util.Collection;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * @author 胡鹏
+ *
+ * 除了启动时注册的通用缓存，本地缓存，中央缓存以外，还支持按需创建region（命名缓存）：
+ * 1、@Cacheable(value = "xxx")中的name第一次被访问时，由regionFactory根据配置（cache.regions.xxx.*）创建
+ * 2、没有配置的name使用模板（cache.region-template.*）创建，模板也没有配置时返回null（与之前的行为一致）
+ * 3、region创建后放入cacheMap，之后的访问不再创建
+ * 4、容器关闭时，销毁所有按需创建的region（刷新线程，异步写队列等）
  */
-public class CacheManagerImpl extends AbstractTransactionSupportingCacheManager {
+public class CacheManagerImpl extends AbstractTransactionSupportingCacheManager implements DisposableBean {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
 
     private final ConcurrentHashMap<String, Cache> cacheMap = new ConcurrentHashMap<>();
 
+    //按需创建的region
+    private final Set<CacheImpl> regions = Sets.newConcurrentHashSet();
+
+    //region的创建方法，为null时表示不支持按需创建
+    private Function<String, CacheImpl> regionFactory;
+
     @Override
     protected Collection<? extends Cache> loadCaches() {
         return cacheMap.values();
@@ -21,11 +42,49 @@ public class CacheManagerImpl extends AbstractTransactionSupportingCacheManager
 
     @Override
     public Cache getCache(String name) {
-        return cacheMap.get(name);
+        Cache cache = cacheMap.get(name);
+        if (cache != null || name == null || regionFactory == null) {
+            return cache;
+        }
+        //computeIfAbsent保证同一个region只会被创建一次，regionFactory返回null时不会放入cacheMap
+        return cacheMap.computeIfAbsent(name, regionName -> {
+            CacheImpl region = regionFactory.apply(regionName);
+            if (region != null) {
+                regions.add(region);
+            }
+            return region;
+        });
     }
 
     public void setCache(String name, Cache cache) {
         Assert.isTrue(!cacheMap.containsKey(name), name + " already exists");
         cacheMap.put(name, cache);
     }
+
+    public Set<CacheImpl> getRegions() {
+        return regions;
+    }
+
+    public void setRegionFactory(Function<String, CacheImpl> regionFactory) {
+        this.regionFactory = regionFactory;
+    }
+
+    /**
+     * region不是Spring管理的bean，需要手动销毁
+     */
+    @Override
+    public void destroy() {
+        for (CacheImpl region : regions) {
+            try {
+                region.destroy();
+                for (AbstractCache cache : region.getCaches()) {
+                    if (cache instanceof DisposableBean) {
+                        ((DisposableBean) cache).destroy();
+                    }
+                }
+            } catch (Exception e) {
+                LoggerUtils.error(logger, e);
+            }
+        }
+    }
 }
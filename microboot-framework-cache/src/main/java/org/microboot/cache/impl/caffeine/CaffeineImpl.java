@@ -1,10 +1,24 @@
 package org.microboot.cache.impl.caffeine;
 
+import com.github.benmanes.caffeine.cache.Policy;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.microboot.cache.func.LocalCacheEntryFunc;
+import org.microboot.cache.func.SerializerFunc;
 import org.microboot.cache.impl.AbstractLocalCache;
 import org.microboot.cache.utils.KeyUtils;
+import org.microboot.cache.utils.LocalCacheValueUtils;
 import org.springframework.cache.Cache;
 import org.springframework.cache.caffeine.CaffeineCache;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author 胡鹏
  */
@@ -25,11 +39,40 @@ public class CaffeineImpl extends AbstractLocalCache {
 
     @Override
     protected Object getValue(Object key) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
         Cache.ValueWrapper valueWrapper = this.caffeineCache.get(newKey);
         return (valueWrapper != null ? valueWrapper.get() : null);
     }
 
+    /**
+     * 批量获取数据
+     *
+     * CaffeineCache没有提供批量方法，这里直接使用Caffeine的getAllPresent
+     *
+     * @param keys
+     * @return
+     */
+    @Override
+    protected Map<Object, Object> getValues(Collection<?> keys) {
+        //newKey -> key
+        Map<String, Object> newKeys = Maps.newLinkedHashMap();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            newKeys.put(KeyUtils.newCacheKey(this.name, key).toString(), key);
+        }
+        Map<Object, Object> cacheValues = this.caffeineCache.getNativeCache().getAllPresent(newKeys.keySet());
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        for (Map.Entry<Object, Object> entry : cacheValues.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            values.put(newKeys.get(entry.getKey()), entry.getValue());
+        }
+        return values;
+    }
+
     @Override
     public void clearLocalCache() {
         this.caffeineCache.clear();
@@ -37,13 +80,142 @@ public class CaffeineImpl extends AbstractLocalCache {
 
     @Override
     public void evictLocalCache(Object key) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
         this.caffeineCache.evict(newKey);
     }
 
+    @Override
+    public void evictLocalCaches(Collection<?> keys) {
+        List<String> newKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            newKeys.add(KeyUtils.newCacheKey(this.name, key).toString());
+        }
+        this.caffeineCache.getNativeCache().invalidateAll(newKeys);
+    }
+
+    /**
+     * asMap().containsKey不记录命中统计，也不影响淘汰策略，过期的数据返回false
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean containsLocalCache(Object key) {
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
+        return this.caffeineCache.getNativeCache().asMap().containsKey(newKey);
+    }
+
     @Override
     public void setLocalCache(Object key, Object value) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
         this.caffeineCache.put(newKey, value);
     }
+
+    @Override
+    public void setLocalCaches(Map<Object, Object> map) {
+        Map<Object, Object> newValues = Maps.newLinkedHashMap();
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            newValues.put(KeyUtils.newCacheKey(this.name, entry.getKey()).toString(), entry.getValue());
+        }
+        this.caffeineCache.getNativeCache().putAll(newValues);
+    }
+
+    /**
+     * 剩余的过期时间取expireAfterWrite，expireAfterAccess，expireVariably中最小的一个
+     * 无法序列化的数据不写入快照
+     *
+     * @param entryFunc
+     * @param serializerFunc
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public boolean snapshot(LocalCacheEntryFunc entryFunc, SerializerFunc serializerFunc) throws Exception {
+        com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache = this.caffeineCache.getNativeCache();
+        Policy<Object, Object> policy = nativeCache.policy();
+        for (Map.Entry<Object, Object> entry : nativeCache.asMap().entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                continue;
+            }
+            long expireAt = expireAt(policy, entry.getKey());
+            if (expireAt < 0) {
+                continue;
+            }
+            byte[] value;
+            try {
+                value = LocalCacheValueUtils.toBytes(entry.getValue(), serializerFunc);
+            } catch (Exception e) {
+                continue;
+            }
+            entryFunc.accept(((String) entry.getKey()).getBytes(StandardCharsets.UTF_8), value, expireAt);
+        }
+        return true;
+    }
+
+    /**
+     * 注意：只有expireVariably可以指定每条数据的过期时间
+     * expireAfterWrite（cache.regions.xxx.ttl）恢复的数据重新开始计时，即数据最多比原来晚ttl过期
+     *
+     * @param key
+     * @param value
+     * @param expireAt
+     * @param serializerFunc
+     * @return
+     */
+    @Override
+    public boolean restore(byte[] key, byte[] value, long expireAt, SerializerFunc serializerFunc) {
+        long duration = expireAt - System.currentTimeMillis();
+        if (expireAt > 0 && duration <= 0) {
+            return false;
+        }
+        com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache = this.caffeineCache.getNativeCache();
+        String newKey = new String(key, StandardCharsets.UTF_8);
+        Object cacheValue = LocalCacheValueUtils.fromBytes(value, serializerFunc);
+        Optional<Policy.VarExpiration<Object, Object>> varExpiration = nativeCache.policy().expireVariably();
+        if (expireAt > 0 && varExpiration.isPresent()) {
+            varExpiration.get().put(newKey, cacheValue, duration, TimeUnit.MILLISECONDS);
+        } else {
+            nativeCache.put(newKey, cacheValue);
+        }
+        return true;
+    }
+
+    /**
+     * region的CaffeineCache名称是name-regionName
+     *
+     * @return
+     */
+    @Override
+    public String getSnapshotId() {
+        return this.caffeineCache.getName();
+    }
+
+    /**
+     * @param policy
+     * @param key
+     * @return 过期时间（毫秒时间戳），0表示不过期，-1表示已经过期
+     */
+    private static long expireAt(Policy<Object, Object> policy, Object key) {
+        long remaining = Long.MAX_VALUE;
+        for (Optional<Policy.Expiration<Object, Object>> expiration : Lists.newArrayList(policy.expireAfterWrite(), policy.expireAfterAccess())) {
+            if (!expiration.isPresent()) {
+                continue;
+            }
+            OptionalLong age = expiration.get().ageOf(key, TimeUnit.MILLISECONDS);
+            if (age.isPresent()) {
+                remaining = Math.min(remaining, expiration.get().getExpiresAfter(TimeUnit.MILLISECONDS) - age.getAsLong());
+            }
+        }
+        Optional<Policy.VarExpiration<Object, Object>> varExpiration = policy.expireVariably();
+        if (varExpiration.isPresent()) {
+            OptionalLong expiresAfter = varExpiration.get().getExpiresAfter(key, TimeUnit.MILLISECONDS);
+            if (expiresAfter.isPresent()) {
+                remaining = Math.min(remaining, expiresAfter.getAsLong());
+            }
+        }
+        if (remaining == Long.MAX_VALUE) {
+            return 0L;
+        }
+        return remaining > 0 ? System.currentTimeMillis() + remaining : -1L;
+    }
 }
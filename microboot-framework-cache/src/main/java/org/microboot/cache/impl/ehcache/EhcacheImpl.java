@@ -1,9 +1,19 @@
 package org.microboot.cache.impl.ehcache;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import org.microboot.cache.func.LocalCacheEntryFunc;
+import org.microboot.cache.func.SerializerFunc;
 import org.microboot.cache.impl.AbstractLocalCache;
 import org.microboot.cache.utils.KeyUtils;
+import org.microboot.cache.utils.LocalCacheValueUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author 胡鹏
@@ -25,11 +35,33 @@ public class EhcacheImpl extends AbstractLocalCache {
 
     @Override
     protected Object getValue(Object key) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
         Element cacheValue = this.ehCache.get(newKey);
         return (cacheValue != null ? cacheValue.getObjectValue() : null);
     }
 
+    @Override
+    protected Map<Object, Object> getValues(Collection<?> keys) {
+        //newKey -> key
+        Map<String, Object> newKeys = Maps.newLinkedHashMap();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            newKeys.put(KeyUtils.newCacheKey(this.name, key).toString(), key);
+        }
+        Map<Object, Element> elements = this.ehCache.getAll(newKeys.keySet());
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        for (Map.Entry<Object, Element> entry : elements.entrySet()) {
+            Element element = entry.getValue();
+            if (element == null || element.getObjectValue() == null) {
+                continue;
+            }
+            values.put(newKeys.get(entry.getKey()), element.getObjectValue());
+        }
+        return values;
+    }
+
     @Override
     public void clearLocalCache() {
         this.ehCache.flush();
@@ -37,13 +69,107 @@ public class EhcacheImpl extends AbstractLocalCache {
 
     @Override
     public void evictLocalCache(Object key) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
         this.ehCache.remove(newKey);
     }
 
+    @Override
+    public void evictLocalCaches(Collection<?> keys) {
+        List<String> newKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            newKeys.add(KeyUtils.newCacheKey(this.name, key).toString());
+        }
+        this.ehCache.removeAll(newKeys);
+    }
+
+    /**
+     * getQuiet不更新访问统计
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean containsLocalCache(Object key) {
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
+        Element element = this.ehCache.getQuiet(newKey);
+        return element != null && !element.isExpired();
+    }
+
     @Override
     public void setLocalCache(Object key, Object value) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        String newKey = KeyUtils.newCacheKey(this.name, key).toString();
         this.ehCache.put(new Element(newKey, value));
     }
+
+    @Override
+    public void setLocalCaches(Map<Object, Object> map) {
+        List<Element> elements = Lists.newArrayList();
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            elements.add(new Element(KeyUtils.newCacheKey(this.name, entry.getKey()).toString(), entry.getValue()));
+        }
+        this.ehCache.putAll(elements);
+    }
+
+    /**
+     * getQuiet不更新访问统计，无法序列化的数据不写入快照
+     *
+     * @param entryFunc
+     * @param serializerFunc
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public boolean snapshot(LocalCacheEntryFunc entryFunc, SerializerFunc serializerFunc) throws Exception {
+        for (Object key : this.ehCache.getKeys()) {
+            if (!(key instanceof String)) {
+                continue;
+            }
+            Element element = this.ehCache.getQuiet(key);
+            if (element == null || element.isExpired() || element.getObjectValue() == null) {
+                continue;
+            }
+            long expirationTime = element.getExpirationTime();
+            byte[] value;
+            try {
+                value = LocalCacheValueUtils.toBytes(element.getObjectValue(), serializerFunc);
+            } catch (Exception e) {
+                continue;
+            }
+            entryFunc.accept(((String) key).getBytes(StandardCharsets.UTF_8), value, expirationTime == Long.MAX_VALUE ? 0L : expirationTime);
+        }
+        return true;
+    }
+
+    /**
+     * Ehcache的过期时间以秒为单位，向上取整
+     *
+     * @param key
+     * @param value
+     * @param expireAt
+     * @param serializerFunc
+     * @return
+     */
+    @Override
+    public boolean restore(byte[] key, byte[] value, long expireAt, SerializerFunc serializerFunc) {
+        long duration = expireAt - System.currentTimeMillis();
+        if (expireAt > 0 && duration <= 0) {
+            return false;
+        }
+        Element element = new Element(new String(key, StandardCharsets.UTF_8), LocalCacheValueUtils.fromBytes(value, serializerFunc));
+        if (expireAt > 0) {
+            element.setTimeToLive((int) Math.min(Integer.MAX_VALUE, (duration + 999) / 1000));
+        }
+        this.ehCache.put(element);
+        return true;
+    }
+
+    /**
+     * region的Ehcache名称是name-regionName
+     *
+     * @return
+     */
+    @Override
+    public String getSnapshotId() {
+        return this.ehCache.getName();
+    }
 }
@@ -1,15 +1,45 @@
 package org.microboot.cache.impl.memcached;
 
+import com.google.common.collect.Maps;
 import net.spy.memcached.MemcachedClient;
-import org.microboot.cache.impl.AbstractCache;
-import org.microboot.cache.utils.KeyUtils;
+import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.transcoders.Transcoder;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.bean.MemcachedTranscoder;
+import org.microboot.cache.constant.CacheConstant;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.impl.AbstractCentralCache;
+import org.microboot.core.utils.LoggerUtils;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author 胡鹏
+ *
+ * 读写都使用spymemcached的异步API，Memcached抖动时不会长时间阻塞请求线程：
+ * 1、读：asyncGet，asyncGetBulk，最多等待timeout毫秒，超时（或出错）视为未命中，继续查询下一级缓存（或执行业务方法）
+ *        批量读取超时时，返回已经收到的部分数据
+ * 2、写：默认不等待结果（fire-and-forget），acknowledged = true时最多等待timeout毫秒确认写入结果
+ *
+ * 统计：
+ * 1、timeoutCount：读取超时的次数
+ * 2、failureCount：读写失败的次数
+ *    注意：spymemcached 2.8.x的OperationFuture不支持回调，fire-and-forget模式下只能统计提交失败（如：队列已满）
+ *    需要统计写入结果时开启acknowledged
  */
-public class MemcachedImpl extends AbstractCache {
+public class MemcachedImpl extends AbstractCentralCache {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
 
     //缓存时间
     private final int expire;
@@ -17,12 +47,67 @@ public class MemcachedImpl extends AbstractCache {
     private final boolean isDynamic;
     //Memcache对象
     private final MemcachedClient memcachedClient;
+    //value的编解码（默认使用MemcachedClient的Transcoder）
+    private Transcoder<Object> transcoder;
+    //读取（以及acknowledged模式下写入）的最长等待时间（单位：毫秒）
+    private long timeout;
+    //写入时是否等待确认
+    private boolean acknowledged;
+
+    private final LongAdder timeoutCount = new LongAdder();
+
+    private final LongAdder failureCount = new LongAdder();
 
     public MemcachedImpl(String name, int expire, boolean isDynamic, MemcachedClient memcachedClient) {
         this.name = name;
         this.expire = expire;
         this.isDynamic = isDynamic;
         this.memcachedClient = memcachedClient;
+        this.transcoder = memcachedClient.getTranscoder();
+        this.timeout = CacheConstant.DEFAULT_MEMCACHED_TIMEOUT;
+    }
+
+    public int getExpire() {
+        return expire;
+    }
+
+    public boolean isDynamic() {
+        return isDynamic;
+    }
+
+    public Transcoder<Object> getTranscoder() {
+        return transcoder;
+    }
+
+    public void setTranscoder(Transcoder<Object> transcoder) {
+        this.transcoder = transcoder;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout 小于等于0时使用默认值
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout > 0 ? timeout : CacheConstant.DEFAULT_MEMCACHED_TIMEOUT;
+    }
+
+    public boolean isAcknowledged() {
+        return acknowledged;
+    }
+
+    public void setAcknowledged(boolean acknowledged) {
+        this.acknowledged = acknowledged;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
     }
 
     @Override
@@ -31,34 +116,206 @@ public class MemcachedImpl extends AbstractCache {
     }
 
     @Override
-    public void clear() {
+    public void clearCentralCache() {
         this.memcachedClient.flush();
     }
 
+    /**
+     * Memcached的incr只能操作数字字符串，不存在时以当前时间戳初始化
+     *
+     * @param namespace
+     * @return
+     */
+    @Override
+    protected long loadGeneration(String namespace) {
+        return this.memcachedClient.incr(this.generationKey(namespace), 0, System.currentTimeMillis());
+    }
+
+    @Override
+    protected long incrementGeneration(String namespace) {
+        return this.memcachedClient.incr(this.generationKey(namespace), 1, System.currentTimeMillis() + 1);
+    }
+
     @Override
-    public void evict(Object key) {
-        if (key == null) {
+    public void evictCentralCache(Object key) {
+        String newKey = this.newCacheKey(key).toString();
+        this.write(() -> this.memcachedClient.delete(newKey));
+    }
+
+    /**
+     * 批量删除
+     *
+     * spymemcached的delete是异步操作，多个delete会在同一个I/O线程中批量写出，这里不等待返回结果
+     *
+     * @param keys
+     */
+    @Override
+    public void evictCentralCaches(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
             return;
         }
-        String newKey = KeyUtils.newKey(this.name, key);
-        this.memcachedClient.delete(newKey);
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            String newKey = this.newCacheKey(key).toString();
+            this.write(() -> this.memcachedClient.delete(newKey));
+        }
     }
 
     @Override
     protected Object getValue(Object key) {
-        String newKey = KeyUtils.newKey(this.name, key);
-        return this.memcachedClient.get(newKey);
+        String newKey = this.newCacheKey(key).toString();
+        GetFuture<Object> future;
+        try {
+            future = this.memcachedClient.asyncGet(newKey, this.transcoder);
+        } catch (RuntimeException e) {
+            //提交失败（如：队列已满），视为未命中
+            this.failureCount.increment();
+            LoggerUtils.error(logger, e);
+            return null;
+        }
+        try {
+            return future.get(this.timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            this.timeoutCount.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+        } catch (ExecutionException | RuntimeException e) {
+            this.failureCount.increment();
+            LoggerUtils.error(logger, e);
+        }
+        return null;
     }
 
+    /**
+     * 批量获取：asyncGetBulk一次I/O获取所有key，超时后返回已经收到的部分数据
+     *
+     * @param keys
+     * @return
+     */
     @Override
-    protected void setValue(Object key, Object value) {
-        String newKey = KeyUtils.newKey(this.name, key);
-        if (expire <= 0) {
-            //如果expire小于等于0，则设置过期时间为0，即：永不失效
-            this.memcachedClient.set(newKey, 0, value);
-        } else {
-            //ThreadLocalRandom.current()比new Random()获取随机数更高效（随机区间：1 ~ expire）
-            this.memcachedClient.set(newKey, isDynamic ? ThreadLocalRandom.current().nextInt(1, expire) : expire, value);
+    protected Map<Object, Object> getValues(Collection<?> keys) {
+        //newKey -> key
+        Map<String, Object> newKeys = Maps.newLinkedHashMap();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            newKeys.put(this.newCacheKey(key).toString(), key);
+        }
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        Map<String, Object> cacheValues;
+        BulkFuture<Map<String, Object>> future;
+        try {
+            future = this.memcachedClient.asyncGetBulk(newKeys.keySet(), this.transcoder);
+        } catch (RuntimeException e) {
+            this.failureCount.increment();
+            LoggerUtils.error(logger, e);
+            return values;
+        }
+        try {
+            cacheValues = future.getSome(this.timeout, TimeUnit.MILLISECONDS);
+            if (future.isTimeout()) {
+                this.timeoutCount.increment();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return values;
+        } catch (ExecutionException | RuntimeException e) {
+            this.failureCount.increment();
+            LoggerUtils.error(logger, e);
+            return values;
         }
+        if (cacheValues == null) {
+            return values;
+        }
+        for (Map.Entry<String, Object> entry : cacheValues.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            values.put(newKeys.get(entry.getKey()), entry.getValue());
+        }
+        return values;
+    }
+
+    /**
+     * spymemcached的set是异步操作，多个set会在同一个I/O线程中批量写出
+     * 所以批量设置直接使用AbstractCentralCache中逐个调用setCentralCache的默认实现即可
+     *
+     * @param key
+     * @param value
+     */
+    @Override
+    public void setCentralCache(Object key, Object value) {
+        this.set(key, value);
+    }
+
+    /**
+     * transcoder是MemcachedTranscoder时，传入SerializedValue，编码时复用一次写操作中已经序列化的结果
+     * spymemcached默认的Transcoder使用自己的序列化格式，不能共享
+     *
+     * @param key
+     * @param value
+     * @param serializedValue
+     */
+    @Override
+    public void setCentralCache(Object key, Object value, SerializedValue serializedValue) {
+        this.set(key, serializedValue != null && this.transcoder instanceof MemcachedTranscoder ? serializedValue : value);
+    }
+
+    /**
+     * @param key
+     * @param value 数据，或者数据的序列化结果（SerializedValue，只有MemcachedTranscoder支持）
+     */
+    private void set(Object key, Object value) {
+        String newKey = this.newCacheKey(key).toString();
+        //如果expire小于等于0，则设置过期时间为0，即：永不失效
+        //ThreadLocalRandom.current()比new Random()获取随机数更高效（随机区间：1 ~ expire）
+        int exp = expire <= 0 ? 0 : (isDynamic ? ThreadLocalRandom.current().nextInt(1, expire) : expire);
+        this.write(() -> this.memcachedClient.set(newKey, exp, value, this.transcoder));
+    }
+
+    /**
+     * 提交写操作，acknowledged模式下等待写入结果，写入失败不抛出异常（与读取一致，不影响业务方法）
+     *
+     * @param operation
+     */
+    private void write(WriteOperation operation) {
+        OperationFuture<Boolean> future;
+        try {
+            future = operation.submit();
+        } catch (RuntimeException e) {
+            this.failureCount.increment();
+            LoggerUtils.error(logger, e);
+            return;
+        }
+        if (!this.acknowledged) {
+            return;
+        }
+        try {
+            if (!Boolean.TRUE.equals(future.get(this.timeout, TimeUnit.MILLISECONDS))) {
+                this.failureCount.increment();
+            }
+        } catch (TimeoutException e) {
+            this.timeoutCount.increment();
+            this.failureCount.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RuntimeException e) {
+            this.failureCount.increment();
+            LoggerUtils.error(logger, e);
+        }
+    }
+
+    private String generationKey(String namespace) {
+        return this.name + "#generation&" + namespace;
+    }
+
+    private interface WriteOperation {
+        OperationFuture<Boolean> submit();
     }
 }
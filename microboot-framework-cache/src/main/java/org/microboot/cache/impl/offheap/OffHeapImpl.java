@@ -0,0 +1,128 @@
+package org.microboot.cache.impl.offheap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.func.LocalCacheEntryFunc;
+import org.microboot.cache.func.SerializerFunc;
+import org.microboot.cache.impl.AbstractLocalCache;
+import org.microboot.cache.utils.KeyUtils;
+import org.microboot.cache.utils.LocalCacheValueUtils;
+import org.microboot.core.utils.LoggerUtils;
+
+/**
+ * @author 胡鹏
+ *
+ * 堆外内存的本地缓存
+ *
+ * 数据序列化后存放在direct ByteBuffer中（见OffHeapStore），不占用堆内存，大量缓存数据时不会拉长老年代GC的停顿时间
+ * 代价是每次读取都要反序列化，适合数据量大，单条数据读取不是特别频繁的场景
+ *
+ * value的格式见LocalCacheValueUtils，与本地缓存快照的数据格式一致，快照和恢复时直接复制字节数组
+ *
+ * 注意：堆外内存的上限受-XX:MaxDirectMemorySize限制，需要大于cache.offheap.max-memory
+ */
+public class OffHeapImpl extends AbstractLocalCache {
+
+    private final Logger logger = LogManager.getLogger(this.getClass());
+
+    private final OffHeapStore offHeapStore;
+
+    private final SerializerFunc serializerFunc;
+
+    public OffHeapImpl(String name, OffHeapStore offHeapStore, SerializerFunc serializerFunc) {
+        this.name = name;
+        this.offHeapStore = offHeapStore;
+        this.serializerFunc = serializerFunc;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this.offHeapStore;
+    }
+
+    @Override
+    protected Object getValue(Object key) {
+        byte[] bytes = this.offHeapStore.get(this.newKey(key));
+        if (bytes == null) {
+            return null;
+        }
+        return LocalCacheValueUtils.fromBytes(bytes, this.serializerFunc);
+    }
+
+    @Override
+    public void clearLocalCache() {
+        this.offHeapStore.clear();
+    }
+
+    @Override
+    public void evictLocalCache(Object key) {
+        this.offHeapStore.remove(this.newKey(key));
+    }
+
+    /**
+     * 不复制和反序列化数据，也不设置CLOCK的访问位
+     *
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean containsLocalCache(Object key) {
+        return this.offHeapStore.containsKey(this.newKey(key));
+    }
+
+    /**
+     * 序列化失败时不缓存（同时删除老数据），不影响业务方法的执行
+     *
+     * @param key
+     * @param value
+     */
+    @Override
+    public void setLocalCache(Object key, Object value) {
+        this.setLocalCache(key, value, null);
+    }
+
+    /**
+     * 序列化方式与CacheImpl一致时，直接使用同一次写操作中已经序列化的数据
+     *
+     * @param key
+     * @param value
+     * @param serializedValue
+     */
+    @Override
+    protected void setLocalCache(Object key, Object value, SerializedValue serializedValue) {
+        byte[] newKey = this.newKey(key);
+        byte[] bytes;
+        try {
+            bytes = LocalCacheValueUtils.toBytes(value, serializedValue, this.serializerFunc);
+        } catch (Exception e) {
+            LoggerUtils.error(logger, e);
+            this.offHeapStore.remove(newKey);
+            return;
+        }
+        this.offHeapStore.put(newKey, bytes);
+    }
+
+    /**
+     * 存储的已经是快照的数据格式，直接复制字节数组，不需要再序列化
+     *
+     * @param entryFunc
+     * @param serializerFunc
+     * @return
+     * @throws Exception
+     */
+    @Override
+    public boolean snapshot(LocalCacheEntryFunc entryFunc, SerializerFunc serializerFunc) throws Exception {
+        this.offHeapStore.forEach(entryFunc);
+        return true;
+    }
+
+    @Override
+    public boolean restore(byte[] key, byte[] value, long expireAt, SerializerFunc serializerFunc) {
+        return this.offHeapStore.put(key, value, expireAt);
+    }
+
+    private byte[] newKey(Object key) {
+        return KeyUtils.newCacheKey(this.name, key).getBytes();
+    }
+}
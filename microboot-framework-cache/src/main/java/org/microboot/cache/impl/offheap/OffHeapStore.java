@@ -0,0 +1,665 @@
+package org.microboot.cache.impl.offheap;
+
+import com.google.common.collect.Lists;
+import org.microboot.cache.func.LocalCacheEntryFunc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author 胡鹏
+ *
+ * 堆外内存的key-value存储，key和value都是序列化后的字节数组
+ *
+ * 1、分段：按key的hash分成多个Segment，每个Segment一把锁（读写都加锁，降低锁粒度靠Segment的数量）
+ * 2、slab分配：每个Segment按页（direct ByteBuffer）申请内存，页按需申请，总量不超过maxMemory
+ *    每一页只属于一个规格（chunk大小从64字节开始按2倍递增），页被切分成等长的chunk，一个chunk存一条数据
+ * 3、索引：每个Segment一个开放寻址（线性探测）的哈希表，保存hash和chunk的地址（页号 << 16 | chunk号）
+ * 4、淘汰：同一规格内按CLOCK算法淘汰（读取时设置访问位，淘汰时跳过访问位为1的chunk并清零）
+ *    某个规格一页都没有且没有剩余内存时，从页数最多的规格中回收一页
+ * 5、过期：写入时记录过期时间，读取时发现过期则删除
+ *
+ * chunk的格式：访问位(1) + key长度(4) + value长度(4) + 过期时间(8) + key + value
+ * 大于一页的数据不缓存
+ */
+public class OffHeapStore {
+
+    private static final int HEADER_SIZE = 17;
+
+    private static final int REF_OFFSET = 0;
+
+    private static final int KEY_LENGTH_OFFSET = 1;
+
+    private static final int VALUE_LENGTH_OFFSET = 5;
+
+    private static final int EXPIRE_AT_OFFSET = 9;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    //索引中的空位和删除标记，chunk的地址都是非负数
+    private static final int EMPTY = -1;
+
+    private static final int DELETED = -2;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    private final int pageSize;
+
+    //过期时间（毫秒），小于等于0时不过期
+    private final long ttl;
+
+    /******************************************** 统计 **********************************************/
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder putCount = new LongAdder();
+    //因为内存不足被淘汰的数量
+    private final LongAdder evictionCount = new LongAdder();
+    //因为过期被删除的数量
+    private final LongAdder expiredCount = new LongAdder();
+    //数据太大或者没有可用内存，没有缓存的数量
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * @param maxMemory   最大使用的堆外内存（字节）
+     * @param segmentCount Segment的数量，会调整为2的幂
+     * @param pageSize    页的大小（字节），范围：64KB ~ 4MB
+     * @param ttl         过期时间（毫秒），小于等于0时不过期
+     */
+    public OffHeapStore(long maxMemory, int segmentCount, int pageSize, long ttl) {
+        if (pageSize < 64 * 1024 || pageSize > 4 * 1024 * 1024) {
+            throw new IllegalArgumentException("pageSize must be between 64KB and 4MB");
+        }
+        int count = Integer.highestOneBit(Math.max(1, Math.min(segmentCount, 1 << 16)));
+        this.pageSize = pageSize;
+        this.ttl = ttl;
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        this.segments = new Segment[count];
+        int maxPages = (int) Math.max(1, Math.min(Short.MAX_VALUE, maxMemory / count / pageSize));
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment(maxPages);
+        }
+    }
+
+    public byte[] get(byte[] key) {
+        int hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+        segment.lock.lock();
+        try {
+            byte[] value = segment.get(hash, key);
+            if (value == null) {
+                this.missCount.increment();
+            } else {
+                this.hitCount.increment();
+            }
+            return value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 数据是否存在并且没有过期
+     *
+     * 与get不同：不复制数据，不设置CLOCK的访问位，不计入命中统计
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(byte[] key) {
+        int hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+        segment.lock.lock();
+        try {
+            return segment.containsKey(hash, key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return false：数据太大或者没有可用内存，数据没有缓存（key原来的数据也会被删除）
+     */
+    public boolean put(byte[] key, byte[] value) {
+        return this.put(key, value, this.ttl > 0 ? System.currentTimeMillis() + this.ttl : 0L);
+    }
+
+    /**
+     * 指定过期时间写入（从本地缓存快照恢复），过期时间不会超过ttl
+     *
+     * @param key
+     * @param value
+     * @param expireAt 过期时间（毫秒时间戳），小于等于0时不过期
+     * @return false：数据太大或者没有可用内存，数据没有缓存（key原来的数据也会被删除）
+     */
+    public boolean put(byte[] key, byte[] value, long expireAt) {
+        if (this.ttl > 0) {
+            long maxExpireAt = System.currentTimeMillis() + this.ttl;
+            expireAt = expireAt > 0 ? Math.min(expireAt, maxExpireAt) : maxExpireAt;
+        }
+        this.putCount.increment();
+        int hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+        segment.lock.lock();
+        try {
+            if (segment.put(hash, key, value, expireAt)) {
+                return true;
+            }
+            segment.remove(hash, key);
+            this.rejectedCount.increment();
+            return false;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void remove(byte[] key) {
+        int hash = hash(key);
+        Segment segment = this.segmentFor(hash);
+        segment.lock.lock();
+        try {
+            segment.remove(hash, key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * 遍历所有未过期的数据（本地缓存快照）
+     *
+     * 每次只锁一个Segment，并且先复制出这个Segment的数据再调用entryFunc，entryFunc中的I/O不会阻塞读写
+     *
+     * @param entryFunc
+     * @throws Exception
+     */
+    public void forEach(LocalCacheEntryFunc entryFunc) throws Exception {
+        List<byte[][]> entries = Lists.newArrayList();
+        List<Long> expireAts = Lists.newArrayList();
+        for (Segment segment : this.segments) {
+            segment.lock.lock();
+            try {
+                segment.copyTo(entries, expireAts);
+            } finally {
+                segment.lock.unlock();
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                entryFunc.accept(entries.get(i)[0], entries.get(i)[1], expireAts.get(i));
+            }
+            entries.clear();
+            expireAts.clear();
+        }
+    }
+
+    /**
+     * 清空所有数据，并释放所有的页（direct ByteBuffer在GC时回收）
+     */
+    public void clear() {
+        for (Segment segment : this.segments) {
+            segment.lock.lock();
+            try {
+                segment.reset();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (Segment segment : this.segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    public long getAllocatedMemory() {
+        long pages = 0;
+        for (Segment segment : this.segments) {
+            pages += segment.pages.size();
+        }
+        return pages * this.pageSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getPutCount() {
+        return putCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    private Segment segmentFor(int hash) {
+        return this.segmentShift == 32 ? this.segments[0] : this.segments[hash >>> this.segmentShift];
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 同一规格的页和空闲chunk
+     */
+    private static final class SizeClass {
+
+        private final int chunkSize;
+
+        private final int chunksPerPage;
+
+        private final List<Integer> pages = Lists.newArrayList();
+
+        private int[] free = new int[16];
+
+        private int freeCount;
+
+        //CLOCK指针（规格内chunk的序号）
+        private int hand;
+
+        private SizeClass(int chunkSize, int pageSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerPage = pageSize / chunkSize;
+        }
+
+        private void pushFree(int address) {
+            if (this.freeCount == this.free.length) {
+                this.free = Arrays.copyOf(this.free, this.freeCount * 2);
+            }
+            this.free[this.freeCount++] = address;
+        }
+
+        private int popFree() {
+            return this.freeCount == 0 ? EMPTY : this.free[--this.freeCount];
+        }
+    }
+
+    private final class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final int maxPages;
+
+        private final List<ByteBuffer> pages = Lists.newArrayList();
+
+        //页号 -> 规格
+        private final List<SizeClass> pageClasses = Lists.newArrayList();
+
+        private SizeClass[] sizeClasses;
+
+        private int[] addresses;
+
+        private int[] hashes;
+
+        private int count;
+
+        //count + 删除标记的数量
+        private int used;
+
+        private Segment(int maxPages) {
+            this.maxPages = maxPages;
+            this.reset();
+        }
+
+        private void reset() {
+            List<SizeClass> classes = Lists.newArrayList();
+            for (int chunkSize = MIN_CHUNK_SIZE; chunkSize <= pageSize; chunkSize <<= 1) {
+                classes.add(new SizeClass(chunkSize, pageSize));
+            }
+            this.sizeClasses = classes.toArray(new SizeClass[0]);
+            this.pages.clear();
+            this.pageClasses.clear();
+            this.addresses = new int[16];
+            Arrays.fill(this.addresses, EMPTY);
+            this.hashes = new int[16];
+            this.count = 0;
+            this.used = 0;
+        }
+
+        private byte[] get(int hash, byte[] key) {
+            int slot = this.find(hash, key);
+            if (slot < 0) {
+                return null;
+            }
+            int address = this.addresses[slot];
+            ByteBuffer page = this.page(address);
+            int offset = this.offset(address);
+            long expireAt = page.getLong(offset + EXPIRE_AT_OFFSET);
+            if (expireAt > 0 && expireAt <= System.currentTimeMillis()) {
+                this.removeSlot(slot);
+                expiredCount.increment();
+                return null;
+            }
+            page.put(offset + REF_OFFSET, (byte) 1);
+            int keyLength = page.getInt(offset + KEY_LENGTH_OFFSET);
+            byte[] value = new byte[page.getInt(offset + VALUE_LENGTH_OFFSET)];
+            page.position(offset + HEADER_SIZE + keyLength);
+            page.get(value);
+            return value;
+        }
+
+        private boolean containsKey(int hash, byte[] key) {
+            int slot = this.find(hash, key);
+            if (slot < 0) {
+                return false;
+            }
+            int address = this.addresses[slot];
+            long expireAt = this.page(address).getLong(this.offset(address) + EXPIRE_AT_OFFSET);
+            return expireAt <= 0 || expireAt > System.currentTimeMillis();
+        }
+
+        private boolean put(int hash, byte[] key, byte[] value, long expireAt) {
+            long size = (long) HEADER_SIZE + key.length + value.length;
+            SizeClass sizeClass = this.sizeClassFor(size);
+            if (sizeClass == null) {
+                return false;
+            }
+            int address = this.allocate(sizeClass);
+            if (address < 0) {
+                return false;
+            }
+            ByteBuffer page = this.page(address);
+            int offset = this.offset(address);
+            page.put(offset + REF_OFFSET, (byte) 0);
+            page.putInt(offset + KEY_LENGTH_OFFSET, key.length);
+            page.putInt(offset + VALUE_LENGTH_OFFSET, value.length);
+            page.putLong(offset + EXPIRE_AT_OFFSET, Math.max(0L, expireAt));
+            page.position(offset + HEADER_SIZE);
+            page.put(key);
+            page.put(value);
+            //allocate可能淘汰数据并改变索引，所以这里重新查找
+            int slot = this.find(hash, key);
+            if (slot >= 0) {
+                this.free(this.addresses[slot]);
+                this.addresses[slot] = address;
+                return true;
+            }
+            this.insert(hash, address);
+            return true;
+        }
+
+        private void copyTo(List<byte[][]> entries, List<Long> expireAts) {
+            long now = System.currentTimeMillis();
+            for (int address : this.addresses) {
+                if (address < 0) {
+                    continue;
+                }
+                ByteBuffer page = this.page(address);
+                int offset = this.offset(address);
+                long expireAt = page.getLong(offset + EXPIRE_AT_OFFSET);
+                if (expireAt > 0 && expireAt <= now) {
+                    continue;
+                }
+                byte[] key = new byte[page.getInt(offset + KEY_LENGTH_OFFSET)];
+                byte[] value = new byte[page.getInt(offset + VALUE_LENGTH_OFFSET)];
+                page.position(offset + HEADER_SIZE);
+                page.get(key);
+                page.get(value);
+                entries.add(new byte[][]{key, value});
+                expireAts.add(expireAt);
+            }
+        }
+
+        private void remove(int hash, byte[] key) {
+            int slot = this.find(hash, key);
+            if (slot >= 0) {
+                this.removeSlot(slot);
+            }
+        }
+
+        private int find(int hash, byte[] key) {
+            int mask = this.addresses.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int address = this.addresses[slot];
+                if (address == EMPTY) {
+                    return -1;
+                }
+                if (address != DELETED && this.hashes[slot] == hash && this.keyEquals(address, key)) {
+                    return slot;
+                }
+            }
+        }
+
+        private int findAddress(int hash, int address) {
+            int mask = this.addresses.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                if (this.addresses[slot] == EMPTY) {
+                    return -1;
+                }
+                if (this.addresses[slot] == address) {
+                    return slot;
+                }
+            }
+        }
+
+        private void insert(int hash, int address) {
+            if ((this.used + 1) * 4L > this.addresses.length * 3L) {
+                this.rehash();
+            }
+            int mask = this.addresses.length - 1;
+            int slot = hash & mask;
+            while (this.addresses[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            if (this.addresses[slot] == EMPTY) {
+                this.used++;
+            }
+            this.addresses[slot] = address;
+            this.hashes[slot] = hash;
+            this.count++;
+        }
+
+        /**
+         * 扩容（或者只清理删除标记），保证装载因子不超过0.5
+         */
+        private void rehash() {
+            int capacity = Integer.highestOneBit(Math.max(16, (this.count + 1) * 2)) << 1;
+            int[] oldAddresses = this.addresses;
+            int[] oldHashes = this.hashes;
+            this.addresses = new int[capacity];
+            Arrays.fill(this.addresses, EMPTY);
+            this.hashes = new int[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] < 0) {
+                    continue;
+                }
+                int slot = oldHashes[i] & mask;
+                while (this.addresses[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                this.addresses[slot] = oldAddresses[i];
+                this.hashes[slot] = oldHashes[i];
+            }
+            this.used = this.count;
+        }
+
+        private void removeSlot(int slot) {
+            this.free(this.addresses[slot]);
+            this.addresses[slot] = DELETED;
+            this.count--;
+        }
+
+        private SizeClass sizeClassFor(long size) {
+            for (SizeClass sizeClass : this.sizeClasses) {
+                if (size <= sizeClass.chunkSize) {
+                    return sizeClass;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * 分配chunk的顺序：空闲chunk -> 申请新页 -> 同规格内CLOCK淘汰 -> 从其他规格回收一页
+         *
+         * @param sizeClass
+         * @return
+         */
+        private int allocate(SizeClass sizeClass) {
+            int address = sizeClass.popFree();
+            if (address >= 0) {
+                return address;
+            }
+            if (this.pages.size() < this.maxPages) {
+                int pageIndex = this.pages.size();
+                this.pages.add(ByteBuffer.allocateDirect(pageSize));
+                this.pageClasses.add(sizeClass);
+                this.format(pageIndex, sizeClass);
+                return sizeClass.popFree();
+            }
+            if (!sizeClass.pages.isEmpty()) {
+                return this.evict(sizeClass);
+            }
+            SizeClass victim = null;
+            for (SizeClass candidate : this.sizeClasses) {
+                if (victim == null || candidate.pages.size() > victim.pages.size()) {
+                    victim = candidate;
+                }
+            }
+            if (victim == null || victim.pages.isEmpty()) {
+                return EMPTY;
+            }
+            int pageIndex = victim.pages.get(victim.pages.size() - 1);
+            this.reclaim(pageIndex, victim);
+            this.pageClasses.set(pageIndex, sizeClass);
+            this.format(pageIndex, sizeClass);
+            return sizeClass.popFree();
+        }
+
+        private void format(int pageIndex, SizeClass sizeClass) {
+            ByteBuffer page = this.pages.get(pageIndex);
+            sizeClass.pages.add(pageIndex);
+            for (int chunk = sizeClass.chunksPerPage - 1; chunk >= 0; chunk--) {
+                page.putInt(chunk * sizeClass.chunkSize + KEY_LENGTH_OFFSET, -1);
+                sizeClass.pushFree(pageIndex << 16 | chunk);
+            }
+        }
+
+        /**
+         * CLOCK：跳过访问位为1的chunk（并清零），淘汰第一个访问位为0或者已经过期的chunk
+         *
+         * @param sizeClass
+         * @return
+         */
+        private int evict(SizeClass sizeClass) {
+            int total = sizeClass.pages.size() * sizeClass.chunksPerPage;
+            long now = System.currentTimeMillis();
+            for (int step = 0; step < total * 2; step++) {
+                int ordinal = sizeClass.hand % total;
+                sizeClass.hand = (ordinal + 1) % total;
+                int address = sizeClass.pages.get(ordinal / sizeClass.chunksPerPage) << 16 | (ordinal % sizeClass.chunksPerPage);
+                ByteBuffer page = this.page(address);
+                int offset = this.offset(address);
+                if (page.getInt(offset + KEY_LENGTH_OFFSET) < 0) {
+                    continue;
+                }
+                long expireAt = page.getLong(offset + EXPIRE_AT_OFFSET);
+                boolean expired = expireAt > 0 && expireAt <= now;
+                if (!expired && page.get(offset + REF_OFFSET) != 0) {
+                    page.put(offset + REF_OFFSET, (byte) 0);
+                    continue;
+                }
+                this.unlink(address);
+                if (expired) {
+                    expiredCount.increment();
+                } else {
+                    evictionCount.increment();
+                }
+                return sizeClass.popFree();
+            }
+            return EMPTY;
+        }
+
+        /**
+         * 回收一页：删除页中所有的数据，并从原规格中移除这一页
+         *
+         * @param pageIndex
+         * @param sizeClass
+         */
+        private void reclaim(int pageIndex, SizeClass sizeClass) {
+            for (int chunk = 0; chunk < sizeClass.chunksPerPage; chunk++) {
+                int address = pageIndex << 16 | chunk;
+                if (this.page(address).getInt(this.offset(address) + KEY_LENGTH_OFFSET) >= 0) {
+                    this.unlink(address);
+                    evictionCount.increment();
+                }
+            }
+            int freeCount = 0;
+            for (int i = 0; i < sizeClass.freeCount; i++) {
+                if (sizeClass.free[i] >>> 16 != pageIndex) {
+                    sizeClass.free[freeCount++] = sizeClass.free[i];
+                }
+            }
+            sizeClass.freeCount = freeCount;
+            sizeClass.pages.remove(Integer.valueOf(pageIndex));
+            sizeClass.hand = 0;
+        }
+
+        /**
+         * 删除chunk中的数据，同时删除索引
+         *
+         * @param address
+         */
+        private void unlink(int address) {
+            ByteBuffer page = this.page(address);
+            int offset = this.offset(address);
+            byte[] key = new byte[page.getInt(offset + KEY_LENGTH_OFFSET)];
+            page.position(offset + HEADER_SIZE);
+            page.get(key);
+            int slot = this.findAddress(hash(key), address);
+            if (slot >= 0) {
+                this.removeSlot(slot);
+            } else {
+                this.free(address);
+            }
+        }
+
+        private void free(int address) {
+            this.page(address).putInt(this.offset(address) + KEY_LENGTH_OFFSET, -1);
+            this.pageClasses.get(address >>> 16).pushFree(address);
+        }
+
+        private boolean keyEquals(int address, byte[] key) {
+            ByteBuffer page = this.page(address);
+            int offset = this.offset(address);
+            if (page.getInt(offset + KEY_LENGTH_OFFSET) != key.length) {
+                return false;
+            }
+            int keyOffset = offset + HEADER_SIZE;
+            for (int i = 0; i < key.length; i++) {
+                if (page.get(keyOffset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private ByteBuffer page(int address) {
+            return this.pages.get(address >>> 16);
+        }
+
+        private int offset(int address) {
+            return (address & 0xFFFF) * this.pageClasses.get(address >>> 16).chunkSize;
+        }
+    }
+}
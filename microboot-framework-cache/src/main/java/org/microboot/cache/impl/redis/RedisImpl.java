@@ -1,17 +1,49 @@
 package org.microboot.cache.impl.redis;
 
-import org.microboot.cache.impl.AbstractCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.collections.CollectionUtils;
+import org.microboot.cache.bean.RedisGenerationSweeper;
+import org.microboot.cache.bean.RedisKeySerializer;
+import org.microboot.cache.bean.RedisValueSerializer;
+import org.microboot.cache.constant.CacheConstant;
+import org.microboot.cache.entity.CacheKey;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.entity.TaggedValue;
+import org.microboot.cache.impl.AbstractCentralCache;
 import org.microboot.cache.utils.KeyUtils;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
  * @author 胡鹏
+ *
+ * 标签：每个标签对应一个Set（name#tag&缓存线名称&标签），存储带有这个标签的key（keySerializer序列化后的字节）
+ * 1、写入TaggedValue之后，通过pipeline执行SADD和EXPIRE（与数据的过期时间一致）
+ * 2、按标签删除时，SSCAN每取出tagBatchSize个key，就通过一个pipeline对这一批执行SREM和UNLINK，再继续SSCAN
+ *    客户端只保留一批key，每条命令只处理一批key，不会因为标签中的key太多而长时间阻塞Redis或占用大量内存
+ *    SSCAN期间删除元素可能漏掉少量key，扫描结束后标签中还有key时重新扫描（最多TAG_SCAN_PASSES次）
  */
-public class RedisImpl extends AbstractCache {
+public class RedisImpl extends AbstractCentralCache {
+
+    //按标签删除时，SSCAN的最大次数
+    private static final int TAG_SCAN_PASSES = 3;
 
     //缓存时间
     private final int expire;
@@ -19,12 +51,43 @@ public class RedisImpl extends AbstractCache {
     private final boolean isDynamic;
     //redisTemplate
     private final RedisTemplate redisTemplate;
+    //keySerializer是RedisKeySerializer时，直接传入CacheKey（使用其中缓存的字节），否则传入字符串
+    private final boolean cacheKeySerializer;
+    //命名空间代数的后台清理任务，为null时表示未开启
+    private RedisGenerationSweeper generationSweeper;
+    //按标签删除时，每条SREM和UNLINK命令中key的数量
+    private int tagBatchSize = CacheConstant.DEFAULT_REDIS_TAG_BATCH_SIZE;
 
     public RedisImpl(String name, int expire, boolean isDynamic, RedisTemplate redisTemplate) {
         this.name = name;
         this.expire = expire;
         this.isDynamic = isDynamic;
         this.redisTemplate = redisTemplate;
+        this.cacheKeySerializer = redisTemplate.getKeySerializer() instanceof RedisKeySerializer;
+    }
+
+    public int getExpire() {
+        return expire;
+    }
+
+    public boolean isDynamic() {
+        return isDynamic;
+    }
+
+    public RedisGenerationSweeper getGenerationSweeper() {
+        return generationSweeper;
+    }
+
+    public void setGenerationSweeper(RedisGenerationSweeper generationSweeper) {
+        this.generationSweeper = generationSweeper;
+    }
+
+    public int getTagBatchSize() {
+        return tagBatchSize;
+    }
+
+    public void setTagBatchSize(int tagBatchSize) {
+        this.tagBatchSize = Math.max(1, tagBatchSize);
     }
 
     @Override
@@ -33,7 +96,7 @@ public class RedisImpl extends AbstractCache {
     }
 
     @Override
-    public void clear() {
+    public void clearCentralCache() {
         /*
             1、不建议使用keys(*) + delete(keys)的方式清除，需要两次I/O才能完成，且来回传输大量key
             2、spring redisTemplate对redis常规操作做了一些封装，但没有封装flushall和flushdb等命令对应的方法
@@ -51,24 +114,124 @@ public class RedisImpl extends AbstractCache {
         });
     }
 
+    /**
+     * 代数直接使用RedisConnection读写（不经过keySerializer和valueSerializer），才能使用INCR
+     *
+     * @param namespace
+     * @return
+     */
     @Override
-    public void evict(Object key) {
-        if (key == null) {
-            return;
+    protected long loadGeneration(String namespace) {
+        byte[] generationKey = this.generationKey(namespace);
+        return (Long) this.redisTemplate.execute((RedisConnection redisConnection) -> loadGeneration(redisConnection, generationKey));
+    }
+
+    @Override
+    protected long incrementGeneration(String namespace) {
+        byte[] generationKey = this.generationKey(namespace);
+        return (Long) this.redisTemplate.execute((RedisConnection redisConnection) -> {
+            //先初始化，避免代数被淘汰后INCR从1开始，回到已经使用过的代数
+            loadGeneration(redisConnection, generationKey);
+            return redisConnection.incr(generationKey);
+        });
+    }
+
+    @Override
+    protected void afterClear(String namespace, long generation) {
+        if (this.generationSweeper != null) {
+            this.generationSweeper.sweep(this.name, namespace, generation);
         }
-        String newKey = KeyUtils.newKey(this.name, key);
+    }
+
+    @Override
+    protected boolean evictCentralCacheByTag(String tagKey) {
+        byte[] tagSetKey = this.tagSetKey(tagKey);
+        this.redisTemplate.execute((RedisCallback<Object>) (RedisConnection redisConnection) -> {
+            /*
+                SSCAN期间删除元素，可能漏掉少量一直存在的元素（集合缩容时）
+                所以扫描结束后标签中还有key时重新扫描，最多TAG_SCAN_PASSES次（避免持续写入时一直扫描）
+             */
+            for (int pass = 0; pass < TAG_SCAN_PASSES; pass++) {
+                this.evictTagMembers(redisConnection, tagSetKey);
+                Long size = redisConnection.sCard(tagSetKey);
+                if (size == null || size == 0) {
+                    break;
+                }
+            }
+            return null;
+        });
+        return true;
+    }
+
+    @Override
+    public void evictCentralCache(Object key) {
+        Object newKey = this.newKey(key);
         this.redisTemplate.delete(newKey);
     }
 
+    /**
+     * 批量删除：一次DEL命令删除所有key
+     *
+     * @param keys
+     */
+    @Override
+    public void evictCentralCaches(Collection<?> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return;
+        }
+        List<Object> newKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            newKeys.add(this.newKey(key));
+        }
+        this.redisTemplate.delete(newKeys);
+    }
+
     @Override
     protected Object getValue(Object key) {
-        String newKey = KeyUtils.newKey(this.name, key);
+        Object newKey = this.newKey(key);
         return this.redisTemplate.opsForValue().get(newKey);
     }
 
+    /**
+     * 批量获取：一次MGET命令获取所有key
+     *
+     * MGET返回的List与参数顺序一致，不存在的key对应的值为null
+     *
+     * @param keys
+     * @return
+     */
     @Override
-    protected void setValue(Object key, Object value) {
-        String newKey = KeyUtils.newKey(this.name, key);
+    protected Map<Object, Object> getValues(Collection<?> keys) {
+        List<Object> originalKeys = Lists.newArrayList();
+        List<Object> newKeys = Lists.newArrayList();
+        for (Object key : keys) {
+            if (key == null) {
+                continue;
+            }
+            originalKeys.add(key);
+            newKeys.add(this.newKey(key));
+        }
+        Map<Object, Object> values = Maps.newLinkedHashMap();
+        List<Object> cacheValues = this.redisTemplate.opsForValue().multiGet(newKeys);
+        if (cacheValues == null) {
+            return values;
+        }
+        for (int i = 0; i < cacheValues.size(); i++) {
+            Object cacheValue = cacheValues.get(i);
+            if (cacheValue == null) {
+                continue;
+            }
+            values.put(originalKeys.get(i), cacheValue);
+        }
+        return values;
+    }
+
+    @Override
+    public void setCentralCache(Object key, Object value) {
+        Object newKey = this.newKey(key);
         if (expire <= 0) {
             //如果expire小于等于0，则不设置过期时间，即：永不失效
             this.redisTemplate.opsForValue().set(newKey, value);
@@ -76,5 +239,169 @@ public class RedisImpl extends AbstractCache {
             //ThreadLocalRandom.current()比new Random()获取随机数更高效（随机区间：1 ~ expire）
             this.redisTemplate.opsForValue().set(newKey, value, isDynamic ? ThreadLocalRandom.current().nextInt(1, expire) : expire, TimeUnit.SECONDS);
         }
+        this.tag(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * valueSerializer是RedisValueSerializer时，复用一次写操作中已经序列化的结果（需要时再压缩），直接通过RedisConnection写入
+     *
+     * @param key
+     * @param value
+     * @param serializedValue
+     */
+    @Override
+    public void setCentralCache(Object key, Object value, SerializedValue serializedValue) {
+        if (serializedValue == null || !(this.redisTemplate.getValueSerializer() instanceof RedisValueSerializer)) {
+            this.setCentralCache(key, value);
+            return;
+        }
+        RedisSerializer keySerializer = this.redisTemplate.getKeySerializer();
+        byte[] rawKey = keySerializer.serialize(this.newKey(key));
+        byte[] rawValue = ((RedisValueSerializer) this.redisTemplate.getValueSerializer()).serialize(serializedValue);
+        this.redisTemplate.execute((RedisCallback<Object>) (RedisConnection redisConnection) -> {
+            if (expire <= 0) {
+                redisConnection.set(rawKey, rawValue);
+            } else {
+                redisConnection.setEx(rawKey, isDynamic ? ThreadLocalRandom.current().nextInt(1, expire) : expire, rawValue);
+            }
+            return null;
+        });
+        this.tag(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * 批量设置：使用pipeline一次I/O发送所有SET命令
+     *
+     * 没有使用MSET，因为MSET不能给每个key单独设置过期时间
+     *
+     * @param map
+     */
+    @Override
+    public void setCentralCaches(Map<Object, Object> map) {
+        this.redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                for (Map.Entry<Object, Object> entry : map.entrySet()) {
+                    K newKey = (K) newKey(entry.getKey());
+                    V value = (V) entry.getValue();
+                    if (expire <= 0) {
+                        operations.opsForValue().set(newKey, value);
+                    } else {
+                        operations.opsForValue().set(newKey, value, isDynamic ? ThreadLocalRandom.current().nextInt(1, expire) : expire, TimeUnit.SECONDS);
+                    }
+                }
+                //executePipelined要求SessionCallback必须返回null
+                return null;
+            }
+        });
+        this.tag(map);
+    }
+
+    /**
+     * 数据写入之后再写入标签（与evictCentralCacheByTag并发时，要么数据被删除，要么key留在标签中）
+     *
+     * @param map
+     */
+    private void tag(Map<Object, Object> map) {
+        //标签key -> 带有这个标签的key
+        Map<String, List<byte[]>> tagMembers = Maps.newLinkedHashMap();
+        RedisSerializer keySerializer = this.redisTemplate.getKeySerializer();
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof CacheKey) || !(entry.getValue() instanceof TaggedValue)) {
+                continue;
+            }
+            List<String> tags = ((TaggedValue) entry.getValue()).getTags();
+            if (CollectionUtils.isEmpty(tags)) {
+                continue;
+            }
+            String namespace = ((CacheKey) entry.getKey()).getPrefix();
+            byte[] member = keySerializer.serialize(this.newKey(entry.getKey()));
+            for (String tag : tags) {
+                tagMembers.computeIfAbsent(KeyUtils.newKey(namespace, tag), k -> Lists.newArrayList()).add(member);
+            }
+        }
+        if (tagMembers.isEmpty()) {
+            return;
+        }
+        this.redisTemplate.executePipelined((RedisCallback<Object>) (RedisConnection redisConnection) -> {
+            for (Map.Entry<String, List<byte[]>> entry : tagMembers.entrySet()) {
+                byte[] tagSetKey = this.tagSetKey(entry.getKey());
+                redisConnection.sAdd(tagSetKey, entry.getValue().toArray(new byte[0][]));
+                //标签的过期时间不小于其中任何一条数据的过期时间
+                if (expire > 0) {
+                    redisConnection.expire(tagSetKey, expire);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * SSCAN每取出tagBatchSize个key，就删除这一批，客户端只保留一批key
+     *
+     * @param redisConnection
+     * @param tagSetKey
+     */
+    private void evictTagMembers(RedisConnection redisConnection, byte[] tagSetKey) {
+        List<byte[]> batch = Lists.newArrayListWithCapacity(this.tagBatchSize);
+        ScanOptions scanOptions = ScanOptions.scanOptions().count(this.tagBatchSize).build();
+        try (Cursor<byte[]> cursor = redisConnection.sScan(tagSetKey, scanOptions)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= this.tagBatchSize) {
+                    this.evictTagBatch(redisConnection, tagSetKey, batch);
+                    batch.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!batch.isEmpty()) {
+            this.evictTagBatch(redisConnection, tagSetKey, batch);
+        }
+    }
+
+    /**
+     * 一批key的SREM和UNLINK通过一个pipeline发送，在SSCAN取下一批之前执行完成
+     *
+     * 先SREM再UNLINK：
+     * 1、UNLINK之前重新写入的数据，会被UNLINK删除
+     * 2、UNLINK之后重新写入的数据，SADD一定在SREM之后，依然留在标签中
+     *
+     * @param redisConnection
+     * @param tagSetKey
+     * @param batch
+     */
+    private void evictTagBatch(RedisConnection redisConnection, byte[] tagSetKey, List<byte[]> batch) {
+        byte[][] keys = batch.toArray(new byte[0][]);
+        redisConnection.openPipeline();
+        try {
+            redisConnection.sRem(tagSetKey, keys);
+            redisConnection.unlink(keys);
+        } finally {
+            redisConnection.closePipeline();
+        }
+    }
+
+    private Object newKey(Object key) {
+        CacheKey cacheKey = this.newCacheKey(key);
+        return this.cacheKeySerializer ? cacheKey : cacheKey.toString();
+    }
+
+    private byte[] tagSetKey(String tagKey) {
+        return (this.name + "#tag&" + tagKey).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] generationKey(String namespace) {
+        return (this.name + "#generation&" + namespace).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Long loadGeneration(RedisConnection redisConnection, byte[] generationKey) {
+        byte[] generation = redisConnection.get(generationKey);
+        if (generation == null) {
+            redisConnection.setNX(generationKey, String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+            generation = redisConnection.get(generationKey);
+        }
+        return Long.parseLong(new String(generation, StandardCharsets.UTF_8));
     }
 }
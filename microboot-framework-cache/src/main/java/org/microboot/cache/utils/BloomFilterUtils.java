@@ -0,0 +1,70 @@
+package org.microboot.cache.utils;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * @author 胡鹏
+ *
+ * 布隆过滤器的公共计算
+ *
+ * 每个key只计算一次64位的murmur3哈希，k个位置由两个32位的一半组合得到（Kirsch-Mitzenmacher）：index(i) = h1 + i * h2
+ * 所有实现使用相同的算法，进程内和Redis中同一个key对应相同的位置
+ */
+public class BloomFilterUtils {
+
+    private static final HashFunction MURMUR3 = Hashing.murmur3_128();
+
+    public static long hash(byte[] key) {
+        return MURMUR3.hashBytes(key).asLong();
+    }
+
+    /**
+     * @param hash
+     * @param i    第几个哈希函数（从1开始）
+     * @param bits 位数
+     * @return
+     */
+    public static int index(long hash, int i, int bits) {
+        int combined = (int) hash + i * (int) (hash >>> 32);
+        if (combined < 0) {
+            combined = ~combined;
+        }
+        return combined % bits;
+    }
+
+    /**
+     * 最优的位数：m = -n * ln(p) / (ln2)^2
+     *
+     * @param expectedInsertions
+     * @param fpp
+     * @return
+     */
+    public static int optimalNumOfBits(long expectedInsertions, double fpp) {
+        double bits = -Math.max(1L, expectedInsertions) * Math.log(fpp) / (Math.log(2) * Math.log(2));
+        return (int) Math.max(64L, Math.min(Integer.MAX_VALUE, (long) Math.ceil(bits)));
+    }
+
+    /**
+     * 最优的哈希函数个数：k = m / n * ln2
+     *
+     * @param expectedInsertions
+     * @param bits
+     * @return
+     */
+    public static int optimalNumOfHashFunctions(long expectedInsertions, int bits) {
+        return Math.max(1, (int) Math.round((double) bits / Math.max(1L, expectedInsertions) * Math.log(2)));
+    }
+
+    /**
+     * 写入count个key之后的误判率：(1 - e^(-k * n / m))^k
+     *
+     * @param count
+     * @param hashes
+     * @param bits
+     * @return
+     */
+    public static double expectedFpp(long count, int hashes, int bits) {
+        return Math.pow(1 - Math.exp(-(double) hashes * count / bits), hashes);
+    }
+}
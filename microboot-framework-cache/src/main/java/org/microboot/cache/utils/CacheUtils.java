@@ -1,29 +1,162 @@
 package org.microboot.cache.utils;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.microboot.cache.bean.InvalidationPublisher;
 import org.microboot.cache.entity.CacheMessage;
+import org.microboot.cache.entity.CacheValue;
+import org.microboot.cache.entity.SerializedValue;
 import org.microboot.cache.func.MQProviderFunc;
+import org.microboot.cache.func.SerializerFunc;
 import org.microboot.core.bean.ApplicationContextHolder;
 import org.microboot.core.utils.ConvertUtils;
-import org.microboot.core.utils.CryptoUtils;
+import org.springframework.util.ObjectUtils;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author 胡鹏
  */
 public class CacheUtils {
 
-    public static void clear(String uniqueId, Object key, Object value) {
-        boolean notMissing = ApplicationContextHolder.getApplicationContext().containsBean(MQProviderFunc.class.getName());
-        if (!notMissing) {
+    //逻辑计数器占用的位数
+    private static final int LOGICAL_BITS = 16;
+
+    //最近一次生成（或收到）的版本号
+    private static final AtomicLong CLOCK = new AtomicLong();
+
+    private static final HashFunction FINGERPRINT = Hashing.farmHashFingerprint64();
+
+    public static void clear(String uniqueId, Object key, Long version, Long fingerprint) {
+        if (!isMQProviderPresent()) {
+            return;
+        }
+        ApplicationContextHolder.getBean(InvalidationPublisher.class.getName(), InvalidationPublisher.class)
+                .publish(newCacheMessage(uniqueId, key, version, fingerprint));
+    }
+
+    /**
+     * 广播写入的消息，开启推送更新时小数据随消息一起发送（见InvalidationPublisher）
+     *
+     * @param uniqueId
+     * @param key
+     * @param serializedValue 写入本地缓存的数据
+     * @param version
+     * @param fingerprint
+     */
+    public static void push(String uniqueId, Object key, SerializedValue serializedValue, Long version, Long fingerprint) {
+        if (!isMQProviderPresent()) {
+            return;
+        }
+        InvalidationPublisher invalidationPublisher = ApplicationContextHolder.getBean(InvalidationPublisher.class.getName(), InvalidationPublisher.class);
+        CacheMessage cacheMessage = newCacheMessage(uniqueId, key, version, fingerprint);
+        cacheMessage.setValue(invalidationPublisher.pushValue(serializedValue));
+        invalidationPublisher.publish(cacheMessage);
+    }
+
+    /**
+     * 广播按标签删除的消息
+     *
+     * @param uniqueId
+     * @param tag      标签key（缓存线名称 & 标签）
+     * @param version
+     */
+    public static void clearByTag(String uniqueId, String tag, Long version) {
+        if (!isMQProviderPresent()) {
             return;
         }
+        CacheMessage cacheMessage = new CacheMessage();
+        cacheMessage.setUniqueId(uniqueId);
+        cacheMessage.setTag(tag);
+        cacheMessage.setVersion(version);
+        ApplicationContextHolder.getBean(InvalidationPublisher.class.getName(), InvalidationPublisher.class).publish(cacheMessage);
+    }
+
+    private static CacheMessage newCacheMessage(String uniqueId, Object key, Long version, Long fingerprint) {
         CacheMessage cacheMessage = new CacheMessage();
         cacheMessage.setUniqueId(uniqueId);
         if (key != null) {
-            cacheMessage.setKey(key);
+            //CacheKey只在进程内使用，消息中的key只用于重新构建newKey（见KeyUtils.newKey），统一使用字符串
+            cacheMessage.setKey(ObjectUtils.nullSafeToString(key));
         }
-        if (value != null) {
-            cacheMessage.setMd5(CryptoUtils.md5Hex(ConvertUtils.object2Bytes(value)));
+        cacheMessage.setVersion(version);
+        cacheMessage.setFingerprint(fingerprint);
+        return cacheMessage;
+    }
+
+    public static boolean isMQProviderPresent() {
+        return ApplicationContextHolder.getApplicationContext().containsBean(MQProviderFunc.class.getName());
+    }
+
+    /**
+     * 生成版本号（混合逻辑时钟）
+     *
+     * 高位是毫秒时间戳，低16位是逻辑计数器：
+     * 1、同一个进程内严格单调递增
+     * 2、收到其他服务的消息后会通过observeVersion推进本地时钟，保证之后生成的版本号大于消息中的版本号
+     *
+     * @return
+     */
+    public static long nextVersion() {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        while (true) {
+            long last = CLOCK.get();
+            long next = Math.max(physical, last + 1);
+            if (CLOCK.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 收到其他服务的版本号后推进本地时钟
+     *
+     * @param version
+     */
+    public static void observeVersion(long version) {
+        while (true) {
+            long last = CLOCK.get();
+            if (version <= last || CLOCK.compareAndSet(last, version)) {
+                return;
+            }
         }
-        ApplicationContextHolder.getBean(MQProviderFunc.class.getName(), MQProviderFunc.class).publish(cacheMessage);
     }
-}
\ No newline at end of file
+
+    /**
+     * 使用SerializerFunc的序列化结果，在一次写操作的各级缓存之间共享
+     *
+     * @param value
+     * @return
+     */
+    public static SerializedValue newSerializedValue(Object value) {
+        return new SerializedValue(value, ApplicationContextHolder.getBean(SerializerFunc.class.getName(), SerializerFunc.class));
+    }
+
+    public static long fingerprint(Object value) {
+        return newSerializedValue(value).getFingerprint();
+    }
+
+    /**
+     * 数据指纹
+     *
+     * 只在写入本地缓存时计算一次，与版本号一起存储在LocalCacheValue中（回填的数据在收到消息时才计算，见MQListenerFunc.fingerprint）
+     *
+     * 老版本中使用JSON序列化后计算指纹，现在直接使用SerializerFunc序列化的结果：
+     * 1、与中央缓存，OffHeapImpl，推送更新共用同一次序列化（见SerializedValue），不会重复序列化
+     * 2、SerializerFunc不支持的数据（见SerializerFunc.canSerialize，如：只使用本地缓存，且没有实现Serializable），依然使用JSON
+     * 3、数据是CacheValue（refresh-ahead，XFetch，标签）时，指纹包含整个CacheValue（writeTime等），
+     *    其他服务写入相同的数据时指纹也不同，收到消息后只会多删除一次本地缓存，不会读到旧数据
+     * 注意：不同版本的服务计算出的指纹不同，收到消息后只会多删除一次本地缓存，不会读到旧数据
+     *
+     * @param serializedValue
+     * @return
+     */
+    public static long fingerprint(SerializedValue serializedValue) {
+        Object value = serializedValue.getValue();
+        Object data = value instanceof CacheValue ? ((CacheValue) value).getValue() : value;
+        byte[] bytes = serializedValue.getSerializerFunc().canSerialize(data)
+                ? serializedValue.getBytes()
+                : ConvertUtils.object2Bytes(data);
+        return bytes != null ? FINGERPRINT.hashBytes(bytes).asLong() : 0L;
+    }
+}
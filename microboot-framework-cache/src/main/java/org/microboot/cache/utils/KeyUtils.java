@@ -1,6 +1,7 @@
 package org.microboot.cache.utils;
 
 import org.apache.commons.lang3.StringUtils;
+import org.microboot.cache.entity.CacheKey;
 import org.springframework.util.ObjectUtils;
 
 /**
@@ -11,4 +12,18 @@ public class KeyUtils {
     public static String newKey(String cacheName, Object key) {
         return cacheName + '&' + StringUtils.replace(ObjectUtils.nullSafeToString(key), StringUtils.SPACE, "");
     }
-}
\ No newline at end of file
+
+    /**
+     * 与newKey的结果一致，key是CacheKey时直接使用其中缓存的派生key，不再拼接字符串
+     *
+     * @param cacheName
+     * @param key
+     * @return
+     */
+    public static CacheKey newCacheKey(String cacheName, Object key) {
+        if (key instanceof CacheKey) {
+            return ((CacheKey) key).child(cacheName);
+        }
+        return CacheKey.of(cacheName, StringUtils.replace(ObjectUtils.nullSafeToString(key), StringUtils.SPACE, ""));
+    }
+}
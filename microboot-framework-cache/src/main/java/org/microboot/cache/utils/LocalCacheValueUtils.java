@@ -0,0 +1,54 @@
+package org.microboot.cache.utils;
+
+import org.microboot.cache.entity.LocalCacheValue;
+import org.microboot.cache.entity.SerializedValue;
+import org.microboot.cache.func.SerializerFunc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @author 胡鹏
+ *
+ * 本地缓存数据的二进制格式（OffHeapImpl的存储格式，以及本地缓存快照的数据格式）
+ *
+ * 格式：是否是LocalCacheValue(1) + version(8) + fingerprint(8) + SerializerFunc序列化后的数据
+ * 版本号和指纹放在数据外面，数据本身只用SerializerFunc序列化，不要求LocalCacheValue在CompactSerializer中注册
+ */
+public class LocalCacheValueUtils {
+
+    private static final int HEADER_SIZE = 17;
+
+    public static byte[] toBytes(Object value, SerializerFunc serializerFunc) {
+        return toBytes(value, null, serializerFunc);
+    }
+
+    /**
+     * @param value
+     * @param serializedValue 数据的序列化结果（见SerializedValue），为null或者不是同一个数据时重新序列化
+     * @param serializerFunc
+     * @return
+     */
+    public static byte[] toBytes(Object value, SerializedValue serializedValue, SerializerFunc serializerFunc) {
+        boolean isLocalCacheValue = value instanceof LocalCacheValue;
+        LocalCacheValue localCacheValue = isLocalCacheValue ? (LocalCacheValue) value : null;
+        Object data = isLocalCacheValue ? localCacheValue.getValue() : value;
+        byte[] bytes = serializedValue != null && serializedValue.getValue() == data
+                ? serializerFunc.serialize(serializedValue) : serializerFunc.serialize(data);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        buffer.put((byte) (isLocalCacheValue ? 1 : 0));
+        buffer.putLong(isLocalCacheValue ? localCacheValue.getVersion() : 0L);
+        buffer.putLong(isLocalCacheValue ? localCacheValue.getFingerprint() : 0L);
+        buffer.put(bytes);
+        return buffer.array();
+    }
+
+    public static Object fromBytes(byte[] bytes, SerializerFunc serializerFunc) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        boolean isLocalCacheValue = buffer.get() == 1;
+        long version = buffer.getLong();
+        long fingerprint = buffer.getLong();
+        Object value = serializerFunc.deserialize(Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length));
+        return isLocalCacheValue ? new LocalCacheValue(value, version, fingerprint) : value;
+    }
+}